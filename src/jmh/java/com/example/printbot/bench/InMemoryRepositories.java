@@ -0,0 +1,131 @@
+package com.example.printbot.bench;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.model.User;
+import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.repository.OrderSummary;
+import com.example.printbot.repository.OrderWriteBehind;
+import com.example.printbot.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.domain.Pageable;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Map-backed stand-ins for the Spring Data repositories, so benchmarks measure the
+ * bot and not the database. Only the methods the services call are implemented.
+ * The order store keeps the most recent {@value #MAX_ORDERS} orders so long runs do
+ * not grow the heap.
+ */
+public final class InMemoryRepositories {
+
+    private static final int MAX_ORDERS = 10_000;
+
+    private InMemoryRepositories() {
+    }
+
+    public static OrderRepository orders() {
+        ConcurrentHashMap<Long, Order> orders = new ConcurrentHashMap<>();
+        AtomicLong ids = new AtomicLong();
+        return (OrderRepository) Proxy.newProxyInstance(OrderRepository.class.getClassLoader(),
+                new Class<?>[]{OrderRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save":
+                            Order order = (Order) args[0];
+                            if (order.getId() == null) {
+                                order.setId(ids.incrementAndGet());
+                                orders.remove(order.getId() - MAX_ORDERS);
+                            }
+                            orders.put(order.getId(), order);
+                            return order;
+                        case "findById":
+                            return Optional.ofNullable(orders.get((Long) args[0]));
+                        case "findAllByUserId":
+                            List<Order> result = new ArrayList<>();
+                            for (Order stored : orders.values()) {
+                                if (args[0].equals(stored.getUserId())) {
+                                    result.add(stored);
+                                }
+                            }
+                            return result;
+                        case "findByUserIdOrderByIdDesc":
+                            return summaries(orders, (Long) args[0], Long.MAX_VALUE, true, (Pageable) args[1]);
+                        case "findByUserIdAndIdLessThanOrderByIdDesc":
+                            return summaries(orders, (Long) args[0], (Long) args[1], true, (Pageable) args[2]);
+                        case "findByUserIdAndIdGreaterThanOrderByIdAsc":
+                            return summaries(orders, (Long) args[0], (Long) args[1], false, (Pageable) args[2]);
+                        case "count":
+                            return (long) orders.size();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryOrderRepository";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static List<OrderSummary> summaries(Map<Long, Order> orders, Long userId, long cursorId,
+                                                boolean descending, Pageable pageable) {
+        Comparator<Order> byId = Comparator.comparing(Order::getId);
+        return orders.values().stream()
+                .filter(order -> userId.equals(order.getUserId()))
+                .filter(order -> descending ? order.getId() < cursorId : order.getId() > cursorId)
+                .sorted(descending ? byId.reversed() : byId)
+                .limit(pageable.getPageSize())
+                .map(OrderSummaryView::new)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * A write-behind that saves straight into the given repository, with no writer thread.
+     */
+    public static OrderWriteBehind writeBehind(OrderRepository orders) {
+        return new OrderWriteBehind(null, null, null, 1, 1, Duration.ZERO, Duration.ZERO, new SimpleMeterRegistry()) {
+            @Override
+            public CompletableFuture<Order> submit(Order order) {
+                return CompletableFuture.completedFuture(orders.save(order));
+            }
+        };
+    }
+
+    public static UserRepository users() {
+        ConcurrentHashMap<Long, User> users = new ConcurrentHashMap<>();
+        AtomicLong ids = new AtomicLong();
+        return (UserRepository) Proxy.newProxyInstance(UserRepository.class.getClassLoader(),
+                new Class<?>[]{UserRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "save":
+                            User user = (User) args[0];
+                            if (user.getId() == null) {
+                                user.setId(ids.incrementAndGet());
+                            }
+                            users.put(user.getTelegramId(), user);
+                            return user;
+                        case "findByTelegramId":
+                            return users.get((Long) args[0]);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryUserRepository";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.printbot.bench;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.repository.OrderSummary;
+
+/**
+ * {@link OrderSummary} backed by an entity, standing in for a Spring Data projection.
+ */
+final class OrderSummaryView implements OrderSummary {
+
+    private final Order order;
+
+    OrderSummaryView(Order order) {
+        this.order = order;
+    }
+
+    @Override
+    public Long getId() {
+        return order.getId();
+    }
+
+    @Override
+    public String getOrderNumber() {
+        return order.getOrderNumber();
+    }
+
+    @Override
+    public Order.Status getStatus() {
+        return order.getStatus();
+    }
+
+    @Override
+    public String getDescription() {
+        return order.getDescription();
+    }
+
+    @Override
+    public Integer getPages() {
+        return order.getPages();
+    }
+
+    @Override
+    public Double getCost() {
+        return order.getCost();
+    }
+
+    @Override
+    public String getCancelComment() {
+        return order.getCancelComment();
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.printbot.bench;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Document;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+/**
+ * Builds synthetic Telegram updates for benchmarks.
+ */
+public final class Updates {
+
+    private Updates() {
+    }
+
+    public static Update text(long chatId, String text) {
+        Message message = message(chatId);
+        message.setText(text);
+        return update(message);
+    }
+
+    public static Update document(long chatId, String fileId) {
+        Document document = new Document();
+        document.setFileId(fileId);
+        document.setFileUniqueId("unique-" + fileId);
+        document.setFileName(fileId + ".pdf");
+        document.setMimeType("application/pdf");
+        document.setFileSize(1024L * 1024L);
+        Message message = message(chatId);
+        message.setDocument(document);
+        return update(message);
+    }
+
+    public static Update callback(long chatId, String data) {
+        CallbackQuery callbackQuery = new CallbackQuery();
+        callbackQuery.setId(Long.toString(chatId));
+        callbackQuery.setFrom(new User(chatId, "bench", false));
+        callbackQuery.setMessage(message(chatId));
+        callbackQuery.setData(data);
+        Update update = new Update();
+        update.setCallbackQuery(callbackQuery);
+        return update;
+    }
+
+    private static Message message(long chatId) {
+        Message message = new Message();
+        message.setMessageId(1);
+        message.setChat(new Chat(chatId, "private"));
+        message.setFrom(new User(chatId, "bench", false));
+        return message;
+    }
+
+    private static Update update(Message message) {
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+}
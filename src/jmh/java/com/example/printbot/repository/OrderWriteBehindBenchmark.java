@@ -0,0 +1,126 @@
+package com.example.printbot.repository;
+
+import com.example.printbot.model.Order;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders stored per second against an embedded H2 database, comparing the
+ * write-behind batches with the insert-and-commit per order that an
+ * {@code IDENTITY} key forced before. Every operation waits for its order to be
+ * committed, as the bot does before it reports the order as created.
+ * <p>
+ * The default database lives in memory; pass a file URL, e.g.
+ * {@code -p url=jdbc:h2:./target/orders-bench}, to include the disk in the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class OrderWriteBehindBenchmark {
+
+    @Param({"jdbc:h2:mem:orders-bench;DB_CLOSE_DELAY=-1"})
+    public String url;
+
+    HikariDataSource dataSource;
+    JdbcTemplate jdbcTemplate;
+    TransactionTemplate transactionTemplate;
+    OrderWriteBehind writeBehind;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(20);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        jdbcTemplate.execute("drop table if exists orders");
+        jdbcTemplate.execute("drop table if exists orders_identity");
+        jdbcTemplate.execute("drop sequence if exists orders_seq");
+        jdbcTemplate.execute("create sequence orders_seq start with 1 increment by " + Order.ID_ALLOCATION_SIZE);
+        String columns = "description varchar(255), pages integer, color_pages integer, print_type varchar(255), "
+                + "color varchar(255), paper varchar(255), file_id varchar(255), file_path varchar(255), file_hash varchar(255), "
+                + "user_id bigint, cost float(53), order_number varchar(255), cancel_comment varchar(255), "
+                + "status varchar(255), version bigint";
+        jdbcTemplate.execute("create table orders (id bigint primary key, " + columns + ")");
+        jdbcTemplate.execute("create table orders_identity (id bigint generated by default as identity primary key, "
+                + columns + ")");
+
+        writeBehind = new OrderWriteBehind(jdbcTemplate, transactionManager,
+                new OrderIdAllocator(jdbcTemplate, "select next value for orders_seq"),
+                10_000, 50, Duration.ofMillis(5), Duration.ofSeconds(1), new SimpleMeterRegistry());
+        writeBehind.start();
+    }
+
+    /**
+     * Keeps the in-memory tables from growing across iterations.
+     */
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("truncate table orders");
+        jdbcTemplate.execute("truncate table orders_identity");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        writeBehind.stop();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Order writeBehind() {
+        return writeBehind.submit(newOrder()).join();
+    }
+
+    @Benchmark
+    public Long identityInsertPerOrder() {
+        Order order = newOrder();
+        return transactionTemplate.execute(status -> {
+            GeneratedKeyHolder keys = new GeneratedKeyHolder();
+            jdbcTemplate.update(connection -> {
+                PreparedStatement statement = connection.prepareStatement("insert into orders_identity "
+                        + "(description, pages, print_type, color, paper, user_id, cost, order_number, status) "
+                        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+                statement.setString(1, order.getDescription());
+                statement.setInt(2, order.getPages());
+                statement.setString(3, order.getPrintType());
+                statement.setString(4, order.getColor());
+                statement.setString(5, order.getPaper());
+                statement.setLong(6, order.getUserId());
+                statement.setDouble(7, order.getCost());
+                statement.setString(8, order.getOrderNumber());
+                statement.setString(9, order.getStatus().name());
+                return statement;
+            }, keys);
+            return keys.getKey().longValue();
+        });
+    }
+
+    private static Order newOrder() {
+        return new Order("Course notes", 12, "laser", "bw", "A4", null, 42L, 10.0, "ORDER_BENCH",
+                Order.Status.ACCEPTED);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.printbot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link OrderNumberGenerator} with the formatter-and-Random approach
+ * it replaced, under contention from several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class OrderNumberBenchmark {
+
+    private final OrderNumberGenerator generator = new OrderNumberGenerator(1);
+
+    @Benchmark
+    public long nextId() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    public String nextOrderNumber() {
+        return generator.nextOrderNumber();
+    }
+
+    @Benchmark
+    public String formatterAndRandom() {
+        String formattedDateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmm"));
+        return "ORDER_" + formattedDateTime + "_" + new Random().nextInt(1000);
+    }
+}
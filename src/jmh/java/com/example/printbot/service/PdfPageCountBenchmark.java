@@ -0,0 +1,73 @@
+package com.example.printbot.service;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PdfPageCounter} with a full PDFBox load on generated PDFs of
+ * different sizes. Run with {@code -prof gc} to see the allocation difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PdfPageCountBenchmark {
+
+    @Param({"1", "20", "200", "2000"})
+    public int pages;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void createPdf() throws IOException {
+        file = Files.createTempFile("bench-", ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("Benchmark page " + (i + 1));
+                    content.endText();
+                }
+            }
+            document.save(file.toFile());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePdf() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int streamingCounter() {
+        return PdfPageCounter.countPages(file);
+    }
+
+    @Benchmark
+    public int pdfBoxLoad() throws IOException {
+        try (PDDocument document = PDDocument.load(file.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            return document.getNumberOfPages();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many pages per second {@link PdfPreflight} inspects on a generated
+ * 400 page PDF with text and a colour box on every other page, with one thread and
+ * with one per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PdfPreflightBenchmark {
+
+    private static final int PAGES = 400;
+
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private Path file;
+    private PdfPreflight preflight;
+
+    @Setup(Level.Trial)
+    public void createPdf() throws IOException {
+        file = Files.createTempFile("bench-", ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < PAGES; i++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("Benchmark page " + (i + 1));
+                    content.endText();
+                    if (i % 2 == 1) {
+                        content.setNonStrokingColor(200, 30, 30);
+                        content.addRect(72, 400, 200, 100);
+                        content.fill();
+                    }
+                }
+            }
+            document.save(file.toFile());
+        }
+        preflight = new PdfPreflight(parallelism, Duration.ofMinutes(1), 64 << 20, 8, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePdf() throws IOException {
+        preflight.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public PdfPreflightReport inspect() {
+        return preflight.inspect(file.toFile());
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.bench.InMemoryRepositories;
+import com.example.printbot.bench.Updates;
+import com.example.printbot.model.Order;
+import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.scheduling.ExecutorRegistry;
+import com.example.printbot.scheduling.OrderScheduler;
+import com.example.printbot.service.OrderCalculationService;
+import com.example.printbot.service.OrderEventBus;
+import com.example.printbot.service.OrderEventLog;
+import com.example.printbot.service.OrderNumberGenerator;
+import com.example.printbot.service.OrderService;
+import com.example.printbot.service.PdfMetadataCache;
+import com.example.printbot.service.PdfPreflight;
+import com.example.printbot.service.PdfPreviewService;
+import com.example.printbot.service.PdfService;
+import com.example.printbot.service.PricingEngine;
+import com.example.printbot.service.PrintBatchService;
+import com.example.printbot.service.UserService;
+import com.example.printbot.session.ChatSession;
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.session.OrderState;
+import com.example.printbot.session.SessionJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of {@link BotHandler#handleUpdate} per update type, with the repositories,
+ * the outbound queue and the file downloader replaced by in-memory stand-ins.
+ * <p>
+ * Every benchmark first puts the chat session into the state the update expects,
+ * so each one measures a single {@link OrderState} transition. The {@code jmh}
+ * profile runs with {@code -prof gc}, which reports the allocation rate next to
+ * the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BotHandlerBenchmark {
+
+    private static final long CUSTOMER_WITH_HISTORY = 42L;
+
+    BotHandler botHandler;
+    ChatSessionStore sessionStore;
+    RecordingOutboundQueue outbound;
+    StubFileDownloader fileDownloader;
+    ChatLanes chatLanes;
+    Path stagedFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        OrderRepository orderRepository = InMemoryRepositories.orders();
+        PdfService pdfService = new PdfService(new PdfMetadataCache(1000, ""), new SimpleMeterRegistry());
+        OrderCalculationService orderCalculationService = new OrderCalculationService(new PricingEngine("", Duration.ZERO));
+        OrderService orderService = new OrderService(orderRepository, pdfService, new OrderNumberGenerator(0),
+                InMemoryRepositories.writeBehind(orderRepository), orderCalculationService, new OrderEventLog(0, 0, 0, 0),
+                new OrderEventBus(event -> { }, 16, Duration.ZERO, new SimpleMeterRegistry()));
+        UserService userService = new UserService(InMemoryRepositories.users(), 50_000, Duration.ofMinutes(5));
+        sessionStore = new ChatSessionStore(16, 100_000, Duration.ofMinutes(30),
+                new SessionJournal("", 16 << 20, Duration.ofMinutes(5)));
+        outbound = new RecordingOutboundQueue();
+        stagedFile = Files.createTempFile("bench-", ".pdf");
+        fileDownloader = new StubFileDownloader(stagedFile);
+        chatLanes = new ChatLanes(1, Duration.ofSeconds(5));
+        botHandler = new BotHandler(userService, orderService, orderCalculationService, pdfService,
+                sessionStore, outbound, fileDownloader, new CountingOrderScheduler(),
+                new ExecutorNotifier(outbound,
+                        new PdfPreviewService(false, 36, 1, 1, 1, Duration.ofSeconds(5), 10, new SimpleMeterRegistry()),
+                        Duration.ofSeconds(30), 10, new SimpleMeterRegistry()),
+                new PdfPreflight(1, Duration.ofSeconds(10), 1 << 20, 8, new SimpleMeterRegistry()),
+                new PrintBatchService(stagedFile.getParent().toString(), 2, 20, 3, 500, 47185920, 10, Duration.ofDays(1),
+                        new SimpleMeterRegistry()),
+                chatLanes, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 20; i++) {
+            Order order = new Order("Order " + i, 10, "laser", "bw", "A4", null, CUSTOMER_WITH_HISTORY, 10.0,
+                    "ORDER_" + i, Order.Status.ACCEPTED);
+            orderRepository.save(order);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileDownloader.shutdown();
+        chatLanes.shutdown();
+        Files.deleteIfExists(stagedFile);
+    }
+
+    /**
+     * One chat per benchmark thread, with the updates it sends built up front.
+     */
+    @State(Scope.Thread)
+    public static class Chat {
+
+        private static final AtomicLong IDS = new AtomicLong(1000);
+
+        long chatId;
+        Update start;
+        Update createOrder;
+        Update description;
+        Update pages;
+        Update printType;
+        Update color;
+        Update paper;
+        Update skipFile;
+        Update document;
+        Update confirm;
+        Update cancel;
+        Update cancelComment;
+        Update echo;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            chatId = IDS.incrementAndGet();
+            start = Updates.text(chatId, "/start");
+            createOrder = Updates.text(chatId, "/create_order");
+            description = Updates.text(chatId, "Course notes");
+            pages = Updates.text(chatId, "12");
+            printType = Updates.text(chatId, "laser");
+            color = Updates.text(chatId, "bw");
+            paper = Updates.text(chatId, "A4");
+            skipFile = Updates.text(chatId, "no file");
+            document = Updates.document(chatId, "file-" + chatId);
+            confirm = Updates.callback(chatId, CallbackData.encode(CallbackData.Op.CONFIRM_ORDER));
+            cancel = Updates.callback(chatId, CallbackData.encode(CallbackData.Op.CANCEL_ORDER));
+            cancelComment = Updates.text(chatId, "Changed my mind");
+            echo = Updates.text(chatId, "hello");
+        }
+    }
+
+    @Benchmark
+    public Object start(Chat chat) {
+        return botHandler.handleUpdate(chat.start);
+    }
+
+    @Benchmark
+    public Object echo(Chat chat) {
+        sessionStore.remove(chat.chatId);
+        return botHandler.handleUpdate(chat.echo);
+    }
+
+    @Benchmark
+    public Object createOrder(Chat chat) {
+        return botHandler.handleUpdate(chat.createOrder);
+    }
+
+    @Benchmark
+    public Object description(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_DESCRIPTION);
+        return botHandler.handleUpdate(chat.description);
+    }
+
+    @Benchmark
+    public Object pages(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_PAGES);
+        return botHandler.handleUpdate(chat.pages);
+    }
+
+    @Benchmark
+    public Object printType(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_PRINT_TYPE);
+        return botHandler.handleUpdate(chat.printType);
+    }
+
+    @Benchmark
+    public Object color(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_COLOR);
+        return botHandler.handleUpdate(chat.color);
+    }
+
+    @Benchmark
+    public Object paper(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_PAPER);
+        return botHandler.handleUpdate(chat.paper);
+    }
+
+    @Benchmark
+    public Object fileSkipped(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_FILE);
+        return botHandler.handleUpdate(chat.skipFile);
+    }
+
+    @Benchmark
+    public Object documentUpload(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_FILE);
+        return botHandler.handleUpdate(chat.document);
+    }
+
+    @Benchmark
+    public Object confirmCallback(Chat chat) {
+        inState(chat, OrderState.CONFIRMATION);
+        return botHandler.handleUpdate(chat.confirm);
+    }
+
+    @Benchmark
+    public Object cancelCallback(Chat chat) {
+        inState(chat, OrderState.CONFIRMATION);
+        return botHandler.handleUpdate(chat.cancel);
+    }
+
+    @Benchmark
+    public Object cancelComment(Chat chat) {
+        inState(chat, OrderState.WAITING_FOR_CANCEL_COMMENT);
+        return botHandler.handleUpdate(chat.cancelComment);
+    }
+
+    @Benchmark
+    public Object myOrders(MyOrders myOrders) {
+        return botHandler.handleUpdate(myOrders.update);
+    }
+
+    @State(Scope.Thread)
+    public static class MyOrders {
+
+        Update update;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            update = Updates.text(CUSTOMER_WITH_HISTORY, "/my_orders");
+        }
+    }
+
+    private void inState(Chat chat, OrderState state) {
+        ChatSession session = sessionStore.getOrCreate(chat.chatId);
+        session.reset();
+        Order order = new Order("Course notes", 12, "laser", "bw", "A4", null, chat.chatId, null,
+                "ORDER_BENCH", Order.Status.ACCEPTED);
+        session.setOrder(order);
+        session.setState(state);
+    }
+
+    /**
+     * Counts outgoing calls instead of sending them.
+     */
+    static class RecordingOutboundQueue extends OutboundMessageQueue {
+
+        final LongAdder enqueued = new LongAdder();
+
+        RecordingOutboundQueue() {
+            super(null, 30, 1, 3, 1, 1, new SimpleMeterRegistry());
+        }
+
+        @Override
+        public void enqueue(Long chatId, BotApiMethod<?> method, Priority priority) {
+            enqueued.increment();
+        }
+
+        @Override
+        public void enqueue(SendMessage message, Priority priority) {
+            enqueued.increment();
+        }
+
+        @Override
+        public void enqueue(Long chatId, SendPhoto photo, Priority priority) {
+            enqueued.increment();
+        }
+    }
+
+    /**
+     * Counts submitted orders instead of assigning them.
+     */
+    static class CountingOrderScheduler extends OrderScheduler {
+
+        final LongAdder submitted = new LongAdder();
+
+        CountingOrderScheduler() {
+            super(new ExecutorRegistry("1:1", ""), null, null, Duration.ZERO, false);
+        }
+
+        @Override
+        public void submit(Order order) {
+            submitted.increment();
+        }
+    }
+
+    /**
+     * Completes every download at once with the same local file.
+     */
+    static class StubFileDownloader extends FileDownloader {
+
+        private final CompletableFuture<DownloadedFile> downloaded;
+
+        StubFileDownloader(Path file) {
+            super(null, "token", file.getParent().toString(), 1, 1, Long.MAX_VALUE, Duration.ofSeconds(10),
+                    Duration.ofSeconds(30), new SimpleMeterRegistry());
+            this.downloaded = CompletableFuture.completedFuture(new DownloadedFile(file, "0".repeat(64), 0));
+        }
+
+        @Override
+        public CompletableFuture<DownloadedFile> download(String fileId, String fileUniqueId) {
+            return downloaded;
+        }
+
+        @Override
+        public void discard(String path) {
+            // Every draft shares the one staged file
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and parsing status-update callbacks with {@link CallbackData} and
+ * {@link InlineKeyboards}, next to the space-separated strings and per-call
+ * keyboards they replaced. Run with {@code -prof gc} to see the allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallbackDataBenchmark {
+
+    private static final Order.Status[] STATUSES = Order.Status.values();
+
+    long orderId = 1_234_567L;
+    long messageId = 98_765L;
+    String legacyData = "/update_status " + orderId + " PAID " + messageId;
+    String encodedData = CallbackData.encode(CallbackData.Op.UPDATE_STATUS, Order.Status.PAID, orderId, messageId);
+
+    @Benchmark
+    public void parseLegacy(Blackhole blackhole) {
+        String[] parts = legacyData.split(" ");
+        blackhole.consume(Long.parseLong(parts[1]));
+        blackhole.consume(Order.Status.valueOf(parts[2]));
+        blackhole.consume(parts[3]);
+    }
+
+    @Benchmark
+    public void parseEncoded(Blackhole blackhole) {
+        blackhole.consume(CallbackData.isEncoded(encodedData));
+        blackhole.consume(CallbackData.op(encodedData));
+        blackhole.consume(CallbackData.orderId(encodedData));
+        blackhole.consume(CallbackData.status(encodedData));
+        blackhole.consume(CallbackData.messageId(encodedData));
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup statusKeyboardLegacy() {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+        List<InlineKeyboardButton> row = new ArrayList<>();
+        for (Order.Status status : STATUSES) {
+            InlineKeyboardButton button = new InlineKeyboardButton();
+            button.setText(status.name());
+            button.setCallbackData("/update_status " + orderId + " " + status.name() + " " + messageId);
+            row.add(button);
+        }
+        rows.add(row);
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        markup.setKeyboard(rows);
+        return markup;
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup statusKeyboardTemplate() {
+        return InlineKeyboards.updateStatus(orderId, Order.Status.ACCEPTED, 3, messageId);
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup confirmationKeyboardLegacy() {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+        List<InlineKeyboardButton> row = new ArrayList<>();
+        InlineKeyboardButton confirmButton = new InlineKeyboardButton();
+        confirmButton.setText("Confirm");
+        confirmButton.setCallbackData("/confirm_order");
+        row.add(confirmButton);
+        InlineKeyboardButton cancelButton = new InlineKeyboardButton();
+        cancelButton.setText("Cancel");
+        cancelButton.setCallbackData("/cancel_order");
+        row.add(cancelButton);
+        rows.add(row);
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        markup.setKeyboard(rows);
+        return markup;
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup confirmationKeyboardCached() {
+        return InlineKeyboards.CONFIRMATION;
+    }
+}
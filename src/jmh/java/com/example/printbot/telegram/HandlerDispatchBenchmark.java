@@ -0,0 +1,78 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.session.OrderState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the handler of an update in {@link HandlerTable} as the number
+ * of commands grows, next to the chain of {@code equals} checks it replaced. The
+ * command looked up is the last one declared, the worst case for the chain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerDispatchBenchmark {
+
+    @Param({"4", "32", "256"})
+    public int commandCount;
+
+    HandlerTable table;
+    String[] chain;
+    String lastCommand;
+    String callbackData;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HandlerTable.Builder builder = HandlerTable.builder();
+        chain = new String[commandCount];
+        for (int i = 0; i < commandCount; i++) {
+            // built with a StringBuilder so the looked-up text is not the interned constant
+            chain[i] = new StringBuilder("/command_").append(i).toString();
+            builder.command(chain[i], update -> null);
+        }
+        for (OrderState state : OrderState.values()) {
+            builder.state(state, (update, session) -> null);
+        }
+        for (CallbackData.Op op : CallbackData.Op.values()) {
+            builder.callback(op, (callbackQuery, message) -> null);
+        }
+        table = builder.build();
+        lastCommand = new StringBuilder("/command_").append(commandCount - 1).toString();
+        callbackData = CallbackData.encode(CallbackData.Op.ORDERS_OLDER, null, 1234, 0);
+    }
+
+    @Benchmark
+    public Object commandTable() {
+        return table.command(lastCommand);
+    }
+
+    @Benchmark
+    public int commandChain() {
+        for (int i = 0; i < chain.length; i++) {
+            if (lastCommand.equals(chain[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public Object stateTable() {
+        return table.state(OrderState.WAITING_FOR_CANCEL_COMMENT);
+    }
+
+    @Benchmark
+    public Object callbackTable() {
+        return table.callback(callbackData);
+    }
+}
@@ -1,10 +1,11 @@
 package com.example.demo;
 
 import com.example.printbot.telegram.PrintBot;
-import org.springframework.boot.CommandLineRunner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.beans.factory.annotation.Value;
 import org.telegram.telegrambots.starter.TelegramBotStarterConfiguration;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
@@ -12,8 +13,10 @@ import org.telegram.telegrambots.starter.EnableTelegramBots;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 @EnableTelegramBots
-@SpringBootApplication(exclude = TelegramBotStarterConfiguration.class)
-public class DemoApplication implements CommandLineRunner {
+@SpringBootApplication(scanBasePackages = "com.example", exclude = TelegramBotStarterConfiguration.class)
+@EnableJpaRepositories("com.example.printbot.repository")
+@EntityScan("com.example.printbot.model")
+public class DemoApplication {
 
   @Value("${NAME:World}")
   String name;
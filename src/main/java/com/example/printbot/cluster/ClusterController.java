@@ -0,0 +1,54 @@
+package com.example.printbot.cluster;
+
+import com.example.printbot.telegram.UpdateDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives the updates other instances forward to this one. Only requests carrying
+ * {@code printbot.cluster.secret}, which the {@link ClusterCoordinator} requires
+ * with the cluster enabled, are accepted.
+ * <p>
+ * An update of a chat this instance does not handle (any more) is answered with
+ * 503, as is one that does not fit in the dispatch queue; the sender then retries,
+ * looking up the owner again.
+ */
+@RestController
+@ConditionalOnProperty(name = "printbot.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterController.class);
+
+    private final UpdateDispatcher updateDispatcher;
+    private final byte[] secret;
+
+    public ClusterController(UpdateDispatcher updateDispatcher, @Value("${printbot.cluster.secret:}") String secret) {
+        this.updateDispatcher = updateDispatcher;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping(UpdateRouter.UPDATES_PATH)
+    public ResponseEntity<Void> onForwardedUpdate(@RequestHeader(value = UpdateRouter.SECRET_HEADER, required = false) String token,
+                                                  @RequestBody Update update) {
+        if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("Rejected forwarded update with invalid cluster secret");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (!updateDispatcher.dispatchForwarded(update)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
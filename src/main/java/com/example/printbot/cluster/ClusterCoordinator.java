@@ -0,0 +1,382 @@
+package com.example.printbot.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Decides which instance handles which chats when several instances share the
+ * database.
+ * <p>
+ * Chats are spread by a hash of their ID over {@code printbot.cluster.partitions}
+ * partitions, and each partition is owned through a lease in the {@link ClusterStore}.
+ * Every {@code printbot.cluster.renew-interval} an instance renews its leases and its
+ * node lease, counts the live nodes and evens out the partitions: it gives up the
+ * ones above its fair share and takes free or expired ones up to it. Partitions of
+ * an instance that died are taken over once their leases run out after
+ * {@code printbot.cluster.lease-duration}. One more lease makes its holder the
+ * leader, which is the only instance polling Telegram.
+ * <p>
+ * An instance stops treating its leases as held one renew interval before they
+ * run out, so it stops handling chats before anyone else may take them over, even
+ * if the database becomes unreachable. With the cluster disabled this instance owns
+ * every partition and is always the leader.
+ */
+@Component
+public class ClusterCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterCoordinator.class);
+
+    static final String LEADER_LEASE = "leader";
+    static final String NODE_LEASE_PREFIX = "node:";
+    static final String PARTITION_LEASE_PREFIX = "partition:";
+
+    private final ClusterStore store;
+    private final boolean enabled;
+    private final String nodeName;
+    private final String address;
+    private final String secret;
+    private final int partitions;
+    private final long leaseMillis;
+    private final long renewMillis;
+    private final Clock clock;
+    private final List<ClusterListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicIntegerArray owned;
+    private final AtomicReferenceArray<String> ownerAddresses;
+
+    private volatile boolean leader;
+    private volatile String leaderAddress;
+    private volatile long validUntil;
+    private ScheduledExecutorService renewer;
+
+    @Autowired
+    public ClusterCoordinator(ClusterStore store,
+                              @Value("${printbot.cluster.enabled:false}") boolean enabled,
+                              @Value("${printbot.node-id:#{null}}") Long nodeId,
+                              @Value("${printbot.cluster.advertised-url:}") String address,
+                              @Value("${printbot.cluster.secret:}") String secret,
+                              @Value("${printbot.cluster.partitions:64}") int partitions,
+                              @Value("${printbot.cluster.lease-duration:15s}") Duration leaseDuration,
+                              @Value("${printbot.cluster.renew-interval:5s}") Duration renewInterval) {
+        this(store, enabled, nodeId == null ? "" : "node-" + nodeId, address, secret, partitions, leaseDuration, renewInterval,
+                Clock.systemUTC());
+    }
+
+    ClusterCoordinator(ClusterStore store, boolean enabled, String nodeName, String address, String secret,
+                       int partitions, Duration leaseDuration, Duration renewInterval, Clock clock) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Cluster partitions must be positive");
+        }
+        if (renewInterval.isZero() || renewInterval.isNegative() || renewInterval.compareTo(leaseDuration.dividedBy(2)) > 0) {
+            throw new IllegalArgumentException("Cluster renew interval must be positive and at most half the lease duration");
+        }
+        this.store = store;
+        this.enabled = enabled;
+        this.nodeName = nodeName;
+        this.address = address;
+        this.secret = secret;
+        this.partitions = partitions;
+        this.leaseMillis = leaseDuration.toMillis();
+        this.renewMillis = renewInterval.toMillis();
+        this.clock = clock;
+        this.owned = new AtomicIntegerArray(partitions);
+        this.ownerAddresses = new AtomicReferenceArray<>(partitions);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (nodeName.isEmpty()) {
+            // Instances sharing a name would share every lease and all act as leader.
+            throw new IllegalStateException("printbot.node-id must be set when the cluster is enabled");
+        }
+        if (address.isEmpty()) {
+            throw new IllegalStateException("printbot.cluster.advertised-url must be set when the cluster is enabled");
+        }
+        if (secret.isEmpty()) {
+            // Without it anyone reaching an instance could post updates as any chat.
+            throw new IllegalStateException("printbot.cluster.secret must be set when the cluster is enabled");
+        }
+        store.createTables();
+        long now = clock.millis();
+        for (ClusterStore.Lease lease : store.leases()) {
+            if (lease.getName().equals(NODE_LEASE_PREFIX + nodeName) && lease.getExpiresAt() > now
+                    && !address.equals(lease.getAddress())) {
+                throw new IllegalStateException("Another instance already runs as " + nodeName + " at "
+                        + lease.getAddress() + "; give this one its own printbot.node-id");
+            }
+        }
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewer.scheduleWithFixedDelay(this::renew, 0, renewMillis, TimeUnit.MILLISECONDS);
+        log.info("Joining the cluster as {} at {}", nodeName, address);
+    }
+
+    /**
+     * Hands over every partition, gives up leadership and leaves the cluster.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        if (renewer != null) {
+            renewer.shutdown();
+            renewer.awaitTermination(renewMillis, TimeUnit.MILLISECONDS);
+        }
+        synchronized (this) {
+            try {
+                for (int partition = 0; partition < partitions; partition++) {
+                    if (owned.get(partition) == 1) {
+                        release(partition);
+                    }
+                }
+                setLeader(false);
+                store.release(LEADER_LEASE, nodeName);
+                store.release(NODE_LEASE_PREFIX + nodeName, nodeName);
+            } catch (DataAccessException e) {
+                log.error("Leases of {} could not be released, they will run out instead", nodeName, e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener and tells it about the partitions and leadership this
+     * instance already holds.
+     */
+    public synchronized void addListener(ClusterListener listener) {
+        listeners.add(listener);
+        if (!enabled) {
+            return;
+        }
+        for (int partition = 0; partition < partitions; partition++) {
+            if (owned.get(partition) == 1) {
+                listener.partitionAcquired(partition);
+            }
+        }
+        if (leader) {
+            listener.leadershipChanged(true);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return The partition the chat belongs to.
+     */
+    public int partitionOf(long chatId) {
+        int hash = Long.hashCode(chatId) * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
+    }
+
+    /**
+     * @return Whether updates of the partition's chats are handled here.
+     */
+    public boolean ownsPartition(int partition) {
+        return !enabled || (owned.get(partition) == 1 && clock.millis() < validUntil);
+    }
+
+    public boolean isLeader() {
+        return !enabled || (leader && clock.millis() < validUntil);
+    }
+
+    /**
+     * @return Where the owner of the partition was reachable at the last renewal,
+     *         or {@code null} if the partition had no owner.
+     */
+    public String ownerAddress(int partition) {
+        return ownerAddresses.get(partition);
+    }
+
+    /**
+     * @return Where the leader was reachable at the last renewal, or {@code null} if there was none.
+     */
+    public String leaderAddress() {
+        return leaderAddress;
+    }
+
+    /**
+     * @return The number of partitions owned here.
+     */
+    public int ownedPartitions() {
+        int count = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            if (ownsPartition(partition)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void renew() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            log.error("Error while renewing the cluster leases", e);
+        }
+    }
+
+    /**
+     * Renews this instance's leases and rebalances the partitions.
+     */
+    synchronized void tick() {
+        long now = clock.millis();
+        long expiresAt = now + leaseMillis;
+        List<ClusterStore.Lease> leases;
+        boolean leading;
+        try {
+            store.renewAll(nodeName, now, expiresAt);
+            store.acquire(NODE_LEASE_PREFIX + nodeName, nodeName, address, now, expiresAt);
+            leading = store.acquire(LEADER_LEASE, nodeName, address, now, expiresAt);
+            leases = store.leases();
+        } catch (DataAccessException e) {
+            log.error("Cluster leases could not be renewed", e);
+            if (clock.millis() >= validUntil) {
+                dropAll();
+            }
+            return;
+        }
+        validUntil = now + leaseMillis - renewMillis;
+
+        int liveNodes = 0;
+        String[] holders = new String[partitions];
+        String[] addresses = new String[partitions];
+        String currentLeaderAddress = null;
+        for (ClusterStore.Lease lease : leases) {
+            if (lease.getExpiresAt() <= now) {
+                continue;
+            }
+            String name = lease.getName();
+            if (name.startsWith(NODE_LEASE_PREFIX)) {
+                liveNodes++;
+            } else if (name.equals(LEADER_LEASE)) {
+                currentLeaderAddress = lease.getAddress();
+            } else if (name.startsWith(PARTITION_LEASE_PREFIX)) {
+                int partition = Integer.parseInt(name.substring(PARTITION_LEASE_PREFIX.length()));
+                if (partition < partitions) {
+                    holders[partition] = lease.getOwner();
+                    addresses[partition] = lease.getAddress();
+                }
+            }
+        }
+        leaderAddress = currentLeaderAddress;
+        setLeader(leading);
+
+        List<Integer> mine = new ArrayList<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            boolean held = nodeName.equals(holders[partition]);
+            if (held) {
+                mine.add(partition);
+                if (owned.get(partition) == 0) {
+                    acquired(partition);
+                }
+            } else if (owned.get(partition) == 1) {
+                log.warn("Lost partition {} to {}", partition, holders[partition]);
+                lost(partition);
+            }
+        }
+
+        int share = (partitions + Math.max(1, liveNodes) - 1) / Math.max(1, liveNodes);
+        while (mine.size() > share) {
+            int partition = mine.remove(mine.size() - 1);
+            release(partition);
+            holders[partition] = null;
+            addresses[partition] = null;
+        }
+        for (int partition = 0; partition < partitions && mine.size() < share; partition++) {
+            if (holders[partition] == null && store.acquire(PARTITION_LEASE_PREFIX + partition, nodeName, address,
+                    now, expiresAt)) {
+                acquired(partition);
+                mine.add(partition);
+                addresses[partition] = address;
+            }
+        }
+        for (int partition = 0; partition < partitions; partition++) {
+            ownerAddresses.set(partition, addresses[partition]);
+        }
+        if (leading) {
+            fire(ClusterListener::leaderTick);
+        }
+    }
+
+    private void acquired(int partition) {
+        fire(listener -> listener.partitionAcquired(partition));
+        owned.set(partition, 1);
+        log.info("Took over partition {}", partition);
+    }
+
+    private void release(int partition) {
+        owned.set(partition, 0);
+        fire(listener -> listener.partitionReleasing(partition));
+        store.release(PARTITION_LEASE_PREFIX + partition, nodeName);
+        ownerAddresses.set(partition, null);
+        log.info("Handed over partition {}", partition);
+    }
+
+    private void lost(int partition) {
+        owned.set(partition, 0);
+        fire(listener -> listener.partitionLost(partition));
+    }
+
+    /**
+     * Stops handling everything after the leases could not be renewed in time.
+     */
+    private void dropAll() {
+        for (int partition = 0; partition < partitions; partition++) {
+            if (owned.get(partition) == 1) {
+                lost(partition);
+            }
+        }
+        setLeader(false);
+    }
+
+    private void setLeader(boolean leading) {
+        if (leader == leading) {
+            return;
+        }
+        leader = leading;
+        if (leading) {
+            leaderAddress = address;
+        }
+        log.info(leading ? "{} is now the leader" : "{} is no longer the leader", nodeName);
+        fire(listener -> listener.leadershipChanged(leading));
+    }
+
+    private void fire(Consumer<ClusterListener> event) {
+        for (ClusterListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                log.error("Error in cluster listener {}", listener.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
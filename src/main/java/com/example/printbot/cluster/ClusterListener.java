@@ -0,0 +1,41 @@
+package com.example.printbot.cluster;
+
+/**
+ * Told by the {@link ClusterCoordinator} about changes of this instance's role.
+ * Every method runs on the coordinator's thread, so a slow listener delays lease
+ * renewal and should not block for long.
+ */
+public interface ClusterListener {
+
+    /**
+     * @param leader Whether this instance is now the leader.
+     */
+    default void leadershipChanged(boolean leader) {
+    }
+
+    /**
+     * Called after every lease renewal while this instance is the leader.
+     */
+    default void leaderTick() {
+    }
+
+    /**
+     * Called after the partition's lease was taken and before any update of it is
+     * accepted here.
+     */
+    default void partitionAcquired(int partition) {
+    }
+
+    /**
+     * Called before the partition's lease is given up, after updates of it stopped
+     * being accepted here.
+     */
+    default void partitionReleasing(int partition) {
+    }
+
+    /**
+     * Called when the partition's lease ran out or was taken by another instance.
+     */
+    default void partitionLost(int partition) {
+    }
+}
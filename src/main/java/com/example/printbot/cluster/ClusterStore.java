@@ -0,0 +1,167 @@
+package com.example.printbot.cluster;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leases and session hand-offs shared by the instances through the database.
+ * <p>
+ * A lease is a row naming its owner and the time it expires. Taking a lease is a
+ * single conditional update that only succeeds if the caller already owns it or it
+ * has expired, so the database decides every race; a lease nobody took yet is
+ * created by an insert, which fails for all but one caller on the primary key.
+ * Expiry times are compared against the clocks of the instances, which are
+ * expected to agree to well within a renew interval.
+ */
+@Component
+public class ClusterStore {
+
+    private static final String CREATE_LEASES_SQL = "create table if not exists printbot_lease ("
+            + "name varchar(64) primary key, owner varchar(64) not null, address varchar(255), expires_at bigint not null)";
+    private static final String CREATE_HANDOFF_SQL = "create table if not exists printbot_session_handoff ("
+            + "chat_id bigint primary key, chat_partition int not null, record varbinary(1048576) not null)";
+    private static final String TAKE_SQL = "update printbot_lease set owner = ?, address = ?, expires_at = ? "
+            + "where name = ? and (owner = ? or expires_at <= ?)";
+    private static final String INSERT_SQL = "insert into printbot_lease (name, owner, address, expires_at) values (?, ?, ?, ?)";
+    private static final String RENEW_SQL = "update printbot_lease set expires_at = ? where owner = ? and expires_at > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ClusterStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void createTables() {
+        jdbcTemplate.execute(CREATE_LEASES_SQL);
+        jdbcTemplate.execute(CREATE_HANDOFF_SQL);
+    }
+
+    /**
+     * Takes or renews a lease.
+     *
+     * @param name      The name of the lease.
+     * @param owner     The instance taking it.
+     * @param address   Where the owner can be reached.
+     * @param now       The current time in epoch milliseconds.
+     * @param expiresAt When the lease runs out unless renewed.
+     * @return {@code true} if the caller holds the lease until {@code expiresAt}.
+     */
+    public boolean acquire(String name, String owner, String address, long now, long expiresAt) {
+        if (jdbcTemplate.update(TAKE_SQL, owner, address, expiresAt, name, owner, now) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(INSERT_SQL, name, owner, address, expiresAt) == 1;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Extends every lease of the owner that has not run out yet.
+     *
+     * @return The number of leases renewed.
+     */
+    public int renewAll(String owner, long now, long expiresAt) {
+        return jdbcTemplate.update(RENEW_SQL, expiresAt, owner, now);
+    }
+
+    /**
+     * Gives up a lease, if the caller still owns it.
+     */
+    public void release(String name, String owner) {
+        jdbcTemplate.update("delete from printbot_lease where name = ? and owner = ?", name, owner);
+    }
+
+    /**
+     * @return Every lease row, including expired ones.
+     */
+    public List<Lease> leases() {
+        return jdbcTemplate.query("select name, owner, address, expires_at from printbot_lease",
+                (rs, rowNum) -> new Lease(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4)));
+    }
+
+    /**
+     * Leaves the sessions of a partition for its next owner, replacing any left before.
+     *
+     * @param partition The partition the chats belong to.
+     * @param records   Encoded sessions by chat ID.
+     */
+    @Transactional
+    public void saveHandoff(int partition, Map<Long, byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Object[]> deletes = new ArrayList<>(records.size());
+        List<Object[]> inserts = new ArrayList<>(records.size());
+        for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+            deletes.add(new Object[]{record.getKey()});
+            inserts.add(new Object[]{record.getKey(), partition, record.getValue()});
+        }
+        jdbcTemplate.batchUpdate("delete from printbot_session_handoff where chat_id = ?", deletes);
+        jdbcTemplate.batchUpdate("insert into printbot_session_handoff (chat_id, chat_partition, record) values (?, ?, ?)",
+                inserts);
+    }
+
+    /**
+     * Removes and returns the sessions left for a partition. The rows read are locked
+     * and deleted by chat ID in the same transaction, so a session left meanwhile is
+     * kept for the next call rather than deleted unread.
+     *
+     * @param partition The partition.
+     * @return The encoded sessions, possibly none.
+     */
+    @Transactional
+    public List<byte[]> takeHandoff(int partition) {
+        List<Object[]> chatIds = new ArrayList<>();
+        List<byte[]> records = jdbcTemplate.query(
+                "select chat_id, record from printbot_session_handoff where chat_partition = ? for update",
+                (rs, rowNum) -> {
+                    chatIds.add(new Object[]{rs.getLong(1)});
+                    return rs.getBytes(2);
+                }, partition);
+        if (!chatIds.isEmpty()) {
+            jdbcTemplate.batchUpdate("delete from printbot_session_handoff where chat_id = ?", chatIds);
+        }
+        return records;
+    }
+
+    /**
+     * A row of the lease table.
+     */
+    public static final class Lease {
+        private final String name;
+        private final String owner;
+        private final String address;
+        private final long expiresAt;
+
+        public Lease(String name, String owner, String address, long expiresAt) {
+            this.name = name;
+            this.owner = owner;
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
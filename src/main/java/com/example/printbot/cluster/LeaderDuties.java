@@ -0,0 +1,54 @@
+package com.example.printbot.cluster;
+
+import com.example.printbot.scheduling.OrderScheduler;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the order scheduling on the leader only.
+ * <p>
+ * Orders are confirmed on whichever instance owns the customer's chat, so while it
+ * leads, the leader picks up new and closed orders from the database after every
+ * lease renewal.
+ */
+@Component
+public class LeaderDuties implements ClusterListener {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderDuties.class);
+
+    private final ClusterCoordinator coordinator;
+    private final OrderScheduler orderScheduler;
+
+    public LeaderDuties(ClusterCoordinator coordinator, OrderScheduler orderScheduler) {
+        this.coordinator = coordinator;
+        this.orderScheduler = orderScheduler;
+    }
+
+    @PostConstruct
+    public void register() {
+        coordinator.addListener(this);
+    }
+
+    @Override
+    public void leadershipChanged(boolean leader) {
+        if (leader) {
+            orderScheduler.resume();
+        } else {
+            orderScheduler.suspend();
+        }
+    }
+
+    @Override
+    public void leaderTick() {
+        if (!orderScheduler.isActive()) {
+            return;
+        }
+        try {
+            orderScheduler.syncWithOpenOrders();
+        } catch (RuntimeException e) {
+            log.error("Open orders could not be synced for scheduling", e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.printbot.cluster;
+
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.telegram.UpdateDispatcher;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Moves the chat sessions of a partition along with its lease.
+ * <p>
+ * Before a partition is given up, the updates of its chats already queued here are
+ * allowed to finish for up to {@code printbot.cluster.handoff-timeout}; its sessions
+ * are then removed from this instance and left in the {@link ClusterStore}, where
+ * the next owner picks them up when it takes the partition. Sessions of a partition
+ * that was lost rather than handed over are dropped, since another instance
+ * already handles its chats.
+ */
+@Component
+public class PartitionHandoff implements ClusterListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionHandoff.class);
+
+    private final ClusterCoordinator coordinator;
+    private final ClusterStore store;
+    private final ChatSessionStore sessionStore;
+    private final UpdateDispatcher updateDispatcher;
+    private final long timeoutMillis;
+
+    public PartitionHandoff(ClusterCoordinator coordinator, ClusterStore store, ChatSessionStore sessionStore,
+                            UpdateDispatcher updateDispatcher,
+                            @Value("${printbot.cluster.handoff-timeout:10s}") Duration timeout) {
+        this.coordinator = coordinator;
+        this.store = store;
+        this.sessionStore = sessionStore;
+        this.updateDispatcher = updateDispatcher;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    @PostConstruct
+    public void register() {
+        coordinator.addListener(this);
+    }
+
+    @Override
+    public void partitionAcquired(int partition) {
+        List<byte[]> records = store.takeHandoff(partition);
+        if (!records.isEmpty()) {
+            log.info("Took over {} chat sessions of partition {}", sessionStore.adopt(records), partition);
+        }
+    }
+
+    @Override
+    public void partitionReleasing(int partition) {
+        LongPredicate inPartition = chats(partition);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (updateDispatcher.hasPendingUpdates(inPartition) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (updateDispatcher.hasPendingUpdates(inPartition)) {
+            log.warn("Updates of partition {} are still being handled, handing it over anyway", partition);
+        }
+        Map<Long, byte[]> records = sessionStore.export(inPartition);
+        store.saveHandoff(partition, records);
+        if (!records.isEmpty()) {
+            log.info("Handed over {} chat sessions of partition {}", records.size(), partition);
+        }
+    }
+
+    @Override
+    public void partitionLost(int partition) {
+        int dropped = sessionStore.export(chats(partition)).size();
+        if (dropped > 0) {
+            log.warn("Dropped {} chat sessions of lost partition {}", dropped, partition);
+        }
+    }
+
+    private LongPredicate chats(int partition) {
+        return chatId -> coordinator.partitionOf(chatId) == partition;
+    }
+}
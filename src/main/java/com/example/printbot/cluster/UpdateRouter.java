@@ -0,0 +1,220 @@
+package com.example.printbot.cluster;
+
+import com.example.printbot.scheduling.ExecutorRegistry;
+import com.example.printbot.scheduling.PrintExecutor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Decides where an update is handled and sends it there if that is another instance.
+ * <p>
+ * A chat is handled by the owner of its partition, except the executors' chats,
+ * which go to the leader since that is where orders are scheduled. Forwarded
+ * updates are posted to {@link #UPDATES_PATH} of the owner from a forwarder thread
+ * per owner, with up to {@code printbot.cluster.forward-queue-capacity} updates
+ * waiting for it; the polling thread never waits for another instance. While a
+ * partition has no owner, or its owner does not take the update, the update is
+ * retried with a growing pause for up to {@code printbot.cluster.forward-timeout}.
+ */
+@Component
+public class UpdateRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateRouter.class);
+
+    public static final String UPDATES_PATH = "/cluster/updates";
+    public static final String SECRET_HEADER = "X-Printbot-Cluster-Secret";
+
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Where an update went.
+     */
+    public enum Route {
+        /** It belongs to this instance. */
+        LOCAL,
+        /** It is, or was, passed on to the owning instance. */
+        FORWARDED,
+        /** No owner took it, in time or at all; it is dropped. */
+        FAILED
+    }
+
+    private final ClusterCoordinator coordinator;
+    private final ObjectMapper objectMapper;
+    private final Set<Long> executorChats = new HashSet<>();
+    private final String secret;
+    private final long timeoutMillis;
+    private final int queueCapacity;
+    private final ConcurrentHashMap<String, ThreadPoolExecutor> forwarders = new ConcurrentHashMap<>();
+    private final AtomicInteger forwarderNumber = new AtomicInteger();
+    private final HttpClient httpClient;
+    private final Counter forwarded;
+    private final Counter failed;
+
+    public UpdateRouter(ClusterCoordinator coordinator, ExecutorRegistry executorRegistry, ObjectMapper objectMapper,
+                        @Value("${printbot.cluster.secret:}") String secret,
+                        @Value("${printbot.cluster.forward-timeout:30s}") Duration timeout,
+                        @Value("${printbot.cluster.forward-queue-capacity:1000}") int queueCapacity,
+                        MeterRegistry meterRegistry) {
+        this.coordinator = coordinator;
+        this.objectMapper = objectMapper;
+        for (PrintExecutor executor : executorRegistry.getExecutors()) {
+            executorChats.add(executor.getChatId());
+        }
+        this.secret = secret;
+        this.timeoutMillis = timeout.toMillis();
+        this.queueCapacity = queueCapacity;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+        this.forwarded = meterRegistry.counter("printbot.cluster.forwarded", "result", "forwarded");
+        this.failed = meterRegistry.counter("printbot.cluster.forwarded", "result", "failed");
+    }
+
+    /**
+     * @param chatId The chat of the update.
+     * @return Whether updates of the chat are handled by this instance.
+     */
+    public boolean isLocal(long chatId) {
+        if (executorChats.contains(chatId)) {
+            return coordinator.isLeader();
+        }
+        return coordinator.ownsPartition(coordinator.partitionOf(chatId));
+    }
+
+    /**
+     * Sends the update to the instance handling its chat, unless that is this one.
+     * The update is queued for the owner's forwarder and the caller does not wait
+     * for it to be taken.
+     *
+     * @param update The update object from Telegram.
+     * @param chatId The chat of the update.
+     * @param done   Told, on the forwarder thread, where a queued update finally went:
+     *               {@link Route#FORWARDED}, {@link Route#FAILED}, or {@link Route#LOCAL}
+     *               if its chat moved to this instance in the meantime.
+     * @return {@link Route#LOCAL} if the update is handled here, {@link Route#FORWARDED} if
+     *         it was queued for forwarding, {@link Route#FAILED} if it could not be queued.
+     */
+    public Route route(Update update, long chatId, Consumer<Route> done) {
+        if (isLocal(chatId)) {
+            return Route.LOCAL;
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(update);
+        } catch (JsonProcessingException e) {
+            log.error("Update {} could not be serialized for forwarding", update.getUpdateId(), e);
+            failed.increment();
+            return Route.FAILED;
+        }
+        String owner = ownerAddress(chatId);
+        ThreadPoolExecutor forwarder = forwarders.computeIfAbsent(owner == null ? "" : owner, this::newForwarder);
+        try {
+            forwarder.execute(() -> done.accept(forward(update, chatId, body)));
+        } catch (RejectedExecutionException e) {
+            log.error("Forward queue for {} is full, dropping update {}", owner, update.getUpdateId());
+            failed.increment();
+            return Route.FAILED;
+        }
+        return Route.FORWARDED;
+    }
+
+    @PreDestroy
+    public void stop() {
+        forwarders.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    private Route forward(Update update, long chatId, byte[] body) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long backoff = 50;
+        while (true) {
+            if (isLocal(chatId)) {
+                return Route.LOCAL;
+            }
+            String address = ownerAddress(chatId);
+            if (address != null && send(address, body)) {
+                forwarded.increment();
+                return Route.FORWARDED;
+            }
+            if (System.currentTimeMillis() + backoff > deadline) {
+                log.error("No instance took update {} of chat {}, dropping it", update.getUpdateId(), chatId);
+                failed.increment();
+                return Route.FAILED;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.increment();
+                return Route.FAILED;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * One thread per owner, so a dead owner only holds up the updates queued for it.
+     */
+    private ThreadPoolExecutor newForwarder(String owner) {
+        int number = forwarderNumber.incrementAndGet();
+        ThreadPoolExecutor forwarder = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "cluster-forward-" + number);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        forwarder.allowCoreThreadTimeOut(true);
+        return forwarder;
+    }
+
+    private String ownerAddress(long chatId) {
+        if (executorChats.contains(chatId)) {
+            return coordinator.leaderAddress();
+        }
+        return coordinator.ownerAddress(coordinator.partitionOf(chatId));
+    }
+
+    private boolean send(String address, byte[] body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(address + UPDATES_PATH))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (!secret.isEmpty()) {
+            request.header(SECRET_HEADER, secret);
+        }
+        try {
+            HttpResponse<Void> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 200) {
+                return true;
+            }
+            log.debug("{} answered {} to a forwarded update", address, response.statusCode());
+        } catch (IOException e) {
+            log.debug("Update could not be forwarded to {}", address, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
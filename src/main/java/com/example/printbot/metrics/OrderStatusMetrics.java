@@ -0,0 +1,26 @@
+package com.example.printbot.metrics;
+
+import com.example.printbot.service.OrderStatusChanged;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts status changes by the status they left and the one they reached, as
+ * {@code printbot.orders.status}.
+ */
+@Component
+public class OrderStatusMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public OrderStatusMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener
+    public void statusChanged(OrderStatusChanged change) {
+        meterRegistry.counter("printbot.orders.status",
+                "from", change.getPrevious().name(), "to", change.getStatus().name()).increment();
+    }
+}
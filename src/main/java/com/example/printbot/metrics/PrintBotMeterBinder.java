@@ -0,0 +1,105 @@
+package com.example.printbot.metrics;
+
+import com.example.printbot.cluster.ClusterCoordinator;
+import com.example.printbot.repository.OrderWriteBehind;
+import com.example.printbot.scheduling.OrderScheduler;
+import com.example.printbot.service.UserService;
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.telegram.OutboundMessageQueue;
+import com.example.printbot.telegram.UpdateDispatcher;
+import com.example.printbot.telegram.UpdateOffsetTracker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the sizes and counters the bot's components already keep as meters.
+ * <p>
+ * Timers are registered by the components themselves; with the actuator on the
+ * web stack everything is served at {@code /actuator/metrics} and
+ * {@code /actuator/prometheus}.
+ */
+@Component
+public class PrintBotMeterBinder implements MeterBinder {
+
+    private final ChatSessionStore sessionStore;
+    private final UpdateDispatcher updateDispatcher;
+    private final OutboundMessageQueue outboundMessageQueue;
+    private final UserService userService;
+    private final OrderWriteBehind orderWriteBehind;
+    private final OrderScheduler orderScheduler;
+    private final UpdateOffsetTracker offsetTracker;
+    private final ClusterCoordinator clusterCoordinator;
+
+    public PrintBotMeterBinder(ChatSessionStore sessionStore, UpdateDispatcher updateDispatcher,
+                               OutboundMessageQueue outboundMessageQueue, UserService userService,
+                               OrderWriteBehind orderWriteBehind, OrderScheduler orderScheduler,
+                               UpdateOffsetTracker offsetTracker, ClusterCoordinator clusterCoordinator) {
+        this.sessionStore = sessionStore;
+        this.updateDispatcher = updateDispatcher;
+        this.outboundMessageQueue = outboundMessageQueue;
+        this.userService = userService;
+        this.orderWriteBehind = orderWriteBehind;
+        this.orderScheduler = orderScheduler;
+        this.offsetTracker = offsetTracker;
+        this.clusterCoordinator = clusterCoordinator;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("printbot.sessions.active", sessionStore, ChatSessionStore::size)
+                .description("Chat sessions held in memory")
+                .register(registry);
+        Gauge.builder("printbot.updates.pending", updateDispatcher, UpdateDispatcher::pendingUpdates)
+                .description("Updates waiting for or being handled by a worker")
+                .register(registry);
+        FunctionCounter.builder("printbot.updates.duplicates", offsetTracker, UpdateOffsetTracker::getDuplicateCount)
+                .description("Redelivered updates that were skipped")
+                .register(registry);
+
+        Gauge.builder("printbot.outbound.queue.depth", outboundMessageQueue, OutboundMessageQueue::queueDepth)
+                .description("Messages waiting to be sent to Telegram, including delayed ones")
+                .register(registry);
+        FunctionCounter.builder("printbot.outbound.sent", outboundMessageQueue, OutboundMessageQueue::getSentCount)
+                .register(registry);
+        FunctionCounter.builder("printbot.outbound.failed", outboundMessageQueue, OutboundMessageQueue::getFailedCount)
+                .register(registry);
+        FunctionCounter.builder("printbot.outbound.retried", outboundMessageQueue, OutboundMessageQueue::getRetriedCount)
+                .register(registry);
+        Gauge.builder("printbot.outbound.latency.max", outboundMessageQueue, OutboundMessageQueue::getMaxLatencyMillis)
+                .description("Longest time from enqueue to successful send")
+                .baseUnit("milliseconds")
+                .register(registry);
+
+        FunctionCounter.builder("printbot.user.cache.requests", userService, UserService::getCacheHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("printbot.user.cache.requests", userService, UserService::getCacheMisses)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("printbot.user.cache.loads", userService, UserService::getCacheLoads)
+                .register(registry);
+        Gauge.builder("printbot.user.cache.size", userService, UserService::getCacheSize)
+                .register(registry);
+
+        Gauge.builder("printbot.orders.write.pending", orderWriteBehind, OrderWriteBehind::pendingWrites)
+                .description("Orders queued for the next batch write")
+                .register(registry);
+
+        Gauge.builder("printbot.scheduling.queued", orderScheduler, OrderScheduler::queuedOrders)
+                .description("Accepted orders waiting for a free executor")
+                .register(registry);
+        Gauge.builder("printbot.scheduling.assigned", orderScheduler, OrderScheduler::assignedOrders)
+                .description("Orders assigned to an executor and not yet completed or canceled")
+                .register(registry);
+
+        Gauge.builder("printbot.cluster.partitions.owned", clusterCoordinator, ClusterCoordinator::ownedPartitions)
+                .description("Chat partitions handled by this instance")
+                .register(registry);
+        Gauge.builder("printbot.cluster.leader", clusterCoordinator, coordinator -> coordinator.isLeader() ? 1 : 0)
+                .description("1 if this instance is the leader polling Telegram")
+                .register(registry);
+    }
+}
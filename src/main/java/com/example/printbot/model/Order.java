@@ -3,30 +3,60 @@ package com.example.printbot.model;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", indexes = @Index(name = "idx_orders_user_id", columnList = "userId, id"))
 public class Order {
 
+    /** IDs are taken from {@code orders_seq} in blocks of this size, see {@code OrderIdAllocator}. */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     private String description;
     private Integer pages;
+    private Integer colorPages;
     private String printType;
     private String color;
     private String paper;
     private String fileId;
+    private String filePath;
+    private String fileHash;
     private Long userId;
     private Double cost;
     private String orderNumber;
+    private String cancelComment;
     @Enumerated(EnumType.STRING)
     private Status status;
-
+    /** Incremented by every write, so a write based on an older read is refused. */
+    @Version
+    private Long version;
+
+    /**
+     * The order's lifecycle. An accepted order can be paid, completed or canceled, a
+     * paid one completed or canceled; completed and canceled orders stay as they are.
+     */
     public enum Status {
         CANCELED,
         ACCEPTED,
         PAID,
-        COMPLETED
+        COMPLETED;
+
+        public boolean canMoveTo(Status next) {
+            switch (this) {
+                case ACCEPTED:
+                    return next == PAID || next == COMPLETED || next == CANCELED;
+                case PAID:
+                    return next == COMPLETED || next == CANCELED;
+                default:
+                    return false;
+            }
+        }
+
+        public boolean isFinal() {
+            return this == COMPLETED || this == CANCELED;
+        }
     }
 
     public Order() {
@@ -69,6 +99,14 @@ public class Order {
         this.pages = pages;
     }
 
+    public Integer getColorPages() {
+        return colorPages;
+    }
+
+    public void setColorPages(Integer colorPages) {
+        this.colorPages = colorPages;
+    }
+
     public String getPrintType() {
         return printType;
     }
@@ -101,6 +139,22 @@ public class Order {
         this.fileId = fileId;
     }
 
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
     public Long getUserId() {
         return userId;
     }
@@ -125,6 +179,14 @@ public class Order {
         this.orderNumber = orderNumber;
     }
 
+    public String getCancelComment() {
+        return cancelComment;
+    }
+
+    public void setCancelComment(String cancelComment) {
+        this.cancelComment = cancelComment;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -132,4 +194,20 @@ public class Order {
     public void setStatus(Status status) {
         this.status = status;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    /**
+     * Identifies the order in log messages, without the customer's free text or file locations.
+     */
+    @Override
+    public String toString() {
+        return "Order{id=" + id + ", orderNumber=" + orderNumber + ", status=" + status + ", pages=" + pages + "}";
+    }
 }
\ No newline at end of file
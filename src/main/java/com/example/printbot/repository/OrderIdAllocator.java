@@ -0,0 +1,53 @@
+package com.example.printbot.repository;
+
+import com.example.printbot.model.Order;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out order IDs from the {@code orders_seq} sequence in blocks of
+ * {@link Order#ID_ALLOCATION_SIZE}, so an ID is known before the row is written.
+ * <p>
+ * Every sequence value is the first ID of a block, the same interpretation as
+ * Hibernate's {@code pooled-lo} optimizer, so IDs taken here never collide with
+ * IDs Hibernate generates for the entity.
+ */
+@Component
+public class OrderIdAllocator {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String nextValueQuery;
+    private final int allocationSize;
+
+    private long next;
+    private long end;
+
+    @Autowired
+    public OrderIdAllocator(JdbcTemplate jdbcTemplate,
+                            @Value("${printbot.orders.id-query:select next value for orders_seq}") String nextValueQuery) {
+        this(jdbcTemplate, nextValueQuery, Order.ID_ALLOCATION_SIZE);
+    }
+
+    OrderIdAllocator(JdbcTemplate jdbcTemplate, String nextValueQuery, int allocationSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.nextValueQuery = nextValueQuery;
+        this.allocationSize = allocationSize;
+    }
+
+    /**
+     * @return The next unused order ID; only every {@code allocationSize}-th call hits the database.
+     */
+    public synchronized long nextId() {
+        if (next == end) {
+            Long first = jdbcTemplate.queryForObject(nextValueQuery, Long.class);
+            if (first == null) {
+                throw new IllegalStateException("Sequence query returned no value: " + nextValueQuery);
+            }
+            next = first;
+            end = first + allocationSize;
+        }
+        return next++;
+    }
+}
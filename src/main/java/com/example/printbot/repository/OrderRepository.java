@@ -1,9 +1,37 @@
 package com.example.printbot.repository;
 
 import com.example.printbot.model.Order;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.Collection;
 import java.util.List;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
     List<Order> findAllByUserId(Long userId);
-}
\ No newline at end of file
+
+    List<Order> findByStatusIn(Collection<Order.Status> statuses);
+
+    // Keyset pagination over (userId, id): newest first, no OFFSET and no count query.
+    List<OrderSummary> findByUserIdOrderByIdDesc(Long userId, Pageable pageable);
+
+    List<OrderSummary> findByUserIdAndIdLessThanOrderByIdDesc(Long userId, Long id, Pageable pageable);
+
+    List<OrderSummary> findByUserIdAndIdGreaterThanOrderByIdAsc(Long userId, Long id, Pageable pageable);
+
+    /**
+     * Moves the order to a new status in one statement, provided it still has the
+     * status and version the caller saw.
+     *
+     * @return 1 if the order was changed, 0 if it was changed since or does not exist.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "update orders set status = :to, version = version + 1 "
+            + "where id = :id and status = :from and version = :version", nativeQuery = true)
+    int transitionStatus(@Param("id") long id, @Param("from") String from, @Param("version") long version,
+                         @Param("to") String to);
+}
@@ -0,0 +1,16 @@
+package com.example.printbot.repository;
+
+import com.example.printbot.model.Order;
+
+/**
+ * Columns of an order shown in the customer's order list.
+ */
+public interface OrderSummary {
+    Long getId();
+    String getOrderNumber();
+    Order.Status getStatus();
+    String getDescription();
+    Integer getPages();
+    Double getCost();
+    String getCancelComment();
+}
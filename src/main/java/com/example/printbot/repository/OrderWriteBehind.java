@@ -0,0 +1,250 @@
+package com.example.printbot.repository;
+
+import com.example.printbot.model.Order;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes orders to the database in batches on a background thread.
+ * <p>
+ * {@link #submit} assigns a new order its ID from {@link OrderIdAllocator} right away
+ * and queues a snapshot of the order in a bounded queue. The writer takes up to
+ * {@code printbot.orders.write-behind.batch-size} pending writes, or whatever arrived
+ * within {@code flush-interval} of the first one, and stores them with one JDBC batch
+ * of inserts and one of updates in a single transaction. The returned future completes
+ * only after that transaction has committed, so callers that wait for it know the
+ * order is durable.
+ * <p>
+ * An update only applies if the row still has the order's version, and moves the
+ * version on; an update based on a stale read fails with an
+ * {@link OptimisticLockingFailureException} instead of overwriting newer data.
+ */
+@Component
+public class OrderWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderWriteBehind.class);
+
+    private static final String INSERT_SQL = "insert into orders (description, pages, color_pages, print_type, color, "
+            + "paper, file_id, file_path, file_hash, user_id, cost, order_number, cancel_comment, status, version, id) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL = "update orders set description = ?, pages = ?, color_pages = ?, "
+            + "print_type = ?, color = ?, paper = ?, file_id = ?, file_path = ?, file_hash = ?, user_id = ?, cost = ?, "
+            + "order_number = ?, cancel_comment = ?, status = ?, version = version + 1 where version = ? and id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderIdAllocator idAllocator;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutMillis;
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+
+    private Thread writer;
+    private volatile boolean running;
+
+    public OrderWriteBehind(JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager,
+                            OrderIdAllocator idAllocator,
+                            @Value("${printbot.orders.write-behind.queue-capacity:10000}") int queueCapacity,
+                            @Value("${printbot.orders.write-behind.batch-size:50}") int batchSize,
+                            @Value("${printbot.orders.write-behind.flush-interval:5ms}") Duration flushInterval,
+                            @Value("${printbot.orders.write-behind.offer-timeout:1s}") Duration offerTimeout,
+                            MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.idAllocator = idAllocator;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.offerTimeoutMillis = offerTimeout.toMillis();
+        this.flushTimer = meterRegistry.timer("printbot.orders.flush");
+        this.batchSizes = meterRegistry.summary("printbot.orders.batch.size");
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::writeLoop, "order-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops taking new writes and flushes the ones already queued.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Queues the order for writing. An order without an ID is inserted and gets its ID
+     * before this method returns; any other order is updated.
+     *
+     * @param order The order to store. Changes made after this call are not part of the write.
+     * @return A future completed with the order once the write is committed, or failed
+     *         if it could not be written, the order was changed since it was read, or
+     *         the queue stayed full for the offer timeout.
+     */
+    public CompletableFuture<Order> submit(Order order) {
+        boolean insert = order.getId() == null;
+        if (insert) {
+            order.setId(idAllocator.nextId());
+            order.setVersion(0L);
+        }
+        PendingWrite write = new PendingWrite(order, insert);
+        try {
+            if (!running || !queue.offer(write, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Order write queue is full, rejecting order {}", order.getOrderNumber());
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Order write queue is full"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        return write.done;
+    }
+
+    public int pendingWrites() {
+        return queue.size();
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in order writer", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch in one transaction. If that fails, the writes are retried one by
+     * one so a single bad order does not fail the others.
+     */
+    private void flush(List<PendingWrite> batch) {
+        batchSizes.record(batch.size());
+        Timer.Sample sample = Timer.start();
+        try {
+            transactionTemplate.executeWithoutResult(status -> write(batch));
+            batch.forEach(PendingWrite::complete);
+            log.debug("Wrote batch of {} orders", batch.size());
+        } catch (RuntimeException batchFailure) {
+            log.warn("Batch of {} orders failed, writing them one by one", batch.size(), batchFailure);
+            for (PendingWrite write : batch) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> write(List.of(write)));
+                    write.complete();
+                } catch (RuntimeException e) {
+                    log.error("Error while writing order {}", write.order.getOrderNumber(), e);
+                    write.done.completeExceptionally(e);
+                }
+            }
+        } finally {
+            sample.stop(flushTimer);
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        List<Object[]> inserts = new ArrayList<>(batch.size());
+        List<Object[]> updates = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            (write.insert ? inserts : updates).add(write.values);
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+        }
+        if (!updates.isEmpty()) {
+            int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+            int update = 0;
+            for (PendingWrite write : batch) {
+                if (!write.insert) {
+                    write.stale = counts[update++] == 0;
+                    if (write.stale) {
+                        log.warn("Order {} to update was changed since it was read, or does not exist",
+                                write.order.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        private final Order order;
+        private final boolean insert;
+        private final Object[] values;
+        private final CompletableFuture<Order> done = new CompletableFuture<>();
+        private boolean stale;
+
+        private PendingWrite(Order order, boolean insert) {
+            this.order = order;
+            this.insert = insert;
+            this.values = new Object[]{order.getDescription(), order.getPages(), order.getColorPages(),
+                    order.getPrintType(), order.getColor(), order.getPaper(), order.getFileId(), order.getFilePath(), order.getFileHash(),
+                    order.getUserId(), order.getCost(), order.getOrderNumber(), order.getCancelComment(),
+                    order.getStatus() == null ? null : order.getStatus().name(),
+                    order.getVersion() == null ? 0L : order.getVersion(), order.getId()};
+        }
+
+        private void complete() {
+            if (stale) {
+                done.completeExceptionally(new OptimisticLockingFailureException(
+                        "Order " + order.getId() + " was changed since it was read"));
+                return;
+            }
+            if (!insert) {
+                order.setVersion((Long) values[values.length - 2] + 1);
+            }
+            done.complete(order);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.printbot.scheduling;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The executors and printers orders can be assigned to.
+ * <p>
+ * Printers are listed in {@code printbot.printers} as
+ * {@code name:printType:pagesPerMinute[:colorPagesPerMinute]} and executors in
+ * {@code printbot.executors} as {@code chatId:capacity[:printer+printer...]},
+ * both comma-separated. An executor without a printer list may use every printer.
+ */
+@Component
+public class ExecutorRegistry {
+
+    private final List<Printer> printers;
+    private final List<PrintExecutor> executors;
+
+    @Autowired
+    public ExecutorRegistry(@Value("${printbot.executors:123456789:1}") String executors,
+                            @Value("${printbot.printers:laser:laser:30:20,inkjet:inkjet:12:6}") String printers) {
+        Map<String, Printer> printersByName = parsePrinters(printers);
+        this.printers = List.copyOf(printersByName.values());
+        this.executors = List.copyOf(parseExecutors(executors, printersByName));
+        if (this.executors.isEmpty()) {
+            throw new IllegalArgumentException("At least one executor must be configured in printbot.executors");
+        }
+    }
+
+    public List<PrintExecutor> getExecutors() {
+        return executors;
+    }
+
+    public List<Printer> getPrinters() {
+        return printers;
+    }
+
+    private static Map<String, Printer> parsePrinters(String value) {
+        Map<String, Printer> printers = new LinkedHashMap<>();
+        for (String entry : entries(value)) {
+            String[] parts = entry.split(":");
+            if (parts.length < 3 || parts.length > 4) {
+                throw new IllegalArgumentException("Printer must be name:printType:pagesPerMinute[:colorPagesPerMinute]: " + entry);
+            }
+            String name = parts[0].trim();
+            double colorPagesPerMinute = parts.length == 4 ? Double.parseDouble(parts[3].trim()) : 0;
+            Printer printer = new Printer(name, parts[1].trim(), Double.parseDouble(parts[2].trim()), colorPagesPerMinute);
+            if (printers.put(name, printer) != null) {
+                throw new IllegalArgumentException("Duplicate printer " + name);
+            }
+        }
+        return printers;
+    }
+
+    private static List<PrintExecutor> parseExecutors(String value, Map<String, Printer> printersByName) {
+        List<PrintExecutor> executors = new ArrayList<>();
+        for (String entry : entries(value)) {
+            String[] parts = entry.split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Executor must be chatId:capacity[:printer+printer...]: " + entry);
+            }
+            long chatId = Long.parseLong(parts[0].trim());
+            for (PrintExecutor executor : executors) {
+                if (executor.getChatId() == chatId) {
+                    throw new IllegalArgumentException("Duplicate executor " + chatId);
+                }
+            }
+            List<Printer> printers = new ArrayList<>(printersByName.values());
+            if (parts.length == 3) {
+                printers.clear();
+                for (String name : parts[2].split("\\+")) {
+                    Printer printer = printersByName.get(name.trim());
+                    if (printer == null) {
+                        throw new IllegalArgumentException("Executor " + chatId + " uses unknown printer " + name.trim());
+                    }
+                    printers.add(printer);
+                }
+            }
+            executors.add(new PrintExecutor(chatId, Integer.parseInt(parts[1].trim()), printers));
+        }
+        return executors;
+    }
+
+    private static List<String> entries(String value) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.isBlank()) {
+                entries.add(entry.trim());
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,531 @@
+package com.example.printbot.scheduling;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.service.OrderStatusChanged;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hands accepted orders to the executors in the {@link ExecutorRegistry}.
+ * <p>
+ * Orders wait in a queue ordered by the time they were submitted plus their
+ * shortest estimated print time, so short jobs move ahead of long ones by at most
+ * their own length and nothing starves. Each waiting order goes to the executor
+ * with free capacity and a suitable printer that would finish it first, counting
+ * the estimated work already assigned to them. An order no printer can print goes
+ * to whichever executor would be free first.
+ * <p>
+ * An executor has {@code printbot.scheduling.ack-timeout} to accept an order. If
+ * they do not, it is withdrawn and offered to the other executors first. An order
+ * holds its executor's capacity until {@link #release} is called for it.
+ * Assignments are kept in memory; on startup every accepted or paid order is
+ * queued again.
+ * <p>
+ * With {@code printbot.cluster.enabled} only the leader instance schedules: the
+ * scheduler starts suspended, is resumed when the instance becomes leader, and
+ * picks up orders confirmed on other instances through {@link #syncWithOpenOrders}.
+ */
+@Service
+public class OrderScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderScheduler.class);
+
+    private static final Comparator<QueuedOrder> QUEUE_ORDER =
+            Comparator.comparingLong((QueuedOrder queued) -> queued.priority).thenComparingLong(queued -> queued.sequence);
+    private static final List<Printer> NO_PRINTER = Collections.singletonList(null);
+
+    private final ExecutorRegistry registry;
+    private final PrintTimeEstimator estimator;
+    private final OrderRepository orderRepository;
+    private final long ackTimeoutMillis;
+    private final Clock clock;
+
+    private final TreeSet<QueuedOrder> queue = new TreeSet<>(QUEUE_ORDER);
+    private final Map<Long, QueuedOrder> queuedById = new HashMap<>();
+    private final Map<Long, Assignment> assignments = new HashMap<>();
+    private final Map<Long, ExecutorLoad> loads = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+    private long sequence;
+    private boolean active;
+    private Set<Long> releasedDuringSync;
+
+    private volatile Consumer<Assignment> listener;
+    private ScheduledExecutorService timeouts;
+
+    @Autowired
+    public OrderScheduler(ExecutorRegistry registry, PrintTimeEstimator estimator, OrderRepository orderRepository,
+                          @Value("${printbot.scheduling.ack-timeout:10m}") Duration ackTimeout,
+                          @Value("${printbot.cluster.enabled:false}") boolean clustered) {
+        this(registry, estimator, orderRepository, ackTimeout, Clock.systemUTC());
+        this.active = !clustered;
+    }
+
+    OrderScheduler(ExecutorRegistry registry, PrintTimeEstimator estimator, OrderRepository orderRepository,
+                   Duration ackTimeout, Clock clock) {
+        this.registry = registry;
+        this.estimator = estimator;
+        this.orderRepository = orderRepository;
+        this.ackTimeoutMillis = ackTimeout.toMillis();
+        this.clock = clock;
+        this.active = true;
+        for (PrintExecutor executor : registry.getExecutors()) {
+            loads.put(executor.getChatId(), new ExecutorLoad(executor));
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (isActive()) {
+            try {
+                log.info("Queued {} open orders for assignment", syncWithOpenOrders());
+            } catch (RuntimeException e) {
+                log.error("Open orders could not be loaded for assignment", e);
+            }
+        }
+        long period = Math.max(1000L, ackTimeoutMillis / 4);
+        timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-ack-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeouts.scheduleWithFixedDelay(this::reassignExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (timeouts != null) {
+            timeouts.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts scheduling after {@link #suspend}, beginning with every open order.
+     */
+    public void resume() {
+        synchronized (this) {
+            if (active) {
+                return;
+            }
+            active = true;
+        }
+        log.info("Resumed scheduling with {} open orders", syncWithOpenOrders());
+    }
+
+    /**
+     * Stops scheduling and forgets the queue and all assignments, which are left
+     * to whichever instance schedules next.
+     */
+    public synchronized void suspend() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        queue.clear();
+        queuedById.clear();
+        assignments.clear();
+        for (ExecutorLoad load : loads.values()) {
+            load.assigned = 0;
+            load.backlogMillis = 0;
+        }
+        log.info("Suspended scheduling");
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Queues the accepted and paid orders not yet known here and drops the queued
+     * or assigned ones that are no longer open, e.g. because another instance
+     * completed or canceled them.
+     *
+     * @return The number of open orders.
+     */
+    public int syncWithOpenOrders() {
+        synchronized (syncLock) {
+            Set<Long> known;
+            synchronized (this) {
+                known = new HashSet<>(queuedById.keySet());
+                known.addAll(assignments.keySet());
+                releasedDuringSync = new HashSet<>();
+            }
+            List<Order> open;
+            Set<Long> released;
+            try {
+                open = orderRepository.findByStatusIn(List.of(Order.Status.ACCEPTED, Order.Status.PAID));
+            } finally {
+                synchronized (this) {
+                    released = releasedDuringSync;
+                    releasedDuringSync = null;
+                }
+            }
+            Set<Long> openIds = new HashSet<>();
+            for (Order order : open) {
+                openIds.add(order.getId());
+            }
+            for (Long orderId : known) {
+                if (!openIds.contains(orderId)) {
+                    release(orderId);
+                }
+            }
+            for (Order order : open) {
+                // Released while the query ran, so it may be closed by now.
+                if (!released.contains(order.getId())) {
+                    submit(order);
+                }
+            }
+            return open.size();
+        }
+    }
+
+    /**
+     * Sets who is told about new assignments and assigns the orders queued until then.
+     *
+     * @param listener Called with every new assignment, outside the scheduler's lock.
+     */
+    public void onAssignment(Consumer<Assignment> listener) {
+        List<Assignment> assigned;
+        synchronized (this) {
+            this.listener = listener;
+            assigned = dispatch();
+        }
+        notifyAssigned(assigned);
+    }
+
+    /**
+     * Queues a saved order and assigns it if an executor is free. Ignored while
+     * suspended.
+     *
+     * @param order The order; it must have an ID.
+     */
+    public void submit(Order order) {
+        if (order.getId() == null) {
+            throw new IllegalArgumentException("Only saved orders can be scheduled");
+        }
+        List<Assignment> assigned;
+        synchronized (this) {
+            if (!active || queuedById.containsKey(order.getId()) || assignments.containsKey(order.getId())) {
+                return;
+            }
+            QueuedOrder queued = new QueuedOrder(order, sequence++);
+            long estimate = bestEstimate(order);
+            queued.matched = estimate >= 0;
+            if (!queued.matched) {
+                estimate = estimator.printMillis(order, null);
+            }
+            queued.priority = clock.millis() + estimate;
+            queue.add(queued);
+            queuedById.put(order.getId(), queued);
+            assigned = dispatch();
+        }
+        notifyAssigned(assigned);
+    }
+
+    /**
+     * Records that the executor accepted the order, which stops it from being reassigned.
+     *
+     * @param orderId The ID of the order.
+     * @param chatId  The chat of the executor who accepted it.
+     * @return The assignment, or {@code null} if the order is not assigned to that executor.
+     */
+    public synchronized Assignment acknowledge(long orderId, long chatId) {
+        Assignment assignment = assignments.get(orderId);
+        if (assignment == null || assignment.executor.getChatId() != chatId) {
+            return null;
+        }
+        assignment.acknowledged = true;
+        return assignment;
+    }
+
+    /**
+     * @param chatId The chat of an executor.
+     * @return The orders the executor accepted and has not finished, in no particular order.
+     */
+    public synchronized List<Order> acceptedOrders(long chatId) {
+        List<Order> accepted = new ArrayList<>();
+        for (Assignment assignment : assignments.values()) {
+            if (assignment.acknowledged && assignment.executor.getChatId() == chatId) {
+                accepted.add(assignment.order);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Frees the executor's capacity held by a finished or canceled order and drops
+     * it from the queue if it was still waiting.
+     *
+     * @param orderId The ID of the order.
+     */
+    public void release(long orderId) {
+        List<Assignment> assigned;
+        synchronized (this) {
+            if (releasedDuringSync != null) {
+                releasedDuringSync.add(orderId);
+            }
+            QueuedOrder queued = queuedById.remove(orderId);
+            if (queued != null) {
+                queue.remove(queued);
+            }
+            Assignment assignment = assignments.remove(orderId);
+            if (assignment == null) {
+                return;
+            }
+            loads.get(assignment.executor.getChatId()).remove(assignment);
+            assigned = dispatch();
+        }
+        notifyAssigned(assigned);
+    }
+
+    /**
+     * Follows status changes from the {@link com.example.printbot.service.OrderEventBus}:
+     * a completed or canceled order is released, any other keeps its held copy current
+     * so the buttons built from it carry the new status and version.
+     */
+    @EventListener
+    public void statusChanged(OrderStatusChanged change) {
+        if (change.getStatus().isFinal()) {
+            release(change.getOrderId());
+            return;
+        }
+        synchronized (this) {
+            QueuedOrder queued = queuedById.get(change.getOrderId());
+            Assignment assignment = assignments.get(change.getOrderId());
+            Order order = queued != null ? queued.order : assignment != null ? assignment.order : null;
+            if (order != null) {
+                order.setStatus(change.getStatus());
+                order.setVersion(change.getVersion());
+            }
+        }
+    }
+
+    /**
+     * Withdraws the assignments that were not accepted in time and offers them again.
+     */
+    void reassignExpired() {
+        List<Assignment> assigned;
+        synchronized (this) {
+            long now = clock.millis();
+            Iterator<Assignment> iterator = assignments.values().iterator();
+            while (iterator.hasNext()) {
+                Assignment assignment = iterator.next();
+                if (assignment.acknowledged || assignment.ackDeadline > now) {
+                    continue;
+                }
+                iterator.remove();
+                loads.get(assignment.executor.getChatId()).remove(assignment);
+                QueuedOrder queued = assignment.queued;
+                queued.passedOver.add(assignment.executor.getChatId());
+                if (queued.passedOver.size() >= loads.size()) {
+                    queued.passedOver.clear();
+                }
+                queue.add(queued);
+                queuedById.put(assignment.order.getId(), queued);
+                log.warn("Order {} was not accepted by executor {} in time, reassigning it",
+                        assignment.order.getOrderNumber(), assignment.executor.getChatId());
+            }
+            assigned = dispatch();
+        }
+        notifyAssigned(assigned);
+    }
+
+    public synchronized int queuedOrders() {
+        return queue.size();
+    }
+
+    public synchronized int assignedOrders() {
+        return assignments.size();
+    }
+
+    /**
+     * Assigns waiting orders in queue order, skipping those no free executor can take.
+     */
+    private List<Assignment> dispatch() {
+        if (listener == null || queue.isEmpty()) {
+            return List.of();
+        }
+        List<Assignment> assigned = new ArrayList<>();
+        long now = clock.millis();
+        Iterator<QueuedOrder> iterator = queue.iterator();
+        while (iterator.hasNext() && hasFreeExecutor()) {
+            QueuedOrder queued = iterator.next();
+            Assignment assignment = assign(queued, now);
+            if (assignment != null) {
+                iterator.remove();
+                queuedById.remove(queued.order.getId());
+                assignments.put(queued.order.getId(), assignment);
+                assigned.add(assignment);
+            }
+        }
+        return assigned;
+    }
+
+    private Assignment assign(QueuedOrder queued, long now) {
+        ExecutorLoad bestLoad = null;
+        Printer bestPrinter = null;
+        long bestEstimate = 0;
+        long bestFinish = Long.MAX_VALUE;
+        for (ExecutorLoad load : loads.values()) {
+            if (load.assigned >= load.executor.getCapacity() || queued.passedOver.contains(load.executor.getChatId())) {
+                continue;
+            }
+            List<Printer> printers = load.executor.getPrinters().isEmpty() ? NO_PRINTER : load.executor.getPrinters();
+            for (Printer printer : printers) {
+                long estimate;
+                if (!queued.matched) {
+                    estimate = estimator.printMillis(queued.order, printer);
+                } else if (printer == null || (estimate = estimator.estimate(queued.order, printer)) < 0) {
+                    continue;
+                }
+                if (load.backlogMillis + estimate < bestFinish) {
+                    bestFinish = load.backlogMillis + estimate;
+                    bestLoad = load;
+                    bestPrinter = printer;
+                    bestEstimate = estimate;
+                }
+            }
+        }
+        if (bestLoad == null) {
+            return null;
+        }
+        Assignment assignment = new Assignment(queued, bestLoad.executor, bestPrinter, bestEstimate, now + ackTimeoutMillis);
+        bestLoad.add(assignment);
+        return assignment;
+    }
+
+    private boolean hasFreeExecutor() {
+        for (ExecutorLoad load : loads.values()) {
+            if (load.assigned < load.executor.getCapacity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The shortest print time of the order on any registered printer, or -1 if none can print it.
+     */
+    private long bestEstimate(Order order) {
+        long best = -1;
+        for (Printer printer : registry.getPrinters()) {
+            long estimate = estimator.estimate(order, printer);
+            if (estimate >= 0 && (best < 0 || estimate < best)) {
+                best = estimate;
+            }
+        }
+        return best;
+    }
+
+    private void notifyAssigned(List<Assignment> assigned) {
+        Consumer<Assignment> current = listener;
+        for (Assignment assignment : assigned) {
+            log.info("Order {} assigned to executor {}", assignment.order.getOrderNumber(),
+                    assignment.executor.getChatId());
+            try {
+                current.accept(assignment);
+            } catch (RuntimeException e) {
+                log.error("Error while announcing the assignment of order {}", assignment.order.getOrderNumber(), e);
+            }
+        }
+    }
+
+    /**
+     * An order handed to an executor.
+     */
+    public static final class Assignment {
+        private final QueuedOrder queued;
+        private final Order order;
+        private final PrintExecutor executor;
+        private final Printer printer;
+        private final long estimatedMillis;
+        private final long ackDeadline;
+        private boolean acknowledged;
+
+        private Assignment(QueuedOrder queued, PrintExecutor executor, Printer printer, long estimatedMillis,
+                           long ackDeadline) {
+            this.queued = queued;
+            this.order = queued.order;
+            this.executor = executor;
+            this.printer = printer;
+            this.estimatedMillis = estimatedMillis;
+            this.ackDeadline = ackDeadline;
+        }
+
+        public Order getOrder() {
+            return order;
+        }
+
+        public PrintExecutor getExecutor() {
+            return executor;
+        }
+
+        /**
+         * @return The printer the estimate was made for, or {@code null} if the executor has none.
+         */
+        public Printer getPrinter() {
+            return printer;
+        }
+
+        public long getEstimatedMillis() {
+            return estimatedMillis;
+        }
+    }
+
+    private static final class QueuedOrder {
+        private final Order order;
+        private final long sequence;
+        private final Set<Long> passedOver = new HashSet<>();
+        private long priority;
+        private boolean matched;
+
+        private QueuedOrder(Order order, long sequence) {
+            this.order = order;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class ExecutorLoad {
+        private final PrintExecutor executor;
+        private int assigned;
+        private long backlogMillis;
+
+        private ExecutorLoad(PrintExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void add(Assignment assignment) {
+            assigned++;
+            backlogMillis += assignment.estimatedMillis;
+        }
+
+        private void remove(Assignment assignment) {
+            assigned--;
+            backlogMillis -= assignment.estimatedMillis;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.printbot.scheduling;
+
+import java.util.List;
+
+/**
+ * A person who prints orders, reached through their Telegram chat.
+ */
+public final class PrintExecutor {
+
+    private final long chatId;
+    private final int capacity;
+    private final List<Printer> printers;
+
+    public PrintExecutor(long chatId, int capacity, List<Printer> printers) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Executor " + chatId + " must have a positive capacity");
+        }
+        this.chatId = chatId;
+        this.capacity = capacity;
+        this.printers = List.copyOf(printers);
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    /**
+     * @return The number of orders the executor may hold at once, acknowledged or not.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public List<Printer> getPrinters() {
+        return printers;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.printbot.scheduling;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.service.PricingEngine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Estimates how long a printer takes to print an order.
+ * <p>
+ * The estimate is a fixed setup time ({@code printbot.scheduling.setup-time})
+ * plus the black-and-white and colour pages at the printer's speeds, stretched by
+ * the paper's factor from {@code printbot.scheduling.paper-factors}
+ * ({@code paper:factor,...}, 1 for paper not listed). Whether an order is in
+ * colour is decided by the rate table, so the two never disagree.
+ */
+@Component
+public class PrintTimeEstimator {
+
+    private final PricingEngine pricingEngine;
+    private final long setupMillis;
+    private final Map<String, Double> paperFactors = new HashMap<>();
+
+    @Autowired
+    public PrintTimeEstimator(PricingEngine pricingEngine,
+                              @Value("${printbot.scheduling.setup-time:1m}") Duration setupTime,
+                              @Value("${printbot.scheduling.paper-factors:A3:2,photo:4}") String paperFactors) {
+        this.pricingEngine = pricingEngine;
+        this.setupMillis = setupTime.toMillis();
+        for (String entry : paperFactors.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split(":");
+            double factor = parts.length == 2 ? Double.parseDouble(parts[1].trim()) : -1;
+            if (factor <= 0) {
+                throw new IllegalArgumentException("Paper factor must be paper:positiveFactor: " + entry);
+            }
+            this.paperFactors.put(parts[0].trim().toLowerCase(Locale.ROOT), factor);
+        }
+    }
+
+    /**
+     * @param order   The order to print.
+     * @param printer The printer to print it on.
+     * @return The estimated print time in milliseconds, or -1 if the printer cannot print the order.
+     */
+    public long estimate(Order order, Printer printer) {
+        if (!printer.supports(order.getPrintType())) {
+            return -1;
+        }
+        if (colorPages(order) > 0 && !printer.printsColor()) {
+            return -1;
+        }
+        return printMillis(order, printer);
+    }
+
+    /**
+     * Estimates the print time without checking that the printer can print the order,
+     * for orders no printer matches.
+     *
+     * @param order   The order to print.
+     * @param printer The printer to time it on, or {@code null} to count the setup time only.
+     * @return The estimated print time in milliseconds.
+     */
+    public long printMillis(Order order, Printer printer) {
+        if (printer == null) {
+            return setupMillis;
+        }
+        int pages = order.getPages() == null ? 0 : Math.max(order.getPages(), 0);
+        int colorPages = printer.printsColor() ? colorPages(order) : 0;
+        double minutes = (pages - colorPages) / printer.getPagesPerMinute();
+        if (colorPages > 0) {
+            minutes += colorPages / printer.getColorPagesPerMinute();
+        }
+        double factor = order.getPaper() == null
+                ? 1 : paperFactors.getOrDefault(order.getPaper().trim().toLowerCase(Locale.ROOT), 1.0);
+        return setupMillis + Math.round(minutes * factor * 60_000);
+    }
+
+    private int colorPages(Order order) {
+        if (!pricingEngine.isColor(order.getColor())) {
+            return 0;
+        }
+        int pages = order.getPages() == null ? 0 : Math.max(order.getPages(), 0);
+        Integer colorPages = order.getColorPages();
+        return colorPages == null || colorPages < 0 ? pages : Math.min(colorPages, pages);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.printbot.scheduling;
+
+/**
+ * A printer an executor can use, with the speed it prints at.
+ */
+public final class Printer {
+
+    private final String name;
+    private final String printType;
+    private final double pagesPerMinute;
+    private final double colorPagesPerMinute;
+
+    public Printer(String name, String printType, double pagesPerMinute, double colorPagesPerMinute) {
+        if (pagesPerMinute <= 0 || colorPagesPerMinute < 0) {
+            throw new IllegalArgumentException("Printer " + name + " must print a positive number of pages per minute");
+        }
+        this.name = name;
+        this.printType = printType;
+        this.pagesPerMinute = pagesPerMinute;
+        this.colorPagesPerMinute = colorPagesPerMinute;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrintType() {
+        return printType;
+    }
+
+    public double getPagesPerMinute() {
+        return pagesPerMinute;
+    }
+
+    /**
+     * @return The colour pages printed per minute, 0 if the printer only prints black and white.
+     */
+    public double getColorPagesPerMinute() {
+        return colorPagesPerMinute;
+    }
+
+    public boolean printsColor() {
+        return colorPagesPerMinute > 0;
+    }
+
+    /**
+     * @return {@code true} if the printer prints the given print type, or the order names none.
+     */
+    public boolean supports(String printType) {
+        return printType == null || this.printType.equalsIgnoreCase(printType.trim());
+    }
+}
@@ -1,12 +1,69 @@
 package com.example.printbot.service;
 
 import com.example.printbot.model.Order;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class OrderCalculationService {
 
+    private final PricingEngine pricingEngine;
+
+    @Autowired
+    public OrderCalculationService(PricingEngine pricingEngine) {
+        this.pricingEngine = pricingEngine;
+    }
+
     public Double calculateCost(Order order) {
-        return order.getPages() * 1.0;
+        return pricingEngine.quote(order);
+    }
+
+    /**
+     * Prices a batch of orders against one version of the rate table.
+     *
+     * @param orders The orders to price.
+     * @return The cost of each order, in the order of the list.
+     */
+    public double[] calculateCosts(List<Order> orders) {
+        double[] costs = new double[orders.size()];
+        pricingEngine.quote(orders, costs);
+        return costs;
+    }
+
+    /**
+     * @return {@code true} if the order prints in colour, so its price depends on how many pages have colour.
+     */
+    public boolean dependsOnColorPages(Order order) {
+        return pricingEngine.isColor(order.getColor());
+    }
+
+    /**
+     * Fills in what the preflight of the order's file answers: the page count and
+     * colour pages, the mono colour option if no page has colour, and the paper if
+     * every page has the size of a priced stock. Answers the customer gave are kept.
+     *
+     * @param order  The order draft.
+     * @param report The preflight of the order's file.
+     */
+    public void applyPreflight(Order order, PdfPreflightReport report) {
+        if (report.getPageCount() == 0) {
+            return;
+        }
+        if (order.getPages() == null) {
+            order.setPages(report.getPageCount());
+        }
+        int colorPages = report.getColorPageCount();
+        if (colorPages >= 0) {
+            order.setColorPages(colorPages);
+            if (colorPages == 0 && order.getColor() == null) {
+                order.setColor(pricingEngine.monoColor());
+            }
+        }
+        String paper = report.getPaperSize();
+        if (order.getPaper() == null && paper != null && pricingEngine.hasPaper(paper)) {
+            order.setPaper(paper);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands order events to their {@code @EventListener}s off the caller's thread.
+ * <p>
+ * Events are delivered one at a time on a single {@code order-events} thread, so
+ * listeners see the changes of an order in the order they were made. Up to
+ * {@code printbot.events.queue-capacity} events wait for delivery; when the queue
+ * is full the caller waits up to {@code printbot.events.offer-timeout} for room,
+ * which slows down whoever produces the events. Only an event that still finds no
+ * room is dropped and counted, so listeners that must not miss an event, like the
+ * release of a finished order from the scheduler, are also done by the caller.
+ * A listener that throws is logged and does not affect the caller.
+ */
+@Component
+public class OrderEventBus {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderEventBus.class);
+
+    private final ApplicationEventPublisher publisher;
+    private final ThreadPoolExecutor executor;
+    private final Counter rejected;
+    private final Counter failed;
+
+    public OrderEventBus(ApplicationEventPublisher publisher,
+                         @Value("${printbot.events.queue-capacity:1000}") int queueCapacity,
+                         @Value("${printbot.events.offer-timeout:1s}") Duration offerTimeout,
+                         MeterRegistry meterRegistry) {
+        this.publisher = publisher;
+        long offerTimeoutMillis = offerTimeout.toMillis();
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "order-events");
+            thread.setDaemon(true);
+            return thread;
+        }, (task, pool) -> {
+            // The queue only fills up while the delivery thread is busy, so queueing directly is safe
+            try {
+                if (!pool.isShutdown() && pool.getQueue().offer(task, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RejectedExecutionException("Event queue is full");
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.rejected = meterRegistry.counter("printbot.events", "result", "rejected");
+        this.failed = meterRegistry.counter("printbot.events", "result", "failed");
+    }
+
+    /**
+     * Delivers the events already queued, then stops.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues the event for its listeners.
+     *
+     * @return A future completed once every listener has seen the event, or failed if
+     *         the queue stayed full or a listener threw.
+     */
+    public CompletableFuture<Void> publish(Object event) {
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    publisher.publishEvent(event);
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    log.error("Listener failed on {}", event, e);
+                    throw e;
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Event queue stayed full, dropping {}", event);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
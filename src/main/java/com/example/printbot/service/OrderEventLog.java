@@ -0,0 +1,126 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Audit trail of the order lifecycle, one line of {@code key=value} pairs per event,
+ * written to the {@value #LOGGER_NAME} logger. {@code logback-spring.xml} sends that
+ * logger through an async appender to its own rolling files, so the caller only
+ * queues the event.
+ * <p>
+ * Each category is kept with the probability set in
+ * {@code printbot.audit.sample.<category>}: 1 keeps every event, 0 none. Nothing is
+ * formatted for events that are not kept, and free text such as descriptions or
+ * cancel comments is never written. The print settings, which customers type
+ * themselves, are written quoted, escaped and cut to {@value #MAX_TEXT_LENGTH}
+ * characters, so they cannot break a line apart or forge another one.
+ */
+@Component
+public class OrderEventLog {
+
+    public static final String LOGGER_NAME = "printbot.orders.events";
+
+    static final int MAX_TEXT_LENGTH = 32;
+
+    private static final Logger events = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private final double createdRate;
+    private final double statusRate;
+    private final double cancelledRate;
+    private final double viewedRate;
+
+    public OrderEventLog(@Value("${printbot.audit.sample.created:1}") double createdRate,
+                         @Value("${printbot.audit.sample.status:1}") double statusRate,
+                         @Value("${printbot.audit.sample.cancelled:1}") double cancelledRate,
+                         @Value("${printbot.audit.sample.viewed:0.01}") double viewedRate) {
+        this.createdRate = createdRate;
+        this.statusRate = statusRate;
+        this.cancelledRate = cancelledRate;
+        this.viewedRate = viewedRate;
+    }
+
+    /**
+     * Records a newly saved order; one saved already canceled is recorded as cancelled.
+     */
+    public void created(Order order) {
+        if (order.getStatus() == Order.Status.CANCELED) {
+            if (sampled(cancelledRate)) {
+                events.info("event=cancelled id={} order={} user={} from=draft",
+                        order.getId(), order.getOrderNumber(), order.getUserId());
+            }
+            return;
+        }
+        if (sampled(createdRate)) {
+            events.info("event=created id={} order={} user={} pages={} colorPages={} type={} color={} paper={} cost={}",
+                    order.getId(), order.getOrderNumber(), order.getUserId(), order.getPages(), order.getColorPages(),
+                    text(order.getPrintType()), text(order.getColor()), text(order.getPaper()), order.getCost());
+        }
+    }
+
+    /**
+     * Records a status change from the {@link OrderEventBus}; a change to canceled is
+     * recorded as cancelled.
+     */
+    @EventListener
+    public void statusChanged(OrderStatusChanged change) {
+        boolean cancelled = change.getStatus() == Order.Status.CANCELED;
+        if (sampled(cancelled ? cancelledRate : statusRate)) {
+            events.info("event={} id={} from={} to={} version={} by={}", cancelled ? "cancelled" : "status",
+                    change.getOrderId(), change.getPrevious(), change.getStatus(), change.getVersion(),
+                    change.getChangedBy());
+        }
+    }
+
+    /**
+     * Records that a user listed their orders.
+     */
+    public void viewed(Long userId, int orders) {
+        if (sampled(viewedRate)) {
+            events.info("event=viewed user={} orders={}", userId, orders);
+        }
+    }
+
+    /**
+     * @return The value in double quotes, with quotes, backslashes and control characters
+     *         escaped and anything beyond {@value #MAX_TEXT_LENGTH} characters cut off.
+     */
+    static String text(String value) {
+        if (value == null) {
+            return "null";
+        }
+        int length = Math.min(value.length(), MAX_TEXT_LENGTH);
+        StringBuilder quoted = new StringBuilder(length + 8).append('"');
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c == '\r') {
+                quoted.append("\\r");
+            } else if (c == '\t') {
+                quoted.append("\\t");
+            } else if (Character.isISOControl(c) || c == '\u2028' || c == '\u2029') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        if (value.length() > MAX_TEXT_LENGTH) {
+            quoted.append("...");
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static boolean sampled(double rate) {
+        return rate >= 1 ? events.isInfoEnabled()
+                : rate > 0 && events.isInfoEnabled() && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.printbot.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique, monotonically increasing order numbers without locking.
+ * <p>
+ * Every number is built from a 64-bit ID laid out as
+ * {@code [41 bits milliseconds since 2024-01-01][10 bits node][12 bits sequence]}.
+ * The node ID ({@code printbot.node-id}) keeps instances apart, and the
+ * timestamp and sequence are advanced together with a single CAS. When more
+ * than 4096 numbers are taken in one millisecond, or the clock goes back, the
+ * generator borrows the next millisecond instead of waiting, so IDs never repeat.
+ * The ID is rendered as {@code ORDER_yyyyMMdd_HHmm_<base36 id>}.
+ */
+@Component
+public class OrderNumberGenerator {
+
+    static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+    private static final DateTimeFormatter PREFIX_FORMAT = DateTimeFormatter.ofPattern("'ORDER_'yyyyMMdd_HHmm_");
+
+    private final long nodeId;
+    private final Clock clock;
+    /** Last issued {@code timestamp << SEQUENCE_BITS | sequence}. */
+    private final AtomicLong last = new AtomicLong();
+    private volatile Prefix prefix = new Prefix(-1, "");
+
+    @Autowired
+    public OrderNumberGenerator(@Value("${printbot.node-id:0}") long nodeId) {
+        this(nodeId, Clock.systemDefaultZone());
+    }
+
+    OrderNumberGenerator(long nodeId, Clock clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    /**
+     * @return The next unique ID of this node.
+     */
+    public long nextId() {
+        while (true) {
+            long now = clock.millis() - EPOCH_MILLIS;
+            long previous = last.get();
+            long next = now > previous >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : previous + 1;
+            if (last.compareAndSet(previous, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return timestamp << (NODE_BITS + SEQUENCE_BITS) | nodeId << SEQUENCE_BITS | sequence;
+            }
+        }
+    }
+
+    /**
+     * @return The next unique order number, e.g. {@code ORDER_20261017_1432_1A2B3C4D5E}.
+     */
+    public String nextOrderNumber() {
+        long id = nextId();
+        return prefixFor(id) + Long.toString(id, 36).toUpperCase();
+    }
+
+    /**
+     * Returns the human-readable date prefix of an ID. The formatted prefix is reused
+     * for the whole minute, so formatting costs nothing on the common path.
+     */
+    private String prefixFor(long id) {
+        long millis = (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+        long minute = millis / 60_000;
+        Prefix current = prefix;
+        if (current.minute != minute) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), clock.getZone());
+            current = new Prefix(minute, PREFIX_FORMAT.format(time));
+            prefix = current;
+        }
+        return current.text;
+    }
+
+    private static final class Prefix {
+        private final long minute;
+        private final String text;
+
+        private Prefix(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+}
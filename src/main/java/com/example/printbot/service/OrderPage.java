@@ -0,0 +1,47 @@
+package com.example.printbot.service;
+
+import com.example.printbot.repository.OrderSummary;
+
+import java.util.List;
+
+/**
+ * One page of a customer's orders, newest first.
+ */
+public class OrderPage {
+
+    private final List<OrderSummary> orders;
+    private final boolean hasNewer;
+    private final boolean hasOlder;
+
+    public OrderPage(List<OrderSummary> orders, boolean hasNewer, boolean hasOlder) {
+        this.orders = orders;
+        this.hasNewer = hasNewer;
+        this.hasOlder = hasOlder;
+    }
+
+    public List<OrderSummary> getOrders() {
+        return orders;
+    }
+
+    public boolean hasNewer() {
+        return hasNewer;
+    }
+
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    /**
+     * @return The ID of the newest order on the page, the cursor for the previous page.
+     */
+    public Long getFirstId() {
+        return orders.isEmpty() ? null : orders.get(0).getId();
+    }
+
+    /**
+     * @return The ID of the oldest order on the page, the cursor for the next page.
+     */
+    public Long getLastId() {
+        return orders.isEmpty() ? null : orders.get(orders.size() - 1).getId();
+    }
+}
@@ -3,18 +3,22 @@ package com.example.printbot.service;
 import com.example.printbot.telegram.BotHandler;
 import com.example.printbot.model.Order;
 import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.repository.OrderSummary;
+import com.example.printbot.repository.OrderWriteBehind;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Random;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class OrderService {
@@ -23,16 +27,33 @@ public class OrderService {
     private final OrderRepository orderRepository;
 
     private final PdfService pdfService;
-    
+
+    private final OrderNumberGenerator orderNumberGenerator;
+
+    private final OrderWriteBehind orderWriteBehind;
+
+    private final OrderCalculationService orderCalculationService;
+
+    private final OrderEventLog orderEvents;
+
+    private final OrderEventBus orderEventBus;
+
     @Autowired
-    public OrderService(OrderRepository orderRepository, PdfService pdfService) {
+    public OrderService(OrderRepository orderRepository, PdfService pdfService, OrderNumberGenerator orderNumberGenerator,
+                        OrderWriteBehind orderWriteBehind, OrderCalculationService orderCalculationService,
+                        OrderEventLog orderEvents, OrderEventBus orderEventBus) {
         this.orderRepository = orderRepository;
         this.pdfService = pdfService;
+        this.orderNumberGenerator = orderNumberGenerator;
+        this.orderWriteBehind = orderWriteBehind;
+        this.orderCalculationService = orderCalculationService;
+        this.orderEvents = orderEvents;
+        this.orderEventBus = orderEventBus;
     }
 
     public Order createOrder(Order order) {
         order.setOrderNumber(generateOrderNumber());
-        log.info("createOrder method start with order: {}", order);
+        log.debug("createOrder method start with order: {}", order);
         try {
             if(Objects.isNull(order)){
                 log.error("Order is null");
@@ -40,10 +61,10 @@ public class OrderService {
             }
 
             if (Objects.isNull(order.getPages())) {
-                if (Objects.nonNull(order.getFileId())){
+                if (Objects.nonNull(order.getFilePath())){
                     try {
-                        log.info("Getting pages from file");
-                        order.setPages(pdfService.getPageCount(new File(order.getFileId())));
+                        log.debug("Getting pages from file");
+                        order.setPages(pdfService.analyze(new File(order.getFilePath()), null, order.getFileHash()).getPageCount());
                     } catch (Exception e) {
                         log.error("Error getting pages from file", e);
                     }
@@ -54,8 +75,8 @@ public class OrderService {
             if(Objects.isNull(order.getPages()) || order.getPages() <= 0){
                 log.error("Pages is invalid: {}", order.getPages());
                 throw new IllegalArgumentException("Invalid pages");}
-            Order savedOrder = orderRepository.save(order);
-            log.info("createOrder method end with result: {}", savedOrder);
+            Order savedOrder = saveAsync(order).join();
+            log.debug("createOrder method end with result: {}", savedOrder);
             return savedOrder;
         } catch (Exception e) {
             log.error("Error in createOrder method", e);
@@ -64,10 +85,11 @@ public class OrderService {
     }
 
     public List<Order> findOrdersByUserId(Long userId) {
-        log.info("findOrdersByUserId method start with userId: {}", userId);
+        log.debug("findOrdersByUserId method start with userId: {}", userId);
         try {
             List<Order> orders = orderRepository.findAllByUserId(userId);
-            log.info("findOrdersByUserId method end with result: {}", orders);
+            log.debug("findOrdersByUserId method end with {} orders", orders.size());
+            orderEvents.viewed(userId, orders.size());
             return orders;
         } catch (Exception e) {
             log.error("Error in findOrdersByUserId method", e);
@@ -75,53 +97,118 @@ public class OrderService {
         }
     }
 
-    public Order updateOrderStatus(Long orderId, Order.Status status) {
-        log.info("updateOrderStatus method start with orderId: {}, status: {}", orderId, status);
-        if (Objects.isNull(status) || !List.of(Order.Status.values()).contains(status)) {
-            log.error("Invalid order status: {}", status);
-            throw new IllegalArgumentException("Invalid order status");
+    /**
+     * Returns a page of the user's orders, newest first, using the ID of an order on
+     * the current page as cursor.
+     *
+     * @param userId   The Telegram ID of the user.
+     * @param cursorId The first or last order ID of the current page, or {@code null} for the newest page.
+     * @param older    {@code true} to page towards older orders, {@code false} towards newer ones.
+     * @param pageSize The number of orders per page.
+     * @return The page of orders.
+     */
+    public OrderPage findOrderPage(Long userId, Long cursorId, boolean older, int pageSize) {
+        log.debug("findOrderPage userId: {}, cursorId: {}, older: {}", userId, cursorId, older);
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        if (cursorId == null) {
+            List<OrderSummary> orders = orderRepository.findByUserIdOrderByIdDesc(userId, limit);
+            orderEvents.viewed(userId, Math.min(orders.size(), pageSize));
+            return new OrderPage(head(orders, pageSize), false, orders.size() > pageSize);
         }
-        Optional<Order> optionalOrder = orderRepository.findById(orderId);
-        if (optionalOrder.isPresent()) {
-             try {
-                Order order = optionalOrder.get();
-
-                order.setStatus(status);
-                Order updatedOrder = orderRepository.save(order);
-                log.info("updateOrderStatus method end with result: {}", updatedOrder);
-                return updatedOrder;
-            } catch (Exception e) {
-                log.error("Error in updateOrderStatus method", e);
-                throw e;
-            }
-        } else {
-            log.warn("Order with id {} not found", orderId);
-            return null;
+        if (older) {
+            List<OrderSummary> orders = orderRepository.findByUserIdAndIdLessThanOrderByIdDesc(userId, cursorId, limit);
+            return new OrderPage(head(orders, pageSize), true, orders.size() > pageSize);
         }
+        List<OrderSummary> orders = orderRepository.findByUserIdAndIdGreaterThanOrderByIdAsc(userId, cursorId, limit);
+        List<OrderSummary> page = new ArrayList<>(head(orders, pageSize));
+        Collections.reverse(page);
+        return new OrderPage(page, orders.size() > pageSize, true);
+    }
+
+    private static List<OrderSummary> head(List<OrderSummary> orders, int size) {
+        return orders.size() > size ? orders.subList(0, size) : orders;
+    }
+
+    /**
+     * Moves an order from the status and version the caller last saw to a new status,
+     * with one conditional update. Once it is committed an {@link OrderStatusChanged}
+     * is published on the {@link OrderEventBus}; releasing the executor, telling the
+     * customer and the audit log all happen in its listeners.
+     *
+     * @param orderId   The ID of the order.
+     * @param previous  The status the caller saw.
+     * @param version   The version the caller saw.
+     * @param status    The new status.
+     * @param changedBy The chat ID of whoever changes the status.
+     * @return {@code true} if the status was changed, {@code false} if the order was
+     *         changed since the caller saw it or does not exist.
+     * @throws IllegalArgumentException if the order cannot go from {@code previous} to {@code status}.
+     */
+    public boolean changeStatus(long orderId, Order.Status previous, long version, Order.Status status, long changedBy) {
+        log.debug("changeStatus orderId: {}, {} -> {}, version: {}", orderId, previous, status, version);
+        if (previous == null || status == null || !previous.canMoveTo(status)) {
+            throw new IllegalArgumentException("Order status cannot change from " + previous + " to " + status);
+        }
+        if (orderRepository.transitionStatus(orderId, previous.name(), version, status.name()) == 0) {
+            log.debug("Order {} is no longer {} at version {}", orderId, previous, version);
+            return false;
+        }
+        orderEventBus.publish(new OrderStatusChanged(orderId, previous, status, version + 1, changedBy));
+        return true;
+    }
+
+    /**
+     * Prices the orders again with the current rate table and saves the new costs
+     * in as few batch writes as the write-behind needs.
+     *
+     * @param orderIds The IDs of the orders to re-price; unknown IDs are skipped.
+     * @return The re-priced orders.
+     */
+    public List<Order> repriceOrders(List<Long> orderIds) {
+        log.debug("repriceOrders method start with {} orders", orderIds.size());
+        List<Order> orders = orderRepository.findAllById(orderIds);
+        double[] costs = orderCalculationService.calculateCosts(orders);
+        List<CompletableFuture<Order>> writes = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            orders.get(i).setCost(costs[i]);
+            writes.add(orderWriteBehind.submit(orders.get(i)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+        log.debug("repriceOrders method end");
+        return orders;
     }
 
     public Order findOrderById(Long id) {
-        log.info("findOrderById method start with id: {}", id);
+        log.debug("findOrderById method start with id: {}", id);
         Optional<Order> optionalOrder = orderRepository.findById(id);
-        log.info("findOrderById method end with result: {}", optionalOrder.orElse(null));
+        log.debug("findOrderById method end with result: {}", optionalOrder.orElse(null));
         return optionalOrder.orElse(null) ;
     }
 
     public String generateOrderNumber() {
-        log.info("generateOrderNumber method start");
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm");
-        String formattedDateTime = now.format(formatter);
-        int randomNumber = new Random().nextInt(1000);
-        String orderNumber = "ORDER_" + formattedDateTime + "_" + randomNumber;
-        log.info("generateOrderNumber method end with result: {}", orderNumber);
-        return orderNumber;
+        return orderNumberGenerator.nextOrderNumber();
     }
 
     public Order save(Order order){
-        log.info("save method start with order: {}", order);
-        Order savedOrder = orderRepository.save(order);
-        log.info("save method end with result: {}", savedOrder);
+        log.debug("save method start with order: {}", order);
+        Order savedOrder = saveAsync(order).join();
+        log.debug("save method end with result: {}", savedOrder);
         return savedOrder;
     }
+
+    /**
+     * Queues the order for the next batch write. A new order gets its ID immediately
+     * and is recorded in the {@link OrderEventLog} once it is committed.
+     *
+     * @param order The order to save.
+     * @return A future completed with the order once it is committed to the database.
+     */
+    public CompletableFuture<Order> saveAsync(Order order) {
+        boolean created = order.getId() == null;
+        CompletableFuture<Order> saved = orderWriteBehind.submit(order);
+        if (created) {
+            saved.thenAccept(orderEvents::created);
+        }
+        return saved;
+    }
 }
\ No newline at end of file
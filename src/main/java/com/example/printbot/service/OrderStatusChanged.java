@@ -0,0 +1,54 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+
+/**
+ * Published on the {@link OrderEventBus} after an order's new status is committed.
+ */
+public final class OrderStatusChanged {
+
+    private final long orderId;
+    private final Order.Status previous;
+    private final Order.Status status;
+    private final long version;
+    private final long changedBy;
+
+    public OrderStatusChanged(long orderId, Order.Status previous, Order.Status status, long version, long changedBy) {
+        this.orderId = orderId;
+        this.previous = previous;
+        this.status = status;
+        this.version = version;
+        this.changedBy = changedBy;
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public Order.Status getPrevious() {
+        return previous;
+    }
+
+    public Order.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The version of the order with the new status.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The chat ID of whoever changed the status.
+     */
+    public long getChangedBy() {
+        return changedBy;
+    }
+
+    @Override
+    public String toString() {
+        return "OrderStatusChanged{orderId=" + orderId + ", " + previous + " -> " + status + ", version=" + version + "}";
+    }
+}
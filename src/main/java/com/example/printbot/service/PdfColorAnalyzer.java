@@ -0,0 +1,95 @@
+package com.example.printbot.service;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells whether a page prints in colour by reading the operators of its content
+ * stream, without rendering it.
+ * <p>
+ * A page has colour if it sets a fill or stroke colour whose components are not
+ * all equal (RGB or CMYK), or draws an image with three or more colour components.
+ * Form XObjects and inline images are not inspected, so a page that only has
+ * colour inside them counts as black and white.
+ */
+final class PdfColorAnalyzer {
+
+    private static final float TOLERANCE = 0.01f;
+
+    private PdfColorAnalyzer() {
+    }
+
+    static boolean hasColor(PDPage page) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(page);
+        List<COSBase> operands = new ArrayList<>();
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (!(token instanceof Operator)) {
+                if (token instanceof COSBase) {
+                    operands.add((COSBase) token);
+                }
+                continue;
+            }
+            if (isColorOperator(((Operator) token).getName(), operands, page.getResources())) {
+                return true;
+            }
+            operands.clear();
+        }
+        return false;
+    }
+
+    private static boolean isColorOperator(String name, List<COSBase> operands, PDResources resources) throws IOException {
+        switch (name) {
+            case "rg":
+            case "RG":
+            case "sc":
+            case "SC":
+            case "scn":
+            case "SCN":
+                return operands.size() == 3 ? !allEqual(operands, 0, 3)
+                        : operands.size() == 4 && !allEqual(operands, 0, 3);
+            case "k":
+            case "K":
+                return operands.size() == 4 && !allEqual(operands, 0, 3);
+            case "Do":
+                if (operands.isEmpty() || !(operands.get(0) instanceof COSName) || resources == null) {
+                    return false;
+                }
+                PDXObject xObject = resources.getXObject((COSName) operands.get(0));
+                return xObject instanceof PDImageXObject
+                        && ((PDImageXObject) xObject).getColorSpace().getNumberOfComponents() >= 3;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return {@code true} if the numeric operands in the range are equal, i.e. a shade of grey.
+     */
+    private static boolean allEqual(List<COSBase> operands, int from, int to) {
+        float first = -1;
+        for (int i = from; i < to; i++) {
+            if (!(operands.get(i) instanceof COSNumber)) {
+                return true;
+            }
+            float value = ((COSNumber) operands.get(i)).floatValue();
+            if (i == from) {
+                first = value;
+            } else if (Math.abs(value - first) > TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.printbot.service;
+
+/**
+ * What is known about an uploaded PDF: its page count and, when they were
+ * read, the size of each page in points.
+ */
+public class PdfMetadata {
+
+    private static final float[] NONE = new float[0];
+
+    private final int pageCount;
+    private final float[] pageWidths;
+    private final float[] pageHeights;
+
+    public PdfMetadata(int pageCount) {
+        this(pageCount, NONE, NONE);
+    }
+
+    public PdfMetadata(int pageCount, float[] pageWidths, float[] pageHeights) {
+        this.pageCount = pageCount;
+        this.pageWidths = pageWidths;
+        this.pageHeights = pageHeights;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public float[] getPageWidths() {
+        return pageWidths;
+    }
+
+    public float[] getPageHeights() {
+        return pageHeights;
+    }
+
+    /**
+     * @return {@code true} if the page sizes were read, not only the page count.
+     */
+    public boolean hasPageSizes() {
+        return pageWidths.length == pageCount && pageCount > 0;
+    }
+}
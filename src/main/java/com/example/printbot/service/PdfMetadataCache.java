@@ -0,0 +1,233 @@
+package com.example.printbot.service;
+
+import com.example.printbot.util.BoundedLruCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the {@link PdfMetadata} of files that were already analysed, keyed by
+ * Telegram's {@code file_unique_id} and by the SHA-256 of the content.
+ * <p>
+ * Entries live in a bounded LRU map. If {@code printbot.pdf.cache.file} is set,
+ * every new entry is also appended to that file, which is read back on startup, so
+ * the cache survives restarts. The file is rewritten from the map on startup and
+ * whenever it holds {@value #COMPACT_FACTOR} times as many records as the map can,
+ * so it does not outgrow the cache. Each record carries its length and a CRC32: a
+ * damaged record is skipped, and reading stops at a record whose length is unusable,
+ * such as the torn last write of a crash.
+ */
+@Component
+public class PdfMetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfMetadataCache.class);
+
+    private static final String UNIQUE_ID_PREFIX = "u:";
+    private static final String SHA256_PREFIX = "h:";
+    static final int COMPACT_FACTOR = 2;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final BoundedLruCache<String, PdfMetadata> entries;
+    private final long maxStoredRecords;
+    private final Path storeFile;
+    private DataOutputStream store;
+    private long storedRecords;
+
+    public PdfMetadataCache(@Value("${printbot.pdf.cache.max-entries:10000}") int maxEntries,
+                            @Value("${printbot.pdf.cache.file:}") String storeFile) {
+        this.entries = new BoundedLruCache<>(maxEntries);
+        this.maxStoredRecords = (long) COMPACT_FACTOR * maxEntries;
+        this.storeFile = storeFile.isEmpty() ? null : Paths.get(storeFile);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (storeFile == null) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (Files.exists(storeFile)) {
+                    readStore();
+                    compactStore();
+                }
+                openStore();
+            }
+            log.info("Loaded {} PDF metadata entries from {}", entries.size(), storeFile);
+        } catch (IOException | RuntimeException e) {
+            log.error("PDF metadata store {} is not usable, caching in memory only", storeFile, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                log.error("Error while closing PDF metadata store", e);
+            }
+            store = null;
+        }
+    }
+
+    public PdfMetadata findByUniqueId(String fileUniqueId) {
+        return fileUniqueId == null ? null : entries.get(UNIQUE_ID_PREFIX + fileUniqueId);
+    }
+
+    public PdfMetadata findBySha256(String sha256) {
+        return sha256 == null ? null : entries.get(SHA256_PREFIX + sha256);
+    }
+
+    /**
+     * Stores the metadata under both keys; either key may be {@code null}.
+     */
+    public void put(String fileUniqueId, String sha256, PdfMetadata metadata) {
+        if (fileUniqueId != null) {
+            put(UNIQUE_ID_PREFIX + fileUniqueId, metadata);
+        }
+        if (sha256 != null) {
+            put(SHA256_PREFIX + sha256, metadata);
+        }
+    }
+
+    private void put(String key, PdfMetadata metadata) {
+        entries.put(key, metadata);
+        synchronized (this) {
+            if (store != null) {
+                try {
+                    write(store, key, metadata);
+                    store.flush();
+                    if (++storedRecords > maxStoredRecords) {
+                        store.close();
+                        store = null;
+                        compactStore();
+                        openStore();
+                    }
+                } catch (IOException e) {
+                    log.error("Error while writing PDF metadata store, disabling it", e);
+                    close();
+                }
+            }
+        }
+    }
+
+    private void openStore() throws IOException {
+        store = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(storeFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private void readStore() throws IOException {
+        int skipped = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storeFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    log.warn("PDF metadata store {} has an unreadable record, ignoring the rest of it", storeFile);
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    skipped++;
+                    continue;
+                }
+                try (DataInputStream entry = new DataInputStream(new ByteArrayInputStream(record))) {
+                    entries.put(entry.readUTF(), read(entry));
+                } catch (IOException e) {
+                    skipped++;
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("PDF metadata store {} ends with a truncated entry, ignoring it", storeFile);
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} damaged records of PDF metadata store {}", skipped, storeFile);
+        }
+    }
+
+    private void compactStore() throws IOException {
+        Path compacted = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            IOException[] failure = new IOException[1];
+            entries.forEach((key, metadata) -> {
+                try {
+                    if (failure[0] == null) {
+                        write(out, key, metadata);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        Files.move(compacted, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        storedRecords = entries.size();
+    }
+
+    /**
+     * Writes one record: its length, its CRC32 and the key and metadata.
+     */
+    private static void write(DataOutputStream out, String key, PdfMetadata metadata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeUTF(key);
+            record.writeInt(metadata.getPageCount());
+            float[] widths = metadata.getPageWidths();
+            float[] heights = metadata.getPageHeights();
+            record.writeInt(widths.length);
+            for (int i = 0; i < widths.length; i++) {
+                record.writeFloat(widths[i]);
+                record.writeFloat(heights[i]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    private static PdfMetadata read(DataInputStream in) throws IOException {
+        int pageCount = in.readInt();
+        int sizes = in.readInt();
+        if (pageCount < 0 || sizes < 0 || sizes > pageCount) {
+            throw new IOException("Corrupt PDF metadata entry");
+        }
+        float[] widths = new float[sizes];
+        float[] heights = new float[sizes];
+        for (int i = 0; i < sizes; i++) {
+            widths[i] = in.readFloat();
+            heights[i] = in.readFloat();
+        }
+        return new PdfMetadata(pageCount, widths, heights);
+    }
+}
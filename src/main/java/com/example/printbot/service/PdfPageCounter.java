@@ -0,0 +1,374 @@
+package com.example.printbot.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the page count of a PDF without building its object model.
+ * <p>
+ * Only the pieces needed for {@code /Count} are read through a {@link FileChannel}:
+ * the {@code startxref} pointer at the end of the file, the classic cross-reference
+ * tables (following {@code /Prev} for incremental updates), the catalog and the root
+ * of the page tree. Anything this reader does not understand, such as cross-reference
+ * streams or objects stored in object streams, makes it give up and return -1 so the
+ * caller can fall back to PDFBox.
+ */
+final class PdfPageCounter {
+
+    private static final int TAIL_SIZE = 1024;
+    private static final int XREF_ENTRY_SIZE = 20;
+    private static final int MAX_XREF_SECTIONS = 64;
+    private static final int MAX_TOKENS_PER_OBJECT = 1 << 20;
+
+    private final Cursor cursor;
+    private final List<long[]> subsections = new ArrayList<>();
+
+    private PdfPageCounter(FileChannel channel) throws IOException {
+        this.cursor = new Cursor(channel);
+    }
+
+    /**
+     * @param path The PDF file.
+     * @return The number of pages, or -1 if it cannot be read without a full parse.
+     */
+    static int countPages(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PdfPageCounter(channel).count();
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private int count() throws IOException {
+        long startXref = findStartXref();
+        if (startXref < 0) {
+            return -1;
+        }
+        Ref root = null;
+        Set<Long> visited = new HashSet<>();
+        long sectionOffset = startXref;
+        while (sectionOffset >= 0 && visited.add(sectionOffset) && visited.size() <= MAX_XREF_SECTIONS) {
+            cursor.seek(sectionOffset);
+            if (!"xref".equals(cursor.token())) {
+                return -1;
+            }
+            readSubsections();
+            if (!"trailer".equals(cursor.token())) {
+                return -1;
+            }
+            Dict trailer = readDict();
+            if (trailer == null) {
+                return -1;
+            }
+            if (root == null && trailer.get("Root") instanceof Ref) {
+                root = (Ref) trailer.get("Root");
+            }
+            Object prev = trailer.get("Prev");
+            sectionOffset = prev instanceof Long ? (Long) prev : -1;
+        }
+        if (root == null) {
+            return -1;
+        }
+        Dict catalog = readObjectDict(root);
+        if (catalog == null || !(catalog.get("Pages") instanceof Ref)) {
+            return -1;
+        }
+        Dict pages = readObjectDict((Ref) catalog.get("Pages"));
+        if (pages == null) {
+            return -1;
+        }
+        Object count = pages.get("Count");
+        if (count instanceof Ref) {
+            count = readObjectValue((Ref) count);
+        }
+        if (!(count instanceof Long) || (Long) count < 0 || (Long) count > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return ((Long) count).intValue();
+    }
+
+    private long findStartXref() throws IOException {
+        long size = cursor.size();
+        int tailLength = (int) Math.min(size, TAIL_SIZE);
+        byte[] tail = cursor.read(size - tailLength, tailLength);
+        String text = new String(tail, StandardCharsets.ISO_8859_1);
+        int index = text.lastIndexOf("startxref");
+        if (index < 0) {
+            return -1;
+        }
+        cursor.seek(size - tailLength + index + "startxref".length());
+        Object offset = cursor.number(cursor.token());
+        return offset instanceof Long && (Long) offset < size ? (Long) offset : -1;
+    }
+
+    /**
+     * Records where each subsection of the current table starts, skipping its entries.
+     */
+    private void readSubsections() throws IOException {
+        while (true) {
+            long mark = cursor.position();
+            Object start = cursor.number(cursor.token());
+            if (!(start instanceof Long)) {
+                cursor.seek(mark);
+                return;
+            }
+            Object count = cursor.number(cursor.token());
+            if (!(count instanceof Long)) {
+                throw new IOException("Malformed xref subsection");
+            }
+            cursor.skipWhitespace();
+            long firstEntry = cursor.position();
+            subsections.add(new long[]{(Long) start, (Long) count, firstEntry});
+            cursor.seek(firstEntry + (Long) count * XREF_ENTRY_SIZE);
+        }
+    }
+
+    private long offsetOf(Ref ref) throws IOException {
+        for (long[] subsection : subsections) {
+            long start = subsection[0];
+            if (ref.number >= start && ref.number < start + subsection[1]) {
+                byte[] entry = cursor.read(subsection[2] + (ref.number - start) * XREF_ENTRY_SIZE, XREF_ENTRY_SIZE);
+                String text = new String(entry, StandardCharsets.ISO_8859_1);
+                if (text.charAt(17) != 'n') {
+                    return -1;
+                }
+                return Long.parseLong(text.substring(0, 10));
+            }
+        }
+        return -1;
+    }
+
+    private Dict readObjectDict(Ref ref) throws IOException {
+        Object value = readObjectValue(ref);
+        return value instanceof Dict ? (Dict) value : null;
+    }
+
+    private Object readObjectValue(Ref ref) throws IOException {
+        long offset = offsetOf(ref);
+        if (offset < 0) {
+            return null;
+        }
+        cursor.seek(offset);
+        Object number = cursor.number(cursor.token());
+        Object generation = cursor.number(cursor.token());
+        if (!Long.valueOf(ref.number).equals(number) || !(generation instanceof Long) || !"obj".equals(cursor.token())) {
+            return null;
+        }
+        return readValue(cursor.token());
+    }
+
+    private Dict readDict() throws IOException {
+        Object value = readValue(cursor.token());
+        return value instanceof Dict ? (Dict) value : null;
+    }
+
+    /**
+     * Reads the value starting with the given token. Only dictionaries, names,
+     * integers and references are kept; any other value is skipped.
+     */
+    private Object readValue(String token) throws IOException {
+        if (token == null) {
+            return null;
+        }
+        if ("<<".equals(token)) {
+            Dict dict = new Dict();
+            for (int i = 0; i < MAX_TOKENS_PER_OBJECT; i++) {
+                String key = cursor.token();
+                if (key == null || ">>".equals(key)) {
+                    return dict;
+                }
+                if (!key.startsWith("/")) {
+                    return null;
+                }
+                dict.put(key.substring(1), readValue(cursor.token()));
+            }
+            return null;
+        }
+        if ("[".equals(token)) {
+            for (int i = 0; i < MAX_TOKENS_PER_OBJECT; i++) {
+                String next = cursor.token();
+                if (next == null || "]".equals(next)) {
+                    return Skipped.INSTANCE;
+                }
+                readValue(next);
+            }
+            return null;
+        }
+        Object number = cursor.number(token);
+        if (number instanceof Long) {
+            long mark = cursor.position();
+            Object generation = cursor.number(cursor.token());
+            if (generation instanceof Long && "R".equals(cursor.token())) {
+                return new Ref((Long) number);
+            }
+            cursor.seek(mark);
+            return number;
+        }
+        return token;
+    }
+
+    private static final class Ref {
+        private final long number;
+
+        private Ref(long number) {
+            this.number = number;
+        }
+    }
+
+    private enum Skipped {
+        INSTANCE
+    }
+
+    private static final class Dict extends HashMap<String, Object> {
+    }
+
+    /**
+     * Buffered, seekable tokenizer over a file channel.
+     */
+    private static final class Cursor {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private long bufferStart = -1;
+        private long position;
+
+        private Cursor(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        long position() {
+            return position;
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            ByteBuffer target = ByteBuffer.allocate(length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, offset + target.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            return target.array();
+        }
+
+        private int peek() throws IOException {
+            if (bufferStart < 0 || position < bufferStart || position >= bufferStart + buffer.limit()) {
+                buffer.clear();
+                bufferStart = position;
+                if (channel.read(buffer, position) <= 0) {
+                    buffer.limit(0);
+                    return -1;
+                }
+                buffer.flip();
+            }
+            return buffer.get((int) (position - bufferStart)) & 0xFF;
+        }
+
+        private int next() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        void skipWhitespace() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == '%') {
+                    while (c >= 0 && c != '\n' && c != '\r') {
+                        position++;
+                        c = peek();
+                    }
+                } else if (isWhitespace(c)) {
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return The next token; strings are returned as {@code "()"} or {@code "<>"}.
+         */
+        String token() throws IOException {
+            skipWhitespace();
+            int c = next();
+            if (c < 0) {
+                return null;
+            }
+            if (c == '<' || c == '>') {
+                if (peek() == c) {
+                    position++;
+                    return c == '<' ? "<<" : ">>";
+                }
+                if (c == '<') {
+                    while ((c = next()) >= 0 && c != '>') {
+                        // skip hex string
+                    }
+                    return "<>";
+                }
+                return ">";
+            }
+            if (c == '(') {
+                int depth = 1;
+                while (depth > 0 && (c = next()) >= 0) {
+                    if (c == '\\') {
+                        next();
+                    } else if (c == '(') {
+                        depth++;
+                    } else if (c == ')') {
+                        depth--;
+                    }
+                }
+                return "()";
+            }
+            if (c == '[' || c == ']' || c == '{' || c == '}') {
+                return String.valueOf((char) c);
+            }
+            StringBuilder token = new StringBuilder().append((char) c);
+            while ((c = peek()) >= 0 && !isWhitespace(c) && !isDelimiter(c)) {
+                token.append((char) c);
+                position++;
+            }
+            return token.toString();
+        }
+
+        Object number(String token) {
+            if (token == null || token.isEmpty() || token.length() > 18) {
+                return null;
+            }
+            for (int i = 0; i < token.length(); i++) {
+                if (!Character.isDigit(token.charAt(i))) {
+                    return null;
+                }
+            }
+            return Long.parseLong(token);
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+        }
+
+        private static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']'
+                    || c == '{' || c == '}' || c == '/' || c == '%';
+        }
+    }
+}
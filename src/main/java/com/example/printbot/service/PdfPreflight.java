@@ -0,0 +1,189 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inspects an uploaded PDF before it is priced: the size of every page and whether
+ * it prints in colour, as told by {@link PdfColorAnalyzer}.
+ * <p>
+ * Page sizes are read in one pass over the page tree. The colour check has to parse
+ * every content stream, so it runs in parallel on a fork/join pool of
+ * {@code printbot.pdf.preflight.parallelism} threads. PDFBox documents are not
+ * thread-safe, so each worker opens the file once and then takes ranges of
+ * {@code printbot.pdf.preflight.pages-per-task} pages not yet taken until none are
+ * left. A file gets {@code printbot.pdf.preflight.time-budget} in total, after
+ * which the remaining pages are left unknown, and its open documents share
+ * {@code printbot.pdf.preflight.memory-budget} bytes of heap, with anything beyond
+ * that buffered in temp files.
+ */
+@Service
+public class PdfPreflight {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfPreflight.class);
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final long timeBudgetNanos;
+    private final long memoryBudgetBytes;
+    private final int minPagesPerTask;
+    private final Timer preflightTimer;
+    private final Counter inspectedPages;
+    private final Counter timedOutFiles;
+
+    public PdfPreflight(@Value("${printbot.pdf.preflight.parallelism:0}") int parallelism,
+                        @Value("${printbot.pdf.preflight.time-budget:10s}") Duration timeBudget,
+                        @Value("${printbot.pdf.preflight.memory-budget:67108864}") long memoryBudgetBytes,
+                        @Value("${printbot.pdf.preflight.pages-per-task:8}") int minPagesPerTask,
+                        MeterRegistry meterRegistry) {
+        if (memoryBudgetBytes <= 0 || minPagesPerTask <= 0) {
+            throw new IllegalArgumentException("Preflight memory budget and pages per task must be positive");
+        }
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(this.parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pdf-preflight-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        this.timeBudgetNanos = timeBudget.toNanos();
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.minPagesPerTask = minPagesPerTask;
+        this.preflightTimer = meterRegistry.timer("printbot.pdf.preflight");
+        this.inspectedPages = meterRegistry.counter("printbot.pdf.preflight.pages");
+        this.timedOutFiles = meterRegistry.counter("printbot.pdf.preflight.timeouts");
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Reads the page sizes of the file and checks every page for colour.
+     *
+     * @param file The PDF file.
+     * @return The report; it has no pages if the file cannot be read.
+     */
+    public PdfPreflightReport inspect(File file) {
+        long start = System.nanoTime();
+        long deadline = start + timeBudgetNanos;
+        float[] widths;
+        float[] heights;
+        try (PDDocument document = PDDocument.load(file, MemoryUsageSetting.setupMixed(memoryBudgetBytes))) {
+            int pageCount = document.getNumberOfPages();
+            widths = new float[pageCount];
+            heights = new float[pageCount];
+            int i = 0;
+            for (PDPage page : document.getPages()) {
+                PDRectangle mediaBox = page.getMediaBox();
+                widths[i] = mediaBox.getWidth();
+                heights[i] = mediaBox.getHeight();
+                i++;
+            }
+        } catch (IOException e) {
+            log.error("Error while reading pages of file: {}", file.getName(), e);
+            return PdfPreflightReport.unreadable();
+        }
+
+        byte[] colors = new byte[widths.length];
+        Arrays.fill(colors, PdfPreflightReport.UNKNOWN);
+        int workers = Math.max(1, Math.min(parallelism, (colors.length + minPagesPerTask - 1) / minPagesPerTask));
+        MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(Math.max(1, memoryBudgetBytes / workers));
+        ForkJoinTask<Void> inspection = pool.submit(new ColorInspection(file, colors, new AtomicInteger(), workers, memory, deadline));
+        try {
+            inspection.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            inspection.cancel(true);
+            timedOutFiles.increment();
+            log.warn("Preflight of file {} ran out of time", file.getName());
+        } catch (InterruptedException e) {
+            inspection.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Error while inspecting colours of file: {}", file.getName(), e.getCause());
+        }
+        PdfPreflightReport report = new PdfPreflightReport(widths, heights, colors.clone());
+        preflightTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("File {} has {} pages, {} in colour", file.getName(), report.getPageCount(), report.getColorPageCount());
+        return report;
+    }
+
+    /**
+     * Checks pages for colour on {@code workers} workers. Each worker loads the file
+     * once and takes the next range of pages from {@code nextPage}, so a range that
+     * is slow to inspect does not hold the others up.
+     */
+    private final class ColorInspection extends RecursiveAction {
+
+        private final File file;
+        private final byte[] colors;
+        private final AtomicInteger nextPage;
+        private final int workers;
+        private final MemoryUsageSetting memory;
+        private final long deadline;
+
+        private ColorInspection(File file, byte[] colors, AtomicInteger nextPage, int workers,
+                                MemoryUsageSetting memory, long deadline) {
+            this.file = file;
+            this.colors = colors;
+            this.nextPage = nextPage;
+            this.workers = workers;
+            this.memory = memory;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            if (workers > 1) {
+                List<ColorInspection> team = new ArrayList<>(workers);
+                for (int i = 0; i < workers; i++) {
+                    team.add(new ColorInspection(file, colors, nextPage, 1, memory, deadline));
+                }
+                invokeAll(team);
+                return;
+            }
+            try (PDDocument document = PDDocument.load(file, memory)) {
+                int from;
+                while (System.nanoTime() < deadline && (from = nextPage.getAndAdd(minPagesPerTask)) < colors.length) {
+                    int to = Math.min(from + minPagesPerTask, colors.length);
+                    for (int i = from; i < to && System.nanoTime() < deadline; i++) {
+                        try {
+                            colors[i] = PdfColorAnalyzer.hasColor(document.getPage(i)) ? PdfPreflightReport.COLOR
+                                    : PdfPreflightReport.MONO;
+                            inspectedPages.increment();
+                        } catch (IOException | RuntimeException e) {
+                            log.debug("Page {} of file {} could not be inspected", i + 1, file.getName(), e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error while opening file {} for preflight", file.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.printbot.service;
+
+/**
+ * What {@link PdfPreflight} found out about a PDF: the size of each page in points
+ * and whether it prints in colour. Pages that could not be inspected within the
+ * budgets are left unknown.
+ */
+public class PdfPreflightReport {
+
+    static final byte UNKNOWN = -1;
+    static final byte MONO = 0;
+    static final byte COLOR = 1;
+
+    private static final float MM = 72 / 25.4f;
+    private static final float SIZE_TOLERANCE = 0.02f;
+    private static final String[] PAPER_NAMES = {"A5", "A4", "A3", "Letter", "Legal"};
+    private static final float[][] PAPER_SIZES = {
+            {148 * MM, 210 * MM}, {210 * MM, 297 * MM}, {297 * MM, 420 * MM}, {612, 792}, {612, 1008}};
+
+    private final float[] pageWidths;
+    private final float[] pageHeights;
+    private final byte[] pageColors;
+
+    PdfPreflightReport(float[] pageWidths, float[] pageHeights, byte[] pageColors) {
+        this.pageWidths = pageWidths;
+        this.pageHeights = pageHeights;
+        this.pageColors = pageColors;
+    }
+
+    /**
+     * @return A report for a file that could not be read.
+     */
+    static PdfPreflightReport unreadable() {
+        return new PdfPreflightReport(new float[0], new float[0], new byte[0]);
+    }
+
+    public int getPageCount() {
+        return pageColors.length;
+    }
+
+    public float getPageWidth(int page) {
+        return pageWidths[page];
+    }
+
+    public float getPageHeight(int page) {
+        return pageHeights[page];
+    }
+
+    /**
+     * @return {@code true} if the page prints in colour, {@code false} if in black and
+     *         white, {@code null} if it was not inspected.
+     */
+    public Boolean isColor(int page) {
+        return pageColors[page] == UNKNOWN ? null : pageColors[page] == COLOR;
+    }
+
+    /**
+     * @return {@code true} if every page was inspected.
+     */
+    public boolean isComplete() {
+        for (byte color : pageColors) {
+            if (color == UNKNOWN) {
+                return false;
+            }
+        }
+        return pageColors.length > 0;
+    }
+
+    /**
+     * @return The number of colour pages, or -1 if not every page was inspected.
+     */
+    public int getColorPageCount() {
+        if (!isComplete()) {
+            return -1;
+        }
+        int count = 0;
+        for (byte color : pageColors) {
+            if (color == COLOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The name of the paper size all pages share, in either orientation, or
+     *         {@code null} if they differ or the size is not a common one.
+     */
+    public String getPaperSize() {
+        String paper = null;
+        for (int i = 0; i < pageWidths.length; i++) {
+            String pagePaper = paperSizeOf(pageWidths[i], pageHeights[i]);
+            if (pagePaper == null || (paper != null && !paper.equals(pagePaper))) {
+                return null;
+            }
+            paper = pagePaper;
+        }
+        return paper;
+    }
+
+    /**
+     * @param width  The page width in points.
+     * @param height The page height in points.
+     * @return The name of the paper size within 2% of the page, or {@code null}.
+     */
+    static String paperSizeOf(float width, float height) {
+        float shortSide = Math.min(width, height);
+        float longSide = Math.max(width, height);
+        for (int i = 0; i < PAPER_SIZES.length; i++) {
+            if (Math.abs(shortSide - PAPER_SIZES[i][0]) <= PAPER_SIZES[i][0] * SIZE_TOLERANCE
+                    && Math.abs(longSide - PAPER_SIZES[i][1]) <= PAPER_SIZES[i][1] * SIZE_TOLERANCE) {
+                return PAPER_NAMES[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.printbot.service;
+
+import com.example.printbot.util.BoundedLruCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a JPEG preview of the first {@code printbot.preview.pages} pages of a PDF,
+ * side by side, at {@code printbot.preview.dpi}.
+ * <p>
+ * Renders run on a pool of {@code printbot.preview.threads} threads with room for
+ * {@code printbot.preview.queue-capacity} more; when that is full no preview is
+ * made. A render that takes longer than {@code printbot.preview.timeout} is
+ * interrupted. Previews are cached by the content hash of the file, and a file
+ * that is already being rendered is not rendered twice.
+ */
+@Service
+public class PdfPreviewService {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfPreviewService.class);
+
+    private static final int MAX_PAGES = 10;
+    private static final int PAGE_GAP = 8;
+    private static final Color BACKGROUND = new Color(0xDDDDDD);
+
+    private final boolean enabled;
+    private final float dpi;
+    private final int pages;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timeouts;
+    private final BoundedLruCache<String, byte[]> cache;
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+    private final Timer renderTimer;
+    private final MeterRegistry meterRegistry;
+
+    public PdfPreviewService(@Value("${printbot.preview.enabled:true}") boolean enabled,
+                             @Value("${printbot.preview.dpi:36}") float dpi,
+                             @Value("${printbot.preview.pages:1}") int pages,
+                             @Value("${printbot.preview.threads:2}") int threads,
+                             @Value("${printbot.preview.queue-capacity:20}") int queueCapacity,
+                             @Value("${printbot.preview.timeout:5s}") Duration timeout,
+                             @Value("${printbot.preview.cache.max-entries:200}") int maxCacheEntries,
+                             MeterRegistry meterRegistry) {
+        if (pages < 1 || pages > MAX_PAGES) {
+            throw new IllegalArgumentException("Preview pages must be between 1 and " + MAX_PAGES);
+        }
+        if (dpi <= 0) {
+            throw new IllegalArgumentException("Preview DPI must be positive");
+        }
+        this.enabled = enabled;
+        this.dpi = dpi;
+        this.pages = pages;
+        this.timeoutMillis = timeout.toMillis();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "pdf-preview-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pdf-preview-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cache = new BoundedLruCache<>(maxCacheEntries);
+        this.renderTimer = meterRegistry.timer("printbot.preview.render");
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    /**
+     * Starts rendering the preview of a file, or returns the cached one. The caller
+     * never waits for the render.
+     *
+     * @param filePath The local path of the PDF, may be {@code null}.
+     * @param sha256   The hex SHA-256 of the file, may be {@code null}.
+     * @return A future completed with the JPEG bytes, or with {@code null} if there is
+     *         no preview because the file is not available locally, cannot be read, the
+     *         render pool is full or the render timed out. It never fails.
+     */
+    public CompletableFuture<byte[]> preview(String filePath, String sha256) {
+        if (!enabled || filePath == null || sha256 == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        byte[] cached = cache.get(sha256);
+        if (cached != null) {
+            count("cached");
+            return CompletableFuture.completedFuture(cached);
+        }
+        File file = new File(filePath);
+        if (!file.isFile()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = rendering.putIfAbsent(sha256, result);
+        if (running != null) {
+            return running;
+        }
+        result.whenComplete((preview, e) -> {
+            if (preview != null) {
+                cache.put(sha256, preview);
+            }
+            rendering.remove(sha256, result);
+        });
+        Future<?> task;
+        try {
+            task = executor.submit(() -> result.complete(renderTimed(file)));
+        } catch (RejectedExecutionException e) {
+            count("rejected");
+            log.warn("Preview queue is full, skipping preview of {}", file.getName());
+            result.complete(null);
+            return result;
+        }
+        timeouts.schedule(() -> {
+            if (result.complete(null)) {
+                task.cancel(true);
+                count("timeout");
+                log.warn("Preview of {} took longer than {} ms", file.getName(), timeoutMillis);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private byte[] renderTimed(File file) {
+        long start = System.nanoTime();
+        try {
+            byte[] preview = render(file);
+            count(preview == null ? "failed" : "rendered");
+            return preview;
+        } catch (IOException | RuntimeException e) {
+            count("failed");
+            log.error("Error while rendering preview of file: {}", file.getName(), e);
+            return null;
+        } finally {
+            renderTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private byte[] render(File file) throws IOException {
+        try (PDDocument document = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly())) {
+            int count = Math.min(pages, document.getNumberOfPages());
+            if (count == 0) {
+                return null;
+            }
+            PDFRenderer renderer = new PDFRenderer(document);
+            BufferedImage[] images = new BufferedImage[count];
+            int width = PAGE_GAP * (count - 1);
+            int height = 0;
+            for (int i = 0; i < count; i++) {
+                images[i] = renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
+                width += images[i].getWidth();
+                height = Math.max(height, images[i].getHeight());
+            }
+            BufferedImage sheet = images[0];
+            if (count > 1) {
+                sheet = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = sheet.createGraphics();
+                try {
+                    graphics.setColor(BACKGROUND);
+                    graphics.fillRect(0, 0, width, height);
+                    int x = 0;
+                    for (BufferedImage image : images) {
+                        graphics.drawImage(image, x, 0, null);
+                        x += image.getWidth() + PAGE_GAP;
+                    }
+                } finally {
+                    graphics.dispose();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(sheet, "jpg", out);
+            return out.toByteArray();
+        }
+    }
+
+    private void count(String result) {
+        meterRegistry.counter("printbot.preview", "result", result).increment();
+    }
+}
@@ -1,30 +1,125 @@
 package com.example.printbot.service;
 
+import com.example.printbot.util.Sha256;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class PdfService {
 
     private static final Logger log = LoggerFactory.getLogger(PdfService.class);
 
+    private final PdfMetadataCache metadataCache;
+    private final Timer fastParseTimer;
+    private final Timer pdfBoxParseTimer;
+
+    @Autowired
+    public PdfService(PdfMetadataCache metadataCache, MeterRegistry meterRegistry) {
+        this.metadataCache = metadataCache;
+        this.fastParseTimer = meterRegistry.timer("printbot.pdf.parse", "parser", "fast");
+        this.pdfBoxParseTimer = meterRegistry.timer("printbot.pdf.parse", "parser", "pdfbox");
+    }
+
+    /**
+     * Returns the number of pages of a PDF file.
+     * <p>
+     * The count is first read straight from the page tree by {@link PdfPageCounter};
+     * only files it cannot handle are parsed by PDFBox, with its buffers backed by a
+     * temp file so large uploads do not end up on the heap.
+     *
+     * @param file The PDF file.
+     * @return The number of pages, or 0 if the file cannot be read.
+     */
     public int getPageCount(File file) {
-        log.info("Start getPageCount for file: {}", file.getName());
+        return readMetadata(file).getPageCount();
+    }
+
+    /**
+     * Returns the cached metadata of a file that was analysed before.
+     *
+     * @param fileUniqueId Telegram's {@code file_unique_id} of the upload.
+     * @return The metadata, or {@code null} if the file is not known.
+     */
+    public PdfMetadata findCached(String fileUniqueId) {
+        return metadataCache.findByUniqueId(fileUniqueId);
+    }
+
+    /**
+     * Returns the metadata of a PDF, parsing it only if neither its
+     * {@code file_unique_id} nor its content hash is in the cache.
+     *
+     * @param file         The PDF file.
+     * @param fileUniqueId Telegram's {@code file_unique_id}, may be {@code null}.
+     * @param sha256       The hex SHA-256 of the file if already known, may be {@code null}.
+     * @return The metadata; the page count is 0 if the file cannot be read.
+     */
+    public PdfMetadata analyze(File file, String fileUniqueId, String sha256) {
+        PdfMetadata cached = metadataCache.findByUniqueId(fileUniqueId);
+        if (cached != null) {
+            return cached;
+        }
+        if (sha256 == null) {
+            try {
+                sha256 = Sha256.of(file.toPath());
+            } catch (IOException e) {
+                log.error("Error while hashing file: {}", file.getName(), e);
+            }
+        }
+        cached = metadataCache.findBySha256(sha256);
+        if (cached != null) {
+            metadataCache.put(fileUniqueId, null, cached);
+            return cached;
+        }
+        PdfMetadata metadata = readMetadata(file);
+        if (metadata.getPageCount() > 0) {
+            metadataCache.put(fileUniqueId, sha256, metadata);
+        }
+        return metadata;
+    }
+
+    private PdfMetadata readMetadata(File file) {
+        log.debug("Start getPageCount for file: {}", file.getName());
+        long start = System.nanoTime();
+        int fastCount = PdfPageCounter.countPages(file.toPath());
+        fastParseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (fastCount > 0) {
+            log.debug("File {} has {} pages", file.getName(), fastCount);
+            return new PdfMetadata(fastCount);
+        }
+        log.debug("Falling back to PDFBox for file: {}", file.getName());
         PDDocument document = null;
+        Timer.Sample sample = Timer.start();
         try {
-            document = PDDocument.load(file);
+            document = PDDocument.load(file, MemoryUsageSetting.setupTempFileOnly());
             int pageCount = document.getNumberOfPages();
-            log.info("File {} has {} pages", file.getName(), pageCount);
-            return pageCount;
+            float[] widths = new float[pageCount];
+            float[] heights = new float[pageCount];
+            int i = 0;
+            for (PDPage page : document.getPages()) {
+                PDRectangle mediaBox = page.getMediaBox();
+                widths[i] = mediaBox.getWidth();
+                heights[i] = mediaBox.getHeight();
+                i++;
+            }
+            log.debug("File {} has {} pages", file.getName(), pageCount);
+            return new PdfMetadata(pageCount, widths, heights);
         } catch (IOException e) {
             log.error("Error while getting page count for file: {}", file.getName(), e);
-            return 0;
+            return new PdfMetadata(0);
         } finally {
+            sample.stop(pdfBoxParseTimer);
             if (document != null) {
                 try {
                     document.close();
@@ -32,7 +127,7 @@ public class PdfService {
                     log.error("Error while closing document: {}", file.getName(), e);
                 }
             }
-            log.info("End getPageCount for file: {}", file.getName());
+            log.debug("End getPageCount for file: {}", file.getName());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,178 @@
+package com.example.printbot.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A rate table compiled into primitive arrays, so quoting an order is a few map
+ * and array lookups and allocates nothing.
+ * <p>
+ * The table is read from properties:
+ * <pre>
+ * print-type.laser=1.00      # price per page of each print type
+ * color.bw=1.0               # factor of each colour option
+ * color.color=4.0
+ * mono-color=bw              # the option used for pages without colour
+ * paper.A4=1.0               # factor of each paper stock
+ * tier.1=1.0                 # factor from the given page count on
+ * tier.100=0.9
+ * default.print-type=laser   # used for values not in the table
+ * default.color=bw
+ * default.paper=A4
+ * </pre>
+ * Option names match case-insensitively.
+ */
+final class PriceTable {
+
+    private final Map<String, Integer> printTypes = new HashMap<>();
+    private final Map<String, Integer> colors = new HashMap<>();
+    private final Map<String, Integer> papers = new HashMap<>();
+    private final double[] printTypePrices;
+    private final double[] colorFactors;
+    private final double[] paperFactors;
+    private final int monoColor;
+    private final String monoColorName;
+    private final int defaultPrintType;
+    private final int defaultColor;
+    private final int defaultPaper;
+    private final int[] tierMinPages;
+    private final double[] tierFactors;
+
+    private PriceTable(Properties properties) {
+        printTypePrices = readOptions(properties, "print-type.", printTypes);
+        colorFactors = readOptions(properties, "color.", colors);
+        paperFactors = readOptions(properties, "paper.", papers);
+        monoColor = required(colors, properties, "mono-color");
+        monoColorName = properties.getProperty("mono-color").trim();
+        defaultPrintType = required(printTypes, properties, "default.print-type");
+        defaultColor = required(colors, properties, "default.color");
+        defaultPaper = required(papers, properties, "default.paper");
+
+        TreeMap<Integer, Double> tiers = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("tier.")) {
+                tiers.put(Integer.parseInt(name.substring("tier.".length())), parsePositive(properties, name));
+            }
+        }
+        if (tiers.isEmpty() || tiers.firstKey() > 1) {
+            tiers.put(1, 1.0);
+        }
+        tierMinPages = tiers.keySet().stream().mapToInt(Integer::intValue).toArray();
+        tierFactors = tiers.values().stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * @param properties The rate table.
+     * @return The compiled table.
+     * @throws IllegalArgumentException If an entry is missing or not a positive number.
+     */
+    static PriceTable compile(Properties properties) {
+        return new PriceTable(properties);
+    }
+
+    /**
+     * @param printType  The print type of the order.
+     * @param color      The colour option of the order.
+     * @param paper      The paper stock of the order.
+     * @param pages      The number of pages.
+     * @param colorPages How many of the pages have colour, or -1 if unknown.
+     * @return The cost, rounded to cents.
+     */
+    double quote(String printType, String color, String paper, int pages, int colorPages) {
+        int colorIndex = indexOf(colors, color, defaultColor);
+        double pageUnits;
+        if (colorIndex == monoColor || colorPages < 0) {
+            pageUnits = pages * colorFactors[colorIndex];
+        } else {
+            int colored = Math.min(colorPages, pages);
+            pageUnits = colored * colorFactors[colorIndex] + (pages - colored) * colorFactors[monoColor];
+        }
+        double cost = pageUnits
+                * printTypePrices[indexOf(printTypes, printType, defaultPrintType)]
+                * paperFactors[indexOf(papers, paper, defaultPaper)]
+                * tierFactors[tierOf(pages)];
+        return Math.round(cost * 100) / 100.0;
+    }
+
+    /**
+     * @return {@code true} if the option prints in colour, so the colour pages of the file matter.
+     */
+    boolean isColor(String color) {
+        return indexOf(colors, color, defaultColor) != monoColor;
+    }
+
+    /**
+     * @return The colour option used for pages without colour.
+     */
+    String monoColor() {
+        return monoColorName;
+    }
+
+    /**
+     * @return {@code true} if the table has a factor for the paper stock.
+     */
+    boolean hasPaper(String paper) {
+        return indexOf(papers, paper, -1) >= 0;
+    }
+
+    private int tierOf(int pages) {
+        int index = Arrays.binarySearch(tierMinPages, pages);
+        return index >= 0 ? index : Math.max(0, -index - 2);
+    }
+
+    private static int indexOf(Map<String, Integer> options, String name, int defaultIndex) {
+        if (name == null) {
+            return defaultIndex;
+        }
+        Integer index = options.get(name);
+        if (index == null) {
+            index = options.get(name.trim().toLowerCase(Locale.ROOT));
+        }
+        return index == null ? defaultIndex : index;
+    }
+
+    private static double[] readOptions(Properties properties, String prefix, Map<String, Integer> indexes) {
+        double[] values = new double[properties.size()];
+        int count = 0;
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            if (name.startsWith(prefix)) {
+                String option = name.substring(prefix.length());
+                values[count] = parsePositive(properties, name);
+                indexes.put(option, count);
+                indexes.put(option.toLowerCase(Locale.ROOT), count);
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Rate table has no " + prefix + "* entries");
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    private static int required(Map<String, Integer> options, Properties properties, String name) {
+        String value = properties.getProperty(name);
+        Integer index = value == null ? null : options.get(value.trim().toLowerCase(Locale.ROOT));
+        if (index == null) {
+            throw new IllegalArgumentException("Rate table entry " + name + " must name one of " + options.keySet());
+        }
+        return index;
+    }
+
+    private static double parsePositive(Properties properties, String name) {
+        double value;
+        try {
+            value = Double.parseDouble(properties.getProperty(name).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Rate table entry " + name + " is not a number", e);
+        }
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Rate table entry " + name + " must be positive");
+        }
+        return value;
+    }
+}
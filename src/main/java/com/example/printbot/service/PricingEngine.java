@@ -0,0 +1,167 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prices orders from a {@link PriceTable}.
+ * <p>
+ * The table is loaded from {@code printbot.pricing.file}, or from the bundled
+ * {@code pricing.properties} if no file is set. The file is checked every
+ * {@code printbot.pricing.reload-interval} and recompiled when it changes; a
+ * table that does not compile is logged and the previous one stays in use.
+ */
+@Service
+public class PricingEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(PricingEngine.class);
+
+    private static final String DEFAULT_TABLE = "/pricing.properties";
+
+    private final Path tableFile;
+    private final Duration reloadInterval;
+    private volatile PriceTable table;
+    private long loadedModified;
+    private ScheduledExecutorService reloader;
+
+    @Autowired
+    public PricingEngine(@Value("${printbot.pricing.file:}") String tableFile,
+                         @Value("${printbot.pricing.reload-interval:10s}") Duration reloadInterval) {
+        this.tableFile = tableFile.isEmpty() ? null : Paths.get(tableFile);
+        this.reloadInterval = reloadInterval;
+        this.table = tableFile.isEmpty() ? PriceTable.compile(readDefaultTable()) : readTableFile();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (tableFile == null || reloadInterval.isZero()) {
+            return;
+        }
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pricing-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = reloadInterval.toMillis();
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * @param order The order to price; its colour pages are used when known.
+     * @return The cost of the order.
+     */
+    public double quote(Order order) {
+        return quote(table, order);
+    }
+
+    /**
+     * Prices many orders against the same table, even if it is reloaded meanwhile.
+     *
+     * @param orders The orders to price.
+     * @param costs  Receives the cost of each order at the same index.
+     */
+    public void quote(List<Order> orders, double[] costs) {
+        if (costs.length < orders.size()) {
+            throw new IllegalArgumentException("Cost array is shorter than the order list");
+        }
+        PriceTable current = table;
+        for (int i = 0; i < orders.size(); i++) {
+            costs[i] = quote(current, orders.get(i));
+        }
+    }
+
+    /**
+     * @return {@code true} if the colour option prints in colour, so the colour pages of the file change the price.
+     */
+    public boolean isColor(String color) {
+        return table.isColor(color);
+    }
+
+    /**
+     * @return The colour option for files without colour.
+     */
+    public String monoColor() {
+        return table.monoColor();
+    }
+
+    /**
+     * @return {@code true} if the paper stock has its own price, rather than the default one.
+     */
+    public boolean hasPaper(String paper) {
+        return table.hasPaper(paper);
+    }
+
+    /**
+     * Recompiles the table if its file changed since it was last read.
+     */
+    void reloadIfChanged() {
+        try {
+            if (Files.getLastModifiedTime(tableFile).toMillis() != loadedModified) {
+                table = readTableFile();
+                log.info("Reloaded rate table from {}", tableFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Rate table {} could not be reloaded, keeping the previous one", tableFile, e);
+        }
+    }
+
+    private static double quote(PriceTable table, Order order) {
+        int pages = order.getPages() == null ? 0 : order.getPages();
+        int colorPages = order.getColorPages() == null ? -1 : order.getColorPages();
+        return table.quote(order.getPrintType(), order.getColor(), order.getPaper(), pages, colorPages);
+    }
+
+    private PriceTable readTableFile() {
+        try {
+            long modified = Files.getLastModifiedTime(tableFile).toMillis();
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(tableFile)) {
+                properties.load(in);
+            }
+            PriceTable compiled = PriceTable.compile(properties);
+            loadedModified = modified;
+            return compiled;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Rate table " + tableFile + " could not be read", e);
+        }
+    }
+
+    private static Properties readDefaultTable() {
+        Properties properties = new Properties();
+        try (InputStream in = PricingEngine.class.getResourceAsStream(DEFAULT_TABLE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + DEFAULT_TABLE);
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.util.BoundedLruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges small orders with the same print settings into one print job, so the
+ * printer is set up once for all of them.
+ * <p>
+ * Orders of at most {@code printbot.batch.max-order-pages} pages that have a local
+ * file are grouped by print type, colour and paper, ignoring case and surrounding
+ * blanks. Every group of at least {@code printbot.batch.min-orders} orders becomes
+ * a batch of up to {@code printbot.batch.max-orders} orders,
+ * {@code printbot.batch.max-pages} pages and {@code printbot.batch.max-bytes} bytes
+ * of files, so the merged job stays under Telegram's 50 MB limit for documents a
+ * bot sends. A batch is merged into one PDF with a separator sheet naming the order
+ * in front of each file, on the batch's paper. PDFBox buffers the merge in temp
+ * files rather than on the heap, and only one merge runs at a time.
+ * Merged files are kept in {@code printbot.batch.dir} for
+ * {@code printbot.batch.retention}.
+ */
+@Service
+public class PrintBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(PrintBatchService.class);
+
+    private static final int MAX_BATCHES = 1000;
+    private static final Map<String, PDRectangle> PAPER_SIZES = Map.of(
+            "a3", PDRectangle.A3, "a4", PDRectangle.A4, "a5", PDRectangle.A5,
+            "letter", PDRectangle.LETTER, "legal", PDRectangle.LEGAL);
+
+    private final Path batchDir;
+    private final int minOrders;
+    private final int maxOrders;
+    private final int maxOrderPages;
+    private final int maxPages;
+    private final long maxBytes;
+    private final long retentionMillis;
+    private final ThreadPoolExecutor executor;
+    private final BoundedLruCache<Long, long[]> batches = new BoundedLruCache<>(MAX_BATCHES);
+    private final AtomicLong batchIds = new AtomicLong();
+    private final Timer mergeTimer;
+    private final Counter mergedOrders;
+
+    public PrintBatchService(@Value("${printbot.batch.dir:${java.io.tmpdir}/printbot-batches}") String batchDir,
+                             @Value("${printbot.batch.min-orders:2}") int minOrders,
+                             @Value("${printbot.batch.max-orders:20}") int maxOrders,
+                             @Value("${printbot.batch.max-order-pages:3}") int maxOrderPages,
+                             @Value("${printbot.batch.max-pages:500}") int maxPages,
+                             @Value("${printbot.batch.max-bytes:47185920}") long maxBytes,
+                             @Value("${printbot.batch.queue-capacity:10}") int queueCapacity,
+                             @Value("${printbot.batch.retention:1d}") Duration retention,
+                             MeterRegistry meterRegistry) {
+        if (minOrders < 2 || maxOrders < minOrders || maxOrderPages < 1 || maxPages < maxOrderPages || maxBytes < 1) {
+            throw new IllegalArgumentException("A batch needs at least two orders and room for the largest one");
+        }
+        this.batchDir = Paths.get(batchDir);
+        this.minOrders = minOrders;
+        this.maxOrders = maxOrders;
+        this.maxOrderPages = maxOrderPages;
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+        this.retentionMillis = retention.toMillis();
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "print-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.mergeTimer = meterRegistry.timer("printbot.batch.merge");
+        this.mergedOrders = meterRegistry.counter("printbot.batch.orders");
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Groups orders into batches and remembers each batch under a new ID.
+     *
+     * @param orders The orders of one executor.
+     * @return The batches, in the order of their first order's ID; orders that fit no
+     *         batch are left out.
+     */
+    public List<PrintBatch> plan(List<Order> orders) {
+        List<Order> sorted = new ArrayList<>(orders);
+        sorted.sort(Comparator.comparing(Order::getId));
+        Map<String, List<Order>> groups = new LinkedHashMap<>();
+        Map<Order, Long> sizes = new HashMap<>();
+        for (Order order : sorted) {
+            if (order.getFilePath() == null || order.getPages() == null || order.getPages() > maxOrderPages) {
+                continue;
+            }
+            long size = fileSize(order);
+            if (size < 0 || size > maxBytes) {
+                continue;
+            }
+            sizes.put(order, size);
+            groups.computeIfAbsent(normalize(order.getPrintType()) + '\n' + normalize(order.getColor()) + '\n'
+                    + normalize(order.getPaper()), key -> new ArrayList<>()).add(order);
+        }
+        List<PrintBatch> planned = new ArrayList<>();
+        for (List<Order> group : groups.values()) {
+            int start = 0;
+            int pages = 0;
+            long bytes = 0;
+            for (int i = 0; i <= group.size(); i++) {
+                if (i == group.size() || i - start == maxOrders || pages + group.get(i).getPages() > maxPages
+                        || bytes + sizes.get(group.get(i)) > maxBytes) {
+                    if (i - start >= minOrders) {
+                        planned.add(register(group.subList(start, i)));
+                    }
+                    start = i;
+                    pages = 0;
+                    bytes = 0;
+                }
+                if (i < group.size()) {
+                    pages += group.get(i).getPages();
+                    bytes += sizes.get(group.get(i));
+                }
+            }
+        }
+        return planned;
+    }
+
+    /**
+     * @param batchId The ID from {@link PrintBatch#getId()}.
+     * @return The IDs of the orders in the batch, or {@code null} if it is no longer known.
+     */
+    public long[] batchOrders(long batchId) {
+        return batches.get(batchId);
+    }
+
+    /**
+     * Merges the files of the orders into one print job off the caller's thread.
+     *
+     * @param batchId The ID of the batch, used to name the file.
+     * @param orders  The orders, in print order.
+     * @return A future completed with the merged file, or failed if the merge failed or
+     *         too many merges are already waiting.
+     */
+    public CompletableFuture<Path> merge(long batchId, List<Order> orders) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return mergeNow(batchId, orders);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Batch " + batchId + " could not be merged", e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            log.warn("Batch queue is full, rejecting batch {}", batchId);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    Path mergeNow(long batchId, List<Order> orders) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(batchDir);
+        deleteExpired();
+        Path target = batchDir.resolve("batch-" + batchId + ".pdf");
+        List<File> separators = new ArrayList<>(orders.size());
+        PDRectangle paper = PAPER_SIZES.getOrDefault(normalize(orders.get(0).getPaper()), PDRectangle.A4);
+        try {
+            PDFMergerUtility merger = new PDFMergerUtility();
+            merger.setDestinationFileName(target.toString());
+            for (int i = 0; i < orders.size(); i++) {
+                File separator = Files.createTempFile(batchDir, "separator-", ".pdf").toFile();
+                separators.add(separator);
+                writeSeparator(separator, paper, orders.get(i), i + 1, orders.size());
+                merger.addSource(separator);
+                merger.addSource(new File(orders.get(i).getFilePath()));
+            }
+            merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+        } finally {
+            for (File separator : separators) {
+                Files.deleteIfExists(separator.toPath());
+            }
+        }
+        mergeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        mergedOrders.increment(orders.size());
+        log.debug("Merged {} orders into batch {}", orders.size(), batchId);
+        return target;
+    }
+
+    private PrintBatch register(List<Order> orders) {
+        long batchId = batchIds.incrementAndGet();
+        long[] orderIds = new long[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            orderIds[i] = orders.get(i).getId();
+        }
+        batches.put(batchId, orderIds);
+        return new PrintBatch(batchId, new ArrayList<>(orders));
+    }
+
+    /**
+     * @return The size of the order's file in bytes, or -1 if it cannot be read.
+     */
+    private static long fileSize(Order order) {
+        try {
+            return Files.size(Paths.get(order.getFilePath()));
+        } catch (IOException e) {
+            log.warn("File of order {} is missing, leaving it out of batches", order.getId());
+            return -1;
+        }
+    }
+
+    /**
+     * @return The print setting as it is compared when grouping orders.
+     */
+    private static String normalize(String setting) {
+        return setting == null ? "" : setting.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Writes a one-page PDF naming the order that follows it in the batch. Only the
+     * order number and counts are printed, as the standard fonts cannot show every
+     * character a description may have.
+     */
+    private static void writeSeparator(File file, PDRectangle paper, Order order, int position, int count)
+            throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(paper);
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA_BOLD, 28);
+                content.newLineAtOffset(72, paper.getHeight() - 122);
+                content.showText("Order " + order.getOrderNumber());
+                content.setFont(PDType1Font.HELVETICA, 16);
+                content.newLineAtOffset(0, -40);
+                content.showText(position + " of " + count + " in this batch, " + order.getPages() + " pages follow");
+                content.endText();
+            }
+            document.save(file);
+        }
+    }
+
+    private void deleteExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(batchDir, "batch-*.pdf")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Old batches in {} could not be deleted", batchDir, e);
+        }
+    }
+
+    /**
+     * Orders with the same print settings that are printed as one job.
+     */
+    public static final class PrintBatch {
+        private final long id;
+        private final List<Order> orders;
+
+        private PrintBatch(long id, List<Order> orders) {
+            this.id = id;
+            this.orders = orders;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public List<Order> getOrders() {
+            return orders;
+        }
+
+        /**
+         * @return The pages of all orders, without the separator sheets.
+         */
+        public int getPages() {
+            int pages = 0;
+            for (Order order : orders) {
+                pages += order.getPages();
+            }
+            return pages;
+        }
+
+        /**
+         * @return The print type, colour and paper the orders share.
+         */
+        public String getSettings() {
+            Order first = orders.get(0);
+            return first.getPrintType() + ", " + first.getColor() + ", " + first.getPaper();
+        }
+    }
+}
@@ -2,35 +2,148 @@ package com.example.printbot.service;
 
 import com.example.printbot.model.User;
 import com.example.printbot.repository.UserRepository;
+import com.example.printbot.util.BoundedLruCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Reads and writes users through a bounded near cache keyed by Telegram ID.
+ * <p>
+ * Known users stay cached until evicted; lookups of unknown users are cached as
+ * misses for {@code printbot.user-cache.negative-ttl}. Writes go through the
+ * cache. Concurrent loads of the same Telegram ID share one database call, so a
+ * burst of messages from a new user creates exactly one row.
+ */
 @Service
 public class UserService {
 
     private final UserRepository userRepository;
+    private final BoundedLruCache<Long, CachedUser> cache;
+    private final ConcurrentHashMap<Long, CompletableFuture<User>> inFlight = new ConcurrentHashMap<>();
+    private final long negativeTtlMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
 
     @Autowired
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository,
+                       @Value("${printbot.user-cache.max-entries:50000}") int maxEntries,
+                       @Value("${printbot.user-cache.negative-ttl:5m}") Duration negativeTtl) {
         this.userRepository = userRepository;
+        this.cache = new BoundedLruCache<>(maxEntries);
+        this.negativeTtlMillis = negativeTtl.toMillis();
     }
 
     public User createOrUpdateUser(User user) {
-        User existingUser = userRepository.findByTelegramId(user.getTelegramId());
+        User existingUser = findUserByTelegramId(user.getTelegramId());
         if (existingUser != null) {
             existingUser.setUsername(user.getUsername());
             existingUser.setContactInfo(user.getContactInfo());
-            return userRepository.save(existingUser);
+            return save(existingUser);
         } else {
-            return userRepository.save(user);
+            return save(user);
         }
     }
 
     public User findUserByTelegramId(Long telegramId) {
-        return userRepository.findByTelegramId(telegramId);
+        CachedUser cached = cache.get(telegramId);
+        if (cached != null && cached.isValid()) {
+            hits.increment();
+            return cached.user;
+        }
+        misses.increment();
+        return load(telegramId, userRepository::findByTelegramId);
+    }
+
+    /**
+     * Returns the user with the given Telegram ID, creating it on first contact.
+     *
+     * @param telegramId The Telegram ID of the user.
+     * @param username   The Telegram username, stored if the user is created.
+     * @return The existing or newly created user.
+     */
+    public User findOrCreateUser(Long telegramId, String username) {
+        User user = findUserByTelegramId(telegramId);
+        while (user == null) {
+            // A plain lookup of the same ID may be running and be shared here; it finds no user, so create it then
+            user = load(telegramId, id -> {
+                User existing = userRepository.findByTelegramId(id);
+                if (existing != null) {
+                    return existing;
+                }
+                User created = new User(id, username, "");
+                return userRepository.save(created);
+            });
+        }
+        return user;
     }
 
     public User save(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        cache.put(saved.getTelegramId(), new CachedUser(saved, Long.MAX_VALUE));
+        return saved;
+    }
+
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    public long getCacheLoads() {
+        return loads.sum();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Runs the loader unless a load of the same Telegram ID is already running,
+     * in which case its result is shared.
+     */
+    private User load(Long telegramId, Function<Long, User> loader) {
+        CompletableFuture<User> flight = new CompletableFuture<>();
+        CompletableFuture<User> running = inFlight.putIfAbsent(telegramId, flight);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            loads.increment();
+            User user = loader.apply(telegramId);
+            long expiresAt = user != null ? Long.MAX_VALUE : System.currentTimeMillis() + negativeTtlMillis;
+            cache.put(telegramId, new CachedUser(user, expiresAt));
+            flight.complete(user);
+            return user;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(telegramId, flight);
+        }
+    }
+
+    private static final class CachedUser {
+        private final User user;
+        private final long expiresAtMillis;
+
+        private CachedUser(User user, long expiresAtMillis) {
+            this.user = user;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean isValid() {
+            return expiresAtMillis == Long.MAX_VALUE || System.currentTimeMillis() < expiresAtMillis;
+        }
     }
-}
\ No newline at end of file
+}
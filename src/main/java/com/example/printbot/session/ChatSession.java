@@ -0,0 +1,82 @@
+package com.example.printbot.session;
+
+import com.example.printbot.model.Order;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Conversation state of a single chat: the order draft and the current step.
+ * <p>
+ * Updates of one chat are handled one at a time, so the fields are only made
+ * volatile for visibility between the handler threads and the evictor.
+ */
+public class ChatSession {
+
+    private final Long chatId;
+    private volatile OrderState state;
+    private volatile Order order;
+    private volatile CompletableFuture<?> fileDownload;
+    private volatile long lastAccessMillis;
+    /** Whether the journal holds a record of this session that a removal must cancel. */
+    volatile boolean journaled;
+
+    public ChatSession(Long chatId) {
+        this.chatId = chatId;
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public OrderState getState() {
+        return state;
+    }
+
+    public void setState(OrderState state) {
+        this.state = state;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    /**
+     * @return The download of the file attached to the draft, or {@code null} if none was started.
+     */
+    public CompletableFuture<?> getFileDownload() {
+        return fileDownload;
+    }
+
+    public void setFileDownload(CompletableFuture<?> fileDownload) {
+        this.fileDownload = fileDownload;
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     * Marks the session as used now, postponing its eviction.
+     */
+    public void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Drops the order draft and leaves the conversation.
+     */
+    public void reset() {
+        state = null;
+        order = null;
+        fileDownload = null;
+    }
+
+    boolean isExpired(long nowMillis, long ttlMillis) {
+        return nowMillis - lastAccessMillis > ttlMillis;
+    }
+}
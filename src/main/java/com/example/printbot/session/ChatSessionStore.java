@@ -0,0 +1,294 @@
+package com.example.printbot.session;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Holds the {@link ChatSession} of every chat that is talking to the bot.
+ * <p>
+ * Sessions are spread over a fixed number of shards by chat ID, so lookups of
+ * different chats never contend with each other. Idle sessions are evicted
+ * after a TTL, and each shard is capped so the total number of sessions stays
+ * under {@code printbot.session.max-sessions}; when a shard is full the least
+ * recently used session in it is dropped.
+ * <p>
+ * With a {@link SessionJournal} configured, the sessions are recovered from it on
+ * startup and every change reported through {@link #journal} is appended to it.
+ * Sessions move between instances through {@link #export} and {@link #adopt}.
+ */
+@Component
+public class ChatSessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSessionStore.class);
+
+    private final ConcurrentHashMap<Long, ChatSession>[] shards;
+    private final int shardMask;
+    private final int maxSessionsPerShard;
+    private final long ttlMillis;
+    private final SessionJournal sessionJournal;
+
+    private ScheduledExecutorService evictor;
+    private volatile Consumer<ChatSession> discardListener = session -> { };
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ChatSessionStore(@Value("${printbot.session.shards:16}") int shardCount,
+                            @Value("${printbot.session.max-sessions:100000}") int maxSessions,
+                            @Value("${printbot.session.ttl:30m}") Duration ttl,
+                            SessionJournal sessionJournal) {
+        if (shardCount <= 0 || maxSessions <= 0) {
+            throw new IllegalArgumentException("Session shards and max sessions must be positive");
+        }
+        int shardsPowerOfTwo = Integer.highestOneBit(shardCount - 1) << 1;
+        if (shardsPowerOfTwo <= 0) {
+            shardsPowerOfTwo = 1;
+        }
+        this.shards = new ConcurrentHashMap[shardsPowerOfTwo];
+        for (int i = 0; i < shardsPowerOfTwo; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        this.shardMask = shardsPowerOfTwo - 1;
+        this.maxSessionsPerShard = Math.max(1, maxSessions / shardsPowerOfTwo);
+        this.ttlMillis = ttl.toMillis();
+        this.sessionJournal = sessionJournal;
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            int recovered = sessionJournal.recover(session -> shardFor(session.getChatId()).put(session.getChatId(), session));
+            if (recovered > 0) {
+                log.info("Recovered {} chat sessions from the journal", recovered);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Chat sessions could not be recovered from the journal", e);
+        }
+        sessionJournal.snapshotFrom(this::sessions);
+
+        long period = Math.max(1000L, Math.min(ttlMillis / 4, 60_000L));
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the session of the chat, or {@code null} if the chat has none.
+     *
+     * @param chatId The Telegram chat ID.
+     * @return The session, or {@code null}.
+     */
+    public ChatSession get(Long chatId) {
+        ChatSession session = shardFor(chatId).get(chatId);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    /**
+     * Returns the session of the chat, creating an empty one if needed.
+     *
+     * @param chatId The Telegram chat ID.
+     * @return The session of the chat.
+     */
+    public ChatSession getOrCreate(Long chatId) {
+        ConcurrentHashMap<Long, ChatSession> shard = shardFor(chatId);
+        ChatSession session = shard.get(chatId);
+        if (session == null) {
+            if (shard.size() >= maxSessionsPerShard) {
+                evictLeastRecentlyUsed(shard);
+            }
+            session = shard.computeIfAbsent(chatId, ChatSession::new);
+        }
+        session.touch();
+        return session;
+    }
+
+    public void remove(Long chatId) {
+        ChatSession removed = shardFor(chatId).remove(chatId);
+        if (removed != null) {
+            journalRemoval(removed);
+            discarded(removed);
+        }
+    }
+
+    /**
+     * Sets who is told about sessions that are dropped with their draft, because they
+     * expired, were evicted for room or were removed. Sessions handed over to another
+     * instance are not reported.
+     *
+     * @param listener Called with every dropped session, on the thread that dropped it.
+     */
+    public void onDiscard(Consumer<ChatSession> listener) {
+        this.discardListener = listener;
+    }
+
+    /**
+     * Appends the current state of the chat's session to the journal. Called once
+     * the handling of an update of the chat is over; sessions that were never
+     * journaled and hold no draft are skipped.
+     *
+     * @param chatId The Telegram chat ID.
+     */
+    public void journal(Long chatId) {
+        if (!sessionJournal.isEnabled()) {
+            return;
+        }
+        ChatSession session = shardFor(chatId).get(chatId);
+        try {
+            if (session != null && (session.getState() != null || session.getOrder() != null)) {
+                sessionJournal.record(session);
+                session.journaled = true;
+            } else if (session != null) {
+                journalRemoval(session);
+            }
+        } catch (RuntimeException e) {
+            log.error("Session of chat {} could not be journaled", chatId, e);
+        }
+    }
+
+    /**
+     * Removes the sessions of the matching chats, for another instance to take over.
+     *
+     * @param chats Selects the chats by ID.
+     * @return The removed sessions by chat ID, encoded for {@link #adopt}.
+     */
+    public Map<Long, byte[]> export(LongPredicate chats) {
+        Map<Long, byte[]> exported = new HashMap<>();
+        for (ConcurrentHashMap<Long, ChatSession> shard : shards) {
+            Iterator<ChatSession> iterator = shard.values().iterator();
+            while (iterator.hasNext()) {
+                ChatSession session = iterator.next();
+                if (chats.test(session.getChatId())) {
+                    iterator.remove();
+                    journalRemoval(session);
+                    exported.put(session.getChatId(), SessionJournal.encode(session));
+                }
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Adds sessions exported by another instance, replacing any held for the same chats.
+     *
+     * @param records Sessions as returned by {@link #export}.
+     * @return The number of sessions added.
+     */
+    public int adopt(Collection<byte[]> records) {
+        int adopted = 0;
+        for (byte[] record : records) {
+            ChatSession session = SessionJournal.decode(record);
+            if (session == null) {
+                log.warn("Skipping a handed over chat session that could not be read");
+                continue;
+            }
+            session.journaled = false;
+            shardFor(session.getChatId()).put(session.getChatId(), session);
+            journal(session.getChatId());
+            adopted++;
+        }
+        return adopted;
+    }
+
+    /**
+     * @return The number of live sessions over all shards.
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<Long, ChatSession> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (ConcurrentHashMap<Long, ChatSession> shard : shards) {
+            Iterator<ChatSession> iterator = shard.values().iterator();
+            while (iterator.hasNext()) {
+                ChatSession session = iterator.next();
+                if (session.isExpired(now, ttlMillis)) {
+                    iterator.remove();
+                    journalRemoval(session);
+                    discarded(session);
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} idle chat sessions", evicted);
+        }
+    }
+
+    private void evictLeastRecentlyUsed(ConcurrentHashMap<Long, ChatSession> shard) {
+        Map.Entry<Long, ChatSession> oldest = null;
+        for (Map.Entry<Long, ChatSession> entry : shard.entrySet()) {
+            if (oldest == null || entry.getValue().getLastAccessMillis() < oldest.getValue().getLastAccessMillis()) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null && shard.remove(oldest.getKey(), oldest.getValue())) {
+            journalRemoval(oldest.getValue());
+            discarded(oldest.getValue());
+            log.warn("Session limit reached, evicted session of chat {}", oldest.getKey());
+        }
+    }
+
+    private void journalRemoval(ChatSession session) {
+        if (session.journaled) {
+            session.journaled = false;
+            sessionJournal.recordRemoval(session.getChatId());
+        }
+    }
+
+    private void discarded(ChatSession session) {
+        try {
+            discardListener.accept(session);
+        } catch (RuntimeException e) {
+            log.error("Discard of the session of chat {} failed", session.getChatId(), e);
+        }
+    }
+
+    private List<ChatSession> sessions() {
+        List<ChatSession> sessions = new ArrayList<>(size());
+        for (ConcurrentHashMap<Long, ChatSession> shard : shards) {
+            sessions.addAll(shard.values());
+        }
+        return sessions;
+    }
+
+    private ConcurrentHashMap<Long, ChatSession> shardFor(Long chatId) {
+        int hash = Long.hashCode(chatId) * 0x9E3779B9;
+        return shards[(hash ^ (hash >>> 16)) & shardMask];
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.printbot.session;
+
+/**
+ * Steps of the order creation conversation held in a {@link ChatSession}.
+ */
+public enum OrderState {
+    WAITING_FOR_DESCRIPTION,
+    WAITING_FOR_PAGES,
+    WAITING_FOR_PRINT_TYPE,
+    WAITING_FOR_COLOR,
+    WAITING_FOR_PAPER,
+    WAITING_FOR_FILE,
+    CONFIRMATION,
+    /** Confirmed, waiting for the file to be attached and the order to be saved. */
+    SAVING,
+    WAITING_FOR_CANCEL_COMMENT
+}
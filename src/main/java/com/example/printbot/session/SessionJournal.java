@@ -0,0 +1,507 @@
+package com.example.printbot.session;
+
+import com.example.printbot.model.Order;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of chat sessions, so order drafts survive a restart.
+ * <p>
+ * Each change is one record holding the whole session, or its removal, framed as
+ * {@code [length][crc32][payload]}. Records are serialized by the caller and
+ * written by a single writer thread, which drains everything queued meanwhile
+ * into one write and one {@code fsync} (group commit); callers never wait for
+ * the disk. The journal is split into segments of about
+ * {@code printbot.session.journal.segment-size} bytes. Every
+ * {@code printbot.session.journal.snapshot-interval} the writer starts a new
+ * segment and writes a snapshot of all live sessions, after which older segments
+ * and snapshots are deleted. Recovery loads the newest snapshot and replays the
+ * segments after it, stopping at the first torn or corrupt record of a segment.
+ * <p>
+ * The journal is off if {@code printbot.session.journal.dir} is empty.
+ */
+@Component
+public class SessionJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionJournal.class);
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int MAX_PENDING_RECORDS = 100_000;
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long snapshotIntervalMillis;
+    private final BlockingQueue<byte[]> pending = new LinkedBlockingQueue<>(MAX_PENDING_RECORDS);
+
+    private volatile Supplier<? extends Iterable<ChatSession>> snapshotSource;
+    private Thread writer;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+    private long nextSnapshotMillis;
+
+    @Autowired
+    public SessionJournal(@Value("${printbot.session.journal.dir:}") String directory,
+                          @Value("${printbot.session.journal.segment-size:16777216}") long segmentSize,
+                          @Value("${printbot.session.journal.snapshot-interval:5m}") Duration snapshotInterval) {
+        this.directory = directory.isEmpty() ? null : Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.snapshotIntervalMillis = snapshotInterval.toMillis();
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        segmentNumber = lastNumber(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        openNextSegment();
+        nextSnapshotMillis = System.currentTimeMillis() + snapshotIntervalMillis;
+        writer = new Thread(this::writeLoop, "session-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes what is still queued and closes the current segment.
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            pending.put(CLOSE);
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Sets where the sessions of a snapshot come from. Snapshots, and with them the
+     * deletion of old segments, only start once this is set, so call it after
+     * {@link #recover}.
+     */
+    public void snapshotFrom(Supplier<? extends Iterable<ChatSession>> sessions) {
+        this.snapshotSource = sessions;
+    }
+
+    /**
+     * Queues the current state of the session.
+     */
+    public void record(ChatSession session) {
+        if (directory != null) {
+            enqueue(encode(session));
+        }
+    }
+
+    /**
+     * Queues the removal of the session of a chat.
+     */
+    public void recordRemoval(long chatId) {
+        if (directory != null) {
+            enqueue(encodeRemoval(chatId));
+        }
+    }
+
+    /**
+     * Rebuilds the sessions from the newest snapshot and the segments written after it.
+     *
+     * @param sink Receives every recovered session.
+     * @return The number of recovered sessions.
+     */
+    public int recover(Consumer<ChatSession> sink) throws IOException {
+        if (directory == null) {
+            return 0;
+        }
+        Map<Long, ChatSession> sessions = new LinkedHashMap<>();
+        long snapshot = lastNumber(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (snapshot > 0) {
+            replay(file(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX), sessions);
+        }
+        for (long number : numbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (number >= snapshot) {
+                replay(file(SEGMENT_PREFIX, number, SEGMENT_SUFFIX), sessions);
+            }
+        }
+        sessions.values().forEach(sink);
+        return sessions.size();
+    }
+
+    private void enqueue(byte[] record) {
+        if (!pending.offer(record)) {
+            log.warn("Session journal is {} records behind, dropping a record", MAX_PENDING_RECORDS);
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                byte[] first = pending.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch);
+                }
+                closing = batch.remove(CLOSE);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+                if (segmentBytes >= segmentSize) {
+                    openNextSegment();
+                }
+                if (System.currentTimeMillis() >= nextSnapshotMillis && snapshotSource != null) {
+                    snapshot();
+                }
+            } catch (InterruptedException e) {
+                closing = true;
+            } catch (IOException | RuntimeException e) {
+                log.error("Error while writing session journal in {}", directory, e);
+                batch.clear();
+            }
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.error("Error while closing session journal segment", e);
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            buffer.put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+        segmentBytes += size;
+    }
+
+    /**
+     * Starts a new segment and writes every live session to a snapshot that
+     * replaces all segments before it.
+     */
+    private void snapshot() throws IOException {
+        openNextSegment();
+        long covered = segmentNumber;
+        Path target = file(SNAPSHOT_PREFIX, covered, SNAPSHOT_SUFFIX);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+            for (ChatSession session : snapshotSource.get()) {
+                if (session.getState() != null || session.getOrder() != null) {
+                    out.write(encode(session));
+                    count++;
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long number : numbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (number < covered) {
+                Files.deleteIfExists(file(SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+            }
+        }
+        for (long number : numbers(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (number < covered) {
+                Files.deleteIfExists(file(SNAPSHOT_PREFIX, number, SNAPSHOT_SUFFIX));
+            }
+        }
+        nextSnapshotMillis = System.currentTimeMillis() + snapshotIntervalMillis;
+        log.debug("Wrote session snapshot {} with {} sessions", covered, count);
+    }
+
+    private void openNextSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentNumber++;
+        segment = FileChannel.open(file(SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentBytes = 0;
+    }
+
+    private void replay(Path file, Map<Long, ChatSession> sessions) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                int crc = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    log.warn("Session journal {} has a corrupt record, ignoring the rest of it", file);
+                    return;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (crc != crc(payload)) {
+                    log.warn("Session journal {} has a corrupt record, ignoring the rest of it", file);
+                    return;
+                }
+                apply(payload, sessions);
+            }
+        } catch (EOFException e) {
+            log.warn("Session journal {} ends with a torn record, ignoring it", file);
+        }
+    }
+
+    private static void apply(byte[] payload, Map<Long, ChatSession> sessions) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        long chatId = in.readLong();
+        if (type == REMOVE) {
+            sessions.remove(chatId);
+            return;
+        }
+        ChatSession session = new ChatSession(chatId);
+        String state = readString(in);
+        try {
+            session.setState(state == null ? null : OrderState.valueOf(state));
+        } catch (IllegalArgumentException e) {
+            log.warn("Dropping the session of chat {}, its step {} no longer exists", chatId, state);
+            sessions.remove(chatId);
+            return;
+        }
+        if (in.readBoolean()) {
+            session.setOrder(readOrder(in));
+        }
+        session.journaled = true;
+        sessions.put(chatId, session);
+    }
+
+    static byte[] encode(ChatSession session) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(PUT);
+            out.writeLong(session.getChatId());
+            OrderState state = session.getState();
+            // The save a confirmed draft waits for does not outlive this process, so it is
+            // read back as waiting for confirmation and the customer confirms it again
+            if (state == OrderState.SAVING) {
+                state = OrderState.CONFIRMATION;
+            }
+            writeString(out, state == null ? null : state.name());
+            Order order = session.getOrder();
+            out.writeBoolean(order != null);
+            if (order != null) {
+                writeOrder(out, order);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return frame(bytes.toByteArray());
+    }
+
+    /**
+     * Reads a session written by {@link #encode}.
+     *
+     * @param record The framed record.
+     * @return The session, or {@code null} if the record is damaged or no longer readable.
+     */
+    static ChatSession decode(byte[] record) {
+        ByteBuffer frame = ByteBuffer.wrap(record);
+        if (record.length < 8 || frame.getInt() != record.length - 8) {
+            return null;
+        }
+        int crc = frame.getInt();
+        byte[] payload = new byte[record.length - 8];
+        frame.get(payload);
+        if (crc != crc(payload)) {
+            return null;
+        }
+        Map<Long, ChatSession> sessions = new LinkedHashMap<>(2);
+        try {
+            apply(payload, sessions);
+        } catch (IOException e) {
+            return null;
+        }
+        return sessions.isEmpty() ? null : sessions.values().iterator().next();
+    }
+
+    static byte[] encodeRemoval(long chatId) {
+        ByteBuffer payload = ByteBuffer.allocate(9).put(REMOVE).putLong(chatId);
+        return frame(payload.array());
+    }
+
+    private static byte[] frame(byte[] payload) {
+        return ByteBuffer.allocate(8 + payload.length)
+                .putInt(payload.length)
+                .putInt(crc(payload))
+                .put(payload)
+                .array();
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+        writeLong(out, order.getId());
+        writeString(out, order.getDescription());
+        writeInt(out, order.getPages());
+        writeInt(out, order.getColorPages());
+        writeString(out, order.getPrintType());
+        writeString(out, order.getColor());
+        writeString(out, order.getPaper());
+        writeString(out, order.getFileId());
+        writeString(out, order.getFilePath());
+        writeString(out, order.getFileHash());
+        writeLong(out, order.getUserId());
+        out.writeBoolean(order.getCost() != null);
+        if (order.getCost() != null) {
+            out.writeDouble(order.getCost());
+        }
+        writeString(out, order.getOrderNumber());
+        writeString(out, order.getCancelComment());
+        writeString(out, order.getStatus() == null ? null : order.getStatus().name());
+    }
+
+    private static Order readOrder(DataInputStream in) throws IOException {
+        Order order = new Order();
+        order.setId(readLong(in));
+        order.setDescription(readString(in));
+        order.setPages(readInt(in));
+        order.setColorPages(readInt(in));
+        order.setPrintType(readString(in));
+        order.setColor(readString(in));
+        order.setPaper(readString(in));
+        order.setFileId(readString(in));
+        order.setFilePath(readString(in));
+        order.setFileHash(readString(in));
+        order.setUserId(readLong(in));
+        order.setCost(in.readBoolean() ? in.readDouble() : null);
+        order.setOrderNumber(readString(in));
+        order.setCancelComment(readString(in));
+        String status = readString(in);
+        order.setStatus(status == null ? null : Order.Status.valueOf(status));
+        return order;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private Path file(String prefix, long number, String suffix) {
+        return directory.resolve(String.format("%s%020d%s", prefix, number, suffix));
+    }
+
+    private long lastNumber(String prefix, String suffix) throws IOException {
+        List<Long> numbers = numbers(prefix, suffix);
+        return numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1);
+    }
+
+    /**
+     * @return The numbers of the files with the given prefix and suffix, in ascending order.
+     */
+    private List<Long> numbers(String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> {
+                        try {
+                            numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                        } catch (NumberFormatException e) {
+                            log.warn("Ignoring unexpected file {} in session journal", name);
+                        }
+                    });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
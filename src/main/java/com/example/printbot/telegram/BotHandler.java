@@ -1,19 +1,32 @@
 package com.example.printbot.telegram;
 
-import com.example.printbot.service.FileService;
+import com.example.printbot.service.PdfMetadata;
+import com.example.printbot.service.PdfPreflight;
+import com.example.printbot.service.PdfPreflightReport;
 import com.example.printbot.service.PdfService;
+import com.example.printbot.service.PrintBatchService;
 import com.example.printbot.model.Order;
-import com.example.printbot.model.User;
+import com.example.printbot.scheduling.OrderScheduler;
 import com.example.printbot.service.OrderCalculationService;
+import com.example.printbot.service.OrderPage;
 import com.example.printbot.service.OrderService;
 import com.example.printbot.service.UserService;
+import com.example.printbot.session.ChatSession;
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.session.OrderState;
+import com.example.printbot.repository.OrderSummary;
+import com.example.printbot.util.MessageSplitter;
 import com.example.printbot.util.MessageTemplates;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.meta.api.objects.*;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.Message;
@@ -21,118 +34,84 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboard;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 @Component
 
 public class BotHandler {
 
-    public enum OrderState {
-        WAITING_FOR_DESCRIPTION,
-        WAITING_FOR_PAGES,
-        WAITING_FOR_PRINT_TYPE,
-        WAITING_FOR_COLOR,
-        WAITING_FOR_PAPER,
-        WAITING_FOR_FILE,
-        CONFIRMATION,
-        WAITING_FOR_CANCEL_COMMENT
-    }
-
     private final UserService userService;
     private final OrderService orderService;
     private final OrderCalculationService orderCalculationService;
     private final PdfService pdfService;
-    private final FileService fileService;
+    private final PdfPreflight pdfPreflight;
+    private final PrintBatchService printBatchService;
+    private final ChatSessionStore sessionStore;
+    private final OutboundMessageQueue outboundMessageQueue;
+    private final FileDownloader fileDownloader;
+    private final OrderScheduler orderScheduler;
+    private final ExecutorNotifier executorNotifier;
+    private final ChatLanes chatLanes;
+    private final Timer textMessageTimer;
+    private final Timer documentTimer;
+    private final Timer callbackQueryTimer;
+    private final Map<OrderState, Timer> orderStateTimers = new EnumMap<>(OrderState.class);
+
+    private final HandlerTable handlerTable;
+
+    @Value("${printbot.download.confirm-timeout:30s}")
+    private Duration downloadConfirmTimeout;
 
     private static final Logger logger = LoggerFactory.getLogger(BotHandler.class);
 
-    private OrderState orderState;
-
-    private final Long executorChatId = 123456789L;
-    private Order order;
+    private static final int MY_ORDERS_PAGE_SIZE = 5;
 
 
-    @Autowired
-    private PrintBot printBot;
     private void sendMessage(Long chatId, String text, ReplyKeyboard keyboard) {
+        sendMessage(chatId, text, keyboard, OutboundMessageQueue.Priority.NORMAL);
+    }
+
+    private void sendMessage(Long chatId, String text, ReplyKeyboard keyboard, OutboundMessageQueue.Priority priority) {
         SendMessage message = SendMessage.builder()
                 .chatId(chatId.toString())
                 .text(text)
                 .replyMarkup(keyboard)
                 .build();
-        printBot.sendMessage(message);
+        outboundMessageQueue.enqueue(message, priority);
     }
-    public BotHandler(UserService userService, OrderService orderService, OrderCalculationService orderCalculationService) {
+    public BotHandler(UserService userService, OrderService orderService, OrderCalculationService orderCalculationService,
+                      PdfService pdfService, ChatSessionStore sessionStore, OutboundMessageQueue outboundMessageQueue,
+                      FileDownloader fileDownloader, OrderScheduler orderScheduler, ExecutorNotifier executorNotifier,
+                      PdfPreflight pdfPreflight, PrintBatchService printBatchService, ChatLanes chatLanes,
+                      MeterRegistry meterRegistry) {
         this.userService = userService;
         this.orderService = orderService;
         this.orderCalculationService = orderCalculationService;
         this.pdfService = pdfService;
+        this.pdfPreflight = pdfPreflight;
+        this.printBatchService = printBatchService;
+        this.sessionStore = sessionStore;
+        this.outboundMessageQueue = outboundMessageQueue;
+        this.fileDownloader = fileDownloader;
+        this.orderScheduler = orderScheduler;
+        this.executorNotifier = executorNotifier;
+        this.chatLanes = chatLanes;
+        this.textMessageTimer = meterRegistry.timer("printbot.handler", "handler", "handleTextMessage");
+        this.documentTimer = meterRegistry.timer("printbot.handler", "handler", "handleDocument");
+        this.callbackQueryTimer = meterRegistry.timer("printbot.handler", "handler", "handleCallbackQuery");
+        for (OrderState state : OrderState.values()) {
+            orderStateTimers.put(state, meterRegistry.timer("printbot.order.step", "state", state.name()));
+        }
+        this.handlerTable = HandlerTable.scan(this, MethodHandles.lookup());
+        orderScheduler.onAssignment(executorNotifier::announce);
+        sessionStore.onDiscard(this::discardDraft);
     }
 
 
-    /**
-     * Creates a keyboard with Confirm and Cancel buttons for order confirmation.
-     *
-     * @return An InlineKeyboardMarkup with Confirm and Cancel buttons.
-     */
-    private InlineKeyboardMarkup createConfirmationKeyboard() {
-        InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-        List<InlineKeyboardButton> rowInline = new ArrayList<>();
-
-        InlineKeyboardButton confirmButton = new InlineKeyboardButton();
-        confirmButton.setText("Confirm");
-        confirmButton.setCallbackData("/confirm_order");
-        rowInline.add(confirmButton);
-
-        InlineKeyboardButton cancelButton = new InlineKeyboardButton();
-        cancelButton.setText("Cancel");
-        cancelButton.setCallbackData("/cancel_order");
-        rowInline.add(cancelButton);
-        rowsInline.add(rowInline);
-        markupInline.setKeyboard(rowsInline);
-        return markupInline;
-    }
-
-    /**
-     * Creates a keyboard with buttons to update the order status.
-     *
-     * @param orderId The ID of the order to update.
-     * @return An InlineKeyboardMarkup with status update buttons.
-     */
-    private InlineKeyboardMarkup createUpdateStatusKeyboard(Long orderId, String messageId) {
-        InlineKeyboardMarkup markupInline = new InlineKeyboardMarkup();
-        List<List<org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton>> rowsInline = new ArrayList<>();
-        List<org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton> rowInline = new ArrayList<>();
-
-        org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton canceledButton = new org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton();
-        canceledButton.setText("CANCELED");
-        canceledButton.setCallbackData("/update_status " + orderId + " CANCELED " + messageId);
-        rowInline.add(canceledButton);
-
-        org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton acceptedButton = new org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton();
-        acceptedButton.setText("ACCEPTED");
-        acceptedButton.setCallbackData("/update_status " + orderId + " ACCEPTED " + messageId);
-        rowInline.add(acceptedButton);
-
-        org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton paidButton = new org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton();
-        paidButton.setText("PAID");
-        paidButton.setCallbackData("/update_status " + orderId + " PAID " + messageId);
-        rowInline.add(paidButton);
-
-        org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton completedButton = new org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton();
-        completedButton.setText("COMPLETED");
-        completedButton.setCallbackData("/update_status " + orderId + " COMPLETED " + messageId);
-        rowInline.add(completedButton);
-
-
-        rowsInline.add(rowInline);
-
-        markupInline.setKeyboard(rowsInline);
-
-        return markupInline;
-    }
-
     /**
      * Handles incoming updates from Telegram.
      *
@@ -145,23 +124,29 @@ public class BotHandler {
             Message message = update.getMessage();
             //Check if message is text message
             if (message.hasText()) {
-                return handleTextMessage(update);
+                return timed(textMessageTimer, () -> handleTextMessage(update));
             } else if (message.hasDocument()) {
-                return handleDocument(update);
+                return timed(documentTimer, () -> handleDocument(update));
             }
             else {
                 return sendValidationErrorMessage(update.getMessage().getChatId(), MessageTemplates.UNKNOWN_ERROR.getMessage());
             }
         } else if (update.hasCallbackQuery()) {
             // Check if update contains callback query
-            return handleCallbackQuery(update);
-        } else if (orderState == OrderState.WAITING_FOR_CANCEL_COMMENT) {
-            return handleCancelComment(update);
-
+            return timed(callbackQueryTimer, () -> handleCallbackQuery(update));
         }
         logger.warn("Received update without message or callback query");
         return null;
     }
+
+    private static SendMessage timed(Timer timer, Supplier<SendMessage> handler) {
+        long start = System.nanoTime();
+        try {
+            return handler.get();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
     /**
      * Handles the document from the user.
      *
@@ -169,7 +154,15 @@ public class BotHandler {
      * @return A SendMessage object to reply to the user.
      */
     private SendMessage handleDocument(Update update) {
-        SendMessage message = new SendMessage();
+        Long chatId = update.getMessage().getChatId();
+        ChatSession session = sessionStore.get(chatId);
+        if (session == null || session.getOrder() == null) {
+            return sendValidationErrorMessage(chatId, MessageTemplates.NO_ACTIVE_ORDER.getMessage());
+        }
+        if (session.getState() == OrderState.SAVING) {
+            return sendValidationErrorMessage(chatId, MessageTemplates.ORDER_SAVING.getMessage());
+        }
+        Order order = session.getOrder();
 
         Document document = update.getMessage().getDocument();
         if (!document.getMimeType().equals("application/pdf")) {
@@ -179,21 +172,29 @@ public class BotHandler {
             if (document.getFileSize() > 20 * 1024 * 1024) {
 
                 logger.warn("User {} try to upload file with size {}", update.getMessage().getFrom().getId(), document.getFileSize());
-                message.setText(MessageTemplates.FILE_SIZE_ERROR.getMessage());
-                return message;
+                return sendValidationErrorMessage(chatId, MessageTemplates.FILE_SIZE_ERROR.getMessage());
             }
 
             order.setFileId(document.getFileId());
+            PdfMetadata metadata = pdfService.findCached(document.getFileUniqueId());
+            if (metadata != null && order.getPages() == null) {
+                order.setPages(metadata.getPageCount());
+            }
+            // A file uploaded again replaces the one attached before
+            discardFile(order);
+            order.setFilePath(null);
+            order.setFileHash(null);
+            session.setFileDownload(startDownload(chatId, order, document));
             if (order.getDescription() == null || order.getDescription().isEmpty()) {
                 order.setDescription("Printing of " + document.getFileName());
             }
-            logger.info("User {} uploaded file with id {}", update.getMessage().getFrom().getId(), document.getFileId());
-            if (orderState == OrderState.WAITING_FOR_FILE) {
-                return handleTextMessage(update);
+            logger.debug("User {} uploaded file with id {}", update.getMessage().getFrom().getId(), document.getFileId());
+            if (session.getState() == OrderState.WAITING_FOR_FILE) {
+                sendOrderConfirmation(chatId, session);
             }
         }
 
-        return message;
+        return null;
     }
     private SendMessage sendValidationErrorMessage(Long chatId, String text) {
         logger.warn("Validation error. Chat ID: {}, Message: {}", chatId, text);
@@ -202,12 +203,111 @@ public class BotHandler {
                 .text(text)
                 .build();
     }
-    private org.telegram.telegrambots.meta.api.objects.File getFileFromTelegram(String fileId) {
-        try {
-            return printBot.execute(new org.telegram.telegrambots.meta.api.methods.GetFile(fileId));
-        } catch (Exception e) {
-            logger.error("Error getting file from Telegram", e);
-            return null;
+
+    /**
+     * Starts downloading the document in the background. When the download is done the
+     * page count is read from the file if the user had not entered it. Unless colour and
+     * paper were already known and the order prints in black and white, the file also
+     * goes through the {@link PdfPreflight}: its colour pages are what a colour order is
+     * priced by, and it may answer the colour and paper questions before they are asked.
+     * The results are attached to the order in the chat's lane, never on the download
+     * thread, so the order is only ever changed by one thread at a time.
+     *
+     * @param chatId   The chat the order is created in.
+     * @param order    The order draft the document belongs to.
+     * @param document The uploaded document.
+     * @return The download, completed once the order has been updated.
+     */
+    private CompletableFuture<Void> startDownload(Long chatId, Order order, Document document) {
+        // Decided here, in the chat's lane; the download thread only reads the file
+        boolean countPages = order.getPages() == null;
+        boolean inspect = order.getColor() == null || order.getPaper() == null
+                || orderCalculationService.dependsOnColorPages(order);
+        CompletableFuture<Void> attached = new CompletableFuture<>();
+        fileDownloader.download(document.getFileId(), document.getFileUniqueId())
+                .thenApply(file -> new StagedFile(file,
+                        countPages ? pdfService.analyze(file.getPath().toFile(), document.getFileUniqueId(), file.getSha256()) : null,
+                        inspect ? pdfPreflight.inspect(file.getPath().toFile()) : null))
+                .whenComplete((staged, error) -> continueInChat(chatId, () -> {
+                    try {
+                        if (error != null) {
+                            attached.completeExceptionally(error);
+                        } else {
+                            attachFile(chatId, order, staged, attached);
+                            attached.complete(null);
+                        }
+                    } catch (RuntimeException e) {
+                        attached.completeExceptionally(e);
+                        throw e;
+                    }
+                    return null;
+                }));
+        return attached;
+    }
+
+    /**
+     * Attaches a downloaded file to its order, or deletes it if the chat has since
+     * dropped the draft or uploaded another file for it.
+     */
+    private void attachFile(Long chatId, Order order, StagedFile staged, CompletableFuture<Void> download) {
+        ChatSession session = sessionStore.get(chatId);
+        if (session == null || session.getOrder() != order || session.getFileDownload() != download) {
+            fileDownloader.discard(staged.file.getPath().toString());
+            return;
+        }
+        order.setFilePath(staged.file.getPath().toString());
+        order.setFileHash(staged.file.getSha256());
+        if (staged.metadata != null && order.getPages() == null && staged.metadata.getPageCount() > 0) {
+            order.setPages(staged.metadata.getPageCount());
+        }
+        if (staged.report != null) {
+            orderCalculationService.applyPreflight(order, staged.report);
+        }
+    }
+
+    /**
+     * Deletes the staged file of a draft that is not going to be printed.
+     *
+     * @param draft The dropped order draft, may be {@code null}.
+     */
+    private void discardFile(Order draft) {
+        if (draft != null) {
+            fileDownloader.discard(draft.getFilePath());
+        }
+    }
+
+    /**
+     * Deletes the staged file of the session's draft, unless the draft was confirmed.
+     *
+     * @param session The dropped session.
+     */
+    private void discardDraft(ChatSession session) {
+        if (session.getState() != OrderState.SAVING) {
+            discardFile(session.getOrder());
+        }
+    }
+
+    /**
+     * Runs the next step of a chat's conversation in the chat's lane, after work done
+     * elsewhere is over, and queues the reply it returns. The step sees the session as
+     * the chat's updates do, and the session is journaled after it.
+     *
+     * @param chatId The chat to continue.
+     * @param step   The step, returning the reply or {@code null}.
+     */
+    private void continueInChat(Long chatId, Supplier<SendMessage> step) {
+        boolean queued = chatLanes.execute(chatId, () -> {
+            try {
+                SendMessage reply = step.get();
+                if (reply != null && reply.getChatId() != null && reply.getText() != null) {
+                    outboundMessageQueue.enqueue(reply);
+                }
+            } finally {
+                sessionStore.journal(chatId);
+            }
+        });
+        if (!queued) {
+            logger.warn("Conversation of chat {} could not be continued", chatId);
         }
     }
 
@@ -219,51 +319,57 @@ public class BotHandler {
      */
     private SendMessage handleTextMessage(Update update) {
         Long telegramId = update.getMessage().getFrom().getId();
-        User user = userService.findUserByTelegramId(telegramId);
-        if (user == null) {
-            user = new User();
-            user.setTelegramId(telegramId);
-            user.setContactInfo("");
-            user.setUsername(update.getMessage().getFrom().getUserName());
-            userService.save(user);
-        }
+        userService.findOrCreateUser(telegramId, update.getMessage().getFrom().getUserName());
         String messageText = update.getMessage().getText();
 
-        // Handle /start command
-        if (messageText.equals("/start")) {
-            sendMessage(update.getMessage().getChatId(), MessageTemplates.GREETING.getMessage(), null);
-            // Handle /create_order command
-        } else if (messageText.equals("/create_order")) { //If message equals /create_order
-            return handleCreateOrderCommand(update);
-
-            // Handle state of order creation
-        } else if (orderState != null) { //If orderState is not null
-            return handleOrderState(update);
-        // Handle /my_orders command
-        } else if (messageText.equals("/my_orders")) { //If message equals /my_orders
-            return handleMyOrdersCommand(update);
-            // Handle any other text message (echo)
-        } else {
-            sendMessage(update.getMessage().getChatId(), messageText, null);//if no command or state - just echo message
+        // Commands first, so they also work while an order is being created
+        HandlerTable.CommandHandler command = handlerTable.command(messageText);
+        if (command != null) {
+            return command.handle(update);
+        }
+        ChatSession session = sessionStore.get(update.getMessage().getChatId());
+        if (session != null && session.getState() != null) {
+            return timed(orderStateTimers.get(session.getState()), () -> handleOrderState(update, session));
         }
+        sendMessage(update.getMessage().getChatId(), messageText, null);//if no command or state - just echo message
         return null;
     }
+
+    /**
+     * Handles the /start command.
+     *
+     * @param update The update object from Telegram.
+     * @return A SendMessage object to reply to the user.
+     */
+    @Command("/start")
+    private SendMessage handleStartCommand(Update update) {
+        sendMessage(update.getMessage().getChatId(), MessageTemplates.GREETING.getMessage(), null);
+        return null;
+    }
+
     /**
      * Handles the /create_order command.
      *
      * @param update The update object from Telegram.
      * @return A SendMessage object to reply to the user.
      */
+    @Command("/create_order")
     private SendMessage handleCreateOrderCommand(Update update) {
         try {
-            order = new Order();
+            ChatSession session = sessionStore.getOrCreate(update.getMessage().getChatId());
+            if (session.getState() == OrderState.SAVING) {
+                return sendValidationErrorMessage(update.getMessage().getChatId(), MessageTemplates.ORDER_SAVING.getMessage());
+            }
+            discardFile(session.getOrder());
+            Order order = new Order();
             order.setUserId(update.getMessage().getFrom().getId());
-            order.setStatus(Order.Status.ACCEPTED.name());
+            order.setStatus(Order.Status.ACCEPTED);
             order.setOrderNumber(orderService.generateOrderNumber());
+            session.setOrder(order);
             sendMessage(update.getMessage().getChatId(), MessageTemplates.ORDER_DESCRIPTION_REQUEST.getMessage(), null);
 
-            orderState = OrderState.WAITING_FOR_DESCRIPTION;
-            logger.info("User {} start creating order with number {}", update.getMessage().getFrom().getId(), order.getOrderNumber());
+            session.setState(OrderState.WAITING_FOR_DESCRIPTION);
+            logger.debug("User {} start creating order with number {}", update.getMessage().getFrom().getId(), order.getOrderNumber());
         } catch (Exception e) {
             logger.error("Error in handleCreateOrderCommand", e);
             sendValidationErrorMessage(update.getMessage().getChatId(),"An error occurred while creating the order. Please try again.");
@@ -271,78 +377,132 @@ public class BotHandler {
         return null;
     }
 
-
-    
     /**
-     * Handles the state of order creation.
+     * Handles text sent during order creation by passing it to the handler of the
+     * session's state.
      *
-     * @param update The update object from Telegram.
+     * @param update  The update object from Telegram.
+     * @param session The session of the chat the update came from.
      * @return A SendMessage object to reply to the user.
      */
-    private SendMessage handleOrderState(Update update) {
-            try {
-                String messageText = update.getMessage().getText();
-                Long chatId = update.getMessage().getChatId();
-                if (messageText.isEmpty()) { // Check if input is empty
-                    logger.warn("User {} send empty input", update.getMessage().getFrom().getId()); // Log empty input
-                    return sendValidationErrorMessage(chatId, "Input cannot be empty. Please try again.");
+    private SendMessage handleOrderState(Update update, ChatSession session) {
+        try {
+            if (update.getMessage().getText().isEmpty()) { // Check if input is empty
+                logger.warn("User {} send empty input", update.getMessage().getFrom().getId()); // Log empty input
+                return sendValidationErrorMessage(update.getMessage().getChatId(), "Input cannot be empty. Please try again.");
+            }
+            HandlerTable.StateHandler handler = handlerTable.state(session.getState());
+            return handler == null ? null : handler.handle(update, session);
+        } catch (Exception e) {
+            logger.error("Error in handleOrderState", e); // Log the error
+            return sendValidationErrorMessage(update.getMessage().getChatId(), MessageTemplates.UNKNOWN_ERROR.getMessage());
+        }
+    }
 
-                }
+    @OnState(OrderState.WAITING_FOR_DESCRIPTION)
+    private SendMessage handleDescription(Update update, ChatSession session) {
+        session.getOrder().setDescription(update.getMessage().getText()); // Set order description
+        askNext(update.getMessage().getChatId(), session);
+        return null;
+    }
 
-                if (orderState == OrderState.WAITING_FOR_DESCRIPTION) { //If state is WAITING_FOR_DESCRIPTION
-                    order.setDescription(messageText); // Set order description
-                    orderState = OrderState.WAITING_FOR_PAGES; // Set next state
-                    sendMessage(chatId, MessageTemplates.ORDER_PAGES_REQUEST.getMessage(), null); // Send message to user
-                } else if (orderState == OrderState.WAITING_FOR_PAGES) { //If state is WAITING_FOR_PAGES
-                    try {
-                        //Check if input is number
-                        int pages = Integer.parseInt(messageText); // Parse input to integer
-                        if (pages <= 0) { // Check if pages less or equals 0
-                            logger.warn("User {} enter invalid number of pages: {}", update.getMessage().getFrom().getId(), pages); // Log invalid number of pages
-                            return sendValidationErrorMessage(chatId,MessageTemplates.VALIDATION_ERROR.getMessage() + " Number of pages must be greater than 0. Please try again.");
+    @OnState(OrderState.WAITING_FOR_PAGES)
+    private SendMessage handlePages(Update update, ChatSession session) {
+        String messageText = update.getMessage().getText();
+        Long chatId = update.getMessage().getChatId();
+        try {
+            //Check if input is number
+            int pages = Integer.parseInt(messageText); // Parse input to integer
+            if (pages <= 0) { // Check if pages less or equals 0
+                logger.warn("User {} enter invalid number of pages: {}", update.getMessage().getFrom().getId(), pages); // Log invalid number of pages
+                return sendValidationErrorMessage(chatId,MessageTemplates.VALIDATION_ERROR.getMessage() + " Number of pages must be greater than 0. Please try again.");
+            }
+            session.getOrder().setPages(pages); // Set order pages
+        } catch (NumberFormatException e) { // Catch exception if input is not a number
+            logger.warn("User {} enter invalid number format of pages: {}", update.getMessage().getFrom().getId(), messageText); // Log invalid number format of pages
+            return sendValidationErrorMessage(chatId, MessageTemplates.VALIDATION_ERROR.getMessage() + " Invalid input. Please enter a valid number for pages.");
+        }
+        askNext(chatId, session);
+        return null;
+    }
 
-                        }
-                        order.setPages(pages); // Set order pages
-                    } catch (NumberFormatException e) { // Catch exception if input is not a number
-                        logger.warn("User {} enter invalid number format of pages: {}", update.getMessage().getFrom().getId(), messageText); // Log invalid number format of pages
-                        return sendValidationErrorMessage(chatId, MessageTemplates.VALIDATION_ERROR.getMessage() + " Invalid input. Please enter a valid number for pages.");
-                    }
-                    orderState = OrderState.WAITING_FOR_PRINT_TYPE; // Set next state
-                    sendMessage(chatId, MessageTemplates.ORDER_PRINT_TYPE_REQUEST.getMessage(), null); // Send message to user
-                } else if (orderState == OrderState.WAITING_FOR_PRINT_TYPE) { //If state is WAITING_FOR_PRINT_TYPE
-                    order.setPrintType(messageText); // Set order print type
-                    orderState = OrderState.WAITING_FOR_COLOR; // Set next state
-                    sendMessage(chatId, MessageTemplates.ORDER_COLOR_REQUEST.getMessage(), null); // Send message to user
-
-                } else if (orderState == OrderState.WAITING_FOR_COLOR) { //If state is WAITING_FOR_COLOR
-                    order.setColor(messageText); // Set order color
-                    orderState = OrderState.WAITING_FOR_PAPER; // Set next state
-                    sendMessage(chatId, MessageTemplates.ORDER_PAPER_REQUEST.getMessage(), null); // Send message to user
-                } else if (orderState == OrderState.WAITING_FOR_PAPER) { //If state is WAITING_FOR_PAPER
-                    order.setPaper(messageText); // Set order paper
-                    orderState = OrderState.WAITING_FOR_FILE; // Set next state
-                    sendMessage(chatId, MessageTemplates.ORDER_FILE_REQUEST.getMessage(), null); // Send message to user
-                } else if (orderState == OrderState.WAITING_FOR_FILE) {
-
-                    sendMessage(chatId, MessageTemplates.ORDER_CONFIRMATION.getMessage() + "\n" + getOrderDetails() + "\n", createConfirmationKeyboard());
-
-
-
-                    orderState = OrderState.CONFIRMATION;
-                } else if (orderState == OrderState.WAITING_FOR_CANCEL_COMMENT){
-                    return handleCancelComment(update);
-                }
+    @OnState(OrderState.WAITING_FOR_PRINT_TYPE)
+    private SendMessage handlePrintType(Update update, ChatSession session) {
+        session.getOrder().setPrintType(update.getMessage().getText()); // Set order print type
+        askNext(update.getMessage().getChatId(), session);
+        return null;
+    }
 
-                return message;
-            }
-            catch (Exception e) {
-                logger.error("Error in handleOrderState", e); // Log the error
-                return sendValidationErrorMessage(update.getMessage().getChatId(), MessageTemplates.UNKNOWN_ERROR.getMessage());
-            }
+    @OnState(OrderState.WAITING_FOR_COLOR)
+    private SendMessage handleColor(Update update, ChatSession session) {
+        session.getOrder().setColor(update.getMessage().getText()); // Set order color
+        askNext(update.getMessage().getChatId(), session);
+        return null;
+    }
 
+    @OnState(OrderState.WAITING_FOR_PAPER)
+    private SendMessage handlePaper(Update update, ChatSession session) {
+        session.getOrder().setPaper(update.getMessage().getText()); // Set order paper
+        askNext(update.getMessage().getChatId(), session);
+        return null;
+    }
+
+    /**
+     * Moves the session to the first question after the description the order has no
+     * answer for yet and asks it. Questions answered by a file uploaded early are
+     * skipped; once everything is known the order goes to confirmation.
+     *
+     * @param chatId  The chat to ask in.
+     * @param session The session holding the order draft.
+     */
+    private void askNext(Long chatId, ChatSession session) {
+        Order order = session.getOrder();
+        OrderState next;
+        MessageTemplates question;
+        if (order.getPages() == null) {
+            next = OrderState.WAITING_FOR_PAGES;
+            question = MessageTemplates.ORDER_PAGES_REQUEST;
+        } else if (order.getPrintType() == null) {
+            next = OrderState.WAITING_FOR_PRINT_TYPE;
+            question = MessageTemplates.ORDER_PRINT_TYPE_REQUEST;
+        } else if (order.getColor() == null) {
+            next = OrderState.WAITING_FOR_COLOR;
+            question = MessageTemplates.ORDER_COLOR_REQUEST;
+        } else if (order.getPaper() == null) {
+            next = OrderState.WAITING_FOR_PAPER;
+            question = MessageTemplates.ORDER_PAPER_REQUEST;
+        } else if (order.getFileId() == null) {
+            next = OrderState.WAITING_FOR_FILE;
+            question = MessageTemplates.ORDER_FILE_REQUEST;
+        } else {
+            sendOrderConfirmation(chatId, session);
+            return;
+        }
+        session.setState(next);
+        sendMessage(chatId, question.getMessage(), null);
     }
 
-    private String getOrderDetails(){
+    /**
+     * Any text instead of a file skips the upload.
+     */
+    @OnState(OrderState.WAITING_FOR_FILE)
+    private SendMessage handleFileSkipped(Update update, ChatSession session) {
+        sendOrderConfirmation(update.getMessage().getChatId(), session);
+        return null;
+    }
+
+    /**
+     * Sends the order summary with Confirm and Cancel buttons and moves the session to confirmation.
+     *
+     * @param chatId  The chat to send the summary to.
+     * @param session The session holding the order draft.
+     */
+    private void sendOrderConfirmation(Long chatId, ChatSession session) {
+        sendMessage(chatId, MessageTemplates.ORDER_CONFIRMATION.getMessage() + "\n" + getOrderDetails(session.getOrder()) + "\n", InlineKeyboards.CONFIRMATION);
+        session.setState(OrderState.CONFIRMATION);
+    }
+
+    static String getOrderDetails(Order order){
         return  "Description: " + order.getDescription() + "\n" +
                 "Pages: " + order.getPages() + "\n" +
                 "Print Type: " + order.getPrintType() + "\n" +
@@ -358,33 +518,108 @@ public class BotHandler {
      * @param message The message object to reply to the user.
      * @return A SendMessage object to reply to the user.
      */
+    @Command("/my_orders")
     private SendMessage handleMyOrdersCommand(Update update) {
-        SendMessage message = new SendMessage();
+        Long chatId = update.getMessage().getChatId();
         try {
-            List<Order> orders = orderService.findOrdersByUserId(update.getMessage().getFrom().getId());
-            String ordersList = orders.stream() // Stream the list of orders
-                    .map(order -> String.format(
-                                    "Order #%s\n" +
-                                            "Status: %s\n" + // Order status
-                                            "Description: %s\n" + // Order description
-                                            "Pages: %s\n" + // Order pages
-                                            "Cost: %s\n" + // Order cost
-                                            "FileId: %s\n" + // Order file id
-                                            "CancelComment: %s", // Order cancel comment
-                            // Format the order details
-                            order.getOrderNumber(), order.getStatus(), order.getDescription(), order.getPages(), order.getCost(), order.getFileId() == null ? "Not provided" : order.getFileId(), order.getCancelComment() == null ? "Not provided" : order.getCancelComment()))
-                    .collect(Collectors.joining("\n"));
-            logger.info("User {} get list of orders", update.getMessage().getFrom().getId());
-            message.setChatId(update.getMessage().getChatId());
-            message.setText(ordersList.isEmpty() ? "No orders found." : ordersList);
-            return message;
+            OrderPage page = orderService.findOrderPage(update.getMessage().getFrom().getId(), null, true, MY_ORDERS_PAGE_SIZE);
+            logger.debug("User {} get list of orders", update.getMessage().getFrom().getId());
+            sendOrderPage(chatId, null, page);
+            return null;
         } catch (Exception e) {
             logger.error("Error in handleMyOrdersCommand", e);
+            return sendValidationErrorMessage(chatId, "An error occurred while retrieving your orders. Please try again.");
+        }
+    }
+
+    /**
+     * Handles the Newer/Older buttons under the order list.
+     *
+     * @param callbackQuery The callback query object from Telegram, with the first or last order ID of the page.
+     * @param message       The message object to reply to the user.
+     * @return A SendMessage object to reply to the user.
+     */
+    @OnCallback({CallbackData.Op.ORDERS_NEWER, CallbackData.Op.ORDERS_OLDER})
+    private SendMessage handleMyOrdersPageCommand(CallbackQuery callbackQuery, SendMessage message) {
+        try {
+            String callbackData = callbackQuery.getData();
+            boolean older = CallbackData.op(callbackData) == CallbackData.Op.ORDERS_OLDER;
+            Long cursorId = CallbackData.orderId(callbackData);
+            OrderPage page = orderService.findOrderPage(callbackQuery.getFrom().getId(), cursorId, older, MY_ORDERS_PAGE_SIZE);
+            sendOrderPage(callbackQuery.getMessage().getChatId(), callbackQuery.getMessage().getMessageId(), page);
+            return null;
+        } catch (Exception e) {
+            logger.error("Error in handleMyOrdersPageCommand", e);
             message.setText("An error occurred while retrieving your orders. Please try again.");
             return message;
         }
+    }
 
+    /**
+     * Sends a page of orders with Newer/Older buttons. When paging, the existing list
+     * message is edited in place; a page longer than one message is sent in chunks
+     * with the buttons under the last one.
+     *
+     * @param chatId    The chat to send the page to.
+     * @param messageId The list message to replace, or {@code null} to send a new one.
+     * @param page      The page of orders.
+     */
+    private void sendOrderPage(Long chatId, Integer messageId, OrderPage page) {
+        if (page.getOrders().isEmpty()) {
+            sendMessage(chatId, MessageTemplates.NO_ORDERS.getMessage(), null);
+            return;
+        }
+        StringBuilder ordersList = new StringBuilder(256 * page.getOrders().size());
+        for (OrderSummary order : page.getOrders()) {
+            if (ordersList.length() > 0) {
+                ordersList.append("\n\n");
+            }
+            ordersList.append("Order #").append(order.getOrderNumber())
+                    .append("\nStatus: ").append(order.getStatus())
+                    .append("\nDescription: ").append(order.getDescription())
+                    .append("\nPages: ").append(order.getPages())
+                    .append("\nCost: ").append(order.getCost());
+            if (order.getCancelComment() != null) {
+                ordersList.append("\nCancelComment: ").append(order.getCancelComment());
+            }
+        }
+        InlineKeyboardMarkup keyboard = createOrderPageKeyboard(page);
+        List<String> chunks = MessageSplitter.split(String.format(MessageTemplates.MY_ORDERS.getMessage(), ordersList));
+        if (messageId != null && chunks.size() == 1) {
+            EditMessageText edit = EditMessageText.builder()
+                    .chatId(chatId.toString())
+                    .messageId(messageId)
+                    .text(chunks.get(0))
+                    .replyMarkup(keyboard)
+                    .build();
+            outboundMessageQueue.enqueue(chatId, edit, OutboundMessageQueue.Priority.NORMAL);
+            return;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            sendMessage(chatId, chunks.get(i), i == chunks.size() - 1 ? keyboard : null);
+        }
+    }
 
+    /**
+     * Creates the Newer/Older buttons of an order page.
+     *
+     * @param page The page the buttons belong to.
+     * @return An InlineKeyboardMarkup, or {@code null} if there is nothing to page to.
+     */
+    private InlineKeyboardMarkup createOrderPageKeyboard(OrderPage page) {
+        List<InlineKeyboardButton> rowInline = new ArrayList<>(2);
+        if (page.hasNewer()) {
+            rowInline.add(InlineKeyboards.button("« Newer",
+                    CallbackData.encode(CallbackData.Op.ORDERS_NEWER, null, page.getFirstId(), 0)));
+        }
+        if (page.hasOlder()) {
+            rowInline.add(InlineKeyboards.button("Older »",
+                    CallbackData.encode(CallbackData.Op.ORDERS_OLDER, null, page.getLastId(), 0)));
+        }
+        if (rowInline.isEmpty()) {
+            return null;
+        }
+        return InlineKeyboards.markup(List.of(rowInline));
     }
     /**
      * Handles callback queries from inline keyboards.
@@ -395,19 +630,24 @@ public class BotHandler {
     private SendMessage handleCallbackQuery(Update update) {
         CallbackQuery callbackQuery = update.getCallbackQuery();
         String callbackData = callbackQuery.getData();
-        logger.info("Get callback query: {}", callbackData);
+        logger.debug("Get callback query: {}", callbackData);
         SendMessage message = new SendMessage();
         // Set chat id for message
         message.setChatId(callbackQuery.getMessage().getChatId().toString());
-        // Check if callback data contains /update_status command
-        if (callbackData.startsWith("/update_status")) {
-            return handleUpdateStatusCommand(callbackQuery, message);
-        } else if (callbackData.equals("/confirm_order")) {
-            return handleConfirmOrderCommand(callbackQuery, message);
-        } else if (callbackData.equals("/cancel_order")) {
-            return handleCancelOrderCommand(callbackQuery, message);//If callback data equals /cancel_order
+        if (!CallbackData.isEncoded(callbackData)) {
+            // Buttons sent before the codec with arguments are handled as their encoded counterparts
+            String encoded = CallbackData.fromLegacy(callbackData);
+            if (encoded != null) {
+                callbackData = encoded;
+                callbackQuery.setData(encoded);
+            }
         }
-        return null;
+        HandlerTable.CallbackHandler handler = handlerTable.callback(callbackData);
+        if (handler == null) {
+            logger.warn("Unknown callback data: {}", callbackData);
+            return null;
+        }
+        return handler.handle(callbackQuery, message);
     }
 
     /**
@@ -417,12 +657,22 @@ public class BotHandler {
      * @param message       The message object to reply to the user.
      * @return A SendMessage object to reply to the user.
      */
+    @OnCallback(value = CallbackData.Op.CANCEL_ORDER, legacy = "/cancel_order")
     private SendMessage handleCancelOrderCommand(CallbackQuery callbackQuery, SendMessage message) {
         try {
+            ChatSession session = sessionStore.get(callbackQuery.getMessage().getChatId());
+            if (session == null || session.getOrder() == null) {
+                return sendValidationErrorMessage(callbackQuery.getMessage().getChatId(), MessageTemplates.NO_ACTIVE_ORDER.getMessage());
+            }
+            if (session.getState() == OrderState.SAVING) {
+                // The confirmed order is already on its way to being saved
+                return sendValidationErrorMessage(callbackQuery.getMessage().getChatId(), MessageTemplates.ORDER_SAVING.getMessage());
+            }
+            Order order = session.getOrder();
             sendMessage(callbackQuery.getMessage().getChatId(), MessageTemplates.ORDER_CANCELED_COMMENT_REQUEST.getMessage(), null); // Send message to user
-            order.setStatus(Order.Status.CANCELED.name()); // Set order status to CANCELED
-            orderState = OrderState.WAITING_FOR_CANCEL_COMMENT; // Set state to WAITING_FOR_CANCEL_COMMENT
-            logger.info("Order {} canceled", order.getOrderNumber());
+            order.setStatus(Order.Status.CANCELED); // Set order status to CANCELED
+            session.setState(OrderState.WAITING_FOR_CANCEL_COMMENT); // Set state to WAITING_FOR_CANCEL_COMMENT
+            logger.debug("Order {} canceled", order.getOrderNumber());
         } catch (Exception e) {
             logger.error("Error in handleCancelOrderCommand", e);
             return sendValidationErrorMessage(callbackQuery.getMessage().getChatId(), "An error occurred while canceling the order. Please try again.");
@@ -437,19 +687,26 @@ public class BotHandler {
      * @param message       The message object to reply to the user.
      * @return A SendMessage object to reply to the user.
      */
+    @OnCallback(value = CallbackData.Op.CONFIRM_ORDER, legacy = "/confirm_order")
     private SendMessage handleConfirmOrderCommand(CallbackQuery callbackQuery, SendMessage message) {
         try {
-            double cost = orderCalculationService.calculateCost(order);
-            order.setCost(cost);
-            orderService.save(order);
-            orderState = null;
-            sendExecutorNotification(order);
-            logger.info("Order {} created successfully with cost: {}", order.getOrderNumber(), order.getCost()); // Log order creation
-            sendMessage(callbackQuery.getMessage().getChatId(), MessageTemplates.ORDER_CREATED.getMessage() + ": " + order.getCost(), null);
-
-            return message; // Return message
-
-        catch (Exception e) {
+            ChatSession session = sessionStore.get(callbackQuery.getMessage().getChatId());
+            if (session == null || session.getState() != OrderState.CONFIRMATION) {
+                return sendValidationErrorMessage(callbackQuery.getMessage().getChatId(), MessageTemplates.NO_ACTIVE_ORDER.getMessage());
+            }
+            Order order = session.getOrder();
+            Long chatId = callbackQuery.getMessage().getChatId();
+            session.setState(OrderState.SAVING);
+            CompletableFuture<?> download = session.getFileDownload();
+            if (download == null) {
+                return saveConfirmedOrder(chatId, order, null);
+            }
+            // The order is saved once its file is attached; no worker waits for the download meanwhile.
+            download.copy()
+                    .orTimeout(downloadConfirmTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .whenComplete((attached, error) -> continueInChat(chatId, () -> saveConfirmedOrder(chatId, order, error)));
+            return null;
+        } catch (Exception e) {
             logger.error("Error in handleConfirmOrderCommand", e);
             message.setText("An error occurred while confirming the order. Please try again.");
             return message;
@@ -458,41 +715,249 @@ public class BotHandler {
     }
 
     /**
-     * Sends a notification to the executor about the new order.
+     * Saves a confirmed order, once its file is attached or the wait for it is over.
+     * A failed download is logged and the order goes on with the Telegram file ID alone.
+     *
+     * @param chatId        The chat the order was created in.
+     * @param order         The confirmed order.
+     * @param downloadError Why the file is not attached, or {@code null}.
+     * @return A SendMessage object to reply to the user, or {@code null}.
+     */
+    private SendMessage saveConfirmedOrder(Long chatId, Order order, Throwable downloadError) {
+        ChatSession session = sessionStore.get(chatId);
+        if (order.getStatus() == Order.Status.CANCELED
+                || session != null && session.getOrder() == order && session.getState() != OrderState.SAVING) {
+            logger.debug("Order {} is no longer waiting to be saved", order.getOrderNumber());
+            return null;
+        }
+        if (downloadError != null) {
+            logger.error("File of order {} is not available locally", order.getOrderNumber(), downloadError);
+        }
+        try {
+            double cost = orderCalculationService.calculateCost(order);
+            order.setCost(cost);
+            // The draft stays in the session until the order is committed; the outcome is
+            // handled in the chat's lane rather than on the order writer's thread.
+            orderService.saveAsync(order).whenComplete((saved, error) ->
+                    continueInChat(chatId, () -> confirmedOrderSaved(chatId, order, error)));
+            return null;
+        } catch (Exception e) {
+            logger.error("Order {} could not be confirmed", order.getOrderNumber(), e);
+            if (session != null && session.getOrder() == order) {
+                session.setState(OrderState.CONFIRMATION);
+            }
+            return sendValidationErrorMessage(chatId, "An error occurred while confirming the order. Please try again.");
+        }
+    }
+
+    /**
+     * Finishes the confirmation once the write of the order is over. A committed order
+     * ends the draft and goes to the scheduler, and the customer hears about it only
+     * then; if the write failed, the draft goes back to waiting for confirmation.
+     *
+     * @param chatId The chat the order was created in.
+     * @param order  The confirmed order.
+     * @param error  Why the order was not saved, or {@code null} if it was.
+     * @return A SendMessage object to reply to the user.
+     */
+    private SendMessage confirmedOrderSaved(Long chatId, Order order, Throwable error) {
+        ChatSession session = sessionStore.get(chatId);
+        boolean held = session != null && session.getOrder() == order;
+        if (error != null) {
+            logger.error("Order {} could not be saved", order.getOrderNumber(), error);
+            if (!held) {
+                return sendValidationErrorMessage(chatId, "An error occurred while saving the order. Please create it again.");
+            }
+            // Nothing was written, so confirming again inserts the order afresh
+            order.setId(null);
+            order.setVersion(null);
+            session.setState(OrderState.CONFIRMATION);
+            return SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text("An error occurred while saving the order. Please confirm it again.")
+                    .replyMarkup(InlineKeyboards.CONFIRMATION)
+                    .build();
+        }
+        if (held) {
+            session.reset();
+        }
+        orderScheduler.submit(order);
+        logger.debug("Order {} created successfully with cost: {}", order.getOrderNumber(), order.getCost()); // Log order creation
+        return SendMessage.builder()
+                .chatId(chatId.toString())
+                .text(MessageTemplates.ORDER_CREATED.getMessage() + ": " + order.getCost())
+                .build();
+    }
+
+    /**
+     * Handles an executor accepting an assigned order.
      *
-     * @param order The order to send notification about.
+     * @param callbackQuery The callback query object from Telegram.
+     * @param message       The message object to reply to the executor.
+     * @return A SendMessage object with the status keyboard of the order.
      */
-    private void sendExecutorNotification(Order order){
-        sendMessage(executorChatId, MessageTemplates.EXECUTOR_NEW_ORDER.getMessage() + order.getOrderNumber() + "\n" +
-                getOrderDetails() + "\n" +
-                "File Id: " + (order.getFileId() == null ? "Not provided" : order.getFileId()) + "\n", null);
+    @OnCallback(CallbackData.Op.ACCEPT_ORDER)
+    private SendMessage handleAcceptOrderCommand(CallbackQuery callbackQuery, SendMessage message) {
+        long orderId = CallbackData.orderId(callbackQuery.getData());
+        OrderScheduler.Assignment assignment = orderScheduler.acknowledge(orderId, callbackQuery.getMessage().getChatId());
+        if (assignment == null) {
+            message.setText("This order is no longer assigned to you.");
+            return message;
+        }
+        message.setText("Order " + assignment.getOrder().getOrderNumber() + " accepted. Update its status here:");
+        message.setReplyMarkup(InlineKeyboards.withBatches(
+                InlineKeyboards.updateStatus(assignment.getOrder(), callbackQuery.getMessage().getMessageId()),
+                printBatchService.plan(orderScheduler.acceptedOrders(callbackQuery.getMessage().getChatId()))));
+        return message;
     }
 
-    private void sendValidationErrorMessage(Long chatId, String errorMessage) {
-        sendMessage(chatId, errorMessage, null);
+    /**
+     * Handles an executor accepting every order of a digest.
+     *
+     * @param callbackQuery The callback query object from Telegram.
+     * @param message       The message object to reply to the executor.
+     * @return A SendMessage object with the status keyboard of the accepted orders.
+     */
+    @OnCallback(CallbackData.Op.ACCEPT_DIGEST)
+    private SendMessage handleAcceptDigestCommand(CallbackQuery callbackQuery, SendMessage message) {
+        long[] orderIds = executorNotifier.digestOrders(CallbackData.orderId(callbackQuery.getData()));
+        if (orderIds == null) {
+            message.setText("This digest is no longer available.");
+            return message;
+        }
+        Long chatId = callbackQuery.getMessage().getChatId();
+        List<Order> accepted = new ArrayList<>(orderIds.length);
+        StringBuilder text = new StringBuilder();
+        for (long orderId : orderIds) {
+            OrderScheduler.Assignment assignment = orderScheduler.acknowledge(orderId, chatId);
+            if (assignment != null) {
+                accepted.add(assignment.getOrder());
+                text.append(accepted.size()).append(". ").append(assignment.getOrder().getOrderNumber()).append("\n");
+            }
+        }
+        if (accepted.isEmpty()) {
+            message.setText("None of these orders are assigned to you any more.");
+            return message;
+        }
+        message.setText("Accepted " + accepted.size() + " of " + orderIds.length + " orders. Update their status here:\n" + text);
+        message.setReplyMarkup(InlineKeyboards.withBatches(
+                InlineKeyboards.updateStatus(accepted, callbackQuery.getMessage().getMessageId()),
+                printBatchService.plan(orderScheduler.acceptedOrders(chatId))));
+        return message;
+    }
 
+    /**
+     * Handles an executor printing a batch: the files of the batch's orders they still
+     * hold are merged into one document, which is sent with the status buttons of those
+     * orders once it is ready.
+     *
+     * @param callbackQuery The callback query object from Telegram.
+     * @param message       The message object to reply to the executor.
+     * @return A SendMessage object telling the executor the merge has started.
+     */
+    @OnCallback(CallbackData.Op.PRINT_BATCH)
+    private SendMessage handlePrintBatchCommand(CallbackQuery callbackQuery, SendMessage message) {
+        long batchId = CallbackData.orderId(callbackQuery.getData());
+        long[] orderIds = printBatchService.batchOrders(batchId);
+        if (orderIds == null) {
+            message.setText("This batch is no longer available.");
+            return message;
+        }
+        Long chatId = callbackQuery.getMessage().getChatId();
+        Map<Long, Order> held = new HashMap<>();
+        for (Order order : orderScheduler.acceptedOrders(chatId)) {
+            held.put(order.getId(), order);
+        }
+        List<Order> orders = new ArrayList<>(orderIds.length);
+        StringBuilder text = new StringBuilder();
+        for (long orderId : orderIds) {
+            Order order = held.get(orderId);
+            if (order != null) {
+                orders.add(order);
+                text.append(orders.size()).append(". ").append(order.getOrderNumber()).append("\n");
+            }
+        }
+        if (orders.isEmpty()) {
+            message.setText("None of these orders are assigned to you any more.");
+            return message;
+        }
+        String caption = "Batch of " + orders.size() + " orders, separated by a cover sheet each:\n" + text;
+        long messageId = callbackQuery.getMessage().getMessageId();
+        printBatchService.merge(batchId, orders).whenComplete((file, error) -> {
+            if (error != null) {
+                logger.error("Batch {} could not be merged", batchId, error);
+                sendMessage(chatId, "The batch could not be merged. Please print its orders one by one.", null);
+                return;
+            }
+            outboundMessageQueue.enqueue(chatId, SendDocument.builder()
+                    .chatId(chatId.toString())
+                    .document(new InputFile(file.toFile(), file.getFileName().toString()))
+                    .caption(caption.length() <= 1024 ? caption : "Batch of " + orders.size() + " orders")
+                    .replyMarkup(InlineKeyboards.updateStatus(orders, messageId))
+                    .build(), OutboundMessageQueue.Priority.HIGH);
+        });
+        message.setText("Merging " + orders.size() + " orders into one print job...");
+        return message;
     }
+
+    /**
+     * Handles an executor pressing a status button. The button carries the status and
+     * version the order had when it was sent, so the change is a single conditional
+     * update; the order is only read when someone else changed it in the meantime.
+     *
+     * @param callbackQuery The callback query object from Telegram.
+     * @param message       The message object to reply to the executor.
+     * @return A SendMessage object with the new status and the buttons for the next one.
+     */
+    @OnCallback(CallbackData.Op.UPDATE_STATUS)
     private SendMessage handleUpdateStatusCommand(CallbackQuery callbackQuery, SendMessage message) {
 
         try {
             String callbackData = callbackQuery.getData();
-            String[] parts = callbackData.split(" ");
-            Long orderId = null;
-            // Get order id from callback data
-            orderId = Long.parseLong(parts[1]);
-            String status = parts[2];
-            //Check if status is valid
-            Order.Status.valueOf(status);
-            orderService.updateOrderStatus(orderId, Order.Status.valueOf(status));
-            Order order = orderService.findOrderById(orderId);
-            message.setText("Order status updated to: " + order.getStatus());
+            long orderId = CallbackData.orderId(callbackData);
+            long messageId = CallbackData.messageId(callbackData);
+            Order.Status status = CallbackData.status(callbackData);
+            Order.Status expected = CallbackData.expectedStatus(callbackData);
+            long version = CallbackData.orderVersion(callbackData);
+            if (status == null) {
+                message.setText("Invalid order status.");
+                return message;
+            }
             message.setChatId(callbackQuery.getMessage().getChatId().toString());
             message.setMessageThreadId(callbackQuery.getMessage().getMessageThreadId());
-            //Create keyboard with buttons to update status
-            message.setReplyMarkup(createUpdateStatusKeyboard(orderId, parts[3]));
-            return message;
-        } catch (NumberFormatException e) {
-            message.setText("Invalid order ID format.");
+            if (expected == null) {
+                // Buttons of the first layout do not say which status and version they were sent for
+                Order current = orderService.findOrderById(orderId);
+                if (current == null) {
+                    message.setText("This order no longer exists.");
+                    return message;
+                }
+                expected = current.getStatus();
+                version = current.getVersion() == null ? 0 : current.getVersion();
+            }
+            if (!expected.canMoveTo(status)) {
+                message.setText("An order that is " + expected + " cannot become " + status + ".");
+                return message;
+            }
+            if (orderService.changeStatus(orderId, expected, version, status, callbackQuery.getMessage().getChatId())) {
+                message.setText("Order status updated to: " + status);
+                if (status.isFinal()) {
+                    // Right away rather than through the event, which is dropped if its queue stays full
+                    orderScheduler.release(orderId);
+                } else {
+                    message.setReplyMarkup(InlineKeyboards.updateStatus(orderId, status, version + 1, messageId));
+                }
+                return message;
+            }
+            Order order = orderService.findOrderById(orderId);
+            if (order == null) {
+                message.setText("This order no longer exists.");
+                return message;
+            }
+            message.setText("This order was changed in the meantime. Its status is now: " + order.getStatus());
+            if (!order.getStatus().isFinal()) {
+                message.setReplyMarkup(InlineKeyboards.updateStatus(order, messageId));
+            }
             return message;
         } catch (IllegalArgumentException e) {
             message.setText("Invalid order status.");
@@ -508,10 +973,12 @@ public class BotHandler {
     /**
      * Handles the cancellation comment.
      *
-     * @param update The update object from Telegram.
+     * @param update  The update object from Telegram.
+     * @param session The session holding the canceled order.
      * @return A SendMessage object to reply to the user.
      */
-    private SendMessage handleCancelComment(Update update) {
+    @OnState(OrderState.WAITING_FOR_CANCEL_COMMENT)
+    private SendMessage handleCancelComment(Update update, ChatSession session) {
         SendMessage message = new SendMessage();
         message.setChatId(update.getMessage().getChatId().toString());
         try {
@@ -520,10 +987,14 @@ public class BotHandler {
                 message.setText("Comment can't be empty");
                 return message;
             }
+            Order order = session.getOrder();
             order.setCancelComment(comment);
+            String stagedFile = order.getFilePath();
+            order.setFilePath(null);
             orderService.save(order);
+            fileDownloader.discard(stagedFile);
             message.setText(MessageTemplates.ORDER_CANCELED.getMessage() + ": " + comment);
-            orderState = null;
+            session.reset();
             return message;
         } catch (Exception e){
             logger.error("Error in handleCancelComment", e);
@@ -531,4 +1002,19 @@ public class BotHandler {
             return message;
         }
     }
+
+    /**
+     * What the download thread learned about an uploaded file, to be attached in the chat's lane.
+     */
+    private static final class StagedFile {
+        private final DownloadedFile file;
+        private final PdfMetadata metadata;
+        private final PdfPreflightReport report;
+
+        private StagedFile(DownloadedFile file, PdfMetadata metadata, PdfPreflightReport report) {
+            this.file = file;
+            this.metadata = metadata;
+            this.report = report;
+        }
+    }
 }
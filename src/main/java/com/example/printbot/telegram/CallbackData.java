@@ -0,0 +1,238 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-width codec for the {@code callback_data} of inline buttons.
+ * <p>
+ * Every callback is 21 bytes, written as 28 characters of URL-safe Base64, well
+ * under Telegram's 64-byte limit:
+ * <pre>
+ * [version:1][op:1][status:1][orderId:6][messageId:6][expected:1][orderVersion:5]
+ * </pre>
+ * {@code status} and {@code expected} are the ordinal of {@link Order.Status} plus
+ * one, 0 meaning none. A status button carries the status and version the order had
+ * when the button was sent, so pressing it can change the order without reading it
+ * first, and only if nobody changed it since.
+ * Each field starts on a 3-byte boundary, so it maps onto whole groups of four
+ * characters. The accessors read the field straight from the string, without
+ * decoding the rest and without allocating. The version changes whenever the
+ * layout or the meaning of an ordinal changes, so buttons sent by an older build
+ * are recognised instead of misread. Buttons of version 1, which end after
+ * {@code messageId} (20 characters), still decode: they carry no expected status
+ * and version 0.
+ */
+public final class CallbackData {
+
+    public static final int VERSION = 2;
+    public static final int LENGTH = 28;
+    static final int V1 = 1;
+    static final int V1_LENGTH = 20;
+
+    /**
+     * What pressing the button does.
+     */
+    public enum Op {
+        CONFIRM_ORDER,
+        CANCEL_ORDER,
+        UPDATE_STATUS,
+        ORDERS_NEWER,
+        ORDERS_OLDER,
+        ACCEPT_ORDER,
+        ACCEPT_DIGEST,
+        PRINT_BATCH
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final Order.Status[] STATUSES = Order.Status.values();
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] DECODE = new byte[128];
+    private static final long MAX_ID = (1L << 48) - 1;
+    private static final long MAX_ORDER_VERSION = (1L << 40) - 1;
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private CallbackData() {
+    }
+
+    public static String encode(Op op) {
+        return encode(op, null, 0, 0);
+    }
+
+    /**
+     * @param op        What the button does.
+     * @param status    The status the button sets, or {@code null}.
+     * @param orderId   The order the button refers to, 0 if none; at most 48 bits.
+     * @param messageId The message the button refers to, 0 if none; at most 48 bits.
+     * @return The callback data, {@value #LENGTH} characters long.
+     */
+    public static String encode(Op op, Order.Status status, long orderId, long messageId) {
+        return encode(op, status, orderId, messageId, null, 0);
+    }
+
+    /**
+     * @param expected     The status the order had when the button was sent, or {@code null}.
+     * @param orderVersion The version the order had when the button was sent; at most 40 bits.
+     * @see #encode(Op, Order.Status, long, long)
+     */
+    public static String encode(Op op, Order.Status status, long orderId, long messageId,
+                                Order.Status expected, long orderVersion) {
+        char[] data = new char[LENGTH];
+        writeHeader(data, op, status);
+        writeIds(data, orderId, messageId);
+        writeExpected(data, expected, orderVersion);
+        return new String(data);
+    }
+
+    /**
+     * Writes the first four characters, which only depend on the operation and the status.
+     */
+    static void writeHeader(char[] data, Op op, Order.Status status) {
+        write(data, 0, 4, (long) VERSION << 16 | op.ordinal() << 8 | (status == null ? 0 : status.ordinal() + 1));
+    }
+
+    /**
+     * Writes the sixteen characters after the header, holding the order and message IDs.
+     */
+    static void writeIds(char[] data, long orderId, long messageId) {
+        if (orderId < 0 || orderId > MAX_ID || messageId < 0 || messageId > MAX_ID) {
+            throw new IllegalArgumentException("ID does not fit in 48 bits");
+        }
+        write(data, 4, 8, orderId);
+        write(data, 12, 8, messageId);
+    }
+
+    /**
+     * Writes the last eight characters, holding the status and version the order is expected to have.
+     */
+    static void writeExpected(char[] data, Order.Status expected, long orderVersion) {
+        if (orderVersion < 0 || orderVersion > MAX_ORDER_VERSION) {
+            throw new IllegalArgumentException("Order version does not fit in 40 bits");
+        }
+        write(data, 20, 8, (long) (expected == null ? 0 : expected.ordinal() + 1) << 40 | orderVersion);
+    }
+
+    /**
+     * @return {@code true} if the data was written by this codec, with the current version or version 1.
+     */
+    public static boolean isEncoded(String data) {
+        if (data == null || data.length() != LENGTH && data.length() != V1_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c >= 128 || DECODE[c] < 0) {
+                return false;
+            }
+        }
+        long header = read(data, 0, 4);
+        if ((header >>> 8 & 0xFF) >= OPS.length || (header & 0xFF) > STATUSES.length) {
+            return false;
+        }
+        if (data.length() == V1_LENGTH) {
+            return header >>> 16 == V1;
+        }
+        return header >>> 16 == VERSION && read(data, 20, 8) >>> 40 <= STATUSES.length;
+    }
+
+    /**
+     * Translates the plain data of buttons sent before this codec that carry
+     * arguments: {@code /update_status <orderId> <STATUS> <messageId>} and
+     * {@code /my_orders <newer|older> <orderId>}. A translated status button says
+     * nothing about the status and version it was sent for, like a button of version 1.
+     *
+     * @return The data in the current layout, or {@code null} if the data is not one of these buttons.
+     */
+    public static String fromLegacy(String data) {
+        if (data == null) {
+            return null;
+        }
+        String[] parts = data.split(" ");
+        try {
+            if (parts.length == 4 && parts[0].equals("/update_status")) {
+                return encode(Op.UPDATE_STATUS, Order.Status.valueOf(parts[2]),
+                        Long.parseLong(parts[1]), Long.parseLong(parts[3]));
+            }
+            if (parts.length == 3 && parts[0].equals("/my_orders")) {
+                if (parts[1].equals("newer")) {
+                    return encode(Op.ORDERS_NEWER, null, Long.parseLong(parts[2]), 0);
+                }
+                if (parts[1].equals("older")) {
+                    return encode(Op.ORDERS_OLDER, null, Long.parseLong(parts[2]), 0);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // A malformed number or status, or an ID out of range: not a button we sent
+        }
+        return null;
+    }
+
+    public static Op op(String data) {
+        return OPS[(int) (read(data, 0, 4) >>> 8 & 0xFF)];
+    }
+
+    /**
+     * @return The status carried by the button, or {@code null} if it has none.
+     */
+    public static Order.Status status(String data) {
+        int status = (int) (read(data, 0, 4) & 0xFF);
+        return status == 0 ? null : STATUSES[status - 1];
+    }
+
+    public static long orderId(String data) {
+        return read(data, 4, 8);
+    }
+
+    public static long messageId(String data) {
+        return read(data, 12, 8);
+    }
+
+    /**
+     * @return The status the order had when the button was sent, or {@code null} if the button does not say.
+     */
+    public static Order.Status expectedStatus(String data) {
+        if (data.length() == V1_LENGTH) {
+            return null;
+        }
+        int status = (int) (read(data, 20, 8) >>> 40);
+        return status == 0 ? null : STATUSES[status - 1];
+    }
+
+    /**
+     * @return The version the order had when the button was sent, 0 for buttons of version 1.
+     */
+    public static long orderVersion(String data) {
+        if (data.length() == V1_LENGTH) {
+            return 0;
+        }
+        return read(data, 20, 8) & MAX_ORDER_VERSION;
+    }
+
+    private static void write(char[] data, int offset, int chars, long value) {
+        for (int i = offset + chars - 1; i >= offset; i--) {
+            data[i] = ALPHABET[(int) (value & 0x3F)];
+            value >>>= 6;
+        }
+    }
+
+    private static long read(String data, int offset, int chars) {
+        long value = 0;
+        for (int i = offset; i < offset + chars; i++) {
+            char c = data.charAt(i);
+            byte sextet = c < 128 ? DECODE[c] : -1;
+            if (sextet < 0) {
+                throw new IllegalArgumentException("Invalid callback data");
+            }
+            value = value << 6 | sextet;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.printbot.telegram;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+
+/**
+ * Runs the work of each chat one task at a time, in the order it was submitted, on
+ * a shared pool of {@code telegram.dispatch.threads} workers. Tasks of different
+ * chats run in parallel.
+ * <p>
+ * Besides the updates queued by the {@link UpdateDispatcher}, the
+ * {@link BotHandler} submits the steps that continue a conversation once work done
+ * elsewhere, like a download or a save, is over; they see the chat's session
+ * exactly as its updates do.
+ */
+@Component
+public class ChatLanes {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatLanes.class);
+
+    private final ThreadPoolExecutor workers;
+    private final long shutdownTimeoutMillis;
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+
+    public ChatLanes(@Value("${telegram.dispatch.threads:0}") int threads,
+                     @Value("${telegram.dispatch.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "update-worker-" + threadNumber.incrementAndGet()));
+        this.workers.allowCoreThreadTimeOut(true);
+        this.shutdownTimeoutMillis = shutdownTimeout.toMillis();
+    }
+
+    /**
+     * Queues the task in the lane of the chat.
+     *
+     * @param chatId The Telegram chat ID.
+     * @param task   The task; an exception it throws is logged.
+     * @return {@code true} if the task was queued, {@code false} if the lanes are shutting down.
+     */
+    public boolean execute(Long chatId, Runnable task) {
+        boolean[] rejected = new boolean[1];
+        lanes.compute(chatId, (id, lane) -> {
+            if (lane != null) {
+                lane.tasks.add(task);
+                return lane;
+            }
+            Lane created = new Lane(id);
+            created.tasks.add(task);
+            try {
+                // Started before the lane is published, so no other task can join a lane that never runs
+                workers.execute(created);
+            } catch (RejectedExecutionException e) {
+                rejected[0] = true;
+                return null;
+            }
+            return created;
+        });
+        if (rejected[0]) {
+            logger.warn("Chat lanes are shut down, dropping a task of chat {}", chatId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of tasks waiting or running.
+     */
+    public int pending() {
+        return lanes.values().stream().mapToInt(lane -> lane.tasks.size()).sum();
+    }
+
+    /**
+     * @param chats Selects chats by ID.
+     * @return Whether a task of any of the chats is waiting or running.
+     */
+    public boolean hasPending(LongPredicate chats) {
+        for (Long chatId : lanes.keySet()) {
+            if (chats.test(chatId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the queued tasks to run, then stops the workers.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (workers.isShutdown()) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("Chat lanes were not drained in time, {} tasks left", pending());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tasks of one chat. A lane stays in {@link #lanes} for exactly as long as a
+     * worker is draining it, so a new worker is only started when a lane is created.
+     * A task is removed from the lane once it has run, so that {@link #pending()}
+     * counts it while it runs.
+     */
+    private final class Lane implements Runnable {
+
+        private final Long chatId;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private Lane(Long chatId) {
+            this.chatId = chatId;
+        }
+
+        @Override
+        public void run() {
+            do {
+                Runnable task;
+                while ((task = tasks.peek()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Task of chat {} failed", chatId, e);
+                    }
+                    tasks.remove();
+                }
+            } while (lanes.compute(chatId, (id, lane) -> lane.tasks.isEmpty() ? null : lane) != null);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.printbot.telegram;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link BotHandler} method as the handler of a text command. The method
+ * takes the {@code Update} and returns the reply, or {@code null}.
+ * <p>
+ * Commands are matched on the whole message text and take precedence over the
+ * order dialog, so they work while an order draft is open.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Command {
+
+    /**
+     * @return The command texts, e.g. {@code "/start"}.
+     */
+    String[] value();
+}
@@ -0,0 +1,44 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.service.OrderService;
+import com.example.printbot.service.OrderStatusChanged;
+import com.example.printbot.util.MessageTemplates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+/**
+ * Tells customers when an executor changes the status of their order. Runs on the
+ * {@link com.example.printbot.service.OrderEventBus} thread, so the order is read
+ * there and not while the executor waits for the reply to their button.
+ */
+@Component
+public class CustomerNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(CustomerNotifier.class);
+
+    private final OrderService orderService;
+    private final OutboundMessageQueue outboundMessageQueue;
+
+    public CustomerNotifier(OrderService orderService, OutboundMessageQueue outboundMessageQueue) {
+        this.orderService = orderService;
+        this.outboundMessageQueue = outboundMessageQueue;
+    }
+
+    @EventListener
+    public void statusChanged(OrderStatusChanged change) {
+        Order order = orderService.findOrderById(change.getOrderId());
+        if (order == null || order.getUserId() == null) {
+            logger.warn("No customer to notify about order {}", change.getOrderId());
+            return;
+        }
+        outboundMessageQueue.enqueue(SendMessage.builder()
+                .chatId(order.getUserId().toString())
+                .text("Order " + order.getOrderNumber() + ": "
+                        + String.format(MessageTemplates.ORDER_UPDATED.getMessage(), change.getStatus()))
+                .build());
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.printbot.telegram;
+
+import java.nio.file.Path;
+
+/**
+ * A Telegram file saved to the local staging directory.
+ */
+public class DownloadedFile {
+
+    private final Path path;
+    private final String sha256;
+    private final long size;
+
+    public DownloadedFile(Path path, String sha256, long size) {
+        this.path = path;
+        this.sha256 = sha256;
+        this.size = size;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.scheduling.OrderScheduler;
+import com.example.printbot.service.PdfPreviewService;
+import com.example.printbot.util.BoundedLruCache;
+import com.example.printbot.util.MessageTemplates;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+
+import java.io.ByteArrayInputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells executors about the orders assigned to them without flooding their chats.
+ * <p>
+ * The first assignment after a quiet {@code printbot.notifications.digest-window}
+ * is sent at once. Assignments arriving within the window after a send are held
+ * back and sent together as one digest when the window ends, or as soon as
+ * {@code printbot.notifications.max-batch} of them are waiting. A digest lists one
+ * line per order and has a single button that accepts all of them; the order IDs
+ * behind the button are remembered here, since they do not fit in the callback data.
+ * <p>
+ * A single assignment is sent as a photo of the order's first pages from the
+ * {@link PdfPreviewService}, with the order details as its caption, once the preview
+ * is ready; orders without a local file, or whose preview fails, get the text alone.
+ */
+@Component
+public class ExecutorNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorNotifier.class);
+
+    private static final int MAX_DIGESTS = 1000;
+    private static final int MAX_CAPTION_LENGTH = 1024;
+
+    private final OutboundMessageQueue outboundMessageQueue;
+    private final PdfPreviewService previewService;
+    private final long windowMillis;
+    private final int maxBatch;
+    private final ConcurrentHashMap<Long, ChatDigest> chats = new ConcurrentHashMap<>();
+    private final BoundedLruCache<Long, long[]> digests = new BoundedLruCache<>(MAX_DIGESTS);
+    private final AtomicLong digestIds = new AtomicLong();
+    private final Counter singleSends;
+    private final Counter digestSends;
+    private final Counter savedSends;
+    private final Clock clock;
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public ExecutorNotifier(OutboundMessageQueue outboundMessageQueue, PdfPreviewService previewService,
+                            @Value("${printbot.notifications.digest-window:30s}") Duration window,
+                            @Value("${printbot.notifications.max-batch:10}") int maxBatch,
+                            MeterRegistry meterRegistry) {
+        this(outboundMessageQueue, previewService, window, maxBatch, meterRegistry, Clock.systemUTC());
+    }
+
+    ExecutorNotifier(OutboundMessageQueue outboundMessageQueue, PdfPreviewService previewService, Duration window,
+                     int maxBatch, MeterRegistry meterRegistry, Clock clock) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Notification batch size must be positive");
+        }
+        this.outboundMessageQueue = outboundMessageQueue;
+        this.previewService = previewService;
+        this.windowMillis = window.toMillis();
+        this.maxBatch = maxBatch;
+        this.singleSends = meterRegistry.counter("printbot.notifications.sent", "kind", "single");
+        this.digestSends = meterRegistry.counter("printbot.notifications.sent", "kind", "digest");
+        this.savedSends = Counter.builder("printbot.notifications.saved")
+                .description("Executor messages not sent because their orders went into a digest")
+                .register(meterRegistry);
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void start() {
+        long tick = Math.max(100L, windowMillis / 10);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "executor-digest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> flush(false), tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the flusher and sends whatever is still held back.
+     */
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flush(true);
+    }
+
+    /**
+     * Sends the assignment now, or holds it back for the executor's next digest.
+     *
+     * @param assignment The new assignment.
+     */
+    public void announce(OrderScheduler.Assignment assignment) {
+        ChatDigest digest = chats.computeIfAbsent(assignment.getExecutor().getChatId(), ChatDigest::new);
+        List<OrderScheduler.Assignment> batch;
+        synchronized (digest) {
+            long now = clock.millis();
+            if (digest.pending.isEmpty() && now - digest.lastSentMillis >= windowMillis) {
+                digest.lastSentMillis = now;
+                batch = List.of(assignment);
+            } else {
+                digest.pending.add(assignment);
+                batch = digest.pending.size() >= maxBatch ? digest.drain(now) : null;
+            }
+        }
+        if (batch != null) {
+            send(digest.chatId, batch);
+        }
+    }
+
+    /**
+     * @param digestId The ID carried by the digest's button.
+     * @return The IDs of the orders in the digest, or {@code null} if it is no longer known.
+     */
+    public long[] digestOrders(long digestId) {
+        return digests.get(digestId);
+    }
+
+    /**
+     * Sends the digests whose window has ended, or all of them. Run by the flusher every
+     * tenth of the window.
+     */
+    void flush(boolean all) {
+        long now = clock.millis();
+        for (ChatDigest digest : chats.values()) {
+            List<OrderScheduler.Assignment> batch = null;
+            synchronized (digest) {
+                if (!digest.pending.isEmpty() && (all || now - digest.lastSentMillis >= windowMillis)) {
+                    batch = digest.drain(now);
+                }
+            }
+            if (batch != null) {
+                try {
+                    send(digest.chatId, batch);
+                } catch (RuntimeException e) {
+                    logger.error("Error while sending the order digest to executor {}", digest.chatId, e);
+                }
+            }
+        }
+    }
+
+    private void send(long chatId, List<OrderScheduler.Assignment> batch) {
+        if (batch.size() == 1) {
+            singleSends.increment();
+            OrderScheduler.Assignment assignment = batch.get(0);
+            Order order = assignment.getOrder();
+            previewService.preview(order.getFilePath(), order.getFileHash())
+                    .thenAccept(preview -> sendSingle(chatId, assignment, preview))
+                    .exceptionally(e -> {
+                        logger.error("Error while sending order {} to executor {}", order.getId(), chatId, e);
+                        return null;
+                    });
+            return;
+        }
+        long digestId = digestIds.incrementAndGet();
+        long[] orderIds = new long[batch.size()];
+        StringBuilder text = new StringBuilder().append(batch.size()).append(" new orders:\n");
+        for (int i = 0; i < batch.size(); i++) {
+            OrderScheduler.Assignment assignment = batch.get(i);
+            Order order = assignment.getOrder();
+            orderIds[i] = order.getId();
+            text.append(i + 1).append(". ").append(order.getOrderNumber())
+                    .append(": ").append(order.getPages()).append(" pages, ")
+                    .append(order.getPrintType()).append(", ").append(order.getColor()).append(", ").append(order.getPaper())
+                    .append(", about ").append(TimeUnit.MILLISECONDS.toMinutes(assignment.getEstimatedMillis())).append(" min\n");
+        }
+        digests.put(digestId, orderIds);
+        digestSends.increment();
+        savedSends.increment(batch.size() - 1);
+        outboundMessageQueue.enqueue(SendMessage.builder()
+                .chatId(Long.toString(chatId))
+                .text(text.toString())
+                .replyMarkup(InlineKeyboards.acceptAll(digestId, batch.size()))
+                .build(), OutboundMessageQueue.Priority.HIGH);
+    }
+
+    /**
+     * Sends one assignment, with the preview as a photo if there is one. Details too long
+     * for a caption follow the photo as a separate message.
+     */
+    private void sendSingle(long chatId, OrderScheduler.Assignment assignment, byte[] preview) {
+        Order order = assignment.getOrder();
+        String printer = assignment.getPrinter() == null ? "any" : assignment.getPrinter().getName();
+        String text = MessageTemplates.EXECUTOR_NEW_ORDER.getMessage() + order.getOrderNumber() + "\n" +
+                BotHandler.getOrderDetails(order) + "\n" +
+                "File Id: " + (order.getFileId() == null ? "Not provided" : order.getFileId()) + "\n" +
+                "Printer: " + printer + ", about " + TimeUnit.MILLISECONDS.toMinutes(assignment.getEstimatedMillis()) + " min\n";
+        boolean captioned = preview != null && text.length() <= MAX_CAPTION_LENGTH;
+        if (preview != null) {
+            outboundMessageQueue.enqueue(chatId, SendPhoto.builder()
+                    .chatId(Long.toString(chatId))
+                    .photo(new InputFile(new ByteArrayInputStream(preview), order.getOrderNumber() + ".jpg"))
+                    .caption(captioned ? text : MessageTemplates.EXECUTOR_NEW_ORDER.getMessage() + order.getOrderNumber())
+                    .replyMarkup(captioned ? InlineKeyboards.accept(order.getId()) : null)
+                    .build(), OutboundMessageQueue.Priority.HIGH);
+        }
+        if (!captioned) {
+            outboundMessageQueue.enqueue(SendMessage.builder()
+                    .chatId(Long.toString(chatId))
+                    .text(text)
+                    .replyMarkup(InlineKeyboards.accept(order.getId()))
+                    .build(), OutboundMessageQueue.Priority.HIGH);
+        }
+    }
+
+    /**
+     * The assignments held back for one executor chat.
+     */
+    private static final class ChatDigest {
+        private final long chatId;
+        private final List<OrderScheduler.Assignment> pending = new ArrayList<>();
+        private long lastSentMillis = Long.MIN_VALUE / 2;
+
+        private ChatDigest(long chatId) {
+            this.chatId = chatId;
+        }
+
+        private List<OrderScheduler.Assignment> drain(long now) {
+            List<OrderScheduler.Assignment> batch = new ArrayList<>(pending);
+            pending.clear();
+            lastSentMillis = now;
+            return batch;
+        }
+    }
+}
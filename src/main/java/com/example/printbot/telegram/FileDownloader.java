@@ -0,0 +1,196 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.util.Sha256;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads uploaded documents to a local staging directory off the update threads.
+ * <p>
+ * At most {@code printbot.download.threads} downloads run at once and up to
+ * {@code printbot.download.queue-capacity} more may wait. The bytes are streamed
+ * from Telegram straight into the staging file through NIO channels and hashed
+ * on the way, so the file is never held in memory. Every download gets a staging
+ * file of its own, even when the same file is uploaded twice at once. A download
+ * fails once connecting takes longer than {@code printbot.download.connect-timeout}
+ * or no bytes arrive for {@code printbot.download.read-timeout}, so a stalled
+ * transfer frees its thread for the uploads of other chats.
+ */
+@Component
+public class FileDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloader.class);
+
+    private final AbsSender sender;
+    private final String botToken;
+    private final Path stagingDir;
+    private final long maxFileSize;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Timer getFileTimer;
+    private final Timer downloadTimer;
+
+    public FileDownloader(@Lazy AbsSender sender,
+                          @Value("${telegram.bot.token}") String botToken,
+                          @Value("${printbot.download.dir:${java.io.tmpdir}/printbot-downloads}") String stagingDir,
+                          @Value("${printbot.download.threads:4}") int threads,
+                          @Value("${printbot.download.queue-capacity:100}") int queueCapacity,
+                          @Value("${printbot.download.max-file-size:20971520}") long maxFileSize,
+                          @Value("${printbot.download.connect-timeout:10s}") Duration connectTimeout,
+                          @Value("${printbot.download.read-timeout:30s}") Duration readTimeout,
+                          MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.botToken = botToken;
+        this.stagingDir = Paths.get(stagingDir);
+        this.maxFileSize = maxFileSize;
+        this.connectTimeoutMillis = Math.toIntExact(connectTimeout.toMillis());
+        this.readTimeoutMillis = Math.toIntExact(readTimeout.toMillis());
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "file-download-" + threadNumber.incrementAndGet()));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.meterRegistry = meterRegistry;
+        this.getFileTimer = meterRegistry.timer("printbot.telegram.api", "method", GetFile.PATH);
+        this.downloadTimer = meterRegistry.timer("printbot.download");
+    }
+
+    /**
+     * Starts downloading a Telegram file.
+     *
+     * @param fileId       The {@code file_id} used to fetch the file.
+     * @param fileUniqueId The {@code file_unique_id}, used as the prefix of the staging file's name.
+     * @return A future completed with the staged file, or failed if the download failed
+     *         or too many downloads are already waiting.
+     */
+    public CompletableFuture<DownloadedFile> download(String fileId, String fileUniqueId) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(fileId, fileUniqueId);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Download of file " + fileId + " failed", e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Download queue is full, rejecting file {}", fileId);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Deletes a staged file that no order is going to print, such as the file of a
+     * draft that was cancelled or abandoned. Paths outside the staging directory are
+     * left alone.
+     *
+     * @param path The local path of the file, may be {@code null}.
+     */
+    public void discard(String path) {
+        if (path == null) {
+            return;
+        }
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!file.startsWith(stagingDir.toAbsolutePath().normalize())) {
+            logger.warn("Not discarding {}, it is not a staged file", path);
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+            logger.debug("Discarded staged file {}", file);
+        } catch (IOException e) {
+            logger.warn("Staged file {} could not be deleted", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private DownloadedFile fetch(String fileId, String fileUniqueId) throws Exception {
+        File telegramFile;
+        long start = System.nanoTime();
+        try {
+            telegramFile = sender.execute(new GetFile(fileId));
+        } catch (TelegramApiRequestException e) {
+            meterRegistry.counter("printbot.telegram.api.errors", "method", GetFile.PATH,
+                    "code", e.getErrorCode() == null ? "unknown" : e.getErrorCode().toString()).increment();
+            throw e;
+        } catch (TelegramApiException e) {
+            meterRegistry.counter("printbot.telegram.api.errors", "method", GetFile.PATH, "code", "io").increment();
+            throw e;
+        } finally {
+            getFileTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        Timer.Sample download = Timer.start();
+        Files.createDirectories(stagingDir);
+        // Names of their own, so two uploads of the same file never write into each other
+        Path partial = Files.createTempFile(stagingDir, fileUniqueId + "-", ".part");
+        MessageDigest digest = Sha256.newDigest();
+        long size = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        URLConnection connection = new URL(telegramFile.getFileUrl(botToken)).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        try (InputStream in = connection.getInputStream();
+             ReadableByteChannel source = Channels.newChannel(in);
+             FileChannel out = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = source.read(buffer)) >= 0) {
+                size += read;
+                if (size > maxFileSize) {
+                    throw new IOException("File " + fileId + " is larger than " + maxFileSize + " bytes");
+                }
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Path target = Files.createTempFile(stagingDir, fileUniqueId + "-", ".pdf");
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        download.stop(downloadTimer);
+        logger.debug("Downloaded file {} ({} bytes) to {}", fileId, size, target);
+        return new DownloadedFile(target, Sha256.hex(digest), size);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.session.ChatSession;
+import com.example.printbot.session.OrderState;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routing table of the bot, built once from the {@link Command}, {@link OnState}
+ * and {@link OnCallback} methods of a handler object.
+ * <p>
+ * Commands are found with one hash lookup on the message text, states and
+ * callback operations with one array lookup, so the cost of routing an update
+ * does not depend on how many handlers there are or in which order they were
+ * declared. Two methods claiming the same key fail the build, at startup.
+ */
+final class HandlerTable {
+
+    interface CommandHandler {
+        SendMessage handle(Update update);
+    }
+
+    interface StateHandler {
+        SendMessage handle(Update update, ChatSession session);
+    }
+
+    interface CallbackHandler {
+        SendMessage handle(CallbackQuery callbackQuery, SendMessage message);
+    }
+
+    private static final MethodType COMMAND_TYPE = MethodType.methodType(SendMessage.class, Update.class);
+    private static final MethodType STATE_TYPE = MethodType.methodType(SendMessage.class, Update.class, ChatSession.class);
+    private static final MethodType CALLBACK_TYPE =
+            MethodType.methodType(SendMessage.class, CallbackQuery.class, SendMessage.class);
+
+    private final Map<String, CommandHandler> commands;
+    private final Map<OrderState, StateHandler> states;
+    private final Map<CallbackData.Op, CallbackHandler> callbacks;
+    private final Map<String, CallbackHandler> legacyCallbacks;
+
+    private HandlerTable(Builder builder) {
+        this.commands = new HashMap<>(builder.commands);
+        this.states = new EnumMap<>(builder.states);
+        this.callbacks = new EnumMap<>(builder.callbacks);
+        this.legacyCallbacks = new HashMap<>(builder.legacyCallbacks);
+    }
+
+    /**
+     * Builds the table from the annotated methods of the target.
+     *
+     * @param target The handler object.
+     * @param lookup A lookup created in the target's class, giving access to its private methods.
+     * @return The routing table.
+     * @throws IllegalStateException If a method has the wrong signature or a key is claimed twice.
+     */
+    static HandlerTable scan(Object target, MethodHandles.Lookup lookup) {
+        Builder builder = new Builder();
+        for (Method method : lookup.lookupClass().getDeclaredMethods()) {
+            Command command = method.getAnnotation(Command.class);
+            if (command != null) {
+                CommandHandler handler = commandHandler(bind(target, lookup, method, COMMAND_TYPE));
+                for (String text : command.value()) {
+                    builder.command(text, handler);
+                }
+            }
+            OnState onState = method.getAnnotation(OnState.class);
+            if (onState != null) {
+                StateHandler handler = stateHandler(bind(target, lookup, method, STATE_TYPE));
+                for (OrderState state : onState.value()) {
+                    builder.state(state, handler);
+                }
+            }
+            OnCallback onCallback = method.getAnnotation(OnCallback.class);
+            if (onCallback != null) {
+                CallbackHandler handler = callbackHandler(bind(target, lookup, method, CALLBACK_TYPE));
+                for (CallbackData.Op op : onCallback.value()) {
+                    builder.callback(op, handler);
+                }
+                for (String data : onCallback.legacy()) {
+                    builder.legacyCallback(data, handler);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    CommandHandler command(String text) {
+        return commands.get(text);
+    }
+
+    StateHandler state(OrderState state) {
+        return states.get(state);
+    }
+
+    /**
+     * @return The handler of the button, whether its data is encoded or from before the codec.
+     */
+    CallbackHandler callback(String data) {
+        if (CallbackData.isEncoded(data)) {
+            return callbacks.get(CallbackData.op(data));
+        }
+        return legacyCallbacks.get(data);
+    }
+
+    private static MethodHandle bind(Object target, MethodHandles.Lookup lookup, Method method, MethodType type) {
+        try {
+            MethodHandle handle = lookup.unreflect(method).bindTo(target);
+            if (!handle.type().equals(type)) {
+                throw new IllegalStateException("Handler " + method.getName() + " must have the signature " + type);
+            }
+            return handle;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Handler " + method.getName() + " is not accessible", e);
+        }
+    }
+
+    // The handles have exactly the types checked in bind, so invokeExact needs no adaptation.
+
+    private static CommandHandler commandHandler(MethodHandle handle) {
+        return update -> {
+            try {
+                return (SendMessage) handle.invokeExact(update);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static StateHandler stateHandler(MethodHandle handle) {
+        return (update, session) -> {
+            try {
+                return (SendMessage) handle.invokeExact(update, session);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static CallbackHandler callbackHandler(MethodHandle handle) {
+        return (callbackQuery, message) -> {
+            try {
+                return (SendMessage) handle.invokeExact(callbackQuery, message);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    static final class Builder {
+
+        private final Map<String, CommandHandler> commands = new HashMap<>();
+        private final Map<OrderState, StateHandler> states = new EnumMap<>(OrderState.class);
+        private final Map<CallbackData.Op, CallbackHandler> callbacks = new EnumMap<>(CallbackData.Op.class);
+        private final Map<String, CallbackHandler> legacyCallbacks = new HashMap<>();
+
+        Builder command(String text, CommandHandler handler) {
+            register(commands, text, handler);
+            return this;
+        }
+
+        Builder state(OrderState state, StateHandler handler) {
+            register(states, state, handler);
+            return this;
+        }
+
+        Builder callback(CallbackData.Op op, CallbackHandler handler) {
+            register(callbacks, op, handler);
+            return this;
+        }
+
+        Builder legacyCallback(String data, CallbackHandler handler) {
+            register(legacyCallbacks, data, handler);
+            return this;
+        }
+
+        HandlerTable build() {
+            return new HandlerTable(this);
+        }
+
+        private static <K, V> void register(Map<K, V> handlers, K key, V handler) {
+            if (handlers.putIfAbsent(key, handler) != null) {
+                throw new IllegalStateException("More than one handler for " + key);
+            }
+        }
+    }
+}
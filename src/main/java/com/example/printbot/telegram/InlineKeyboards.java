@@ -0,0 +1,159 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.service.PrintBatchService;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inline keyboards of the bot. Keyboards that never change are built once; the
+ * status keyboard is filled in from a template whose button texts and callback
+ * headers are computed up front, so only the IDs and the order's status and version
+ * are written per message.
+ * <p>
+ * The cached keyboards are shared between messages and must not be modified.
+ */
+final class InlineKeyboards {
+
+    /** Confirm and Cancel buttons under the order summary. */
+    static final InlineKeyboardMarkup CONFIRMATION = markup(List.of(List.of(
+            button("Confirm", CallbackData.encode(CallbackData.Op.CONFIRM_ORDER)),
+            button("Cancel", CallbackData.encode(CallbackData.Op.CANCEL_ORDER)))));
+
+    private static final Order.Status[] STATUSES = Order.Status.values();
+    private static final char[][] STATUS_HEADERS = new char[STATUSES.length][];
+
+    static {
+        for (int i = 0; i < STATUSES.length; i++) {
+            STATUS_HEADERS[i] = new char[CallbackData.LENGTH];
+            CallbackData.writeHeader(STATUS_HEADERS[i], CallbackData.Op.UPDATE_STATUS, STATUSES[i]);
+        }
+    }
+
+    private InlineKeyboards() {
+    }
+
+    /**
+     * Creates a keyboard with one button per status the order can move to next. The
+     * buttons carry the order's current status and version, so a press only changes
+     * the order if nobody changed it since.
+     *
+     * @param orderId   The ID of the order to update.
+     * @param status    The current status of the order.
+     * @param version   The current version of the order.
+     * @param messageId The message the keyboard belongs to.
+     * @return An InlineKeyboardMarkup with status update buttons, without any if the status is final.
+     */
+    static InlineKeyboardMarkup updateStatus(long orderId, Order.Status status, long version, long messageId) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(1);
+        addStatusRow(rows, orderId, status, version, messageId, "");
+        return markup(rows);
+    }
+
+    /**
+     * Creates the status keyboard of an order as it is now.
+     *
+     * @see #updateStatus(long, Order.Status, long, long)
+     */
+    static InlineKeyboardMarkup updateStatus(Order order, long messageId) {
+        return updateStatus(order.getId(), order.getStatus(), version(order), messageId);
+    }
+
+    /**
+     * Creates a keyboard with one row of status buttons per order, each button
+     * labelled with the order's position in the list.
+     *
+     * @param orders    The orders to update.
+     * @param messageId The message the keyboard belongs to.
+     * @return An InlineKeyboardMarkup with status update buttons.
+     */
+    static InlineKeyboardMarkup updateStatus(List<Order> orders, long messageId) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            addStatusRow(rows, order.getId(), order.getStatus(), version(order), messageId, (i + 1) + ". ");
+        }
+        return markup(rows);
+    }
+
+    /**
+     * Creates the keyboard of a digest, which accepts all the orders in it.
+     *
+     * @param digestId The ID the digest's orders are remembered under.
+     * @param count    The number of orders in the digest.
+     * @return An InlineKeyboardMarkup with an Accept all button.
+     */
+    static InlineKeyboardMarkup acceptAll(long digestId, int count) {
+        return markup(List.of(List.of(
+                button("Accept all (" + count + ")", CallbackData.encode(CallbackData.Op.ACCEPT_DIGEST, null, digestId, 0)))));
+    }
+
+    /**
+     * Adds a Print batch button per batch under a keyboard.
+     *
+     * @param keyboard The keyboard to extend; it is not modified.
+     * @param batches  The batches the executor can print.
+     * @return A new InlineKeyboardMarkup with the keyboard's rows and one row per batch.
+     */
+    static InlineKeyboardMarkup withBatches(InlineKeyboardMarkup keyboard, List<PrintBatchService.PrintBatch> batches) {
+        if (batches.isEmpty()) {
+            return keyboard;
+        }
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(keyboard.getKeyboard());
+        for (PrintBatchService.PrintBatch batch : batches) {
+            rows.add(List.of(button("Print batch: " + batch.getOrders().size() + " orders, " + batch.getPages()
+                            + " pages (" + batch.getSettings() + ")",
+                    CallbackData.encode(CallbackData.Op.PRINT_BATCH, null, batch.getId(), 0))));
+        }
+        return markup(rows);
+    }
+
+    private static void addStatusRow(List<List<InlineKeyboardButton>> rows, long orderId, Order.Status status,
+                                     long version, long messageId, String labelPrefix) {
+        char[] ids = new char[CallbackData.LENGTH];
+        CallbackData.writeIds(ids, orderId, messageId);
+        CallbackData.writeExpected(ids, status, version);
+        List<InlineKeyboardButton> row = new ArrayList<>(STATUSES.length);
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (status != null && status.canMoveTo(STATUSES[i])) {
+                char[] data = ids.clone();
+                System.arraycopy(STATUS_HEADERS[i], 0, data, 0, 4);
+                row.add(button(labelPrefix + STATUSES[i].name(), new String(data)));
+            }
+        }
+        if (!row.isEmpty()) {
+            rows.add(row);
+        }
+    }
+
+    private static long version(Order order) {
+        return order.getVersion() == null ? 0 : order.getVersion();
+    }
+
+    /**
+     * Creates the keyboard an executor uses to accept an assigned order.
+     *
+     * @param orderId The ID of the assigned order.
+     * @return An InlineKeyboardMarkup with an Accept button.
+     */
+    static InlineKeyboardMarkup accept(long orderId) {
+        return markup(List.of(List.of(
+                button("Accept", CallbackData.encode(CallbackData.Op.ACCEPT_ORDER, null, orderId, 0)))));
+    }
+
+    static InlineKeyboardButton button(String text, String callbackData) {
+        InlineKeyboardButton button = new InlineKeyboardButton();
+        button.setText(text);
+        button.setCallbackData(callbackData);
+        return button;
+    }
+
+    static InlineKeyboardMarkup markup(List<List<InlineKeyboardButton>> rows) {
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        markup.setKeyboard(rows);
+        return markup;
+    }
+}
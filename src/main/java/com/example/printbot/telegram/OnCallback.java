@@ -0,0 +1,26 @@
+package com.example.printbot.telegram;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link BotHandler} method as the handler of inline button presses. The
+ * method takes the {@code CallbackQuery} and a reply prepared for its chat and
+ * returns the reply, or {@code null}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnCallback {
+
+    /**
+     * @return The operations of {@link CallbackData} handled by the method.
+     */
+    CallbackData.Op[] value();
+
+    /**
+     * @return Plain callback data of buttons sent before {@link CallbackData}, handled by the same method.
+     */
+    String[] legacy() default {};
+}
@@ -0,0 +1,20 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.session.OrderState;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link BotHandler} method as the handler of text sent while the chat
+ * session is in the given state. The method takes the {@code Update} and the
+ * {@code ChatSession} and returns the reply, or {@code null}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnState {
+
+    OrderState[] value();
+}
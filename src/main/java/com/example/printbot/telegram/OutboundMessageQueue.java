@@ -0,0 +1,405 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.util.TokenBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.PartialBotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends bot replies to Telegram off the handler threads.
+ * <p>
+ * Messages of a chat are sent one at a time in the order they were queued, whatever
+ * their priority; across chats, the next message of the chat whose head has the
+ * higher priority goes first, and a few sender threads send to different chats at
+ * once. Every send takes a token from a global bucket and from the bucket of the
+ * target chat, so the bot stays under Telegram's flood limits; a message that finds
+ * no token is put aside until one is available, and the rest of its chat waits
+ * behind it. On HTTP 429 the message is retried after the {@code retry_after} given
+ * by Telegram, on other transient errors after a backoff.
+ * Photos and documents uploaded from memory are rewound before each attempt.
+ */
+@Component
+public class OutboundMessageQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+    public enum Priority {
+        HIGH,
+        NORMAL
+    }
+
+    private final AbsSender sender;
+    /** The next message of every chat with messages to send, unless it is put aside. */
+    private final PriorityBlockingQueue<OutboundMessage> ready = new PriorityBlockingQueue<>();
+    /** Messages to send by chat, the one being sent or put aside first. */
+    private final ConcurrentHashMap<Long, ArrayDeque<OutboundMessage>> chats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, TokenBucket> chatBuckets = new ConcurrentHashMap<>();
+    private final TokenBucket globalBucket;
+    private final double chatRate;
+    private final double chatBurst;
+    private final int senderThreads;
+    private final int maxAttempts;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, Timer> apiTimers = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    private ScheduledExecutorService scheduler;
+    private Thread[] senders;
+    private volatile boolean running;
+
+    public OutboundMessageQueue(@Lazy AbsSender sender,
+                                @Value("${telegram.outbound.global-rate:30}") double globalRate,
+                                @Value("${telegram.outbound.chat-rate:1}") double chatRate,
+                                @Value("${telegram.outbound.chat-burst:3}") double chatBurst,
+                                @Value("${telegram.outbound.threads:4}") int senderThreads,
+                                @Value("${telegram.outbound.max-attempts:5}") int maxAttempts,
+                                MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.globalBucket = new TokenBucket(globalRate, globalRate);
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.senderThreads = senderThreads;
+        this.maxAttempts = maxAttempts;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbound-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::removeIdleBuckets, 1, 1, TimeUnit.MINUTES);
+        senders = new Thread[senderThreads];
+        for (int i = 0; i < senderThreads; i++) {
+            senders[i] = new Thread(this::sendLoop, "outbound-sender-" + (i + 1));
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Queues a text message with normal priority.
+     *
+     * @param message The message to send; its chat ID must be set.
+     */
+    public void enqueue(SendMessage message) {
+        enqueue(message, Priority.NORMAL);
+    }
+
+    public void enqueue(SendMessage message, Priority priority) {
+        enqueue(Long.valueOf(message.getChatId()), message, priority);
+    }
+
+    /**
+     * Queues a Bot API call addressed to a chat.
+     *
+     * @param chatId   The chat the call is rate limited against.
+     * @param method   The call to execute.
+     * @param priority The priority of the call.
+     */
+    public void enqueue(Long chatId, BotApiMethod<?> method, Priority priority) {
+        add(new OutboundMessage(chatId, method, method.getMethod(), priority, sequence.incrementAndGet()));
+    }
+
+    /**
+     * Queues a photo upload.
+     *
+     * @param chatId   The chat the upload is rate limited against.
+     * @param photo    The photo to send; a new photo must be given as a {@link ByteArrayInputStream}
+     *                 so it can be sent again on retry.
+     * @param priority The priority of the upload.
+     */
+    public void enqueue(Long chatId, SendPhoto photo, Priority priority) {
+        add(new OutboundMessage(chatId, photo, SendPhoto.PATH, priority, sequence.incrementAndGet()));
+    }
+
+    /**
+     * Queues a document upload.
+     *
+     * @param chatId   The chat the upload is rate limited against.
+     * @param document The document to send; a new one must be given as a file or a
+     *                 {@link ByteArrayInputStream} so it can be sent again on retry.
+     * @param priority The priority of the upload.
+     */
+    public void enqueue(Long chatId, SendDocument document, Priority priority) {
+        add(new OutboundMessage(chatId, document, SendDocument.PATH, priority, sequence.incrementAndGet()));
+    }
+
+    private void add(OutboundMessage message) {
+        pending.incrementAndGet();
+        boolean[] first = new boolean[1];
+        chats.compute(message.chatId, (id, messages) -> {
+            if (messages == null) {
+                messages = new ArrayDeque<>();
+                first[0] = true;
+            }
+            messages.add(message);
+            return messages;
+        });
+        if (first[0]) {
+            ready.add(message);
+        }
+    }
+
+    /**
+     * Drops the sent or failed message from the head of its chat and readies the next one.
+     */
+    private void done(OutboundMessage message) {
+        OutboundMessage[] next = new OutboundMessage[1];
+        chats.compute(message.chatId, (id, messages) -> {
+            messages.poll();
+            next[0] = messages.peek();
+            return next[0] == null ? null : messages;
+        });
+        pending.decrementAndGet();
+        if (next[0] != null) {
+            ready.add(next[0]);
+        }
+    }
+
+    /**
+     * @return The number of messages waiting to be sent, including delayed ones.
+     */
+    public int queueDepth() {
+        return pending.get();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    /**
+     * @return The average time from enqueue to successful send, in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / 1_000_000d / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000d;
+    }
+
+    /**
+     * Stops the senders once the queue is empty or the timeout has passed.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (queueDepth() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        running = false;
+        for (Thread thread : senders) {
+            thread.interrupt();
+        }
+        scheduler.shutdownNow();
+        if (queueDepth() > 0) {
+            logger.warn("Outbound queue stopped with {} unsent messages", queueDepth());
+        }
+    }
+
+    private void sendLoop() {
+        while (running) {
+            OutboundMessage message;
+            try {
+                message = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long waitNanos = acquireTokens(message.chatId);
+            if (waitNanos > 0) {
+                delay(message, waitNanos);
+                continue;
+            }
+            send(message);
+        }
+    }
+
+    private long acquireTokens(Long chatId) {
+        long globalWait = globalBucket.tryAcquire();
+        if (globalWait > 0) {
+            return globalWait;
+        }
+        long[] chatWait = new long[1];
+        chatBuckets.compute(chatId, (id, bucket) -> {
+            if (bucket == null) {
+                bucket = new TokenBucket(chatBurst, chatRate);
+            }
+            chatWait[0] = bucket.tryAcquire();
+            return bucket;
+        });
+        if (chatWait[0] > 0) {
+            globalBucket.refund();
+        }
+        return chatWait[0];
+    }
+
+    /**
+     * Drops the buckets of chats that have not sent for a while. A bucket is only
+     * dropped under the same per-chat lock as {@link #acquireTokens}, so a token is
+     * never taken from a bucket that is being dropped.
+     */
+    private void removeIdleBuckets() {
+        for (Long chatId : chatBuckets.keySet()) {
+            chatBuckets.computeIfPresent(chatId, (id, bucket) -> bucket.isFull() ? null : bucket);
+        }
+    }
+
+    private void send(OutboundMessage message) {
+        message.attempts++;
+        String methodName = message.methodName;
+        long start = System.nanoTime();
+        try {
+            execute(message.method);
+            apiTimer(methodName).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            long latency = System.nanoTime() - message.enqueuedNanos;
+            sent.increment();
+            totalLatencyNanos.add(latency);
+            maxLatencyNanos.accumulate(latency);
+            done(message);
+        } catch (TelegramApiRequestException e) {
+            apiTimer(methodName).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            countError(methodName, e.getErrorCode() == null ? "unknown" : e.getErrorCode().toString());
+            Integer retryAfter = e.getParameters() == null ? null : e.getParameters().getRetryAfter();
+            if (e.getErrorCode() != null && e.getErrorCode() == 429 && retryAfter != null) {
+                logger.warn("Flood limit hit for chat {}, retrying after {}s", message.chatId, retryAfter);
+                retry(message, TimeUnit.SECONDS.toNanos(retryAfter), e);
+            } else if (e.getErrorCode() != null && e.getErrorCode() >= 500) {
+                retry(message, backoffNanos(message.attempts), e);
+            } else {
+                failed.increment();
+                logger.error("Telegram rejected message to chat {}: {}", message.chatId, e.getApiResponse());
+                done(message);
+            }
+        } catch (TelegramApiException e) {
+            apiTimer(methodName).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            countError(methodName, "io");
+            retry(message, backoffNanos(message.attempts), e);
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.error("Message to chat {} could not be sent", message.chatId, e);
+            done(message);
+        }
+    }
+
+    private void execute(PartialBotApiMethod<?> method) throws TelegramApiException {
+        if (method instanceof SendPhoto) {
+            SendPhoto photo = (SendPhoto) method;
+            rewind(photo.getPhoto());
+            sender.execute(photo);
+        } else if (method instanceof SendDocument) {
+            SendDocument document = (SendDocument) method;
+            rewind(document.getDocument());
+            sender.execute(document);
+        } else {
+            sender.execute((BotApiMethod<?>) method);
+        }
+    }
+
+    private static void rewind(InputFile file) {
+        InputStream media = file.getNewMediaStream();
+        if (media instanceof ByteArrayInputStream) {
+            ((ByteArrayInputStream) media).reset();
+        }
+    }
+
+    private Timer apiTimer(String methodName) {
+        return apiTimers.computeIfAbsent(methodName, name -> meterRegistry.timer("printbot.telegram.api", "method", name));
+    }
+
+    private void countError(String methodName, String code) {
+        meterRegistry.counter("printbot.telegram.api.errors", "method", methodName, "code", code).increment();
+    }
+
+    private void retry(OutboundMessage message, long delayNanos, Exception cause) {
+        if (message.attempts >= maxAttempts) {
+            failed.increment();
+            logger.error("Giving up on message to chat {} after {} attempts", message.chatId, message.attempts, cause);
+            done(message);
+            return;
+        }
+        retried.increment();
+        delay(message, delayNanos);
+    }
+
+    private void delay(OutboundMessage message, long delayNanos) {
+        scheduler.schedule(() -> ready.add(message), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static long backoffNanos(int attempts) {
+        return TimeUnit.MILLISECONDS.toNanos(500L << Math.min(attempts, 6));
+    }
+
+    private static final class OutboundMessage implements Comparable<OutboundMessage> {
+
+        private final Long chatId;
+        private final PartialBotApiMethod<?> method;
+        private final String methodName;
+        private final Priority priority;
+        private final long sequence;
+        private final long enqueuedNanos = System.nanoTime();
+        private int attempts;
+
+        private OutboundMessage(Long chatId, PartialBotApiMethod<?> method, String methodName, Priority priority,
+                                long sequence) {
+            this.chatId = chatId;
+            this.method = method;
+            this.methodName = methodName;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(OutboundMessage other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -1,41 +1,142 @@
 package com.example.printbot.telegram;
 
+import com.example.printbot.cluster.ClusterCoordinator;
+import com.example.printbot.cluster.ClusterListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.generics.BotSession;
 
 import jakarta.annotation.PostConstruct;
 @Component
-public class PrintBot extends TelegramLongPollingBot {
+public class PrintBot extends TelegramLongPollingBot implements ClusterListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrintBot.class);
 
     private final String botUsername;
     private final String botToken;
-    private final BotHandler botHandler;
+    private final UpdateDispatcher updateDispatcher;
+    private final UpdateOffsetTracker offsetTracker;
+    private final ClusterCoordinator clusterCoordinator;
 
     private final TelegramBotsApi telegramBotsApi;
+    private BotSession botSession;
+
+    @Value("${telegram.bot.mode:polling}")
+    private String mode;
+
+    @Value("${telegram.bot.webhook.url:}")
+    private String webhookUrl;
+
+    @Value("${telegram.bot.webhook.path:/telegram/webhook}")
+    private String webhookPath;
+
+    @Value("${telegram.bot.webhook.secret:}")
+    private String webhookSecret;
 
     public PrintBot(@Value("${telegram.bot.username}") String botUsername,
                     @Value("${telegram.bot.token}") String botToken,
-                    BotHandler botHandler, TelegramBotsApi telegramBotsApi) {
+                    UpdateDispatcher updateDispatcher, UpdateOffsetTracker offsetTracker,
+                    ClusterCoordinator clusterCoordinator, TelegramBotsApi telegramBotsApi) {
         this.botUsername = botUsername;
         this.botToken = botToken;
-        this.botHandler = botHandler;
+        this.updateDispatcher = updateDispatcher;
+        this.offsetTracker = offsetTracker;
+        this.clusterCoordinator = clusterCoordinator;
         this.telegramBotsApi = telegramBotsApi;
     }
+
+    /**
+     * Starts receiving updates. In {@code webhook} mode the webhook is pointed at
+     * {@link WebhookController}; otherwise the bot falls back to long polling,
+     * which also removes any webhook left from a previous run. Before polling, the
+     * updates handled by the previous run are confirmed to Telegram, so they are
+     * not delivered again. In a cluster only the leader polls.
+     */
     @PostConstruct
     public void init() throws TelegramApiException {
-        telegramBotsApi.registerBot(this);
+        if ("webhook".equalsIgnoreCase(mode)) {
+            if (webhookUrl.isEmpty()) {
+                throw new IllegalStateException("telegram.bot.webhook.url must be set in webhook mode");
+            }
+            if (webhookSecret.isEmpty()) {
+                throw new IllegalStateException("telegram.bot.webhook.secret must be set in webhook mode");
+            }
+            execute(SetWebhook.builder().url(webhookUrl + webhookPath).secretToken(webhookSecret).build());
+            logger.info("Receiving updates via webhook {}{}", webhookUrl, webhookPath);
+        } else if (clusterCoordinator.isEnabled()) {
+            clusterCoordinator.addListener(this);
+        } else {
+            startPolling();
+        }
+    }
+
+    /**
+     * Starts polling on the leader if it is not polling yet, e.g. after it was elected
+     * or a previous attempt failed.
+     */
+    @Override
+    public void leaderTick() {
+        try {
+            startPolling();
+        } catch (TelegramApiException e) {
+            logger.error("Error while starting long polling", e);
+        }
+    }
+
+    @Override
+    public void leadershipChanged(boolean leader) {
+        if (!leader) {
+            stopPolling();
+        }
+    }
+
+    private synchronized void startPolling() throws TelegramApiException {
+        if (botSession != null && botSession.isRunning()) {
+            return;
+        }
+        clearWebhook();
+        skipProcessedUpdates();
+        botSession = telegramBotsApi.registerBot(this);
+        logger.info("Receiving updates via long polling");
+    }
 
+    private synchronized void stopPolling() {
+        if (botSession != null && botSession.isRunning()) {
+            botSession.stop();
+            logger.info("Stopped long polling");
+        }
+    }
 
+    /**
+     * Confirms the updates up to the processed offset of the previous run, since
+     * Telegram forgets every update below the offset of a getUpdates call. Must run
+     * after the webhook is removed, as Telegram refuses getUpdates while one is set.
+     */
+    private void skipProcessedUpdates() {
+        long offset = offsetTracker.processedOffset();
+        if (offset < 0) {
+            return;
+        }
+        try {
+            execute(GetUpdates.builder().offset((int) (offset + 1)).limit(1).timeout(0).build());
+            logger.info("Skipped updates up to {}", offset);
+        } catch (TelegramApiException e) {
+            logger.warn("Could not skip handled updates, they will be filtered as duplicates", e);
+        }
     }
 
     @Override
     public void onUpdateReceived(Update update) {
-        botHandler.handleUpdate(update);
+        updateDispatcher.dispatch(update);
     }
 
     @Override
@@ -47,4 +148,4 @@ public class PrintBot extends TelegramLongPollingBot {
     public String getBotToken() {
         return botToken;
     }
-}
\ No newline at end of file
+}
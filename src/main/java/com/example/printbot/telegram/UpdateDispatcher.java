@@ -0,0 +1,221 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.cluster.UpdateRouter;
+import com.example.printbot.session.ChatSessionStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Hands incoming updates to {@link BotHandler} on the {@link ChatLanes} and queues
+ * the replies it returns on the {@link OutboundMessageQueue}.
+ * <p>
+ * Updates of different chats run in parallel, while updates of the same chat
+ * are queued in the chat's lane and handled strictly in arrival order. At most
+ * {@code telegram.dispatch.queue-capacity} updates may be waiting or running;
+ * when the limit is reached {@link #dispatch(Update)} blocks the caller (the
+ * polling thread) for up to {@code telegram.dispatch.offer-timeout}, which slows
+ * down polling instead of piling up work.
+ * <p>
+ * Updates already seen, as told by the {@link UpdateOffsetTracker}, are skipped;
+ * an update that is dropped for lack of room is forgotten again, so its redelivery
+ * is handled.
+ * After each update the session of its chat is written to the journal, before the
+ * update counts as processed. Updates of chats handled by another instance are
+ * passed on by the {@link UpdateRouter} instead of being queued here.
+ */
+@Component
+public class UpdateDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    private final BotHandler botHandler;
+    private final OutboundMessageQueue outboundMessageQueue;
+    private final UpdateOffsetTracker offsetTracker;
+    private final ChatSessionStore sessionStore;
+    private final UpdateRouter updateRouter;
+    private final ChatLanes chatLanes;
+    private final Semaphore capacity;
+    private final long offerTimeoutMillis;
+    private final Timer queueLagTimer;
+
+    private volatile boolean accepting = true;
+
+    public UpdateDispatcher(BotHandler botHandler, OutboundMessageQueue outboundMessageQueue,
+                            UpdateOffsetTracker offsetTracker, ChatSessionStore sessionStore, UpdateRouter updateRouter,
+                            ChatLanes chatLanes,
+                            @Value("${telegram.dispatch.queue-capacity:1000}") int queueCapacity,
+                            @Value("${telegram.dispatch.offer-timeout:5s}") Duration offerTimeout,
+                            MeterRegistry meterRegistry) {
+        this.botHandler = botHandler;
+        this.outboundMessageQueue = outboundMessageQueue;
+        this.offsetTracker = offsetTracker;
+        this.sessionStore = sessionStore;
+        this.updateRouter = updateRouter;
+        this.chatLanes = chatLanes;
+        this.capacity = new Semaphore(queueCapacity);
+        this.offerTimeoutMillis = offerTimeout.toMillis();
+        this.queueLagTimer = meterRegistry.timer("printbot.updates.queue.lag");
+    }
+
+    /**
+     * Queues the update in the lane of its chat.
+     *
+     * @param update The update object from Telegram.
+     * @return {@code true} if the update was queued, {@code false} if it was dropped
+     *         because the queue stayed full or the dispatcher is shutting down.
+     */
+    public boolean dispatch(Update update) {
+        return dispatch(update, offerTimeoutMillis);
+    }
+
+    /**
+     * Queues the update in the lane of its chat, waiting at most the given time for room.
+     *
+     * @param update        The update object from Telegram.
+     * @param timeoutMillis How long to wait for room in the queue; 0 does not wait.
+     * @return {@code true} if the update was queued, forwarded or was a duplicate, {@code false} otherwise.
+     */
+    public boolean dispatch(Update update, long timeoutMillis) {
+        return dispatch(update, timeoutMillis, false);
+    }
+
+    /**
+     * Queues an update forwarded by another instance, without waiting for room.
+     *
+     * @param update The update object from Telegram.
+     * @return {@code true} if the update was queued or was a duplicate, {@code false}
+     *         if its chat is not handled here or there was no room.
+     */
+    public boolean dispatchForwarded(Update update) {
+        return dispatch(update, 0, true);
+    }
+
+    private boolean dispatch(Update update, long timeoutMillis, boolean forwarded) {
+        if (!accepting) {
+            logger.warn("Dispatcher is shutting down, dropping update {}", update.getUpdateId());
+            return false;
+        }
+        Long chatId = chatIdOf(update);
+        if (forwarded && !updateRouter.isLocal(chatId)) {
+            logger.debug("Refusing forwarded update {}, chat {} is not handled here", update.getUpdateId(), chatId);
+            return false;
+        }
+        if (!offsetTracker.begin(update.getUpdateId())) {
+            logger.debug("Skipping duplicate update {}", update.getUpdateId());
+            return true;
+        }
+        if (!forwarded) {
+            UpdateRouter.Route route = updateRouter.route(update, chatId, outcome -> forwardingDone(update, chatId, outcome));
+            if (route == UpdateRouter.Route.FORWARDED) {
+                return true;
+            }
+            if (route == UpdateRouter.Route.FAILED) {
+                offsetTracker.forget(update.getUpdateId());
+                return false;
+            }
+        }
+        return enqueue(update, chatId, timeoutMillis);
+    }
+
+    /**
+     * Finishes an update handed to the {@link UpdateRouter}, on its forwarder thread.
+     */
+    private void forwardingDone(Update update, Long chatId, UpdateRouter.Route outcome) {
+        if (outcome == UpdateRouter.Route.FORWARDED) {
+            offsetTracker.complete(update.getUpdateId());
+        } else if (outcome == UpdateRouter.Route.FAILED || !accepting) {
+            offsetTracker.forget(update.getUpdateId());
+        } else {
+            enqueue(update, chatId, 0);
+        }
+    }
+
+    /**
+     * Queues an update already begun in the lane of its chat, or forgets it if there is no room.
+     */
+    private boolean enqueue(Update update, Long chatId, long timeoutMillis) {
+        try {
+            if (!capacity.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.error("Update queue is full, dropping update {}", update.getUpdateId());
+                offsetTracker.forget(update.getUpdateId());
+                return false;
+            }
+        } catch (InterruptedException e) {
+            offsetTracker.forget(update.getUpdateId());
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long enqueuedNanos = System.nanoTime();
+        if (!chatLanes.execute(chatId, () -> handle(update, chatId, enqueuedNanos))) {
+            capacity.release();
+            offsetTracker.forget(update.getUpdateId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Handles an update in the lane of its chat.
+     */
+    private void handle(Update update, Long chatId, long enqueuedNanos) {
+        queueLagTimer.record(System.nanoTime() - enqueuedNanos, TimeUnit.NANOSECONDS);
+        try {
+            SendMessage reply = botHandler.handleUpdate(update);
+            if (reply != null && reply.getChatId() != null && reply.getText() != null) {
+                outboundMessageQueue.enqueue(reply);
+            }
+        } catch (Exception e) {
+            logger.error("Error while handling update {} of chat {}", update.getUpdateId(), chatId, e);
+        } finally {
+            sessionStore.journal(chatId);
+            offsetTracker.complete(update.getUpdateId());
+            capacity.release();
+        }
+    }
+
+    /**
+     * @return The number of updates and conversation steps waiting or being handled.
+     */
+    public int pendingUpdates() {
+        return chatLanes.pending();
+    }
+
+    /**
+     * @param chats Selects chats by ID.
+     * @return Whether an update or step of any of the chats is waiting or being handled.
+     */
+    public boolean hasPendingUpdates(LongPredicate chats) {
+        return chatLanes.hasPending(chats);
+    }
+
+    /**
+     * Stops accepting updates and waits for the queued ones to be handled.
+     */
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        chatLanes.shutdown();
+    }
+
+    static Long chatIdOf(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.printbot.telegram;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks which Telegram {@code update_id}s were seen and how far they were handled.
+ * <p>
+ * Recently seen IDs are kept in a bitmap of {@code telegram.updates.dedup-window}
+ * bits indexed by the ID, so a redelivered update is recognised without touching
+ * the database; IDs older than the window are treated as seen. Since updates of
+ * different chats finish out of order, the processed offset is the highest ID
+ * below which every update has finished; an update that was dropped holds it back
+ * until its redelivery finishes, or until it falls out of the window. It is written to
+ * {@code telegram.updates.offset-file} every {@code telegram.updates.offset-flush-interval}
+ * and on shutdown, and read back on startup to seed the window and to confirm
+ * the handled updates to Telegram before polling starts.
+ */
+@Component
+public class UpdateOffsetTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpdateOffsetTracker.class);
+
+    private final Path offsetFile;
+    private final long flushIntervalMillis;
+    private final long[] seen;
+    private final int windowSize;
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    /** Updates that were dropped and are waiting to be redelivered. */
+    private final TreeSet<Long> dropped = new TreeSet<>();
+    private final LongAdder duplicates = new LongAdder();
+    private final Object writeLock = new Object();
+
+    private long highest = -1;
+    /** Offset read on startup; every ID up to it was handled by the previous run. */
+    private long resumedOffset = -1;
+    private long flushedOffset = -1;
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public UpdateOffsetTracker(@Value("${telegram.updates.offset-file:}") String offsetFile,
+                               @Value("${telegram.updates.dedup-window:65536}") int windowSize,
+                               @Value("${telegram.updates.offset-flush-interval:1s}") Duration flushInterval) {
+        if (windowSize < 64) {
+            throw new IllegalArgumentException("Update dedup window must hold at least 64 IDs");
+        }
+        this.offsetFile = offsetFile.isEmpty() ? null : Paths.get(offsetFile);
+        this.flushIntervalMillis = flushInterval.toMillis();
+        this.windowSize = windowSize & ~63;
+        this.seen = new long[this.windowSize >>> 6];
+    }
+
+    @PostConstruct
+    public void load() {
+        if (offsetFile == null) {
+            return;
+        }
+        try {
+            if (Files.exists(offsetFile)) {
+                long offset = Long.parseLong(Files.readString(offsetFile, StandardCharsets.US_ASCII).trim());
+                synchronized (this) {
+                    highest = offset;
+                    resumedOffset = offset;
+                }
+                flushedOffset = offset;
+                logger.info("Resuming after update {}", offset);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Update offset file {} is not readable, starting without it", offsetFile, e);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "update-offset-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flush();
+        }
+    }
+
+    /**
+     * Marks the update as seen and in flight, unless it was seen before.
+     *
+     * @param updateId The {@code update_id} of the update.
+     * @return {@code true} if the update is new and must be handled, {@code false} if it is a duplicate.
+     */
+    public synchronized boolean begin(long updateId) {
+        if (updateId <= resumedOffset || (highest >= 0 && updateId <= highest - windowSize)) {
+            duplicates.increment();
+            return false;
+        }
+        if (updateId > highest) {
+            clearBetween(highest, updateId);
+            highest = updateId;
+            // Treated as seen from now on, so their redelivery would be skipped anyway
+            dropped.headSet(highest - windowSize, true).clear();
+        } else if (highest >= 0 && isSeen(updateId)) {
+            duplicates.increment();
+            return false;
+        }
+        int slot = (int) Math.floorMod(updateId, (long) windowSize);
+        seen[slot >>> 6] |= 1L << slot;
+        inFlight.add(updateId);
+        dropped.remove(updateId);
+        return true;
+    }
+
+    /**
+     * Marks an update returned {@code true} by {@link #begin} as finished, whether it
+     * was handled or dropped.
+     *
+     * @param updateId The {@code update_id} of the update.
+     */
+    public synchronized void complete(long updateId) {
+        inFlight.remove(updateId);
+    }
+
+    /**
+     * Takes back {@link #begin} for an update that was not handled, e.g. because the
+     * queue was full, so that a redelivery of it is handled instead of being skipped
+     * as a duplicate.
+     *
+     * @param updateId The {@code update_id} of the update.
+     */
+    public synchronized void forget(long updateId) {
+        inFlight.remove(updateId);
+        if (updateId > highest - windowSize) {
+            int slot = (int) Math.floorMod(updateId, (long) windowSize);
+            seen[slot >>> 6] &= ~(1L << slot);
+            dropped.add(updateId);
+        }
+    }
+
+    /**
+     * @return The highest update ID below which every update has finished, or -1 if none
+     *         has; an update that is in flight or was dropped is never below it.
+     */
+    public synchronized long processedOffset() {
+        long offset = highest;
+        if (!inFlight.isEmpty()) {
+            offset = Math.min(offset, inFlight.first() - 1);
+        }
+        if (!dropped.isEmpty()) {
+            offset = Math.min(offset, dropped.first() - 1);
+        }
+        return offset;
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Writes the processed offset if it moved since the last write.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            long offset = processedOffset();
+            if (offsetFile == null || offset <= flushedOffset) {
+                return;
+            }
+            write(offset);
+        }
+    }
+
+    private void write(long offset) {
+        try {
+            Path parent = offsetFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+            Files.writeString(temp, Long.toString(offset), StandardCharsets.US_ASCII);
+            Files.move(temp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            flushedOffset = offset;
+        } catch (IOException e) {
+            logger.error("Error while writing update offset file {}", offsetFile, e);
+        }
+    }
+
+    private boolean isSeen(long updateId) {
+        int slot = (int) Math.floorMod(updateId, (long) windowSize);
+        return (seen[slot >>> 6] & 1L << slot) != 0;
+    }
+
+    /**
+     * Clears the bits of the IDs after {@code from} up to and including {@code to}, which
+     * are reused from IDs that fell out of the window.
+     */
+    private void clearBetween(long from, long to) {
+        if (from < 0 || to - from >= windowSize) {
+            Arrays.fill(seen, 0L);
+            return;
+        }
+        for (long id = from + 1; id <= to; id++) {
+            int slot = (int) Math.floorMod(id, (long) windowSize);
+            seen[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.printbot.telegram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives updates pushed by Telegram when the bot runs in webhook mode.
+ * <p>
+ * The update is only queued on the {@link UpdateDispatcher}, so Telegram gets its
+ * answer right away. If the queue is full the endpoint answers 503 and Telegram
+ * delivers the update again later. Only calls carrying
+ * {@code telegram.bot.webhook.secret}, which must be set in webhook mode, are accepted.
+ */
+@RestController
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+public class WebhookController {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookController.class);
+
+    static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final UpdateDispatcher updateDispatcher;
+    private final byte[] secretToken;
+
+    public WebhookController(UpdateDispatcher updateDispatcher,
+                             @Value("${telegram.bot.webhook.secret:}") String secretToken) {
+        if (secretToken.isEmpty()) {
+            // Without it anyone who finds the endpoint could post updates as any chat.
+            throw new IllegalStateException("telegram.bot.webhook.secret must be set in webhook mode");
+        }
+        this.updateDispatcher = updateDispatcher;
+        this.secretToken = secretToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("${telegram.bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(@RequestHeader(value = SECRET_TOKEN_HEADER, required = false) String token,
+                                         @RequestBody Update update) {
+        if (token == null || !MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8))) {
+            logger.warn("Rejected webhook call with invalid secret token");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (!updateDispatcher.dispatch(update, 0)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
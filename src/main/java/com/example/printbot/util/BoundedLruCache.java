@@ -0,0 +1,54 @@
+package com.example.printbot.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe map that keeps at most {@code maxEntries} entries, dropping the
+ * least recently accessed one when full.
+ */
+public class BoundedLruCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries;
+
+    public BoundedLruCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        return entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Visits a snapshot of the entries, least recently used first.
+     */
+    public void forEach(BiConsumer<K, V> action) {
+        Map<K, V> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+        }
+        snapshot.forEach(action);
+    }
+}
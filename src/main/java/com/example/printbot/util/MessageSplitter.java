@@ -0,0 +1,48 @@
+package com.example.printbot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits long texts into chunks that fit into one Telegram message.
+ */
+public final class MessageSplitter {
+
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private MessageSplitter() {
+    }
+
+    /**
+     * Splits the text at line breaks where possible; a single line longer than the
+     * limit is cut, avoiding to separate a surrogate pair.
+     *
+     * @param text      The text to split.
+     * @param maxLength The maximum length of a chunk.
+     * @return The chunks, at least one.
+     */
+    public static List<String> split(String text, int maxLength) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int end = text.lastIndexOf('\n', start + maxLength);
+            if (end <= start) {
+                end = start + maxLength;
+                if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+                chunks.add(text.substring(start, end));
+                start = end;
+            } else {
+                chunks.add(text.substring(start, end));
+                start = end + 1;
+            }
+        }
+        chunks.add(text.substring(start));
+        return chunks;
+    }
+
+    public static List<String> split(String text) {
+        return split(text, MAX_MESSAGE_LENGTH);
+    }
+}
@@ -13,10 +13,13 @@ public enum MessageTemplates {
     ORDER_UPDATED("Your order status has been updated to: %s"),
     ORDER_CANCELED("Your order has been canceled."),
     ORDER_CANCELED_COMMENT_REQUEST("Please, enter the reason for canceling the order:"),
-    MY_ORDERS("Your orders:\n%s"),
+    MY_ORDERS("Your orders:\n\n%s"),
+    NO_ORDERS("No orders found."),
     FILE_SIZE_ERROR("File size is too large. Max file size is 20 MB."),
     VALIDATION_ERROR("Validation error: %s"),
     UNKNOWN_ERROR("Unknown error occurred."),
+    NO_ACTIVE_ORDER("You have no order in progress. Use /create_order to start a new one."),
+    ORDER_SAVING("Your previous order is still being saved. Please try again in a moment."),
     EXECUTOR_NEW_ORDER("New order created:\n%s");
 
     private final String message;
@@ -0,0 +1,55 @@
+package com.example.printbot.util;
+
+/**
+ * Token bucket rate limiter: holds up to {@code capacity} tokens and refills
+ * {@code ratePerSecond} tokens per second.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double capacity, double ratePerSecond) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes one token if there is one.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available.
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire()} that was not used.
+     */
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * @return {@code true} if the bucket is full, i.e. it has not been used for a while.
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.printbot.cluster;
+
+import com.example.printbot.session.ChatSession;
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.session.OrderState;
+import com.example.printbot.session.SessionJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterCoordinatorTest {
+
+    private static final int PARTITIONS = 8;
+
+    private final MutableClock clock = new MutableClock();
+    private JdbcTemplate jdbcTemplate;
+    private ClusterStore store;
+
+    @BeforeEach
+    void createDatabase() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        store = new ClusterStore(jdbcTemplate);
+        store.createTables();
+    }
+
+    @AfterEach
+    void dropDatabase() {
+        jdbcTemplate.execute("shutdown");
+    }
+
+    private ClusterCoordinator node(String name) {
+        return new ClusterCoordinator(store, true, name, "http://" + name, "secret", PARTITIONS,
+                Duration.ofSeconds(15), Duration.ofSeconds(5), clock);
+    }
+
+    @Test
+    void refusesToStartWithoutASecret() {
+        ClusterCoordinator open = new ClusterCoordinator(store, true, "a", "http://a", "", PARTITIONS,
+                Duration.ofSeconds(15), Duration.ofSeconds(5), clock);
+
+        assertThrows(IllegalStateException.class, open::start);
+    }
+
+    @Test
+    void refusesToStartWithoutANodeOfItsOwn() {
+        ClusterCoordinator unnamed = new ClusterCoordinator(store, true, "", "http://a", "secret", PARTITIONS,
+                Duration.ofSeconds(15), Duration.ofSeconds(5), clock);
+        assertThrows(IllegalStateException.class, unnamed::start);
+
+        store.acquire(ClusterCoordinator.NODE_LEASE_PREFIX + "a", "a", "http://elsewhere", clock.millis(),
+                clock.millis() + 15_000);
+        assertThrows(IllegalStateException.class, node("a")::start, "The name is taken by a live instance");
+    }
+
+    @Test
+    void splitsThePartitionsBetweenTwoNodesWithOneLeader() {
+        ClusterCoordinator first = node("a");
+        ClusterCoordinator second = node("b");
+        List<String> events = new ArrayList<>();
+        first.addListener(new ClusterListener() {
+            @Override
+            public void partitionReleasing(int partition) {
+                events.add("releasing " + partition);
+            }
+        });
+
+        first.tick();
+        assertEquals(PARTITIONS, first.ownedPartitions());
+        second.tick();
+        assertEquals(0, second.ownedPartitions());
+        first.tick();
+        second.tick();
+
+        assertEquals(PARTITIONS / 2, first.ownedPartitions());
+        assertEquals(PARTITIONS / 2, second.ownedPartitions());
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            assertTrue(first.ownsPartition(partition) != second.ownsPartition(partition), "Partition " + partition);
+        }
+        assertEquals(List.of("releasing 7", "releasing 6", "releasing 5", "releasing 4"), events);
+        assertTrue(first.isLeader());
+        assertFalse(second.isLeader());
+        assertEquals("http://a", second.leaderAddress());
+
+        first.tick();
+        assertEquals("http://b", first.ownerAddress(7));
+        assertEquals("http://a", second.ownerAddress(0));
+    }
+
+    @Test
+    void takesOverFromANodeThatStoppedRenewing() {
+        ClusterCoordinator first = node("a");
+        ClusterCoordinator second = node("b");
+        first.tick();
+        second.tick();
+        first.tick();
+        second.tick();
+
+        clock.advance(Duration.ofSeconds(10));
+        assertFalse(first.isLeader(), "Leases are only trusted until one renew interval before they run out");
+        assertEquals(0, first.ownedPartitions());
+        second.tick();
+        assertEquals(PARTITIONS / 2, second.ownedPartitions());
+
+        clock.advance(Duration.ofSeconds(6));
+        second.tick();
+
+        assertEquals(PARTITIONS, second.ownedPartitions());
+        assertTrue(second.isLeader());
+    }
+
+    @Test
+    void leavingHandsEverythingOver() throws InterruptedException {
+        ClusterCoordinator first = node("a");
+        ClusterCoordinator second = node("b");
+        first.tick();
+        second.tick();
+
+        first.stop();
+        second.tick();
+
+        assertEquals(0, first.ownedPartitions());
+        assertEquals(PARTITIONS, second.ownedPartitions());
+        assertTrue(second.isLeader());
+    }
+
+    @Test
+    void sessionsTravelWithTheirPartition() {
+        ClusterCoordinator coordinator = node("a");
+        ChatSessionStore leaving = sessionStore();
+        ChatSessionStore joining = sessionStore();
+        ChatSession draft = leaving.getOrCreate(42L);
+        draft.setState(OrderState.WAITING_FOR_PAGES);
+        leaving.getOrCreate(43L);
+        int partition = coordinator.partitionOf(42L);
+
+        Map<Long, byte[]> exported = leaving.export(chatId -> coordinator.partitionOf(chatId) == partition);
+        store.saveHandoff(partition, exported);
+        int adopted = joining.adopt(store.takeHandoff(partition));
+
+        assertEquals(exported.size(), adopted);
+        assertNull(leaving.get(42L));
+        assertNotNull(joining.get(42L));
+        assertEquals(OrderState.WAITING_FOR_PAGES, joining.get(42L).getState());
+        assertTrue(store.takeHandoff(partition).isEmpty());
+    }
+
+    private static ChatSessionStore sessionStore() {
+        return new ChatSessionStore(4, 1000, Duration.ofMinutes(30),
+                new SessionJournal("", 1 << 20, Duration.ofMinutes(5)));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2026-10-17T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
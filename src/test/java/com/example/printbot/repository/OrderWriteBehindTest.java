@@ -0,0 +1,109 @@
+package com.example.printbot.repository;
+
+import com.example.printbot.model.Order;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OrderWriteBehindTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private OrderWriteBehind writeBehind;
+
+    @BeforeEach
+    void start() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:orders-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create sequence orders_seq start with 1 increment by " + Order.ID_ALLOCATION_SIZE);
+        jdbcTemplate.execute("create table orders (id bigint primary key, description varchar(255), pages integer, "
+                + "color_pages integer, print_type varchar(255), color varchar(255), paper varchar(255), "
+                + "file_id varchar(255), file_path varchar(255), file_hash varchar(255), user_id bigint, cost float(53), "
+                + "order_number varchar(255) not null, cancel_comment varchar(255), status varchar(255), version bigint)");
+        writeBehind = new OrderWriteBehind(jdbcTemplate, new DataSourceTransactionManager(dataSource),
+                new OrderIdAllocator(jdbcTemplate, "select next value for orders_seq", Order.ID_ALLOCATION_SIZE),
+                100, 10, Duration.ofMillis(5), Duration.ofSeconds(1), new SimpleMeterRegistry());
+        writeBehind.start();
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        writeBehind.stop();
+        jdbcTemplate.execute("shutdown");
+    }
+
+    @Test
+    void persistsEveryOrderOnceItsWriteCompletes() {
+        List<CompletableFuture<Order>> writes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            writes.add(writeBehind.submit(order("ORDER_" + i, Order.Status.ACCEPTED)));
+        }
+        for (int i = 0; i < writes.size(); i++) {
+            Order order = writes.get(i).join();
+            assertNotNull(order.getId());
+            assertEquals(0L, order.getVersion());
+            assertEquals("ORDER_" + i, jdbcTemplate.queryForObject(
+                    "select order_number from orders where id = ?", String.class, order.getId()));
+        }
+        assertEquals(25, jdbcTemplate.queryForObject("select count(*) from orders", Integer.class));
+    }
+
+    @Test
+    void reportsAFailedWriteWithoutLosingTheRestOfItsBatch() {
+        CompletableFuture<Order> before = writeBehind.submit(order("ORDER_1", Order.Status.ACCEPTED));
+        CompletableFuture<Order> broken = writeBehind.submit(order(null, Order.Status.ACCEPTED));
+        CompletableFuture<Order> after = writeBehind.submit(order("ORDER_2", Order.Status.ACCEPTED));
+
+        CompletionException failure = assertThrows(CompletionException.class, broken::join);
+        assertInstanceOf(DataIntegrityViolationException.class, failure.getCause());
+        before.join();
+        after.join();
+        assertEquals(2, jdbcTemplate.queryForObject("select count(*) from orders", Integer.class));
+    }
+
+    @Test
+    void refusesAnUpdateBasedOnAStaleVersion() {
+        Order order = writeBehind.submit(order("ORDER_1", Order.Status.ACCEPTED)).join();
+        Order first = copyOf(order);
+        Order second = copyOf(order);
+
+        first.setStatus(Order.Status.PAID);
+        assertEquals(1L, writeBehind.submit(first).join().getVersion());
+        second.setStatus(Order.Status.CANCELED);
+        CompletionException stale = assertThrows(CompletionException.class, () -> writeBehind.submit(second).join());
+
+        assertInstanceOf(OptimisticLockingFailureException.class, stale.getCause());
+        assertEquals(0L, second.getVersion(), "The stale copy keeps the version it was read with");
+        assertEquals("PAID", jdbcTemplate.queryForObject("select status from orders where id = ?", String.class, order.getId()));
+        assertEquals(1L, jdbcTemplate.queryForObject("select version from orders where id = ?", Long.class, order.getId()));
+    }
+
+    static Order order(String orderNumber, Order.Status status) {
+        return new Order("Thesis", 10, "laser", "bw", "A4", "file", 42L, 10.0, orderNumber, status);
+    }
+
+    private static Order copyOf(Order order) {
+        Order copy = order(order.getOrderNumber(), order.getStatus());
+        copy.setId(order.getId());
+        copy.setVersion(order.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.printbot.scheduling;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.service.PricingEngine;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OrderSchedulerTest {
+
+    private static final Duration ACK_TIMEOUT = Duration.ofMinutes(10);
+
+    private final MutableClock clock = new MutableClock();
+    private final List<OrderScheduler.Assignment> assigned = new ArrayList<>();
+    private long ids;
+
+    private OrderScheduler scheduler(String executors) {
+        ExecutorRegistry registry = new ExecutorRegistry(executors, "laser:laser:30:20,inkjet:inkjet:12:6");
+        PrintTimeEstimator estimator = new PrintTimeEstimator(new PricingEngine("", Duration.ZERO), Duration.ofMinutes(1), "A3:2");
+        OrderScheduler scheduler = new OrderScheduler(registry, estimator, null, ACK_TIMEOUT, clock);
+        scheduler.onAssignment(assigned::add);
+        return scheduler;
+    }
+
+    private Order order(int pages, String printType) {
+        Order order = new Order("Notes", pages, printType, "bw", "A4", null, 1L, 10.0, "ORDER_" + ids, Order.Status.ACCEPTED);
+        order.setId(++ids);
+        return order;
+    }
+
+    @Test
+    void spreadsOrdersByEstimatedFinishTime() {
+        OrderScheduler scheduler = scheduler("1:5,2:5");
+
+        scheduler.submit(order(300, "laser"));
+        scheduler.submit(order(30, "laser"));
+        scheduler.submit(order(30, "laser"));
+
+        assertEquals(1L, assigned.get(0).getExecutor().getChatId());
+        assertEquals(2L, assigned.get(1).getExecutor().getChatId());
+        assertEquals(2L, assigned.get(2).getExecutor().getChatId());
+        assertEquals(Duration.ofMinutes(11).toMillis(), assigned.get(0).getEstimatedMillis());
+    }
+
+    @Test
+    void onlyUsesExecutorsWithASuitablePrinter() {
+        OrderScheduler scheduler = scheduler("1:5:laser,2:5:inkjet");
+
+        scheduler.submit(order(10, "inkjet"));
+        scheduler.submit(order(10, "laser"));
+
+        assertEquals(2L, assigned.get(0).getExecutor().getChatId());
+        assertEquals("inkjet", assigned.get(0).getPrinter().getName());
+        assertEquals(1L, assigned.get(1).getExecutor().getChatId());
+    }
+
+    @Test
+    void queuesOrdersUntilCapacityIsReleased() {
+        OrderScheduler scheduler = scheduler("1:1");
+        Order first = order(10, "laser");
+
+        scheduler.submit(first);
+        scheduler.submit(order(10, "laser"));
+
+        assertEquals(1, assigned.size());
+        assertEquals(1, scheduler.queuedOrders());
+
+        scheduler.release(first.getId());
+
+        assertEquals(2, assigned.size());
+        assertEquals(0, scheduler.queuedOrders());
+    }
+
+    @Test
+    void shorterOrdersAreAssignedFirst() {
+        OrderScheduler scheduler = scheduler("1:1");
+        Order blocking = order(1, "laser");
+        scheduler.submit(blocking);
+        Order longOrder = order(3000, "laser");
+        Order shortOrder = order(3, "laser");
+        scheduler.submit(longOrder);
+        scheduler.submit(shortOrder);
+
+        scheduler.release(blocking.getId());
+
+        assertEquals(shortOrder, assigned.get(1).getOrder());
+    }
+
+    @Test
+    void reassignsOrdersThatAreNotAcceptedInTime() {
+        OrderScheduler scheduler = scheduler("1:5,2:5");
+        Order order = order(10, "laser");
+        scheduler.submit(order);
+        long first = assigned.get(0).getExecutor().getChatId();
+
+        clock.advance(ACK_TIMEOUT.plusSeconds(1));
+        scheduler.reassignExpired();
+
+        assertEquals(2, assigned.size());
+        long second = assigned.get(1).getExecutor().getChatId();
+        assertEquals(3 - first, second);
+        assertNull(scheduler.acknowledge(order.getId(), first));
+        assertNotNull(scheduler.acknowledge(order.getId(), second));
+
+        clock.advance(ACK_TIMEOUT.plusSeconds(1));
+        scheduler.reassignExpired();
+
+        assertEquals(2, assigned.size());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2026-10-17T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
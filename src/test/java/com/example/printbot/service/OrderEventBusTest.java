@@ -0,0 +1,76 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderEventBusTest {
+
+    @Test
+    void deliversEventsInTheOrderTheyWerePublished() throws Exception {
+        List<Object> delivered = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        OrderEventBus bus = new OrderEventBus(event -> {
+            delivered.add(event);
+            threads.add(Thread.currentThread().getName());
+        }, 10, Duration.ofSeconds(1), new SimpleMeterRegistry());
+        try {
+            CompletableFuture<Void> last = null;
+            for (int i = 0; i < 5; i++) {
+                last = bus.publish(i);
+            }
+            last.get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of(0, 1, 2, 3, 4), delivered);
+            assertTrue(threads.stream().allMatch("order-events"::equals));
+        } finally {
+            bus.stop();
+        }
+    }
+
+    @Test
+    void holdsThePublisherBackWhileTheQueueIsFull() throws Exception {
+        CountDownLatch listening = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object> delivered = new CopyOnWriteArrayList<>();
+        OrderEventBus bus = new OrderEventBus(event -> {
+            listening.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.add(event);
+        }, 1, Duration.ofMillis(500), new SimpleMeterRegistry());
+        try {
+            bus.publish("first");
+            assertTrue(listening.await(5, TimeUnit.SECONDS));
+            bus.publish("second");
+
+            long start = System.nanoTime();
+            CompletableFuture<Void> dropped = bus.publish("third");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400), "The publisher waited for room");
+            CompletionException rejected = assertThrows(CompletionException.class, dropped::join);
+            assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+
+            CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS).execute(release::countDown);
+            bus.publish("fourth").get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("first", "second", "fourth"), delivered);
+        } finally {
+            bus.stop();
+        }
+    }
+}
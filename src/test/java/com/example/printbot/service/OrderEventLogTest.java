@@ -0,0 +1,117 @@
+package com.example.printbot.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.example.printbot.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderEventLogTest {
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(OrderEventLog.LOGGER_NAME);
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    @BeforeEach
+    void capture() {
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.INFO);
+    }
+
+    @AfterEach
+    void release() {
+        logger.detachAppender(appender);
+        logger.setLevel(null);
+    }
+
+    @Test
+    void writesOneLineOfKeyValuePairsPerEvent() {
+        OrderEventLog log = new OrderEventLog(1, 1, 1, 1);
+        Order order = order(Order.Status.ACCEPTED);
+
+        log.created(order);
+        log.statusChanged(new OrderStatusChanged(7, Order.Status.ACCEPTED, Order.Status.PAID, 2, 99));
+        log.statusChanged(new OrderStatusChanged(7, Order.Status.PAID, Order.Status.CANCELED, 3, 99));
+        log.viewed(42L, 5);
+
+        assertEquals(List.of(
+                "event=created id=7 order=ORDER_7 user=42 pages=10 colorPages=null type=\"laser\" color=\"bw\" paper=\"A4\" cost=12.5",
+                "event=status id=7 from=ACCEPTED to=PAID version=2 by=99",
+                "event=cancelled id=7 from=PAID to=CANCELED version=3 by=99",
+                "event=viewed user=42 orders=5"), lines());
+    }
+
+    @Test
+    void recordsAnOrderSavedAsCanceledAsCancelled() {
+        new OrderEventLog(1, 1, 1, 1).created(order(Order.Status.CANCELED));
+
+        assertEquals(List.of("event=cancelled id=7 order=ORDER_7 user=42 from=draft"), lines());
+    }
+
+    @Test
+    void quotesAndEscapesWhatCustomersTyped() {
+        Order order = order(Order.Status.ACCEPTED);
+        order.setColor("bw\nevent=cancelled id=1");
+        order.setPaper("A4\" cost=0");
+        order.setPrintType("x".repeat(100));
+
+        new OrderEventLog(1, 1, 1, 1).created(order);
+
+        String line = lines().get(0);
+        assertEquals(1, line.lines().count());
+        assertTrue(line.contains("color=\"bw\\nevent=cancelled id=1\""), line);
+        assertTrue(line.contains("paper=\"A4\\\" cost=0\""), line);
+        assertTrue(line.contains("type=\"" + "x".repeat(OrderEventLog.MAX_TEXT_LENGTH) + "...\""), line);
+        assertEquals("\"tab\\there \\\\ \\u0000\"", OrderEventLog.text("tab\there \\ \0"));
+        assertEquals("null", OrderEventLog.text(null));
+    }
+
+    @Test
+    void keepsEachCategoryAtItsSampleRate() {
+        OrderEventLog log = new OrderEventLog(1, 0, 1, 0.25);
+        Order order = order(Order.Status.ACCEPTED);
+
+        for (int i = 0; i < 10_000; i++) {
+            log.created(order);
+            log.statusChanged(new OrderStatusChanged(7, Order.Status.ACCEPTED, Order.Status.PAID, 2, 99));
+            log.viewed(42L, 5);
+        }
+
+        assertEquals(10_000, count("event=created"));
+        assertEquals(0, count("event=status"));
+        long viewed = count("event=viewed");
+        assertTrue(viewed > 2_000 && viewed < 3_000, "About a quarter of the views: " + viewed);
+    }
+
+    @Test
+    void keepsNothingWhileTheLoggerIsOff() {
+        logger.setLevel(Level.OFF);
+
+        new OrderEventLog(1, 1, 1, 1).created(order(Order.Status.ACCEPTED));
+
+        assertTrue(appender.list.isEmpty());
+    }
+
+    private List<String> lines() {
+        return appender.list.stream().map(ILoggingEvent::getFormattedMessage).toList();
+    }
+
+    private long count(String event) {
+        return appender.list.stream().filter(line -> line.getFormattedMessage().startsWith(event + " ")).count();
+    }
+
+    private static Order order(Order.Status status) {
+        Order order = new Order("Thesis", 10, "laser", "bw", "A4", "file", 42L, 12.5, "ORDER_7", status);
+        order.setId(7L);
+        return order;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.printbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderNumberGeneratorTest {
+
+    @Test
+    void numbersAreUniqueAndMonotonicAcrossThreads() throws Exception {
+        OrderNumberGenerator generator = new OrderNumberGenerator(7);
+        int threads = 16;
+        int perThread = 50_000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] results = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                results[t] = pool.submit(() -> {
+                    start.await();
+                    long previous = Long.MIN_VALUE;
+                    for (int i = 0; i < perThread; i++) {
+                        long id = generator.nextId();
+                        assertTrue(id > previous, "IDs of one thread must increase");
+                        assertTrue(ids.add(id), "Duplicate ID " + id);
+                        previous = id;
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    @Test
+    void nodesNeverCollideAtTheSameInstant() {
+        Clock clock = Clock.fixed(Instant.parse("2026-10-17T10:15:30Z"), ZoneOffset.UTC);
+        OrderNumberGenerator first = new OrderNumberGenerator(1, clock);
+        OrderNumberGenerator second = new OrderNumberGenerator(2, clock);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertNotEquals(first.nextOrderNumber(), second.nextOrderNumber());
+        }
+    }
+
+    @Test
+    void staysMonotonicWhenClockGoesBack() {
+        MutableClock clock = new MutableClock(Instant.parse("2026-10-17T10:15:30Z").toEpochMilli());
+        OrderNumberGenerator generator = new OrderNumberGenerator(3, clock);
+        long before = generator.nextId();
+
+        clock.millis -= 5_000;
+
+        assertTrue(generator.nextId() > before);
+    }
+
+    @Test
+    void keepsHumanReadablePrefix() {
+        Clock clock = Clock.fixed(Instant.parse("2026-10-17T10:15:30Z"), ZoneOffset.UTC);
+        String orderNumber = new OrderNumberGenerator(0, clock).nextOrderNumber();
+
+        assertTrue(orderNumber.startsWith("ORDER_20261017_1015_"), orderNumber);
+    }
+
+    private static final class MutableClock extends Clock {
+        private long millis;
+
+        private MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.repository.OrderSummary;
+import com.example.printbot.repository.OrderWriteBehind;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Pages through orders stored in H2 with the keyset queries of {@link OrderRepository}.
+ */
+@DataJpaTest
+class OrderPageTest {
+
+    private static final int PAGE_SIZE = 3;
+    private static final long CUSTOMER = 1L;
+    private static final long OTHER_CUSTOMER = 2L;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    private final OrderEventLog orderEvents = mock(OrderEventLog.class);
+    private OrderService orderService;
+    private final List<Long> customerIds = new ArrayList<>();
+
+    @BeforeEach
+    void saveOrders() {
+        orderService = new OrderService(orderRepository, mock(PdfService.class), mock(OrderNumberGenerator.class),
+                mock(OrderWriteBehind.class), mock(OrderCalculationService.class), orderEvents, mock(OrderEventBus.class));
+        // The customer's orders are alike in every column shown and interleaved with another customer's
+        for (int i = 0; i < 7; i++) {
+            customerIds.add(save(CUSTOMER));
+            save(OTHER_CUSTOMER);
+        }
+        customerIds.sort(Comparator.reverseOrder());
+    }
+
+    @Test
+    void startsWithTheNewestOrders() {
+        OrderPage page = orderService.findOrderPage(CUSTOMER, null, true, PAGE_SIZE);
+
+        assertEquals(customerIds.subList(0, 3), ids(page));
+        assertFalse(page.hasNewer());
+        assertTrue(page.hasOlder());
+        assertEquals(customerIds.get(0), page.getFirstId());
+        assertEquals(customerIds.get(2), page.getLastId());
+        verify(orderEvents).viewed(CUSTOMER, PAGE_SIZE);
+    }
+
+    @Test
+    void pagesToTheOldestOrderAndBackWithoutSkippingOrRepeating() {
+        List<OrderPage> older = new ArrayList<>();
+        OrderPage page = orderService.findOrderPage(CUSTOMER, null, true, PAGE_SIZE);
+        older.add(page);
+        while (page.hasOlder()) {
+            page = orderService.findOrderPage(CUSTOMER, page.getLastId(), true, PAGE_SIZE);
+            older.add(page);
+        }
+
+        assertEquals(3, older.size());
+        assertEquals(customerIds, older.stream().flatMap(p -> ids(p).stream()).toList());
+        OrderPage last = older.get(2);
+        assertEquals(List.of(customerIds.get(6)), ids(last));
+        assertTrue(last.hasNewer());
+        assertFalse(last.hasOlder());
+
+        OrderPage newer = orderService.findOrderPage(CUSTOMER, last.getFirstId(), false, PAGE_SIZE);
+        assertEquals(customerIds.subList(3, 6), ids(newer));
+        assertTrue(newer.hasNewer());
+        assertTrue(newer.hasOlder());
+        newer = orderService.findOrderPage(CUSTOMER, newer.getFirstId(), false, PAGE_SIZE);
+        assertEquals(customerIds.subList(0, 3), ids(newer));
+        assertFalse(newer.hasNewer());
+        assertTrue(newer.hasOlder());
+    }
+
+    @Test
+    void knowsAFullLastPageIsTheLast() {
+        save(CUSTOMER);
+        save(CUSTOMER);
+
+        OrderPage second = orderService.findOrderPage(CUSTOMER, null, true, PAGE_SIZE);
+        second = orderService.findOrderPage(CUSTOMER, second.getLastId(), true, PAGE_SIZE);
+        OrderPage third = orderService.findOrderPage(CUSTOMER, second.getLastId(), true, PAGE_SIZE);
+
+        assertTrue(second.hasOlder());
+        assertEquals(PAGE_SIZE, third.getOrders().size());
+        assertFalse(third.hasOlder(), "Nine orders fill exactly three pages");
+        assertTrue(third.hasNewer());
+    }
+
+    @Test
+    void showsAnEmptyPageToACustomerWithoutOrders() {
+        OrderPage page = orderService.findOrderPage(3L, null, true, PAGE_SIZE);
+
+        assertTrue(page.getOrders().isEmpty());
+        assertFalse(page.hasNewer());
+        assertFalse(page.hasOlder());
+        assertNull(page.getFirstId());
+        assertNull(page.getLastId());
+    }
+
+    private long save(long userId) {
+        Order order = new Order("Notes", 10, "laser", "bw", "A4", null, userId, 10.0, "ORDER", Order.Status.ACCEPTED);
+        return orderRepository.saveAndFlush(order).getId();
+    }
+
+    private static List<Long> ids(OrderPage page) {
+        return page.getOrders().stream().map(OrderSummary::getId).toList();
+    }
+
+    @SpringBootConfiguration
+    @EntityScan(basePackageClasses = Order.class)
+    @EnableJpaRepositories(basePackageClasses = OrderRepository.class)
+    static class Config {
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.repository.OrderRepository;
+import com.example.printbot.repository.OrderWriteBehind;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class OrderServiceTest {
+
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+    private final OrderEventBus orderEventBus = mock(OrderEventBus.class);
+    private final OrderService orderService = new OrderService(orderRepository, mock(PdfService.class),
+            mock(OrderNumberGenerator.class), mock(OrderWriteBehind.class), mock(OrderCalculationService.class),
+            mock(OrderEventLog.class), orderEventBus);
+
+    @Test
+    void statusesOnlyMoveForward() {
+        assertEquals(Set.of(Order.Status.PAID, Order.Status.COMPLETED, Order.Status.CANCELED), nextOf(Order.Status.ACCEPTED));
+        assertEquals(Set.of(Order.Status.COMPLETED, Order.Status.CANCELED), nextOf(Order.Status.PAID));
+        assertEquals(Set.of(), nextOf(Order.Status.COMPLETED));
+        assertEquals(Set.of(), nextOf(Order.Status.CANCELED));
+    }
+
+    @Test
+    void changesAnAllowedStatusAndPublishesTheChange() {
+        when(orderRepository.transitionStatus(7, "ACCEPTED", 3, "PAID")).thenReturn(1);
+
+        assertTrue(orderService.changeStatus(7, Order.Status.ACCEPTED, 3, Order.Status.PAID, 99));
+
+        ArgumentCaptor<Object> event = ArgumentCaptor.forClass(Object.class);
+        verify(orderEventBus).publish(event.capture());
+        OrderStatusChanged change = (OrderStatusChanged) event.getValue();
+        assertEquals(7, change.getOrderId());
+        assertEquals(Order.Status.ACCEPTED, change.getPrevious());
+        assertEquals(Order.Status.PAID, change.getStatus());
+        assertEquals(4, change.getVersion());
+        assertEquals(99, change.getChangedBy());
+    }
+
+    @Test
+    void rejectsATransitionTheStatusDoesNotAllow() {
+        assertThrows(IllegalArgumentException.class,
+                () -> orderService.changeStatus(7, Order.Status.COMPLETED, 3, Order.Status.PAID, 99));
+        assertThrows(IllegalArgumentException.class,
+                () -> orderService.changeStatus(7, Order.Status.PAID, 3, Order.Status.ACCEPTED, 99));
+
+        verifyNoInteractions(orderRepository, orderEventBus);
+    }
+
+    @Test
+    void leavesAnOrderChangedSinceItWasSeenAlone() {
+        when(orderRepository.transitionStatus(anyLong(), anyString(), anyLong(), anyString())).thenReturn(0);
+
+        assertFalse(orderService.changeStatus(7, Order.Status.ACCEPTED, 3, Order.Status.PAID, 99));
+
+        verify(orderEventBus, never()).publish(any());
+    }
+
+    private static Set<Order.Status> nextOf(Order.Status status) {
+        Set<Order.Status> next = new HashSet<>();
+        for (Order.Status candidate : Order.Status.values()) {
+            if (status.canMoveTo(candidate)) {
+                next.add(candidate);
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.printbot.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfMetadataCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private PdfMetadataCache cache;
+
+    @AfterEach
+    void close() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    @Test
+    void readsEntriesBackAfterARestart() {
+        cache = open(100);
+        cache.put("unique", "hash", metadata(3));
+        cache.put(null, "other", new PdfMetadata(7));
+
+        cache = reopen(100);
+
+        PdfMetadata metadata = cache.findByUniqueId("unique");
+        assertEquals(3, metadata.getPageCount());
+        assertArrayEquals(new float[]{595, 595, 595}, metadata.getPageWidths());
+        assertArrayEquals(new float[]{842, 842, 842}, metadata.getPageHeights());
+        assertEquals(3, cache.findBySha256("hash").getPageCount());
+        assertEquals(7, cache.findBySha256("other").getPageCount());
+        assertNull(cache.findByUniqueId("other"));
+    }
+
+    @Test
+    void keepsOnlyTheMostRecentlyUsedEntries() {
+        cache = open(2);
+        cache.put("a", null, new PdfMetadata(1));
+        cache.put("b", null, new PdfMetadata(2));
+        cache.findByUniqueId("a");
+        cache.put("c", null, new PdfMetadata(3));
+
+        assertNull(cache.findByUniqueId("b"));
+        assertNotNull(cache.findByUniqueId("a"));
+
+        cache = reopen(2);
+
+        assertNull(cache.findByUniqueId("a"), "The file keeps the order entries were written in");
+        assertEquals(2, cache.findByUniqueId("b").getPageCount());
+        assertEquals(3, cache.findByUniqueId("c").getPageCount());
+    }
+
+    @Test
+    void compactsTheFileBeforeItOutgrowsTheCache() throws IOException {
+        cache = open(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("file" + i, null, metadata(2));
+        }
+        long full = Files.size(store());
+
+        for (int i = 0; i < 1_000; i++) {
+            cache.put("file" + i % 10, null, metadata(2));
+        }
+
+        assertTrue(Files.size(store()) <= full * PdfMetadataCache.COMPACT_FACTOR,
+                "The file holds at most " + PdfMetadataCache.COMPACT_FACTOR + " records per entry");
+        cache = reopen(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2, cache.findByUniqueId("file" + i).getPageCount());
+        }
+    }
+
+    @Test
+    void keepsWhatPrecedesATornLastRecord() throws IOException {
+        cache = open(100);
+        cache.put("first", null, new PdfMetadata(1));
+        cache.put("second", null, metadata(2));
+        cache.close();
+        try (RandomAccessFile file = new RandomAccessFile(store().toFile(), "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        cache = reopen(100);
+
+        assertEquals(1, cache.findByUniqueId("first").getPageCount());
+        assertNull(cache.findByUniqueId("second"));
+        cache.put("third", null, new PdfMetadata(3));
+        cache = reopen(100);
+        assertEquals(1, cache.findByUniqueId("first").getPageCount());
+        assertEquals(3, cache.findByUniqueId("third").getPageCount());
+    }
+
+    @Test
+    void skipsADamagedRecordAndReadsTheRest() throws IOException {
+        cache = open(100);
+        cache.put("first", null, new PdfMetadata(1));
+        long second = Files.size(store());
+        cache.put("second", null, new PdfMetadata(2));
+        cache.put("third", null, new PdfMetadata(3));
+        cache.close();
+        try (RandomAccessFile file = new RandomAccessFile(store().toFile(), "rw")) {
+            file.seek(second + 10);
+            file.write(file.read() ^ 0xFF);
+        }
+
+        cache = reopen(100);
+
+        assertEquals(1, cache.findByUniqueId("first").getPageCount());
+        assertNull(cache.findByUniqueId("second"));
+        assertEquals(3, cache.findByUniqueId("third").getPageCount());
+    }
+
+    @Test
+    void ignoresEverythingAfterARecordOfImpossibleLength() throws IOException {
+        cache = open(100);
+        cache.put("first", null, new PdfMetadata(1));
+        cache.close();
+        Files.write(store(), new byte[]{(byte) 0xFF, 0, 0, 0, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        cache = reopen(100);
+
+        assertEquals(1, cache.findByUniqueId("first").getPageCount());
+        cache.put("second", null, new PdfMetadata(2));
+        cache = reopen(100);
+        assertEquals(2, cache.findByUniqueId("second").getPageCount());
+    }
+
+    private PdfMetadataCache open(int maxEntries) {
+        PdfMetadataCache opened = new PdfMetadataCache(maxEntries, store().toString());
+        opened.load();
+        return opened;
+    }
+
+    private PdfMetadataCache reopen(int maxEntries) {
+        cache.close();
+        return open(maxEntries);
+    }
+
+    private Path store() {
+        return dir.resolve("pdf-metadata.bin");
+    }
+
+    private static PdfMetadata metadata(int pages) {
+        float[] widths = new float[pages];
+        float[] heights = new float[pages];
+        Arrays.fill(widths, 595);
+        Arrays.fill(heights, 842);
+        return new PdfMetadata(pages, widths, heights);
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PdfPageCounterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsPagesOfPdfBoxDocument() throws IOException {
+        Path file = createPdf(7);
+
+        assertEquals(7, PdfPageCounter.countPages(file));
+    }
+
+    @Test
+    void countsPagesOfLargeFlatPageTree() throws IOException {
+        Path file = createPdf(1500);
+
+        assertEquals(1500, PdfPageCounter.countPages(file));
+    }
+
+    @Test
+    void givesUpOnGarbage() throws IOException {
+        Path file = dir.resolve("broken.pdf");
+        Files.writeString(file, "not a pdf");
+
+        assertEquals(-1, PdfPageCounter.countPages(file));
+    }
+
+    @Test
+    void followsPrevToTheObjectsOfAnEarlierRevision() throws IOException {
+        PdfWriter pdf = new PdfWriter("1.4");
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.object(2, "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>");
+        pdf.object(3, PdfWriter.PAGE);
+        pdf.object(4, PdfWriter.PAGE);
+        int first = pdf.xref("<< /Size 5 /Root 1 0 R >>");
+        // The update replaces the page tree and adds a page; the catalog is only in the first table
+        pdf.object(2, "<< /Type /Pages /Kids [3 0 R 4 0 R 5 0 R] /Count 3 >>");
+        pdf.object(5, PdfWriter.PAGE);
+        pdf.xref("<< /Size 6 /Root 1 0 R /Prev " + first + " >>");
+        Path file = pdf.save(dir.resolve("updated.pdf"));
+
+        assertEquals(3, PdfPageCounter.countPages(file));
+        assertEquals(3, pdfBoxCount(file));
+    }
+
+    @Test
+    void fallsBackOnACrossReferenceStream() throws IOException {
+        PdfWriter pdf = new PdfWriter("1.5");
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.object(2, "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>");
+        pdf.object(3, PdfWriter.PAGE);
+        pdf.object(4, PdfWriter.PAGE);
+        Path file = pdf.saveWithXrefStream(dir.resolve("xref-stream.pdf"), 5, "/Root 1 0 R");
+
+        assertEquals(-1, PdfPageCounter.countPages(file));
+        assertFallsBackTo(2, file);
+    }
+
+    @Test
+    void fallsBackWhenStartxrefMissesTheTable() throws IOException {
+        PdfWriter pdf = twoPages();
+        int xref = pdf.xref("<< /Size 5 /Root 1 0 R >>");
+        Path file = pdf.save(dir.resolve("bad-startxref.pdf"));
+        String text = Files.readString(file, StandardCharsets.ISO_8859_1);
+        Files.writeString(file, text.replace("startxref\n" + xref, "startxref\n" + (xref - 20)), StandardCharsets.ISO_8859_1);
+
+        assertEquals(-1, PdfPageCounter.countPages(file));
+        assertFallsBackTo(2, file);
+    }
+
+    @Test
+    void fallsBackWhenAnEntryPointsAtTheWrongObject() throws IOException {
+        PdfWriter pdf = twoPages();
+        pdf.shift(1, 3);
+        Path file = pdf.save(dir.resolve("bad-entry.pdf"), "<< /Size 5 /Root 1 0 R >>");
+
+        assertEquals(-1, PdfPageCounter.countPages(file));
+        assertFallsBackTo(2, file);
+    }
+
+    @Test
+    void givesUpOnATruncatedTable() throws IOException {
+        PdfWriter pdf = twoPages();
+        int xref = pdf.size();
+        pdf.text("xref\n0 5\n0000000000 65535 f\r\n");
+        pdf.text("trailer\n<< /Size 5 /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+        Path file = pdf.save(dir.resolve("short-table.pdf"), null);
+
+        assertEquals(-1, PdfPageCounter.countPages(file));
+    }
+
+    private PdfWriter twoPages() {
+        PdfWriter pdf = new PdfWriter("1.4");
+        pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        pdf.object(2, "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>");
+        pdf.object(3, PdfWriter.PAGE);
+        pdf.object(4, PdfWriter.PAGE);
+        return pdf;
+    }
+
+    private static int pdfBoxCount(Path file) throws IOException {
+        try (PDDocument document = PDDocument.load(file.toFile())) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    private static void assertFallsBackTo(int pages, Path file) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PdfService pdfService = new PdfService(new PdfMetadataCache(10, ""), registry);
+
+        assertEquals(pages, pdfService.getPageCount(file.toFile()));
+        assertEquals(1, registry.timer("printbot.pdf.parse", "parser", "pdfbox").count(), "Parsed by PDFBox");
+    }
+
+    private Path createPdf(int pages) throws IOException {
+        Path file = dir.resolve("doc-" + pages + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+
+    /**
+     * Writes a PDF by hand, so that the layout of its cross-reference data is known.
+     */
+    private static final class PdfWriter {
+
+        static final String PAGE = "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] >>";
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<Integer, Integer> offsets = new TreeMap<>();
+        private boolean firstTable = true;
+
+        PdfWriter(String version) {
+            text("%PDF-" + version + "\n");
+        }
+
+        PdfWriter text(String text) {
+            out.writeBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+            return this;
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        void object(int number, String body) {
+            offsets.put(number, out.size());
+            text(number + " 0 obj\n" + body + "\nendobj\n");
+        }
+
+        /**
+         * Moves the recorded offset of an object, as a broken writer would.
+         */
+        void shift(int number, int bytes) {
+            offsets.put(number, offsets.get(number) + bytes);
+        }
+
+        /**
+         * Writes a classic table of the objects written since the last one.
+         *
+         * @return The offset of the table.
+         */
+        int xref(String trailer) {
+            int xref = out.size();
+            text("xref\n");
+            if (firstTable) {
+                text("0 1\n" + entry(0, 65535, 'f'));
+                firstTable = false;
+            }
+            offsets.forEach((number, offset) -> text(number + " 1\n" + entry(offset, 0, 'n')));
+            offsets.clear();
+            text("trailer\n" + trailer + "\nstartxref\n" + xref + "\n%%EOF\n");
+            return xref;
+        }
+
+        Path save(Path file) throws IOException {
+            Files.write(file, out.toByteArray());
+            return file;
+        }
+
+        /**
+         * Ends the file with a classic table, unless {@code trailer} is {@code null}.
+         */
+        Path save(Path file, String trailer) throws IOException {
+            if (trailer != null) {
+                xref(trailer);
+            }
+            return save(file);
+        }
+
+        /**
+         * Ends the file with an uncompressed cross-reference stream as object {@code number}.
+         */
+        Path saveWithXrefStream(Path file, int number, String entries) throws IOException {
+            offsets.put(number, out.size());
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.writeBytes(new byte[]{0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF});
+            for (int i = 1; i <= number; i++) {
+                int offset = offsets.get(i);
+                stream.writeBytes(new byte[]{1, (byte) (offset >>> 24), (byte) (offset >>> 16), (byte) (offset >>> 8),
+                        (byte) offset, 0, 0});
+            }
+            text(number + " 0 obj\n<< /Type /XRef /Size " + (number + 1) + " /W [1 4 2] " + entries
+                    + " /Length " + stream.size() + " >>\nstream\n");
+            out.writeBytes(stream.toByteArray());
+            text("\nendstream\nendobj\nstartxref\n" + offsets.get(number) + "\n%%EOF\n");
+            return save(file);
+        }
+
+        private static String entry(int offset, int generation, char type) {
+            return String.format("%010d %05d %c\r\n", offset, generation, type);
+        }
+    }
+}
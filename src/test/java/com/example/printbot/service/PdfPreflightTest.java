@@ -0,0 +1,115 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfPreflightTest {
+
+    @TempDir
+    Path dir;
+
+    private final PdfPreflight preflight = new PdfPreflight(4, Duration.ofSeconds(30), 1 << 20, 2,
+            new SimpleMeterRegistry());
+
+    @AfterEach
+    void stopPool() {
+        preflight.stop();
+    }
+
+    @Test
+    void findsTheColourPagesAcrossTasks() throws IOException {
+        Path file = createPdf(PDRectangle.A4, 20, 3, 11, 19);
+
+        PdfPreflightReport report = preflight.inspect(file.toFile());
+
+        assertEquals(20, report.getPageCount());
+        assertTrue(report.isComplete());
+        assertEquals(3, report.getColorPageCount());
+        assertTrue(report.isColor(11));
+        assertFalse(report.isColor(12));
+        assertEquals("A4", report.getPaperSize());
+    }
+
+    @Test
+    void recognisesLandscapePagesAndMixedSizes() throws IOException {
+        Path landscape = createPdf(new PDRectangle(PDRectangle.A3.getHeight(), PDRectangle.A3.getWidth()), 2);
+        Path mixed = dir.resolve("mixed.pdf");
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage(PDRectangle.A4));
+            document.addPage(new PDPage(PDRectangle.LETTER));
+            document.save(mixed.toFile());
+        }
+
+        assertEquals("A3", preflight.inspect(landscape.toFile()).getPaperSize());
+        assertNull(preflight.inspect(mixed.toFile()).getPaperSize());
+        assertEquals(0, preflight.inspect(mixed.toFile()).getColorPageCount());
+    }
+
+    @Test
+    void leavesPagesUnknownOnceTheTimeBudgetIsSpent() throws IOException {
+        Path file = createPdf(PDRectangle.A4, 10, 1);
+        PdfPreflight hurried = new PdfPreflight(1, Duration.ZERO, 1 << 20, 2, new SimpleMeterRegistry());
+        try {
+            PdfPreflightReport report = hurried.inspect(file.toFile());
+
+            assertEquals(10, report.getPageCount());
+            assertFalse(report.isComplete());
+            assertEquals(-1, report.getColorPageCount());
+        } finally {
+            hurried.stop();
+        }
+    }
+
+    @Test
+    void reportsNoPagesForGarbage() throws IOException {
+        Path file = dir.resolve("broken.pdf");
+        Files.writeString(file, "not a pdf");
+
+        PdfPreflightReport report = preflight.inspect(file.toFile());
+
+        assertEquals(0, report.getPageCount());
+        assertFalse(report.isComplete());
+    }
+
+    private Path createPdf(PDRectangle size, int pages, int... colorPages) throws IOException {
+        Path file = dir.resolve("doc-" + pages + "-" + colorPages.length + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(size);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.setNonStrokingColor(isColorPage(i, colorPages) ? 200 : 90, 90, 90);
+                    content.addRect(72, 72, 100, 100);
+                    content.fill();
+                }
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+
+    private static boolean isColorPage(int page, int[] colorPages) {
+        for (int colorPage : colorPages) {
+            if (colorPage == page) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
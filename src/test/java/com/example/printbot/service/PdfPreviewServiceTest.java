@@ -0,0 +1,69 @@
+package com.example.printbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PdfPreviewServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final PdfPreviewService previewService = new PdfPreviewService(true, 36, 2, 1, 4,
+            Duration.ofSeconds(30), 10, new SimpleMeterRegistry());
+
+    @AfterEach
+    void stopPool() {
+        previewService.stop();
+    }
+
+    @Test
+    void rendersTheFirstPagesSideBySideAndCachesThem() throws Exception {
+        Path file = dir.resolve("doc.pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < 3; i++) {
+                document.addPage(new PDPage(PDRectangle.A4));
+            }
+            document.save(file.toFile());
+        }
+
+        byte[] preview = previewService.preview(file.toString(), "hash").get();
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(preview));
+        assertEquals(PDRectangle.A4.getWidth() + 8, image.getWidth(), 2);
+        assertEquals(PDRectangle.A4.getHeight() / 2, image.getHeight(), 1);
+        assertSame(preview, previewService.preview(file.toString(), "hash").get());
+    }
+
+    @Test
+    void hasNoPreviewForGarbageOrMissingFiles() throws Exception {
+        Path file = dir.resolve("broken.pdf");
+        Files.writeString(file, "not a pdf");
+
+        assertNull(previewService.preview(file.toString(), "broken").get());
+        assertNull(previewService.preview(dir.resolve("missing.pdf").toString(), "missing").get());
+        assertNull(previewService.preview(null, null).get());
+    }
+
+    @Test
+    void rejectsPagesOutsideTheLimit() {
+        assertThrows(IllegalArgumentException.class, () -> new PdfPreviewService(true, 36, 11, 1, 1,
+                Duration.ofSeconds(1), 1, new SimpleMeterRegistry()));
+    }
+}
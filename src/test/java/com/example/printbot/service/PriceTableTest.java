@@ -0,0 +1,69 @@
+package com.example.printbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PriceTableTest {
+
+    private static Properties table() {
+        Properties properties = new Properties();
+        properties.setProperty("print-type.laser", "1.0");
+        properties.setProperty("print-type.inkjet", "2.0");
+        properties.setProperty("color.bw", "1.0");
+        properties.setProperty("color.color", "4.0");
+        properties.setProperty("mono-color", "bw");
+        properties.setProperty("paper.A4", "1.0");
+        properties.setProperty("paper.A3", "2.0");
+        properties.setProperty("tier.1", "1.0");
+        properties.setProperty("tier.100", "0.5");
+        properties.setProperty("default.print-type", "laser");
+        properties.setProperty("default.color", "bw");
+        properties.setProperty("default.paper", "A4");
+        return properties;
+    }
+
+    @Test
+    void combinesPrintTypeColorPaperAndTier() {
+        PriceTable table = PriceTable.compile(table());
+
+        assertEquals(10.0, table.quote("laser", "bw", "A4", 10, -1));
+        assertEquals(160.0, table.quote("inkjet", "color", "A3", 10, -1));
+        assertEquals(50.0, table.quote("laser", "bw", "A4", 100, -1));
+        assertEquals(99.0, table.quote("laser", "bw", "A4", 99, -1));
+    }
+
+    @Test
+    void pricesOnlyColorPagesAsColor() {
+        PriceTable table = PriceTable.compile(table());
+
+        assertEquals(3 * 4.0 + 7 * 1.0, table.quote("laser", "color", "A4", 10, 3));
+        assertEquals(10.0, table.quote("laser", "bw", "A4", 10, 3));
+    }
+
+    @Test
+    void fallsBackToDefaultsAndIgnoresCase() {
+        PriceTable table = PriceTable.compile(table());
+
+        assertEquals(20.0, table.quote("INKJET", " BW ", "a4", 10, -1));
+        assertEquals(10.0, table.quote("offset", null, "napkin", 10, -1));
+        assertTrue(table.isColor("Color"));
+        assertFalse(table.isColor("something"));
+    }
+
+    @Test
+    void rejectsInvalidTable() {
+        Properties negative = table();
+        negative.setProperty("paper.A3", "-1");
+        assertThrows(IllegalArgumentException.class, () -> PriceTable.compile(negative));
+
+        Properties unknownDefault = table();
+        unknownDefault.setProperty("default.paper", "A5");
+        assertThrows(IllegalArgumentException.class, () -> PriceTable.compile(unknownDefault));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.Order;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PrintBatchServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private PrintBatchService batchService;
+
+    @AfterEach
+    void stopMerges() {
+        if (batchService != null) {
+            batchService.stop();
+        }
+    }
+
+    @Test
+    void groupsSmallOrdersBySettings() throws IOException {
+        batchService = new PrintBatchService(dir.toString(), 2, 2, 3, 500, 47185920, 10, Duration.ofDays(1),
+                new SimpleMeterRegistry());
+        List<Order> orders = List.of(
+                order(5, 1, "bw", "A4"),
+                order(1, 2, "bw", "A4"),
+                order(2, 1, "color", "A4"),
+                order(3, 3, "bw", "A4"),
+                order(4, 9, "bw", "A4"),
+                order(6, 1, "bw", "A4"));
+
+        List<PrintBatchService.PrintBatch> batches = batchService.plan(orders);
+
+        assertEquals(2, batches.size(), "The colour order and the long one are printed alone");
+        PrintBatchService.PrintBatch batch = batches.get(0);
+        assertArrayEquals(new long[]{1, 3}, batchService.batchOrders(batch.getId()));
+        assertEquals(5, batch.getPages());
+        assertEquals("laser, bw, A4", batch.getSettings());
+        assertArrayEquals(new long[]{5, 6}, batchService.batchOrders(batches.get(1).getId()));
+    }
+
+    @Test
+    void mergesFilesWithASeparatorInFrontOfEach() throws IOException {
+        batchService = new PrintBatchService(dir.toString(), 2, 20, 3, 500, 47185920, 10, Duration.ofDays(1),
+                new SimpleMeterRegistry());
+        List<Order> orders = List.of(order(1, 2, "bw", "A4"), order(2, 3, "bw", "A4"));
+
+        Path merged = batchService.merge(batchService.plan(orders).get(0).getId(), orders).join();
+
+        try (PDDocument document = PDDocument.load(merged.toFile())) {
+            assertEquals(2 + 2 + 3, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    void groupsSettingsRegardlessOfCaseAndBlanks() throws IOException {
+        batchService = new PrintBatchService(dir.toString(), 2, 20, 3, 500, 47185920, 10, Duration.ofDays(1),
+                new SimpleMeterRegistry());
+        List<Order> orders = List.of(order(1, 1, "bw", "A4"), order(2, 1, " BW", "a4 "), order(3, 1, "Bw", "A4"));
+
+        List<PrintBatchService.PrintBatch> batches = batchService.plan(orders);
+
+        assertEquals(1, batches.size());
+        assertArrayEquals(new long[]{1, 2, 3}, batchService.batchOrders(batches.get(0).getId()));
+    }
+
+    @Test
+    void splitsBatchesBeforeTheirFilesGetTooLargeToSend() throws IOException {
+        List<Order> orders = List.of(order(1, 1, "bw", "A4"), order(2, 1, "bw", "A4"), order(3, 1, "bw", "A4"),
+                order(4, 1, "bw", "A4"), order(5, 1, "bw", "A4"));
+        long fileSize = Files.size(Path.of(orders.get(0).getFilePath()));
+        batchService = new PrintBatchService(dir.toString(), 2, 20, 3, 500, 2 * fileSize, 10, Duration.ofDays(1),
+                new SimpleMeterRegistry());
+
+        List<PrintBatchService.PrintBatch> batches = batchService.plan(orders);
+
+        assertEquals(2, batches.size(), "The fifth order is left alone");
+        assertArrayEquals(new long[]{1, 2}, batchService.batchOrders(batches.get(0).getId()));
+        assertArrayEquals(new long[]{3, 4}, batchService.batchOrders(batches.get(1).getId()));
+    }
+
+    @Test
+    void printsSeparatorsOnTheBatchPaper() throws IOException {
+        batchService = new PrintBatchService(dir.toString(), 2, 20, 3, 500, 47185920, 10, Duration.ofDays(1),
+                new SimpleMeterRegistry());
+        List<Order> orders = List.of(order(1, 1, "bw", "a5"), order(2, 1, "bw", "A5"));
+
+        Path merged = batchService.merge(batchService.plan(orders).get(0).getId(), orders).join();
+
+        try (PDDocument document = PDDocument.load(merged.toFile())) {
+            PDRectangle separator = document.getPage(0).getMediaBox();
+            assertEquals(PDRectangle.A5.getWidth(), separator.getWidth(), 0.01);
+            assertEquals(PDRectangle.A5.getHeight(), separator.getHeight(), 0.01);
+        }
+    }
+
+    private Order order(long id, int pages, String color, String paper) throws IOException {
+        Path file = dir.resolve("order-" + id + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            document.save(file.toFile());
+        }
+        Order order = new Order("Order " + id, pages, "laser", color, paper, null, 1L, 1.0, "ORDER_" + id,
+                Order.Status.ACCEPTED);
+        order.setId(id);
+        order.setFilePath(file.toString());
+        return order;
+    }
+}
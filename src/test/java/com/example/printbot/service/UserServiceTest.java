@@ -0,0 +1,71 @@
+package com.example.printbot.service;
+
+import com.example.printbot.model.User;
+import com.example.printbot.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserService userService = new UserService(userRepository, 100, Duration.ZERO);
+
+    @Test
+    void createsAUserWhenTheSharedLookupFindsNone() throws Exception {
+        CountDownLatch looking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userRepository.findByTelegramId(42L)).thenAnswer(invocation -> {
+            if (looking.getCount() > 0) {
+                looking.countDown();
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+            }
+            return null;
+        });
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        CompletableFuture<User> lookup = CompletableFuture.supplyAsync(() -> userService.findUserByTelegramId(42L));
+        assertTrue(looking.await(5, TimeUnit.SECONDS));
+        CompletableFuture<User> creation = CompletableFuture.supplyAsync(() -> userService.findOrCreateUser(42L, "alice"));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertNull(lookup.get(5, TimeUnit.SECONDS));
+        User created = creation.get(5, TimeUnit.SECONDS);
+        assertNotNull(created);
+        assertEquals("alice", created.getUsername());
+        verify(userRepository, times(1)).save(any(User.class));
+    }
+
+    @Test
+    void sharesOneCreationBetweenConcurrentFirstMessages() throws Exception {
+        AtomicReference<User> stored = new AtomicReference<>();
+        when(userRepository.findByTelegramId(7L)).thenAnswer(invocation -> stored.get());
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            stored.set(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+
+        CompletableFuture<User> first = CompletableFuture.supplyAsync(() -> userService.findOrCreateUser(7L, "bob"));
+        CompletableFuture<User> second = CompletableFuture.supplyAsync(() -> userService.findOrCreateUser(7L, "bob"));
+
+        assertEquals(7L, first.get(5, TimeUnit.SECONDS).getTelegramId());
+        assertEquals(7L, second.get(5, TimeUnit.SECONDS).getTelegramId());
+        verify(userRepository, times(1)).save(any(User.class));
+    }
+}
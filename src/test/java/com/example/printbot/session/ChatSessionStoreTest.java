@@ -0,0 +1,111 @@
+package com.example.printbot.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ChatSessionStoreTest {
+
+    private final List<Long> discarded = new ArrayList<>();
+
+    private ChatSessionStore store(int shards, int maxSessions, Duration ttl) {
+        ChatSessionStore store = new ChatSessionStore(shards, maxSessions, ttl,
+                new SessionJournal("", 1 << 20, Duration.ofMinutes(5)));
+        store.onDiscard(session -> discarded.add(session.getChatId()));
+        return store;
+    }
+
+    @Test
+    void keepsOneSessionPerChat() {
+        ChatSessionStore store = store(4, 100, Duration.ofMinutes(30));
+
+        ChatSession session = store.getOrCreate(1L);
+
+        assertSame(session, store.getOrCreate(1L));
+        assertSame(session, store.get(1L));
+        assertNull(store.get(2L));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void evictsSessionsIdleForLongerThanTheTtl() throws InterruptedException {
+        ChatSessionStore store = store(4, 100, Duration.ofMillis(50));
+        store.getOrCreate(1L);
+        store.getOrCreate(2L);
+
+        Thread.sleep(100);
+        store.get(2L);
+        store.evictExpired();
+
+        assertNull(store.get(1L));
+        assertNotNull(store.get(2L), "Touched within the TTL");
+        assertEquals(List.of(1L), discarded);
+    }
+
+    @Test
+    void dropsTheLeastRecentlyUsedSessionOfAFullShard() throws InterruptedException {
+        ChatSessionStore store = store(1, 3, Duration.ofMinutes(30));
+        store.getOrCreate(1L);
+        Thread.sleep(5);
+        store.getOrCreate(2L);
+        Thread.sleep(5);
+        store.getOrCreate(3L);
+        Thread.sleep(5);
+        store.get(1L);
+        Thread.sleep(5);
+
+        store.getOrCreate(4L);
+
+        assertEquals(3, store.size());
+        assertNull(store.get(2L));
+        assertNotNull(store.get(1L));
+        assertEquals(List.of(2L), discarded);
+    }
+
+    @Test
+    void capsEveryShardAtItsShareOfTheLimit() {
+        ChatSessionStore store = store(4, 8, Duration.ofMinutes(30));
+
+        for (long chatId = 0; chatId < 1000; chatId++) {
+            store.getOrCreate(chatId);
+        }
+
+        assertEquals(8, store.size());
+        assertEquals(992, discarded.size());
+    }
+
+    @Test
+    void reportsRemovedSessionsButNotExportedOnes() {
+        ChatSessionStore store = store(4, 100, Duration.ofMinutes(30));
+        store.getOrCreate(1L);
+        store.getOrCreate(2L);
+
+        store.remove(1L);
+        store.remove(3L);
+        assertEquals(1, store.export(chatId -> chatId == 2L).size());
+
+        assertEquals(List.of(1L), discarded);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void keepsDroppingSessionsWhenTheListenerFails() {
+        ChatSessionStore store = store(1, 1, Duration.ofMinutes(30));
+        store.onDiscard(session -> {
+            throw new IllegalStateException("Listener failed");
+        });
+        store.getOrCreate(1L);
+
+        store.getOrCreate(2L);
+
+        assertNull(store.get(1L));
+        assertNotNull(store.get(2L));
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.printbot.session;
+
+import com.example.printbot.model.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionJournalTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("session-journal");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private SessionJournal journal(long segmentSize, Duration snapshotInterval) throws IOException {
+        SessionJournal journal = new SessionJournal(directory.toString(), segmentSize, snapshotInterval);
+        journal.open();
+        return journal;
+    }
+
+    private Map<Long, ChatSession> recover() throws IOException {
+        Map<Long, ChatSession> sessions = new HashMap<>();
+        SessionJournal journal = new SessionJournal(directory.toString(), 1 << 20, Duration.ofHours(1));
+        journal.recover(session -> sessions.put(session.getChatId(), session));
+        return sessions;
+    }
+
+    private static ChatSession draft(long chatId, OrderState state, String description) {
+        ChatSession session = new ChatSession(chatId);
+        Order order = new Order(description, 12, "laser", null, null, null, chatId, null, "ORDER_" + chatId,
+                Order.Status.ACCEPTED);
+        order.setColorPages(3);
+        session.setOrder(order);
+        session.setState(state);
+        return session;
+    }
+
+    @Test
+    void recoversTheLastStateOfEveryDraft() throws IOException {
+        SessionJournal journal = journal(1 << 20, Duration.ofHours(1));
+        ChatSession first = draft(1, OrderState.WAITING_FOR_PAGES, "Notes");
+        journal.record(first);
+        first.setState(OrderState.WAITING_FOR_COLOR);
+        first.getOrder().setPrintType("inkjet");
+        journal.record(first);
+        journal.record(draft(2, OrderState.CONFIRMATION, "Thesis"));
+        journal.record(draft(3, OrderState.WAITING_FOR_FILE, "Poster"));
+        journal.recordRemoval(3);
+        journal.close();
+
+        Map<Long, ChatSession> sessions = recover();
+
+        assertEquals(2, sessions.size());
+        assertEquals(OrderState.WAITING_FOR_COLOR, sessions.get(1L).getState());
+        Order order = sessions.get(1L).getOrder();
+        assertEquals("Notes", order.getDescription());
+        assertEquals("inkjet", order.getPrintType());
+        assertEquals(12, order.getPages());
+        assertEquals(3, order.getColorPages());
+        assertNull(order.getColor());
+        assertNull(order.getCost());
+        assertEquals(Order.Status.ACCEPTED, order.getStatus());
+        assertEquals(OrderState.CONFIRMATION, sessions.get(2L).getState());
+        assertFalse(sessions.containsKey(3L));
+    }
+
+    @Test
+    void ignoresATornRecordAtTheEnd() throws IOException {
+        SessionJournal journal = journal(1 << 20, Duration.ofHours(1));
+        journal.record(draft(1, OrderState.WAITING_FOR_PAGES, "Notes"));
+        journal.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.getFileName().toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        byte[] torn = SessionJournal.encode(draft(2, OrderState.CONFIRMATION, "Thesis"));
+        Files.write(segment, Arrays.copyOf(torn, torn.length / 2), StandardOpenOption.APPEND);
+
+        Map<Long, ChatSession> sessions = recover();
+
+        assertEquals(1, sessions.size());
+        assertTrue(sessions.containsKey(1L));
+    }
+
+    @Test
+    void snapshotsReplaceOlderSegments() throws Exception {
+        ChatSession live = draft(1, OrderState.WAITING_FOR_PAPER, "Notes");
+        SessionJournal journal = journal(64, Duration.ZERO);
+        for (int i = 0; i < 20; i++) {
+            journal.record(draft(100 + i, OrderState.WAITING_FOR_PAGES, "Old " + i));
+            journal.recordRemoval(100 + i);
+        }
+        journal.record(live);
+        journal.snapshotFrom(() -> List.of(live));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!hasSnapshot() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        journal.close();
+
+        assertTrue(hasSnapshot());
+        Map<Long, ChatSession> sessions = recover();
+        assertEquals(1, sessions.size());
+        assertEquals(OrderState.WAITING_FOR_PAPER, sessions.get(1L).getState());
+    }
+
+    private boolean hasSnapshot() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.anyMatch(path -> path.getFileName().toString().endsWith(".snap"));
+        }
+    }
+}
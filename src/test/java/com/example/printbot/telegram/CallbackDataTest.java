@@ -0,0 +1,131 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallbackDataTest {
+
+    @Test
+    void roundTripsEveryField() {
+        long maxId = (1L << 48) - 1;
+        long maxVersion = (1L << 40) - 1;
+        for (CallbackData.Op op : CallbackData.Op.values()) {
+            for (Order.Status status : Order.Status.values()) {
+                String data = CallbackData.encode(op, status, maxId, 42, status, maxVersion);
+                assertEquals(CallbackData.LENGTH, data.length());
+                assertTrue(CallbackData.isEncoded(data));
+                assertEquals(op, CallbackData.op(data));
+                assertEquals(status, CallbackData.status(data));
+                assertEquals(maxId, CallbackData.orderId(data));
+                assertEquals(42, CallbackData.messageId(data));
+                assertEquals(status, CallbackData.expectedStatus(data));
+                assertEquals(maxVersion, CallbackData.orderVersion(data));
+            }
+        }
+        String plain = CallbackData.encode(CallbackData.Op.CONFIRM_ORDER);
+        assertNull(CallbackData.status(plain));
+        assertNull(CallbackData.expectedStatus(plain));
+        assertEquals(0, CallbackData.orderVersion(plain));
+    }
+
+    @Test
+    void isUrlSafeBase64OfTheByteLayout() {
+        String data = CallbackData.encode(CallbackData.Op.UPDATE_STATUS, Order.Status.PAID, 1234, 5678,
+                Order.Status.ACCEPTED, 9);
+        ByteBuffer expected = ByteBuffer.allocate(21)
+                .put((byte) CallbackData.VERSION)
+                .put((byte) CallbackData.Op.UPDATE_STATUS.ordinal())
+                .put((byte) (Order.Status.PAID.ordinal() + 1))
+                .putShort((short) 0).putInt(1234)
+                .putShort((short) 0).putInt(5678)
+                .put((byte) (Order.Status.ACCEPTED.ordinal() + 1))
+                .put((byte) 0).putInt(9);
+        assertArrayEquals(expected.array(), Base64.getUrlDecoder().decode(data));
+    }
+
+    @Test
+    void decodesButtonsOfTheFirstLayout() {
+        ByteBuffer v1 = ByteBuffer.allocate(15)
+                .put((byte) 1)
+                .put((byte) CallbackData.Op.UPDATE_STATUS.ordinal())
+                .put((byte) (Order.Status.PAID.ordinal() + 1))
+                .putShort((short) 0).putInt(1234)
+                .putShort((short) 0).putInt(5678);
+        String data = Base64.getUrlEncoder().encodeToString(v1.array());
+        assertEquals(20, data.length());
+        assertTrue(CallbackData.isEncoded(data));
+        assertEquals(CallbackData.Op.UPDATE_STATUS, CallbackData.op(data));
+        assertEquals(Order.Status.PAID, CallbackData.status(data));
+        assertEquals(1234, CallbackData.orderId(data));
+        assertEquals(5678, CallbackData.messageId(data));
+        assertNull(CallbackData.expectedStatus(data));
+        assertEquals(0, CallbackData.orderVersion(data));
+
+        String current = CallbackData.encode(CallbackData.Op.UPDATE_STATUS, Order.Status.PAID, 1234, 5678);
+        assertFalse(CallbackData.isEncoded(current.substring(0, 20)), "A truncated button is not read as the first layout");
+    }
+
+    @Test
+    void translatesButtonsSentBeforeTheCodec() {
+        String status = CallbackData.fromLegacy("/update_status 1234 COMPLETED 5678");
+        assertTrue(CallbackData.isEncoded(status));
+        assertEquals(CallbackData.Op.UPDATE_STATUS, CallbackData.op(status));
+        assertEquals(Order.Status.COMPLETED, CallbackData.status(status));
+        assertEquals(1234, CallbackData.orderId(status));
+        assertEquals(5678, CallbackData.messageId(status));
+        assertNull(CallbackData.expectedStatus(status));
+
+        String newer = CallbackData.fromLegacy("/my_orders newer 17");
+        assertEquals(CallbackData.Op.ORDERS_NEWER, CallbackData.op(newer));
+        assertEquals(17, CallbackData.orderId(newer));
+        String older = CallbackData.fromLegacy("/my_orders older 3");
+        assertEquals(CallbackData.Op.ORDERS_OLDER, CallbackData.op(older));
+        assertEquals(3, CallbackData.orderId(older));
+
+        assertNull(CallbackData.fromLegacy("/confirm_order"));
+        assertNull(CallbackData.fromLegacy("/update_status 1234 SHIPPED 5678"));
+        assertNull(CallbackData.fromLegacy("/update_status 12x PAID 5678"));
+        assertNull(CallbackData.fromLegacy("/my_orders sideways 3"));
+        assertNull(CallbackData.fromLegacy(null));
+    }
+
+    @Test
+    void rejectsForeignData() {
+        assertFalse(CallbackData.isEncoded("/confirm_order"));
+        assertFalse(CallbackData.isEncoded(null));
+        assertFalse(CallbackData.isEncoded("AAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        assertFalse(CallbackData.isEncoded("AQIDAAAAAAAAAAAAAAAAAAAAAAAA"), "Buttons of the previous layout are not misread");
+        assertFalse(CallbackData.isEncoded("/update_status 12 PA"));
+        assertThrows(IllegalArgumentException.class,
+                () -> CallbackData.encode(CallbackData.Op.UPDATE_STATUS, null, -1, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> CallbackData.encode(CallbackData.Op.UPDATE_STATUS, null, 1, 0, Order.Status.PAID, 1L << 40));
+    }
+
+    @Test
+    void statusKeyboardOffersTheNextStatusesAtTheCurrentVersion() {
+        var row = InlineKeyboards.updateStatus(77, Order.Status.PAID, 5, 9).getKeyboard().get(0);
+        assertEquals(2, row.size());
+        assertEquals(Order.Status.CANCELED, CallbackData.status(row.get(0).getCallbackData()));
+        assertEquals(Order.Status.COMPLETED, CallbackData.status(row.get(1).getCallbackData()));
+        for (var button : row) {
+            String data = button.getCallbackData();
+            assertEquals(CallbackData.Op.UPDATE_STATUS, CallbackData.op(data));
+            assertEquals(77, CallbackData.orderId(data));
+            assertEquals(9, CallbackData.messageId(data));
+            assertEquals(Order.Status.PAID, CallbackData.expectedStatus(data));
+            assertEquals(5, CallbackData.orderVersion(data));
+        }
+        assertTrue(InlineKeyboards.updateStatus(77, Order.Status.COMPLETED, 6, 9).getKeyboard().isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.printbot.telegram;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatLanesTest {
+
+    private final ChatLanes lanes = new ChatLanes(4, Duration.ofSeconds(5));
+
+    @AfterEach
+    void stop() {
+        lanes.shutdown();
+    }
+
+    @Test
+    void runsTheTasksOfAChatOneAtATimeInOrder() {
+        List<Integer> ran = new ArrayList<>();
+        AtomicBoolean running = new AtomicBoolean();
+        AtomicInteger overlaps = new AtomicInteger();
+        for (int i = 0; i < 1_000; i++) {
+            int task = i;
+            assertTrue(lanes.execute(7L, () -> {
+                if (!running.compareAndSet(false, true)) {
+                    overlaps.incrementAndGet();
+                }
+                ran.add(task);
+                running.set(false);
+            }));
+        }
+
+        lanes.shutdown();
+
+        assertEquals(0, overlaps.get());
+        assertEquals(IntStream.range(0, 1_000).boxed().toList(), ran);
+    }
+
+    @Test
+    void runsTheTasksOfOtherChatsWhileOneIsBusy() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        lanes.execute(1L, () -> {
+            started.countDown();
+            await(release);
+            finished.countDown();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        lanes.execute(2L, release::countDown);
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS), "The second chat did not wait for the first");
+    }
+
+    @Test
+    void countsTheRunningTaskAsPending() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.execute(1L, () -> {
+            started.countDown();
+            await(release);
+        });
+        lanes.execute(1L, () -> { });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(2, lanes.pending());
+        assertTrue(lanes.hasPending(chatId -> chatId == 1L));
+        assertFalse(lanes.hasPending(chatId -> chatId == 2L));
+
+        release.countDown();
+        lanes.shutdown();
+        assertEquals(0, lanes.pending());
+        assertFalse(lanes.hasPending(chatId -> true));
+    }
+
+    @Test
+    void runsEveryQueuedTaskBeforeShuttingDown() {
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 200; i++) {
+            lanes.execute((long) i % 10, () -> {
+                sleep();
+                ran.incrementAndGet();
+            });
+        }
+
+        lanes.shutdown();
+
+        assertEquals(200, ran.get());
+        assertFalse(lanes.execute(1L, ran::incrementAndGet), "No task is taken once shut down");
+        assertEquals(200, ran.get());
+        assertEquals(0, lanes.pending());
+    }
+
+    @Test
+    void keepsRunningAChatAfterOneOfItsTasksFails() {
+        AtomicInteger ran = new AtomicInteger();
+        lanes.execute(1L, () -> {
+            throw new IllegalStateException("Task failed");
+        });
+        lanes.execute(1L, ran::incrementAndGet);
+
+        lanes.shutdown();
+
+        assertEquals(1, ran.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
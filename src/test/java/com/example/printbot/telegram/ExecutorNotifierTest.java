@@ -0,0 +1,172 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.model.Order;
+import com.example.printbot.scheduling.OrderScheduler;
+import com.example.printbot.scheduling.PrintExecutor;
+import com.example.printbot.service.PdfPreviewService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExecutorNotifierTest {
+
+    private static final Duration WINDOW = Duration.ofSeconds(30);
+    private static final PrintExecutor EXECUTOR = new PrintExecutor(1, 10, List.of());
+
+    private final MutableClock clock = new MutableClock();
+    private final OutboundMessageQueue outbound = mock(OutboundMessageQueue.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorNotifier notifier = notifier(3);
+    private long ids;
+
+    private ExecutorNotifier notifier(int maxBatch) {
+        PdfPreviewService previews = mock(PdfPreviewService.class);
+        when(previews.preview(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        return new ExecutorNotifier(outbound, previews, WINDOW, maxBatch, registry, clock);
+    }
+
+    @Test
+    void holdsAssignmentsBackUntilTheWindowEnds() {
+        notifier.announce(assignment());
+        verify(outbound, times(1)).enqueue(any(SendMessage.class), eq(OutboundMessageQueue.Priority.HIGH));
+
+        OrderScheduler.Assignment second = assignment();
+        OrderScheduler.Assignment third = assignment();
+        notifier.announce(second);
+        clock.advance(Duration.ofSeconds(10));
+        notifier.announce(third);
+        notifier.flush(false);
+        verify(outbound, times(1)).enqueue(any(SendMessage.class), eq(OutboundMessageQueue.Priority.HIGH));
+
+        clock.advance(WINDOW);
+        notifier.flush(false);
+
+        SendMessage digest = lastMessage(2);
+        assertTrue(digest.getText().startsWith("2 new orders:"));
+        assertArrayEquals(new long[]{second.getOrder().getId(), third.getOrder().getId()},
+                notifier.digestOrders(digestId(digest)));
+        assertCounts(1, 1, 1);
+    }
+
+    @Test
+    void sendsADigestAsSoonAsTheBatchIsFull() {
+        notifier.announce(assignment());
+        notifier.announce(assignment());
+        notifier.announce(assignment());
+        notifier.announce(assignment());
+
+        SendMessage digest = lastMessage(2);
+        assertTrue(digest.getText().startsWith("3 new orders:"));
+        assertEquals(3, notifier.digestOrders(digestId(digest)).length);
+        assertCounts(1, 1, 2);
+
+        clock.advance(WINDOW);
+        notifier.flush(false);
+        verify(outbound, times(2)).enqueue(any(SendMessage.class), eq(OutboundMessageQueue.Priority.HIGH));
+    }
+
+    @Test
+    void sendsAnAssignmentAtOnceAfterAQuietWindow() {
+        notifier.announce(assignment());
+        clock.advance(WINDOW);
+        notifier.announce(assignment());
+
+        verify(outbound, times(2)).enqueue(any(SendMessage.class), eq(OutboundMessageQueue.Priority.HIGH));
+        assertCounts(2, 0, 0);
+    }
+
+    @Test
+    void sendsWhatIsHeldBackWhenStopped() {
+        notifier.announce(assignment());
+        notifier.announce(assignment());
+        notifier.announce(assignment());
+
+        notifier.stop();
+
+        assertTrue(lastMessage(2).getText().startsWith("2 new orders:"));
+        assertCounts(1, 1, 1);
+    }
+
+    @Test
+    void sendsEveryAssignmentAloneWithABatchOfOne() {
+        ExecutorNotifier unbatched = notifier(1);
+        unbatched.announce(assignment());
+        unbatched.announce(assignment());
+
+        verify(outbound, times(2)).enqueue(any(SendMessage.class), eq(OutboundMessageQueue.Priority.HIGH));
+        verify(outbound, never()).enqueue(any(SendMessage.class));
+        assertCounts(2, 0, 0);
+    }
+
+    private OrderScheduler.Assignment assignment() {
+        Order order = new Order("Notes", 10, "laser", "bw", "A4", null, 1L, 10.0, "ORDER_" + ids, Order.Status.ACCEPTED);
+        order.setId(++ids);
+        OrderScheduler.Assignment assignment = mock(OrderScheduler.Assignment.class);
+        when(assignment.getOrder()).thenReturn(order);
+        when(assignment.getExecutor()).thenReturn(EXECUTOR);
+        when(assignment.getEstimatedMillis()).thenReturn(Duration.ofMinutes(5).toMillis());
+        return assignment;
+    }
+
+    private SendMessage lastMessage(int sent) {
+        ArgumentCaptor<SendMessage> messages = ArgumentCaptor.forClass(SendMessage.class);
+        verify(outbound, times(sent)).enqueue(messages.capture(), eq(OutboundMessageQueue.Priority.HIGH));
+        return messages.getValue();
+    }
+
+    private static long digestId(SendMessage digest) {
+        InlineKeyboardMarkup markup = (InlineKeyboardMarkup) digest.getReplyMarkup();
+        return CallbackData.orderId(markup.getKeyboard().get(0).get(0).getCallbackData());
+    }
+
+    private void assertCounts(double single, double digest, double saved) {
+        assertEquals(single, registry.counter("printbot.notifications.sent", "kind", "single").count());
+        assertEquals(digest, registry.counter("printbot.notifications.sent", "kind", "digest").count());
+        assertEquals(saved, registry.get("printbot.notifications.saved").counter().count());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2026-10-17T10:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
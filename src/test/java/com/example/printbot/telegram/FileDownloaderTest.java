@@ -0,0 +1,152 @@
+package com.example.printbot.telegram;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileDownloaderTest {
+
+    private static final byte[] CONTENT = "%PDF-1.4 staged".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path dir;
+
+    private final CountDownLatch stop = new CountDownLatch(1);
+    private ServerSocket server;
+    private volatile boolean complete;
+    private FileDownloader downloader;
+
+    @AfterEach
+    void stopServer() throws IOException {
+        stop.countDown();
+        if (downloader != null) {
+            downloader.shutdown();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void stagesTheFileAndItsHash() throws Exception {
+        complete = true;
+        serve();
+        downloader = downloader(Duration.ofSeconds(5));
+
+        DownloadedFile file = downloader.download("file", "unique").get(5, TimeUnit.SECONDS);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.getPath()));
+        assertEquals(CONTENT.length, file.getSize());
+        assertEquals(64, file.getSha256().length());
+    }
+
+    @Test
+    void givesUpOnAStalledTransferAndFreesItsThread() throws Exception {
+        serve();
+        downloader = downloader(Duration.ofMillis(300));
+
+        CompletableFuture<DownloadedFile> stalled = downloader.download("file", "unique");
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> stalled.get(5, TimeUnit.SECONDS));
+        assertTrue(hasCause(failure, SocketTimeoutException.class), "The download failed on the read timeout");
+        try (Stream<Path> staged = Files.list(dir.resolve("staging"))) {
+            assertEquals(0, staged.count(), "The partial file is deleted");
+        }
+        complete = true;
+        assertArrayEquals(CONTENT, Files.readAllBytes(
+                downloader.download("file", "unique").get(5, TimeUnit.SECONDS).getPath()));
+    }
+
+    private FileDownloader downloader(Duration readTimeout) throws Exception {
+        File telegramFile = mock(File.class);
+        when(telegramFile.getFileUrl(anyString())).thenReturn("http://localhost:" + server.getLocalPort() + "/file");
+        AbsSender sender = mock(AbsSender.class);
+        when(sender.execute(any(GetFile.class))).thenReturn(telegramFile);
+        return new FileDownloader(sender, "token", dir.resolve("staging").toString(), 1, 1, 1 << 20,
+                Duration.ofSeconds(5), readTimeout, new SimpleMeterRegistry());
+    }
+
+    /**
+     * Answers every request with the headers and the first bytes of the file, then the
+     * rest of it only if {@link #complete}; otherwise the connection stays silent.
+     */
+    private void serve() throws IOException {
+        server = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    new Thread(() -> answer(socket)).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "stalling-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void answer(Socket socket) {
+        try (socket) {
+            BufferedReader request = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            while ((line = request.readLine()) != null && !line.isEmpty()) {
+                // Headers are not needed
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + CONTENT.length + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.write(CONTENT, 0, 4);
+            out.flush();
+            if (!complete) {
+                stop.await(10, TimeUnit.SECONDS);
+                return;
+            }
+            out.write(CONTENT, 4, CONTENT.length - 4);
+            out.flush();
+        } catch (IOException e) {
+            // The client gave up
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean hasCause(Throwable failure, Class<? extends Throwable> type) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
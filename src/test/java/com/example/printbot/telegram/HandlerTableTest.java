@@ -0,0 +1,141 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.session.ChatSession;
+import com.example.printbot.session.OrderState;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.lang.invoke.MethodHandles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandlerTableTest {
+
+    @Test
+    void routesCommandsStatesAndCallbacksToTheirMethods() {
+        HandlerTable table = scan(new Handlers());
+        SendMessage message = new SendMessage();
+
+        assertEquals("start", table.command("/start").handle(new Update()).getText());
+        assertEquals("start", table.command("/help").handle(new Update()).getText());
+        assertEquals("pages", table.state(OrderState.WAITING_FOR_PAGES).handle(new Update(), new ChatSession(1L)).getText());
+        assertSame(message, table.callback(CallbackData.encode(CallbackData.Op.CONFIRM_ORDER)).handle(new CallbackQuery(), message));
+        assertSame(message, table.callback("/confirm_order").handle(new CallbackQuery(), message));
+
+        assertNull(table.command("/unknown"));
+        assertNull(table.state(OrderState.WAITING_FOR_DESCRIPTION));
+        assertNull(table.callback(CallbackData.encode(CallbackData.Op.CANCEL_ORDER)));
+        assertNull(table.callback("/cancel_order"));
+    }
+
+    @Test
+    void refusesTwoHandlersForTheSameCommand() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> scan(new DuplicateCommand()));
+        assertTrue(e.getMessage().contains("/start"));
+    }
+
+    @Test
+    void refusesTwoHandlersForTheSameState() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> scan(new DuplicateState()));
+        assertTrue(e.getMessage().contains(OrderState.WAITING_FOR_PAGES.name()));
+    }
+
+    @Test
+    void refusesTwoHandlersForTheSameCallback() {
+        assertThrows(IllegalStateException.class, () -> scan(new DuplicateCallback()));
+        assertThrows(IllegalStateException.class, () -> HandlerTable.builder()
+                .legacyCallback("/confirm_order", (callbackQuery, message) -> message)
+                .legacyCallback("/confirm_order", (callbackQuery, message) -> null));
+    }
+
+    @Test
+    void refusesAHandlerWithTheWrongSignature() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> scan(new WrongSignature()));
+        assertTrue(e.getMessage().contains("pages"));
+    }
+
+    private static HandlerTable scan(Object target) {
+        try {
+            return HandlerTable.scan(target, MethodHandles.privateLookupIn(target.getClass(), MethodHandles.lookup()));
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static SendMessage reply(String text) {
+        SendMessage message = new SendMessage();
+        message.setText(text);
+        return message;
+    }
+
+    private static final class Handlers {
+
+        @Command({"/start", "/help"})
+        private SendMessage start(Update update) {
+            return reply("start");
+        }
+
+        @OnState(OrderState.WAITING_FOR_PAGES)
+        private SendMessage pages(Update update, ChatSession session) {
+            return reply("pages");
+        }
+
+        @OnCallback(value = CallbackData.Op.CONFIRM_ORDER, legacy = "/confirm_order")
+        private SendMessage confirm(CallbackQuery callbackQuery, SendMessage message) {
+            return message;
+        }
+    }
+
+    private static final class DuplicateCommand {
+
+        @Command("/start")
+        private SendMessage start(Update update) {
+            return reply("start");
+        }
+
+        @Command({"/restart", "/start"})
+        private SendMessage restart(Update update) {
+            return reply("restart");
+        }
+    }
+
+    private static final class DuplicateState {
+
+        @OnState(OrderState.WAITING_FOR_PAGES)
+        private SendMessage pages(Update update, ChatSession session) {
+            return reply("pages");
+        }
+
+        @OnState({OrderState.WAITING_FOR_PRINT_TYPE, OrderState.WAITING_FOR_PAGES})
+        private SendMessage printType(Update update, ChatSession session) {
+            return reply("print type");
+        }
+    }
+
+    private static final class DuplicateCallback {
+
+        @OnCallback(CallbackData.Op.CONFIRM_ORDER)
+        private SendMessage confirm(CallbackQuery callbackQuery, SendMessage message) {
+            return message;
+        }
+
+        @OnCallback(CallbackData.Op.CONFIRM_ORDER)
+        private SendMessage confirmAgain(CallbackQuery callbackQuery, SendMessage message) {
+            return message;
+        }
+    }
+
+    private static final class WrongSignature {
+
+        @OnState(OrderState.WAITING_FOR_PAGES)
+        private SendMessage pages(Update update) {
+            return reply("pages");
+        }
+    }
+}
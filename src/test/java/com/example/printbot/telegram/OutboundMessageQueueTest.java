@@ -0,0 +1,59 @@
+package com.example.printbot.telegram;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class OutboundMessageQueueTest {
+
+    @Test
+    void keepsTheOrderOfAChatThroughRetriesAndPriorities() throws Exception {
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        AbsSender sender = mock(AbsSender.class);
+        doAnswer(invocation -> {
+            SendMessage message = invocation.getArgument(0);
+            attempts.add(message.getChatId() + ":" + message.getText());
+            if (message.getText().equals("first") && failedOnce.compareAndSet(false, true)) {
+                throw new TelegramApiException("Connection reset");
+            }
+            return null;
+        }).when(sender).execute(any(SendMessage.class));
+        OutboundMessageQueue queue = new OutboundMessageQueue(sender, 1000, 1000, 1000, 4, 5, new SimpleMeterRegistry());
+        queue.start();
+        try {
+            queue.enqueue(message(1, "first"));
+            queue.enqueue(message(1, "second"));
+            queue.enqueue(message(1, "urgent"), OutboundMessageQueue.Priority.HIGH);
+            queue.enqueue(message(2, "other chat"));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (queue.queueDepth() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, queue.queueDepth());
+            assertEquals(List.of("1:first", "1:first", "1:second", "1:urgent"),
+                    attempts.stream().filter(attempt -> attempt.startsWith("1:")).toList());
+            assertEquals(1, queue.getRetriedCount());
+            assertEquals(4, queue.getSentCount());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    private static SendMessage message(long chatId, String text) {
+        return SendMessage.builder().chatId(Long.toString(chatId)).text(text).build();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.printbot.telegram;
+
+import com.example.printbot.cluster.UpdateRouter;
+import com.example.printbot.session.ChatSessionStore;
+import com.example.printbot.session.SessionJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UpdateDispatcherTest {
+
+    @Test
+    void handlesTheRedeliveryOfAnUpdateDroppedWhileTheQueueWasFull() throws Exception {
+        CountDownLatch firstHeld = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        BotHandler botHandler = mock(BotHandler.class);
+        when(botHandler.handleUpdate(any())).thenAnswer(invocation -> {
+            Update update = invocation.getArgument(0);
+            handled.add(update.getUpdateId());
+            if (update.getUpdateId() == 1) {
+                firstHeld.countDown();
+                releaseFirst.await(5, TimeUnit.SECONDS);
+            }
+            return null;
+        });
+        UpdateRouter router = mock(UpdateRouter.class);
+        when(router.route(any(), anyLong(), any())).thenReturn(UpdateRouter.Route.LOCAL);
+        UpdateDispatcher dispatcher = new UpdateDispatcher(botHandler, mock(OutboundMessageQueue.class),
+                new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1)),
+                new ChatSessionStore(1, 10, Duration.ofMinutes(1), new SessionJournal("", 1 << 20, Duration.ofMinutes(5))),
+                router, new ChatLanes(1, Duration.ofSeconds(5)), 1, Duration.ZERO, new SimpleMeterRegistry());
+        try {
+            assertTrue(dispatcher.dispatch(update(1, 7), 0));
+            assertTrue(firstHeld.await(5, TimeUnit.SECONDS));
+            assertFalse(dispatcher.dispatch(update(2, 8), 0), "No room while the first update is handled");
+
+            releaseFirst.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!dispatcher.dispatch(update(2, 8), 0)) {
+                assertTrue(System.nanoTime() < deadline, "The redelivered update was never queued");
+                Thread.sleep(10);
+            }
+            while (handled.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of(1, 2), handled);
+            assertTrue(dispatcher.dispatch(update(2, 8), 0), "A duplicate is still acknowledged");
+            Thread.sleep(50);
+            assertEquals(List.of(1, 2), handled, "but not handled twice");
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private static Update update(int updateId, long chatId) {
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        Message message = new Message();
+        message.setChat(chat);
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        update.setMessage(message);
+        return update;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.printbot.telegram;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateOffsetTrackerTest {
+
+    @Test
+    void rejectsRedeliveredUpdates() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+
+        assertTrue(tracker.begin(100));
+        assertTrue(tracker.begin(102));
+        assertTrue(tracker.begin(101));
+        assertFalse(tracker.begin(100));
+        assertFalse(tracker.begin(102));
+        assertEquals(2, tracker.getDuplicateCount());
+    }
+
+    @Test
+    void acceptsAForgottenUpdateAgain() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+
+        assertTrue(tracker.begin(100));
+        tracker.forget(100);
+        assertTrue(tracker.begin(100));
+        assertFalse(tracker.begin(100));
+    }
+
+    @Test
+    void processedOffsetStaysBelowADroppedUpdate() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+
+        assertTrue(tracker.begin(100));
+        assertTrue(tracker.begin(101));
+        tracker.forget(100);
+        tracker.complete(101);
+        assertEquals(99, tracker.processedOffset(), "The dropped update is not confirmed");
+
+        assertTrue(tracker.begin(100));
+        assertEquals(99, tracker.processedOffset());
+        tracker.complete(100);
+        assertEquals(101, tracker.processedOffset());
+    }
+
+    @Test
+    void stopsWaitingForADroppedUpdateOnceItLeavesTheWindow() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+
+        assertTrue(tracker.begin(100));
+        tracker.forget(100);
+        assertTrue(tracker.begin(100 + 1024));
+        tracker.complete(100 + 1024);
+
+        assertEquals(100 + 1024, tracker.processedOffset());
+    }
+
+    @Test
+    void doesNotPersistADroppedUpdateAsProcessed() throws Exception {
+        Path file = Files.createTempDirectory("update-offset").resolve("offset");
+        try {
+            UpdateOffsetTracker first = new UpdateOffsetTracker(file.toString(), 1024, Duration.ofHours(1));
+            first.load();
+            first.begin(41);
+            first.complete(41);
+            first.begin(42);
+            first.forget(42);
+            first.close();
+
+            UpdateOffsetTracker second = new UpdateOffsetTracker(file.toString(), 1024, Duration.ofHours(1));
+            second.load();
+
+            assertEquals(41, second.processedOffset());
+            assertTrue(second.begin(42), "The redelivered update is handled");
+            second.close();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+        }
+    }
+
+    @Test
+    void treatsUpdatesOlderThanTheWindowAsSeen() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+
+        assertTrue(tracker.begin(5000));
+        assertFalse(tracker.begin(5000 - 1024));
+        assertTrue(tracker.begin(5000 - 1023));
+        assertTrue(tracker.begin(5000 + 1023));
+        assertFalse(tracker.begin(5000), "Still inside the window");
+        assertFalse(tracker.begin(4999), "Fell out of the window");
+    }
+
+    @Test
+    void processedOffsetWaitsForTheOldestUpdateInFlight() {
+        UpdateOffsetTracker tracker = new UpdateOffsetTracker("", 1024, Duration.ofSeconds(1));
+        tracker.begin(10);
+        tracker.begin(11);
+        tracker.begin(12);
+
+        tracker.complete(11);
+        tracker.complete(12);
+        assertEquals(9, tracker.processedOffset());
+
+        tracker.complete(10);
+        assertEquals(12, tracker.processedOffset());
+    }
+
+    @Test
+    void resumesFromThePersistedOffset() throws Exception {
+        Path file = Files.createTempDirectory("update-offset").resolve("offset");
+        try {
+            UpdateOffsetTracker first = new UpdateOffsetTracker(file.toString(), 1024, Duration.ofHours(1));
+            first.load();
+            first.begin(41);
+            first.begin(42);
+            first.complete(41);
+            first.complete(42);
+            first.close();
+
+            UpdateOffsetTracker second = new UpdateOffsetTracker(file.toString(), 1024, Duration.ofHours(1));
+            second.load();
+
+            assertEquals(42, second.processedOffset());
+            assertFalse(second.begin(42));
+            assertTrue(second.begin(43));
+            second.close();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+        }
+    }
+}
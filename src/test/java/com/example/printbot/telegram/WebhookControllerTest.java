@@ -0,0 +1,53 @@
+package com.example.printbot.telegram;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebhookControllerTest {
+
+    private final UpdateDispatcher dispatcher = mock(UpdateDispatcher.class);
+    private final WebhookController controller = new WebhookController(dispatcher, "s3cret");
+
+    @Test
+    void refusesCallsWithoutTheSecret() {
+        Update update = new Update();
+
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.onUpdate(null, update).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.onUpdate("", update).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.onUpdate("s3cre", update).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.onUpdate("s3cret ", update).getStatusCode());
+        verify(dispatcher, never()).dispatch(any(), anyLong());
+    }
+
+    @Test
+    void asksForARedeliveryWhileTheDispatcherIsFull() {
+        Update update = new Update();
+        when(dispatcher.dispatch(update, 0)).thenReturn(false);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, controller.onUpdate("s3cret", update).getStatusCode());
+    }
+
+    @Test
+    void acceptsAnUpdateTheDispatcherQueued() {
+        Update update = new Update();
+        when(dispatcher.dispatch(update, 0)).thenReturn(true);
+
+        assertEquals(HttpStatus.OK, controller.onUpdate("s3cret", update).getStatusCode());
+        verify(dispatcher).dispatch(update, 0);
+    }
+
+    @Test
+    void refusesToStartWithoutASecret() {
+        assertThrows(IllegalStateException.class, () -> new WebhookController(dispatcher, ""));
+    }
+}
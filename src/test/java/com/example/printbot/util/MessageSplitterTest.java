@@ -0,0 +1,93 @@
+package com.example.printbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.example.printbot.util.MessageSplitter.MAX_MESSAGE_LENGTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSplitterTest {
+
+    @Test
+    void keepsATextThatFitsInOneMessage() {
+        assertEquals(List.of(""), MessageSplitter.split(""));
+        assertEquals(List.of("Your orders:\n1. Thesis"), MessageSplitter.split("Your orders:\n1. Thesis"));
+        String full = "a".repeat(MAX_MESSAGE_LENGTH);
+        assertEquals(List.of(full), MessageSplitter.split(full));
+    }
+
+    @Test
+    void cutsALineLongerThanTheLimitAtTheLimit() {
+        String text = "a".repeat(MAX_MESSAGE_LENGTH) + "b";
+
+        assertEquals(List.of("a".repeat(MAX_MESSAGE_LENGTH), "b"), MessageSplitter.split(text));
+    }
+
+    @Test
+    void splitsAtTheLastLineBreakThatFits() {
+        String first = "a".repeat(3000);
+        String second = "b".repeat(1000);
+        String third = "c".repeat(2000);
+
+        List<String> chunks = MessageSplitter.split(first + "\n" + second + "\n" + third);
+
+        assertEquals(List.of(first + "\n" + second, third), chunks);
+    }
+
+    @Test
+    void splitsAtALineBreakRightAfterTheLimit() {
+        String full = "a".repeat(MAX_MESSAGE_LENGTH);
+
+        assertEquals(List.of(full, "b"), MessageSplitter.split(full + "\nb"));
+        assertEquals(List.of(full, "\nb"), MessageSplitter.split(full + "\n\nb"));
+    }
+
+    @Test
+    void cutsWhenTheOnlyLineBreakIsAtTheStart() {
+        String text = "\n" + "a".repeat(MAX_MESSAGE_LENGTH);
+
+        assertEquals(List.of("\n" + "a".repeat(MAX_MESSAGE_LENGTH - 1), "a"), MessageSplitter.split(text));
+    }
+
+    @Test
+    void countsCharactersNotBytes() {
+        String cyrillic = "ж".repeat(MAX_MESSAGE_LENGTH);
+
+        assertEquals(List.of(cyrillic), MessageSplitter.split(cyrillic));
+    }
+
+    @Test
+    void neverSeparatesASurrogatePair() {
+        String emoji = "📄";
+        String text = "a".repeat(MAX_MESSAGE_LENGTH - 1) + emoji.repeat(3000);
+
+        List<String> chunks = MessageSplitter.split(text);
+
+        assertEquals("a".repeat(MAX_MESSAGE_LENGTH - 1), chunks.get(0));
+        assertEquals(text, String.join("", chunks));
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= MAX_MESSAGE_LENGTH, "Chunk of " + chunk.length() + " characters");
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            assertFalse(Character.isLowSurrogate(chunk.charAt(0)));
+        }
+    }
+
+    @Test
+    void keepsEveryChunkWithinTheLimitOfMixedText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append(i).append(". Заказ ").append("🖨".repeat(i % 7)).append(" x".repeat(i % 40)).append('\n');
+        }
+
+        List<String> chunks = MessageSplitter.split(text.toString(), 300);
+
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 300, "Chunk of " + chunk.length() + " characters");
+        }
+        assertEquals(text.toString(), String.join("\n", chunks));
+    }
+}